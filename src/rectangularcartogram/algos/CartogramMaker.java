@@ -28,6 +28,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import rectangularcartogram.data.Deadline;
 import rectangularcartogram.data.Pair;
 import rectangularcartogram.data.graph.Edge;
 import rectangularcartogram.data.graph.Graph.Labeling;
@@ -69,6 +71,7 @@ public class CartogramMaker {
     public static final double BOUNDARY_WIDTH = 20; // pixels
     public static final double MIN_SEA_SIZE = 5; // pixels
     public static final double EPSILON = 0.001;
+    private static final double CPLEX_NO_TIME_LIMIT = 1e75; // The default value of CPLEX's time limit
 
     public CartogramMaker(Subdivision sub, IloCplex cplex) throws IncorrectGraphException {
         // Check if any of the weights are 0; in that case, we shouldn't even try to make a cartogram
@@ -177,19 +180,41 @@ public class CartogramMaker {
      * @param nIterations
      */
     public void iterate(int nIterations) throws IOException, IloException {
+        iterate(nIterations, Deadline.none());
+    }
+
+    /**
+     * Performs the specified number of double iterations (solving both horizontal and vertical constraints),
+     * stopping early when the deadline expires. CPLEX is given the remaining time as its time limit,
+     * and the cartogram always reflects the best solution found so far.
+     * @param nIterations
+     * @param deadline
+     * @return true if all iterations were performed or no further progress was possible, false if the deadline expired first
+     */
+    public boolean iterate(int nIterations, Deadline deadline) throws IOException, IloException {
         int i = 0;
 
         while (i < 2 * nIterations && !failed) {
-            iterate();
+            if (deadline.isExpired()) {
+                return false;
+            }
+
+            iterate(deadline);
             /*/// DEBUG ////
             updateCartographicError();
             System.out.println("Iteration " + i + ": " + rectangularDual.getAverageCartographicError() + " avg, " + rectangularDual.getMaximumCartographicError() + " max");
             //// DEBUG ///*/
             i++;
         }
+
+        return true;
     }
 
     public void iterate() throws IOException, IloException {
+        iterate(Deadline.none());
+    }
+
+    private void iterate(Deadline deadline) throws IOException, IloException {
         if (!failed) {
             generateIterationConstraints();
 
@@ -206,12 +231,13 @@ public class CartogramMaker {
 
             writeLPFile(tempFile);
 
-            boolean succes = solveLP(tempFile.getCanonicalPath());
+            boolean succes = solveLP(tempFile.getCanonicalPath(), deadline);
 
             if (firstIteration) {
                 firstIteration = false;
             } else {
-                if (!succes) {
+                // A solve that was cut off by the deadline says nothing about whether we can make progress
+                if (!succes && !deadline.isExpired()) {
                     failed = true;
                     //System.out.println("Could not solve LP further.");
                 }
@@ -783,12 +809,15 @@ public class CartogramMaker {
         out.newLine();
     }
 
-    private boolean solveLP(String fileName) throws IloException {
+    private boolean solveLP(String fileName, Deadline deadline) throws IloException {
         if (cplex != null) {
             // Load the new model from the specified file and try to solve it
             cplex.clearModel();
             cplex.importModel(fileName);
 
+            long remaining = deadline.getRemaining(TimeUnit.MILLISECONDS);
+            cplex.setParam(IloCplex.DoubleParam.TiLim, remaining == Long.MAX_VALUE ? CPLEX_NO_TIME_LIMIT : remaining / 1000.0);
+
             if (cplex.solve()) {
                 if (cplex.getCplexStatus() != CplexStatus.Optimal) {
                     System.err.println("Solve returned true. CPLEX status after solving: " + cplex.getCplexStatus());
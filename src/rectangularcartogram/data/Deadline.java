@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectangularcartogram.data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time after which a computation should stop, which can also be
+ * cancelled explicitly from another thread. Long-running computations check
+ * the deadline between steps, and return the best result found so far once it
+ * has expired.
+ */
+public class Deadline {
+
+    private final long expiry; // In System.nanoTime; only meaningful if bounded
+    private final boolean bounded;
+    private volatile boolean cancelled = false;
+
+    private Deadline(long expiry, boolean bounded) {
+        this.expiry = expiry;
+        this.bounded = bounded;
+    }
+
+    /**
+     * Returns a deadline that expires after the given amount of time.
+     *
+     * @param timeout
+     * @param unit
+     * @return
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    /**
+     * Returns a deadline that only expires when it is cancelled.
+     *
+     * @return
+     */
+    public static Deadline none() {
+        return new Deadline(0, false);
+    }
+
+    /**
+     * Makes this deadline expire immediately.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns whether the deadline has passed or was cancelled.
+     *
+     * @return
+     */
+    public boolean isExpired() {
+        return cancelled || (bounded && System.nanoTime() - expiry >= 0);
+    }
+
+    /**
+     * Returns the time left before the deadline, which is 0 if it has expired,
+     * and Long.MAX_VALUE if it only expires when cancelled.
+     *
+     * @param unit
+     * @return
+     */
+    public long getRemaining(TimeUnit unit) {
+        if (cancelled) {
+            return 0;
+        } else if (!bounded) {
+            return Long.MAX_VALUE;
+        } else {
+            return Math.max(0, unit.convert(expiry - System.nanoTime(), TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto;
+
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import rectangularcartogram.data.subdivision.Subdivision;
+import rectangularcartogram.exceptions.IncorrectGraphException;
+import rectocarto.algos.lp.RestrictionTemplate;
+import rectocarto.algos.lp.SubdivisionToBilinearProblem;
+import rectocarto.algos.lp.solver.CLPSolver;
+import rectocarto.algos.lp.solver.WarmStartCLPSolver;
+import rectocarto.data.CartogramSettings;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ProblemExporter;
+import rectocarto.data.lp.Solution;
+
+/**
+ * Compares the wall time of solving the restricted programs of a squared-error
+ * objective in memory with CLP, against the legacy flow of writing each
+ * program to an LP file and importing it into CPLEX.
+ *
+ * Usage: QuadraticBenchmark [subdivision file] [repetitions]
+ */
+public class QuadraticBenchmark {
+
+    public static void main(String[] args) throws IOException, IncorrectGraphException {
+        String file = (args.length > 0 ? args[0] : "exampleData/Subdivisions/World.sub");
+        int repetitions = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+
+        Subdivision sub;
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file))) {
+            sub = Subdivision.load(in);
+        }
+
+        Test.computeDecentREL(sub);
+
+        CartogramSettings settings = new CartogramSettings();
+        settings.objective = CartogramSettings.Objective.AVERAGE_ERROR_SQUARED;
+
+        SubdivisionToBilinearProblem builder = new SubdivisionToBilinearProblem(sub, settings);
+        MinimizationProblem bilinearProgram = builder.getProblem();
+        Solution feasibleSolution = builder.getFeasibleSolution();
+        MinimizationProblem program = new RestrictionTemplate(bilinearProgram, builder.getHorizontalSegmentVariables()).restrict(feasibleSolution);
+
+        System.out.println(program.getConstraints().size() + " constraints, " + program.getVariables().size() + " variables, " + repetitions + " repetitions");
+
+        // CLP, building a new model each time
+        CLPSolver clp = new CLPSolver();
+        Solution solution = clp.solve(program); // Warm up
+        long start = System.nanoTime();
+
+        for (int i = 0; i < repetitions; i++) {
+            solution = clp.solve(program);
+        }
+
+        report("CLP", start, repetitions, solution.getObjectiveValue());
+
+        // CLP, reusing the model and its cuts
+        WarmStartCLPSolver warmClp = new WarmStartCLPSolver();
+        solution = warmClp.solve(program);
+        start = System.nanoTime();
+
+        for (int i = 0; i < repetitions; i++) {
+            solution = warmClp.solve(program);
+        }
+
+        report("CLP (warm start)", start, repetitions, solution.getObjectiveValue());
+
+        // CPLEX through a temporary LP file, as in CartogramMakerCPLEX
+        Path lpFile = Files.createTempFile("temporaryLP", ".lp");
+
+        try {
+            IloCplex cplex = new IloCplex();
+            cplex.setOut(null);
+            double objectiveValue = Double.NaN;
+            start = System.nanoTime();
+
+            for (int i = 0; i < repetitions; i++) {
+                try (BufferedWriter out = Files.newBufferedWriter(lpFile)) {
+                    ProblemExporter.writeLP(out, program);
+                }
+
+                cplex.clearModel();
+                cplex.importModel(lpFile.toString());
+
+                if (cplex.solve()) {
+                    objectiveValue = cplex.getObjValue();
+                }
+            }
+
+            report("CPLEX (LP file)", start, repetitions, objectiveValue);
+            cplex.end();
+        } catch (IloException | UnsatisfiedLinkError ex) {
+            System.out.println("CPLEX (LP file): not available - " + ex.getMessage());
+        } finally {
+            Files.deleteIfExists(lpFile);
+        }
+    }
+
+    private static void report(String method, long start, int repetitions, double objectiveValue) {
+        double millis = (System.nanoTime() - start) / 1e6 / repetitions;
+        System.out.printf("%-18s %10.2f ms per solve, objective %.6f%n", method + ":", millis, objectiveValue);
+    }
+}
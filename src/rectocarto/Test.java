@@ -27,8 +27,10 @@ import rectangularcartogram.data.subdivision.Subdivision;
 import rectangularcartogram.exceptions.IncorrectGraphException;
 import rectangularcartogram.measures.BoundingBoxSeparationMeasure;
 import rectocarto.algos.lp.SubdivisionToBilinearProblem;
-import rectocarto.algos.lp.solver.CLPSolver;
+import rectocarto.algos.lp.solver.DecomposingLinearSolver;
 import rectocarto.algos.lp.solver.IteratedLinearSolver;
+import rectocarto.algos.lp.solver.SolverPool;
+import rectocarto.algos.lp.solver.WarmStartCLPSolver;
 import rectocarto.data.CartogramSettings;
 import rectocarto.data.lp.MinimizationProblem;
 import rectocarto.data.lp.Solution;
@@ -54,13 +56,18 @@ public class Test {
             System.out.println(builder.getFeasibleSolution());
             
             System.out.println("Best solution found:");
-            IteratedLinearSolver solver = new IteratedLinearSolver(new CLPSolver(), 10);
-            Solution sol = solver.solve(p, new Pair<>(builder.getHorizontalSegmentVariables(), builder.getVerticalSegmentVariables()), builder.getFeasibleSolution());
-            System.out.println(sol);
+            try (SolverPool<WarmStartCLPSolver> pool = SolverPool.forCLP(Runtime.getRuntime().availableProcessors())) {
+                IteratedLinearSolver solver = new IteratedLinearSolver(new DecomposingLinearSolver(pool), 10);
+                solver.setProgressListener((iteration, objectiveValue, relativeImprovement, elapsedMillis)
+                        -> System.out.println("Iteration " + iteration + ": objective " + objectiveValue + " (" + elapsedMillis + " ms)"));
+                Solution sol = solver.solve(p, new Pair<>(builder.getHorizontalSegmentVariables(), builder.getVerticalSegmentVariables()), builder.getFeasibleSolution());
+                System.out.println(sol);
+                System.out.println("Stopped after " + solver.getLastIterations() + " iterations: " + solver.getLastStopReason());
+            }
         }
     }
 
-    private static void computeDecentREL(Subdivision sub) throws IncorrectGraphException {
+    static void computeDecentREL(Subdivision sub) throws IncorrectGraphException {
         // Run a genetic algorithm to look for a REL with good Bounding Box separation Distance
         LabelingGA ga = new LabelingGA(sub.getDualGraph(), new BoundingBoxSeparationMeasure(sub));
         LabelingGA.DEBUG_LEVEL = 0;
@@ -22,6 +22,7 @@ import rectangularcartogram.data.Pair;
 import rectocarto.data.lp.Constraint;
 import rectocarto.data.lp.MinimizationProblem;
 import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.VariableRegistry;
 
 public class BilinearToLinear {
 
@@ -37,10 +38,10 @@ public class BilinearToLinear {
      * @return
      * @throws IllegalArgumentException If there is a bilinear term, both of
      * whose variables are not in the variable assignment, or if the given
-     * variable assignment violates any constraints.
+     * variable assignment violates any constraints or explicit bounds.
      */
     public static MinimizationProblem restrictToLinear(MinimizationProblem bilinearProgram, Map<String, Double> variableAssignment) {
-        MinimizationProblem linear = new MinimizationProblem();
+        MinimizationProblem linear = new MinimizationProblem(new VariableRegistry(bilinearProgram.getVariables().size()));
         linear.setObjective(substituteVariables(bilinearProgram.getObjective(), variableAssignment));
 
         for (Constraint c : bilinearProgram.getConstraints()) {
@@ -57,6 +58,8 @@ public class BilinearToLinear {
             }
         }
 
+        checkBounds(bilinearProgram, variableAssignment);
+        linear.copyBounds(bilinearProgram);
         return linear;
     }
 
@@ -73,7 +76,7 @@ public class BilinearToLinear {
             ObjectiveFunction.Linear result = new ObjectiveFunction.Linear();
 
             for (Pair<Double, String> term : ((ObjectiveFunction.Linear) objective).getTerms()) {
-                if (!variableAssignment.containsKey(term.getSecond())) { // If it does, this term is constant and does not need to be optimized
+                if (variableAssignment.get(term.getSecond()) == null) { // Otherwise, this term is constant and does not need to be optimized
                     result.addTerm(term.getFirst(), term.getSecond());
                 }
             }
@@ -83,13 +86,13 @@ public class BilinearToLinear {
             ObjectiveFunction.Quadratic result = new ObjectiveFunction.Quadratic();
 
             for (Pair<Double, String> term : ((ObjectiveFunction.Quadratic) objective).getLinearTerms()) {
-                if (!variableAssignment.containsKey(term.getSecond())) { // If it does, this term is constant and does not need to be optimized
+                if (variableAssignment.get(term.getSecond()) == null) { // Otherwise, this term is constant and does not need to be optimized
                     result.addLinearTerm(term.getFirst(), term.getSecond());
                 }
             }
 
             for (Pair<Double, String> term : ((ObjectiveFunction.Quadratic) objective).getQuadraticTerms()) {
-                if (!variableAssignment.containsKey(term.getSecond())) { // If it does, this term is constant and does not need to be optimized
+                if (variableAssignment.get(term.getSecond()) == null) { // Otherwise, this term is constant and does not need to be optimized
                     result.addQuadraticTerm(term.getFirst(), term.getSecond());
                 }
             }
@@ -116,8 +119,10 @@ public class BilinearToLinear {
         List<Pair<Double, String>> newLinearTerms = new ArrayList<>();
 
         for (Pair<Double, String> term : constraint.getTerms()) {
-            if (variableAssignment.containsKey(term.getSecond())) {
-                newRightHandSide -= term.getFirst() * variableAssignment.get(term.getSecond());
+            Double value = variableAssignment.get(term.getSecond());
+
+            if (value != null) {
+                newRightHandSide -= term.getFirst() * value;
             } else {
                 newLinearTerms.add(new Pair<>(term.getFirst(), term.getSecond()));
             }
@@ -155,8 +160,10 @@ public class BilinearToLinear {
         List<Pair<Double, String>> newLinearTerms = new ArrayList<>();
 
         for (Pair<Double, String> linearTerm : constraint.getLinearTerms()) {
-            if (variableAssignment.containsKey(linearTerm.getSecond())) {
-                newRightHandSide -= linearTerm.getFirst() * variableAssignment.get(linearTerm.getSecond());
+            Double value = variableAssignment.get(linearTerm.getSecond());
+
+            if (value != null) {
+                newRightHandSide -= linearTerm.getFirst() * value;
             } else {
                 newLinearTerms.add(new Pair<>(linearTerm.getFirst(), linearTerm.getSecond()));
             }
@@ -165,16 +172,18 @@ public class BilinearToLinear {
         for (Pair<Double, Pair<String, String>> bilinearTerm : constraint.getBilinearTerms()) {
             String var1 = bilinearTerm.getSecond().getFirst();
             String var2 = bilinearTerm.getSecond().getSecond();
+            Double value1 = variableAssignment.get(var1);
+            Double value2 = variableAssignment.get(var2);
             Pair<Double, String> newTerm = null;
 
-            if (variableAssignment.containsKey(var1)) {
-                if (variableAssignment.containsKey(var2)) {
-                    newRightHandSide -= bilinearTerm.getFirst() * variableAssignment.get(var1) * variableAssignment.get(var2);
+            if (value1 != null) {
+                if (value2 != null) {
+                    newRightHandSide -= bilinearTerm.getFirst() * value1 * value2;
                 } else {
-                    newTerm = new Pair<>(bilinearTerm.getFirst() * variableAssignment.get(var1), var2);
+                    newTerm = new Pair<>(bilinearTerm.getFirst() * value1, var2);
                 }
-            } else if (variableAssignment.containsKey(var2)) {
-                newTerm = new Pair<>(bilinearTerm.getFirst() * variableAssignment.get(var2), var1);
+            } else if (value2 != null) {
+                newTerm = new Pair<>(bilinearTerm.getFirst() * value2, var1);
             } else {
                 throw new IllegalArgumentException("The variable assignment must contain values for at least one of the variables of each bilinear term.");
             }
@@ -209,6 +218,29 @@ public class BilinearToLinear {
         }
     }
 
+    /**
+     * Values of fixed variables are only checked against bounds that were set
+     * explicitly, so that they need not satisfy the default non-negativity.
+     */
+    static boolean hasExplicitBounds(double lower, double upper) {
+        return lower != MinimizationProblem.DEFAULT_LOWER_BOUND || upper != MinimizationProblem.DEFAULT_UPPER_BOUND;
+    }
+
+    private static void checkBounds(MinimizationProblem bilinearProgram, Map<String, Double> variableAssignment) {
+        VariableRegistry variables = bilinearProgram.getVariables();
+        double[] lowerBounds = bilinearProgram.getLowerBounds();
+        double[] upperBounds = bilinearProgram.getUpperBounds();
+
+        for (int id = 0; id < variables.size(); id++) {
+            Double value = variableAssignment.get(variables.getName(id));
+
+            if (value != null && hasExplicitBounds(lowerBounds[id], upperBounds[id])
+                    && (value < lowerBounds[id] || value > upperBounds[id])) {
+                throw new IllegalArgumentException("Variable assignment is infeasible!");
+            }
+        }
+    }
+
     private BilinearToLinear() {
     }
 }
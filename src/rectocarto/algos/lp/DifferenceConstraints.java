@@ -0,0 +1,567 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * Analyzes the difference constraints of a problem: linear constraints of the
+ * form "a x - a y (comparison) c". Together with the constraints in one
+ * variable and the variable bounds, these form a system that can be decided
+ * with longest paths in a graph with an edge y -> x of weight w for each
+ * constraint x >= y + w. This takes a single pass in topological order if the
+ * graph is acyclic, and Bellman-Ford otherwise.
+ *
+ * All other constraints are reported as remaining constraints; they are not
+ * taken into account by the bounds and the feasibility test.
+ */
+public class DifferenceConstraints {
+
+    private static final double EPSILON = 1e-9;
+
+    private final MinimizationProblem problem;
+    private final VariableRegistry variables;
+    private final int n;
+    private final double[] lower, upper;
+    // Edges x_to >= x_from + weight, by source and by target
+    private int nEdges = 0;
+    private int[] edgeFrom = new int[16];
+    private int[] edgeTo = new int[16];
+    private double[] edgeWeight = new double[16];
+    private final int[] outStart, outEdges;
+    private final int[] inStart, inEdges;
+    private final int[] remainingRows;
+    private final boolean[] nonlinear; // Variables that occur in a bilinear term
+    private boolean feasible = true;
+    private boolean acyclic;
+    private Boolean feasibilityDecided = null;
+
+    /**
+     * Analyzes the difference constraints of the given problem.
+     *
+     * @param problem
+     */
+    public DifferenceConstraints(MinimizationProblem problem) {
+        this.problem = problem;
+        variables = problem.getVariables();
+        n = variables.size();
+        lower = Arrays.copyOf(problem.getLowerBounds(), n);
+        upper = Arrays.copyOf(problem.getUpperBounds(), n);
+        nonlinear = new boolean[n];
+
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        remainingRows = classifyRows(matrix);
+
+        // Index the edges
+        outStart = new int[n + 1];
+        inStart = new int[n + 1];
+        outEdges = new int[nEdges];
+        inEdges = new int[nEdges];
+        indexEdges(edgeFrom, outStart, outEdges);
+        indexEdges(edgeTo, inStart, inEdges);
+
+        if (feasible) {
+            propagate();
+        }
+
+        for (int i = 0; i < n && feasible; i++) {
+            if (lower[i] > upper[i] + EPSILON * (1 + Math.abs(upper[i]))) {
+                feasible = false;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the difference constraints, the constraints in one
+     * variable and the bounds can be satisfied together. If not, the problem
+     * is infeasible.
+     *
+     * @return
+     */
+    public boolean isFeasible() {
+        return feasible;
+    }
+
+    /**
+     * Returns whether isFeasible also decides the feasibility of the entire
+     * problem. This is the case if every remaining constraint contains a
+     * linear "slack" variable that can be moved far enough to satisfy it,
+     * without affecting any other constraint that is not satisfied by moving
+     * that variable in the same direction.
+     *
+     * @return
+     */
+    public boolean isFeasibilityDecided() {
+        if (feasibilityDecided == null) {
+            feasibilityDecided = !feasible || remainingRows.length == 0 || allRemainingRowsHaveSlack();
+        }
+
+        return feasibilityDecided;
+    }
+
+    /**
+     * Returns whether the graph of difference constraints contains no cycles.
+     *
+     * @return
+     */
+    public boolean isAcyclic() {
+        return acyclic;
+    }
+
+    public int getNumDifferenceConstraints() {
+        return nEdges;
+    }
+
+    /**
+     * Returns the indices of the constraints that are not difference
+     * constraints or constraints in one variable.
+     *
+     * @return
+     */
+    public int[] getRemainingConstraints() {
+        return remainingRows;
+    }
+
+    /**
+     * Returns the tightest lower bound of each variable implied by the
+     * difference constraints, indexed by id. This is the actual array; it must
+     * not be modified.
+     *
+     * @return
+     */
+    public double[] getLowerBounds() {
+        return lower;
+    }
+
+    /**
+     * Returns the tightest upper bound of each variable implied by the
+     * difference constraints, indexed by id. This is the actual array; it must
+     * not be modified.
+     *
+     * @return
+     */
+    public double[] getUpperBounds() {
+        return upper;
+    }
+
+    public double getLowerBound(String variable) {
+        int id = variables.getId(variable);
+        return (id < 0 ? MinimizationProblem.DEFAULT_LOWER_BOUND : lower[id]);
+    }
+
+    public double getUpperBound(String variable) {
+        int id = variables.getId(variable);
+        return (id < 0 ? MinimizationProblem.DEFAULT_UPPER_BOUND : upper[id]);
+    }
+
+    /**
+     * Returns the solution that sets each variable to its lower bound. This
+     * is the smallest solution in every variable, and hence optimal for
+     * objective functions with only non-negative coefficients. Returns null if
+     * there are remaining constraints, the system is infeasible, or a variable
+     * has no finite lower bound.
+     *
+     * @return
+     */
+    public Solution getLeastSolution() {
+        return extremeSolution(lower);
+    }
+
+    /**
+     * Returns the solution that sets each variable to its upper bound. This
+     * is the largest solution in every variable, and hence optimal for
+     * objective functions with only non-positive coefficients. Returns null if
+     * there are remaining constraints, the system is infeasible, or a variable
+     * has no finite upper bound.
+     *
+     * @return
+     */
+    public Solution getGreatestSolution() {
+        return extremeSolution(upper);
+    }
+
+    private Solution extremeSolution(double[] bounds) {
+        if (!feasible || remainingRows.length > 0) {
+            return null;
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (Double.isInfinite(bounds[i])) {
+                return null;
+            }
+        }
+
+        double[] values = bounds.clone();
+        Solution solution = new Solution(0, variables, values);
+        double objectiveValue = (problem.getObjective() == null ? 0 : problem.getObjective().evaluate(solution));
+        return new Solution(objectiveValue, variables, values);
+    }
+
+    private int[] classifyRows(ConstraintMatrix matrix) {
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+        byte[] comparisons = matrix.getComparisons();
+        double[] rightHandSides = matrix.getRightHandSides();
+
+        boolean[] bilinear = new boolean[matrix.getNumRows()];
+
+        for (int i = 0; i < matrix.getNumBilinearTerms(); i++) {
+            bilinear[matrix.getBilinearRows()[i]] = true;
+            nonlinear[matrix.getBilinearColumns1()[i]] = true;
+            nonlinear[matrix.getBilinearColumns2()[i]] = true;
+        }
+
+        int[] remaining = new int[matrix.getNumRows()];
+        int nRemaining = 0;
+
+        for (int r = 0; r < matrix.getNumRows(); r++) {
+            if (bilinear[r]) {
+                remaining[nRemaining++] = r;
+                continue;
+            }
+
+            // Find the (at most three) non-zero terms
+            int nTerms = 0;
+            int first = -1, second = -1;
+
+            for (int i = rowStart[r]; i < rowStart[r + 1] && nTerms < 3; i++) {
+                if (coefficients[i] != 0) {
+                    if (nTerms == 0) {
+                        first = i;
+                    } else if (nTerms == 1) {
+                        second = i;
+                    }
+
+                    nTerms++;
+                }
+            }
+
+            byte comparison = comparisons[r];
+            double rhs = rightHandSides[r];
+
+            if (nTerms == 0) {
+                double tolerance = EPSILON * (1 + Math.abs(rhs));
+
+                if (comparison == ConstraintMatrix.EQUAL && Math.abs(rhs) > tolerance
+                        || comparison == ConstraintMatrix.GREATER_THAN_OR_EQUAL && rhs > tolerance
+                        || comparison == ConstraintMatrix.LESS_THAN_OR_EQUAL && rhs < -tolerance) {
+                    feasible = false;
+                }
+            } else if (nTerms == 1) {
+                addBound(columns[first], coefficients[first], comparison, rhs);
+            } else if (nTerms == 2 && coefficients[first] == -coefficients[second]) {
+                addDifference(columns[first], columns[second], coefficients[first], comparison, rhs);
+            } else {
+                remaining[nRemaining++] = r;
+            }
+        }
+
+        return Arrays.copyOf(remaining, nRemaining);
+    }
+
+    private void addBound(int x, double a, byte comparison, double rhs) {
+        double bound = rhs / a;
+        boolean lowerBound = (comparison == ConstraintMatrix.GREATER_THAN_OR_EQUAL) == (a > 0);
+
+        if (comparison == ConstraintMatrix.EQUAL || lowerBound) {
+            lower[x] = Math.max(lower[x], bound);
+        }
+
+        if (comparison == ConstraintMatrix.EQUAL || !lowerBound) {
+            upper[x] = Math.min(upper[x], bound);
+        }
+    }
+
+    /**
+     * Adds the constraint a x - a y (comparison) rhs.
+     */
+    private void addDifference(int x, int y, double a, byte comparison, double rhs) {
+        // x - y (comparison') rhs / a
+        double w = rhs / a;
+        boolean greater = (comparison == ConstraintMatrix.GREATER_THAN_OR_EQUAL) == (a > 0);
+
+        if (comparison == ConstraintMatrix.EQUAL || greater) {
+            addEdge(y, x, w); // x >= y + w
+        }
+
+        if (comparison == ConstraintMatrix.EQUAL || !greater) {
+            addEdge(x, y, -w); // y >= x - w
+        }
+    }
+
+    private void addEdge(int from, int to, double weight) {
+        if (nEdges == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, 2 * nEdges);
+            edgeTo = Arrays.copyOf(edgeTo, 2 * nEdges);
+            edgeWeight = Arrays.copyOf(edgeWeight, 2 * nEdges);
+        }
+
+        edgeFrom[nEdges] = from;
+        edgeTo[nEdges] = to;
+        edgeWeight[nEdges] = weight;
+        nEdges++;
+    }
+
+    private void indexEdges(int[] endpoint, int[] start, int[] edges) {
+        for (int e = 0; e < nEdges; e++) {
+            start[endpoint[e] + 1]++;
+        }
+
+        for (int i = 0; i < n; i++) {
+            start[i + 1] += start[i];
+        }
+
+        int[] position = Arrays.copyOf(start, n);
+
+        for (int e = 0; e < nEdges; e++) {
+            edges[position[endpoint[e]]++] = e;
+        }
+    }
+
+    private void propagate() {
+        int[] order = topologicalOrder();
+        acyclic = (order != null);
+
+        if (acyclic) {
+            // Longest paths forward for the lower bounds, backward for the upper bounds
+            for (int u : order) {
+                for (int i = outStart[u]; i < outStart[u + 1]; i++) {
+                    int e = outEdges[i];
+                    lower[edgeTo[e]] = Math.max(lower[edgeTo[e]], lower[u] + edgeWeight[e]);
+                }
+            }
+
+            for (int k = n - 1; k >= 0; k--) {
+                int u = order[k];
+
+                for (int i = outStart[u]; i < outStart[u + 1]; i++) {
+                    int e = outEdges[i];
+                    upper[u] = Math.min(upper[u], upper[edgeTo[e]] - edgeWeight[e]);
+                }
+            }
+        } else {
+            double[] potential = new double[n];
+
+            if (!bellmanFord(potential, true) || !bellmanFord(lower, true) || !bellmanFord(upper, false)) {
+                feasible = false; // Positive cycle
+            }
+        }
+    }
+
+    /**
+     * Returns the variables in topological order of the difference graph, or
+     * null if it has a cycle.
+     */
+    private int[] topologicalOrder() {
+        int[] inDegree = new int[n];
+
+        for (int e = 0; e < nEdges; e++) {
+            inDegree[edgeTo[e]]++;
+        }
+
+        int[] order = new int[n];
+        int head = 0, tail = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (inDegree[i] == 0) {
+                order[tail++] = i;
+            }
+        }
+
+        while (head < tail) {
+            int u = order[head++];
+
+            for (int i = outStart[u]; i < outStart[u + 1]; i++) {
+                int v = edgeTo[outEdges[i]];
+
+                if (--inDegree[v] == 0) {
+                    order[tail++] = v;
+                }
+            }
+        }
+
+        return (tail == n ? order : null);
+    }
+
+    /**
+     * Relaxes the given values along the edges until they are stable: forward
+     * to maximize lower bounds, or backward to minimize upper bounds.
+     *
+     * @return false if there is a positive cycle
+     */
+    private boolean bellmanFord(double[] values, boolean forward) {
+        Queue<Integer> queue = new ArrayDeque<>(n);
+        boolean[] queued = new boolean[n];
+        int[] updates = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            queue.add(i);
+            queued[i] = true;
+        }
+
+        while (!queue.isEmpty()) {
+            int u = queue.remove();
+            queued[u] = false;
+
+            int[] start = (forward ? outStart : inStart);
+            int[] edges = (forward ? outEdges : inEdges);
+
+            for (int i = start[u]; i < start[u + 1]; i++) {
+                int e = edges[i];
+                int v = (forward ? edgeTo[e] : edgeFrom[e]);
+                double candidate = (forward ? values[u] + edgeWeight[e] : values[u] - edgeWeight[e]);
+                double margin = (Double.isInfinite(values[v]) ? 0 : EPSILON * (1 + Math.abs(values[v])));
+
+                if (forward ? candidate > values[v] + margin : candidate < values[v] - margin) {
+                    values[v] = candidate;
+
+                    if (++updates[v] > n) {
+                        return false;
+                    }
+
+                    if (!queued[v]) {
+                        queue.add(v);
+                        queued[v] = true;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private boolean allRemainingRowsHaveSlack() {
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+        byte[] comparisons = matrix.getComparisons();
+
+        // Which variables occur in remaining rows
+        boolean[] inRemaining = new boolean[n];
+
+        for (int r : remainingRows) {
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                if (coefficients[i] != 0) {
+                    inRemaining[columns[i]] = true;
+                }
+            }
+        }
+
+        // A variable can be increased (decreased) freely if it is unbounded in that direction and does not occur in
+        // remaining rows, and the same holds for all variables that have to increase (decrease) along with it
+        boolean[] freeUp = freelyMovable(inRemaining, true);
+        boolean[] freeDown = freelyMovable(inRemaining, false);
+
+        // For each variable and direction, whether moving it that way helps every remaining row it occurs in
+        boolean[] helpsUp = new boolean[n];
+        boolean[] helpsDown = new boolean[n];
+
+        for (int i = 0; i < n; i++) {
+            helpsUp[i] = !nonlinear[i] && upper[i] == Double.POSITIVE_INFINITY && successorsFree(i, freeUp, true);
+            helpsDown[i] = !nonlinear[i] && lower[i] == Double.NEGATIVE_INFINITY && successorsFree(i, freeDown, false);
+        }
+
+        for (int r : remainingRows) {
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                double a = coefficients[i];
+
+                if (a == 0) {
+                    continue;
+                }
+
+                boolean up = (comparisons[r] == ConstraintMatrix.GREATER_THAN_OR_EQUAL) == (a > 0);
+
+                if (comparisons[r] == ConstraintMatrix.EQUAL) {
+                    helpsUp[columns[i]] = false;
+                    helpsDown[columns[i]] = false;
+                } else if (up) {
+                    helpsDown[columns[i]] = false;
+                } else {
+                    helpsUp[columns[i]] = false;
+                }
+            }
+        }
+
+        for (int r : remainingRows) {
+            boolean hasSlack = false;
+
+            for (int i = rowStart[r]; i < rowStart[r + 1] && !hasSlack; i++) {
+                hasSlack = coefficients[i] != 0 && (helpsUp[columns[i]] || helpsDown[columns[i]]);
+            }
+
+            if (!hasSlack) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean[] freelyMovable(boolean[] inRemaining, boolean up) {
+        boolean[] free = new boolean[n];
+        Queue<Integer> removed = new ArrayDeque<>();
+
+        for (int i = 0; i < n; i++) {
+            free[i] = !inRemaining[i] && !nonlinear[i] && (up ? upper[i] == Double.POSITIVE_INFINITY : lower[i] == Double.NEGATIVE_INFINITY);
+
+            if (!free[i]) {
+                removed.add(i);
+            }
+        }
+
+        // A variable is not free if one of the variables it pushes is not free
+        int[] start = (up ? inStart : outStart);
+        int[] edges = (up ? inEdges : outEdges);
+
+        while (!removed.isEmpty()) {
+            int v = removed.remove();
+
+            for (int i = start[v]; i < start[v + 1]; i++) {
+                int u = (up ? edgeFrom[edges[i]] : edgeTo[edges[i]]);
+
+                if (free[u]) {
+                    free[u] = false;
+                    removed.add(u);
+                }
+            }
+        }
+
+        return free;
+    }
+
+    private boolean successorsFree(int u, boolean[] free, boolean up) {
+        int[] start = (up ? outStart : inStart);
+        int[] edges = (up ? outEdges : inEdges);
+
+        for (int i = start[u]; i < start[u + 1]; i++) {
+            int v = (up ? edgeTo[edges[i]] : edgeFrom[edges[i]]);
+
+            if (v != u && !free[v]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import rectangularcartogram.algos.RectangularDualDrawer;
+import rectangularcartogram.data.Deadline;
 import rectangularcartogram.data.Pair;
 import rectangularcartogram.data.graph.Vertex;
 import rectangularcartogram.data.subdivision.Subdivision;
@@ -69,46 +70,63 @@ class FeasibleSolutionBuilder {
     }
 
     static Solution constructFeasibleSolution3(Subdivision sub, CartogramSettings settings, MinimizationProblem problem, Map<SubdivisionFace, SegmentIdentification.FaceSegments> segments, Map<String, Map<String, SubdivisionToBilinearProblem.PredecessorRelation>> predecessors, Map<String, Set<String>> successors, LinearSolver solver) {
+        return constructFeasibleSolution3(sub, settings, problem, segments, predecessors, successors, solver, Deadline.none()).getFirst();
+    }
+
+    /**
+     * Searches for the largest minimum feature size that still admits a
+     * feasible solution, until the given deadline. The deadline is checked
+     * before each probe; once it has expired, the solution for the largest
+     * feature size found to be feasible so far is returned. A probe for which
+     * the solver returns null (it failed, or hit a limit) counts as
+     * infeasible, so the search only settles on sizes known to be feasible.
+     *
+     * @return the solution, which is null if the solver failed on the final
+     * completion, and whether the search converged before the deadline
+     */
+    static Pair<Solution, Boolean> constructFeasibleSolution3(Subdivision sub, CartogramSettings settings, MinimizationProblem problem, Map<SubdivisionFace, SegmentIdentification.FaceSegments> segments, Map<String, Map<String, SubdivisionToBilinearProblem.PredecessorRelation>> predecessors, Map<String, Set<String>> successors, LinearSolver solver, Deadline deadline) {
         Set<String> horizontalSegments = sub.getTopLevelFaces().stream()
                 .filter(f -> !f.isBoundary())
                 .map(f -> segments.get(f))
                 .flatMap(s -> Stream.of(s.top, s.bottom))
                 .collect(Collectors.toSet());
 
-        Solution sol = buildHorizontalGuess(horizontalSegments, predecessors, successors, sub, settings, problem, segments, solver);
+        // Every probe fixes the same variables, so the restricted program only needs to be compiled once
+        RestrictionTemplate template = new RestrictionTemplate(problem, horizontalSegments);
+        Solution sol = buildHorizontalGuess(horizontalSegments, predecessors, successors, sub, settings, template, segments, solver);
 
-        if (sol != Solution.INFEASIBLE) {
-            return sol;
+        if (sol != null && sol != Solution.INFEASIBLE) {
+            return new Pair<>(sol, true);
         }
 
         // Perform an exponential search for a large value of minFeature that works
-        double upperBound = settings.minimumFeatureSize;
-        sol = buildHorizontalSolution(upperBound, horizontalSegments, predecessors, successors, sub, settings, problem, segments, solver);
+        double lowerBound = settings.minimumFeatureSize; // The largest value known to be feasible
 
-        if (sol == Solution.INFEASIBLE) {
+        if (!isFeasible(computeHorizontalSegments(lowerBound, horizontalSegments, predecessors, successors, settings), sub, settings, template, segments, solver)) {
             // Infeasible even with the minimum
-            return Solution.INFEASIBLE;
+            return new Pair<>(Solution.INFEASIBLE, true);
         }
 
-        do {
+        double upperBound = 2 * lowerBound;
+
+        while (!deadline.isExpired() && isFeasible(computeHorizontalSegments(upperBound, horizontalSegments, predecessors, successors, settings), sub, settings, template, segments, solver)) {
+            lowerBound = upperBound;
             upperBound *= 2;
-            sol = buildHorizontalSolution(upperBound, horizontalSegments, predecessors, successors, sub, settings, problem, segments, solver);
-        } while (sol != Solution.INFEASIBLE);
+        }
 
         // Binary search the remaining interval
-        double lowerBound = upperBound / 2;
-
-        while (upperBound - lowerBound >= settings.minimumFeatureSize) {
+        while (!deadline.isExpired() && upperBound - lowerBound >= settings.minimumFeatureSize) {
             double mid = lowerBound + (upperBound - lowerBound) / 2;
 
-            if (buildHorizontalSolution(mid, horizontalSegments, predecessors, successors, sub, settings, problem, segments, solver) == Solution.INFEASIBLE) {
-                upperBound = mid;
-            } else {
+            if (isFeasible(computeHorizontalSegments(mid, horizontalSegments, predecessors, successors, settings), sub, settings, template, segments, solver)) {
                 lowerBound = mid;
+            } else {
+                upperBound = mid;
             }
         }
 
-        return buildHorizontalSolution(lowerBound, horizontalSegments, predecessors, successors, sub, settings, problem, segments, solver);
+        boolean converged = upperBound - lowerBound < settings.minimumFeatureSize;
+        return new Pair<>(completeSolutionFromHorizontalSegments(computeHorizontalSegments(lowerBound, horizontalSegments, predecessors, successors, settings), sub, settings, template, segments, solver), converged);
     }
 
     /**
@@ -128,7 +146,7 @@ class FeasibleSolutionBuilder {
             Map<String, Set<String>> successors,
             Subdivision sub,
             CartogramSettings settings,
-            MinimizationProblem problem,
+            RestrictionTemplate template,
             Map<SubdivisionFace, SegmentIdentification.FaceSegments> segments,
             LinearSolver solver) {
         Map<String, Integer> unprocessedPredecessors = new HashMap<>(horizontalSegments.size() * 2);
@@ -190,19 +208,19 @@ class FeasibleSolutionBuilder {
             variables.put(segment, value);
         }
 
-        return completeSolutionFromHorizontalSegments(variables, sub, settings, problem, segments, solver);
+        return completeSolutionFromHorizontalSegments(variables, sub, settings, template, segments, solver);
     }
 
-    private static Solution buildHorizontalSolution(
+    /**
+     * Places each horizontal segment as low as possible, keeping the given
+     * distance between a segment and its predecessors.
+     */
+    private static Map<String, Double> computeHorizontalSegments(
             double featureSize,
             Set<String> horizontalSegments,
             Map<String, Map<String, SubdivisionToBilinearProblem.PredecessorRelation>> predecessors,
             Map<String, Set<String>> successors,
-            Subdivision sub,
-            CartogramSettings settings,
-            MinimizationProblem problem,
-            Map<SubdivisionFace, SegmentIdentification.FaceSegments> segments,
-            LinearSolver solver) {
+            CartogramSettings settings) {
         Map<String, Integer> unprocessedPredecessors = new HashMap<>(horizontalSegments.size() * 2);
         Queue<String> frontier = new ArrayDeque<>();
 
@@ -254,17 +272,46 @@ class FeasibleSolutionBuilder {
             }
         }
 
-        return completeSolutionFromHorizontalSegments(variables, sub, settings, problem, segments, solver);
+        return variables;
     }
 
-    private static Solution completeSolutionFromHorizontalSegments(Map<String, Double> horizontalSegments, Subdivision sub, CartogramSettings settings, MinimizationProblem problem, Map<SubdivisionFace, SegmentIdentification.FaceSegments> segments, LinearSolver solver) {
+    /**
+     * Returns whether the given horizontal segments can be completed to a
+     * feasible solution. This is usually decided by the difference constraints
+     * of the restricted problem alone, without solving it.
+     */
+    private static boolean isFeasible(Map<String, Double> horizontalSegments, Subdivision sub, CartogramSettings settings, RestrictionTemplate template, Map<SubdivisionFace, SegmentIdentification.FaceSegments> segments, LinearSolver solver) {
+        Map<String, Double> variables = new HashMap<>(horizontalSegments);
+
+        scaleHorizontalSegments(variables, sub, settings, segments);
+
+        MinimizationProblem restricted = template.restrict(variables);
+        DifferenceConstraints differences = new DifferenceConstraints(restricted);
+
+        if (differences.isFeasibilityDecided()) {
+            return differences.isFeasible();
+        }
+
+        Solution sol = solver.solve(restricted);
+        return sol != null && !sol.isInfeasible();
+    }
+
+    /**
+     * Completes the given horizontal segments to a solution.
+     *
+     * @return the solution, Solution.INFEASIBLE if there is none, or null if
+     * the solver failed
+     */
+    private static Solution completeSolutionFromHorizontalSegments(Map<String, Double> horizontalSegments, Subdivision sub, CartogramSettings settings, RestrictionTemplate template, Map<SubdivisionFace, SegmentIdentification.FaceSegments> segments, LinearSolver solver) {
         Map<String, Double> variables = new HashMap<>(horizontalSegments);
         
         scaleHorizontalSegments(variables, sub, settings, segments);
 
-        Solution sol = solver.solve(BilinearToLinear.restrictToLinear(problem, variables));
+        Solution sol = solver.solve(template.restrict(variables));
 
-        if (sol.isInfeasible()) {
+        if (sol == null) {
+            return null;
+        } else if (sol.isInfeasible()) {
             return Solution.INFEASIBLE;
         }
 
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * The McCormick relaxation of a bilinear program: a linear program in which
+ * each distinct product x y is replaced by a new variable w, together with
+ * the four constraints
+ * <pre>
+ *     w &gt;= yL x + xL y - xL yL
+ *     w &gt;= yU x + xU y - xU yU
+ *     w &lt;= yL x + xU y - xU yL
+ *     w &lt;= yU x + xL y - xL yU
+ * </pre>
+ * that form the convex hull of w = x y on the box [xL, xU] x [yL, yU]. The
+ * relaxation is exact if x or y is fixed, and gets tighter as the boxes
+ * shrink, which is what spatial branch-and-bound relies on.
+ *
+ * Like RestrictionTemplate, the linear program is built once; each call to
+ * relax only writes the bounds and the coefficients and right hand sides of
+ * the envelope constraints into the same linear program. The variables of the
+ * bilinear program keep their ids in the linear program, and the product
+ * variables come after them.
+ */
+public class McCormickRelaxation {
+
+    private final VariableRegistry variables; // Of the bilinear program
+    private final MinimizationProblem linearProgram;
+    private final int nProducts;
+    private final int[] productIds1; // Variables of each product, as ids in the bilinear program
+    private final int[] productIds2;
+    private final int[] auxiliaryIds; // Id of each product variable in the linear program
+    private final int envelopeStart; // Row of the first envelope constraint
+    private final Constraint.Linear[] envelopes; // Four per product
+    private final List<Pair<Double, String>> termsX; // For each envelope, the term of x, y, or of x if x = y
+    private final List<Pair<Double, String>> termsY; // null if x = y
+    private final int[] positionsX; // Positions of these terms in the constraint matrix
+    private final int[] positionsY;
+
+    /**
+     * Builds the structure of the relaxation of the given bilinear program.
+     * The objective function is shared with the bilinear program, and must not
+     * contain products.
+     *
+     * @param bilinearProgram
+     */
+    public McCormickRelaxation(MinimizationProblem bilinearProgram) {
+        variables = bilinearProgram.getVariables();
+        linearProgram = new MinimizationProblem(new VariableRegistry(variables));
+        linearProgram.setObjective(bilinearProgram.getObjective());
+
+        // Replace the products in each constraint
+        Map<Pair<Integer, Integer>, Integer> productIndex = new HashMap<>();
+        List<Integer> ids1 = new ArrayList<>();
+        List<Integer> ids2 = new ArrayList<>();
+
+        for (Constraint c : bilinearProgram.getConstraints()) {
+            if (c instanceof Constraint.Linear) {
+                linearProgram.addConstraint(c);
+            } else if (c instanceof Constraint.Bilinear) {
+                Constraint.Bilinear bilinear = (Constraint.Bilinear) c;
+                Constraint.Linear linear = new Constraint.Linear(bilinear.getLinearTerms(), c.getComparison(), c.getRightHandSide());
+
+                for (Pair<Double, Pair<String, String>> term : bilinear.getBilinearTerms()) {
+                    int id1 = variables.getId(term.getSecond().getFirst());
+                    int id2 = variables.getId(term.getSecond().getSecond());
+                    Pair<Integer, Integer> key = new Pair<>(Math.min(id1, id2), Math.max(id1, id2));
+                    Integer index = productIndex.get(key);
+
+                    if (index == null) {
+                        index = ids1.size();
+                        productIndex.put(key, index);
+                        ids1.add(key.getFirst());
+                        ids2.add(key.getSecond());
+                    }
+
+                    linear.addTerm(term.getFirst(), getProductName(key.getFirst(), key.getSecond()));
+                }
+
+                linearProgram.addConstraint(linear);
+            } else {
+                throw new IllegalArgumentException("Unexpected constraint type: " + c);
+            }
+        }
+
+        nProducts = ids1.size();
+        productIds1 = ids1.stream().mapToInt(Integer::intValue).toArray();
+        productIds2 = ids2.stream().mapToInt(Integer::intValue).toArray();
+        auxiliaryIds = new int[nProducts];
+
+        // Add the envelopes, with placeholder coefficients
+        envelopeStart = linearProgram.getConstraints().size();
+        envelopes = new Constraint.Linear[4 * nProducts];
+        termsX = new ArrayList<>(4 * nProducts);
+        termsY = new ArrayList<>(4 * nProducts);
+
+        for (int p = 0; p < nProducts; p++) {
+            String product = getProductName(productIds1[p], productIds2[p]);
+            String x = variables.getName(productIds1[p]);
+            String y = variables.getName(productIds2[p]);
+
+            for (int k = 0; k < 4; k++) {
+                Constraint.Linear envelope = new Constraint.Linear(k < 2 ? Constraint.Comparison.GREATER_THAN_OR_EQUAL : Constraint.Comparison.LESS_THAN_OR_EQUAL, 0);
+                envelope.addTerm(1, product);
+                envelope.addTerm(0, x);
+                termsX.add(envelope.getTerms().get(1));
+
+                if (productIds1[p] != productIds2[p]) {
+                    envelope.addTerm(0, y);
+                    termsY.add(envelope.getTerms().get(2));
+                } else {
+                    termsY.add(null);
+                }
+
+                envelopes[4 * p + k] = envelope;
+                linearProgram.addConstraint(envelope);
+            }
+
+            auxiliaryIds[p] = linearProgram.getVariables().getId(product);
+            linearProgram.setBounds(product, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        }
+
+        // Find the positions of the envelope terms in the matrix
+        ConstraintMatrix matrix = linearProgram.getConstraintMatrix();
+        positionsX = new int[4 * nProducts];
+        positionsY = new int[4 * nProducts];
+
+        for (int e = 0; e < envelopes.length; e++) {
+            int p = e / 4;
+            positionsX[e] = findPosition(matrix, envelopeStart + e, productIds1[p]);
+            positionsY[e] = findPosition(matrix, envelopeStart + e, productIds2[p]);
+        }
+    }
+
+    private String getProductName(int id1, int id2) {
+        return variables.getName(id1) + "*" + variables.getName(id2);
+    }
+
+    private static int findPosition(ConstraintMatrix matrix, int row, int column) {
+        for (int i = matrix.getRowStart()[row]; i < matrix.getRowStart()[row + 1]; i++) {
+            if (matrix.getColumns()[i] == column) {
+                return i;
+            }
+        }
+
+        throw new InternalError("The linear program does not match its template.");
+    }
+
+    /**
+     * Returns the relaxation for the given bounds on the variables of the
+     * bilinear program. This is always the same MinimizationProblem instance,
+     * which is updated in place, so its contents are only valid until the
+     * next call to this method.
+     *
+     * @param lower lower bounds, indexed by id in the bilinear program
+     * @param upper upper bounds, indexed by id in the bilinear program
+     * @return
+     * @throws IllegalArgumentException If a variable of a product has an
+     * infinite bound.
+     */
+    public MinimizationProblem relax(double[] lower, double[] upper) {
+        for (int id = 0; id < variables.size(); id++) {
+            linearProgram.setBounds(variables.getName(id), lower[id], upper[id]);
+        }
+
+        ConstraintMatrix matrix = linearProgram.getConstraintMatrix();
+
+        for (int p = 0; p < nProducts; p++) {
+            int x = productIds1[p];
+            int y = productIds2[p];
+
+            if (Double.isInfinite(lower[x]) || Double.isInfinite(upper[x]) || Double.isInfinite(lower[y]) || Double.isInfinite(upper[y])) {
+                throw new IllegalArgumentException("The variables of each product must have finite bounds.");
+            }
+
+            // w - yL x - xL y >= -xL yL
+            setEnvelope(matrix, 4 * p, -lower[y], -lower[x], -lower[x] * lower[y]);
+            // w - yU x - xU y >= -xU yU
+            setEnvelope(matrix, 4 * p + 1, -upper[y], -upper[x], -upper[x] * upper[y]);
+            // w - yL x - xU y <= -xU yL
+            setEnvelope(matrix, 4 * p + 2, -lower[y], -upper[x], -upper[x] * lower[y]);
+            // w - yU x - xL y <= -xL yU
+            setEnvelope(matrix, 4 * p + 3, -upper[y], -lower[x], -lower[x] * upper[y]);
+        }
+
+        return linearProgram;
+    }
+
+    private void setEnvelope(ConstraintMatrix matrix, int e, double coefficientX, double coefficientY, double rightHandSide) {
+        if (termsY.get(e) == null) {
+            // x = y, so both terms were collected into one
+            termsX.get(e).setFirst(coefficientX + coefficientY);
+            matrix.setCoefficient(positionsX[e], coefficientX + coefficientY);
+        } else {
+            termsX.get(e).setFirst(coefficientX);
+            matrix.setCoefficient(positionsX[e], coefficientX);
+            termsY.get(e).setFirst(coefficientY);
+            matrix.setCoefficient(positionsY[e], coefficientY);
+        }
+
+        envelopes[e].setRightHandSide(rightHandSide);
+        matrix.setRightHandSide(envelopeStart + e, rightHandSide);
+    }
+
+    public int getNumProducts() {
+        return nProducts;
+    }
+
+    /**
+     * Returns the id, in the bilinear program, of the first variable of the
+     * given product.
+     *
+     * @param product
+     * @return
+     */
+    public int getFirstVariable(int product) {
+        return productIds1[product];
+    }
+
+    /**
+     * Returns the id, in the bilinear program, of the second variable of the
+     * given product.
+     *
+     * @param product
+     * @return
+     */
+    public int getSecondVariable(int product) {
+        return productIds2[product];
+    }
+
+    /**
+     * Returns the id, in the linear program, of the variable that replaces the
+     * given product.
+     *
+     * @param product
+     * @return
+     */
+    public int getProductVariable(int product) {
+        return auxiliaryIds[product];
+    }
+
+    /**
+     * Returns the values of a solution of the relaxation as an array indexed
+     * by id in the linear program.
+     *
+     * @param relaxedSolution
+     * @return
+     */
+    public double[] getValues(Solution relaxedSolution) {
+        VariableRegistry linearVariables = linearProgram.getVariables();
+        double[] values = new double[linearVariables.size()];
+
+        if (relaxedSolution.getVariables() == linearVariables) {
+            for (int id = 0; id < values.length; id++) {
+                if (relaxedSolution.isAssigned(id)) {
+                    values[id] = relaxedSolution.getValue(id);
+                }
+            }
+        } else {
+            for (int id = 0; id < values.length; id++) {
+                Double value = relaxedSolution.get(linearVariables.getName(id));
+
+                if (value != null) {
+                    values[id] = value;
+                }
+            }
+        }
+
+        return values;
+    }
+}
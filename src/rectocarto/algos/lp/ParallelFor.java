@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs an action over a range of indices in parallel, by splitting the range
+ * in halves until the parts are small enough to run directly.
+ */
+public class ParallelFor {
+
+    /**
+     * An action on the indices from (inclusive) to to (exclusive).
+     */
+    public interface RangeAction {
+
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the action on the indices 0 to size, in parts of at most blockSize
+     * indices. Small ranges, and pools without parallelism, run on the
+     * calling thread.
+     *
+     * @param pool
+     * @param size
+     * @param blockSize
+     * @param action
+     */
+    public static void run(ForkJoinPool pool, int size, int blockSize, RangeAction action) {
+        if (size <= blockSize || pool.getParallelism() == 1) {
+            action.run(0, size);
+        } else {
+            pool.invoke(new RangeTask(action, blockSize, 0, size));
+        }
+    }
+
+    private ParallelFor() {
+    }
+
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeAction action;
+        private final int blockSize;
+        private final int from, to;
+
+        RangeTask(RangeAction action, int blockSize, int from, int to) {
+            this.action = action;
+            this.blockSize = blockSize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= blockSize) {
+                action.run(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(action, blockSize, from, middle), new RangeTask(action, blockSize, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,874 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * Reduces a problem before it is passed to a solver, and reconstructs a
+ * solution of the original problem from a solution of the reduced problem.
+ * This generalizes the reductions in ProblemReduction.
+ *
+ * Singleton rows become bounds of the reduced problem. Bilinear constraints
+ * are kept, but fixed values are substituted into them.
+ */
+public class Presolve {
+
+    public enum Pass {
+
+        /**
+         * Constraints in one variable are turned into bounds.
+         */
+        SINGLETON_ROWS,
+        /**
+         * Variables whose lower and upper bound coincide are substituted.
+         */
+        FIXED_COLUMNS,
+        /**
+         * Bounds are propagated through constraints in two variables, and
+         * constraints that always hold within the bounds are removed.
+         */
+        BOUND_TIGHTENING,
+        /**
+         * Constraints that are implied by a constraint with the same left hand
+         * side are removed.
+         */
+        DOMINATED_ROWS,
+        /**
+         * Variables that appear in no constraint are set to their optimal
+         * bound.
+         */
+        EMPTY_COLUMNS
+    }
+
+    private static final int MAX_ROUNDS = 20;
+    private static final double EPSILON = 1e-9;
+
+    // The original problem
+    private final VariableRegistry variables;
+    private final int nColumns;
+    private final int nOriginalRows;
+    // Working state
+    private final List<Row> rows;
+    private final int[][] occurrences; // The rows each column appears in
+    private final double[] lower, upper; // All known bounds, including implied ones
+    private final double[] explicitLower, explicitUpper; // Bounds that will be part of the reduced problem
+    private final double[] linearObjective, quadraticObjective;
+    private final boolean quadratic;
+    private double objectiveOffset = 0;
+    private boolean infeasible = false;
+    // Postsolve stack: removed columns and their values, in order of removal
+    private final boolean[] removed;
+    private final List<Integer> removedColumns = new ArrayList<>();
+    private final List<Double> removedValues = new ArrayList<>();
+    // Result
+    private final int[] rowsRemoved = new int[Pass.values().length];
+    private final int[] columnsRemoved = new int[Pass.values().length];
+    private MinimizationProblem reducedProblem;
+    private int[] keptColumns; // For each variable of the reduced problem, its id in the original problem
+
+    /**
+     * Runs all presolve passes on the given problem. The problem itself is not
+     * modified.
+     *
+     * @param problem
+     * @return
+     */
+    public static Presolve presolve(MinimizationProblem problem) {
+        Presolve presolve = new Presolve(problem);
+        presolve.run();
+
+        if (!presolve.infeasible) {
+            presolve.buildReducedProblem(problem.getObjective());
+        }
+
+        return presolve;
+    }
+
+    private Presolve(MinimizationProblem problem) {
+        variables = problem.getVariables();
+        nColumns = variables.size();
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        nOriginalRows = matrix.getNumRows();
+
+        lower = Arrays.copyOf(problem.getLowerBounds(), nColumns);
+        upper = Arrays.copyOf(problem.getUpperBounds(), nColumns);
+        explicitLower = lower.clone();
+        explicitUpper = upper.clone();
+
+        for (int c = 0; c < nColumns; c++) {
+            checkBounds(c);
+        }
+        removed = new boolean[nColumns];
+
+        // Objective
+        linearObjective = new double[nColumns];
+        quadraticObjective = new double[nColumns];
+        quadratic = problem.getObjective() instanceof ObjectiveFunction.Quadratic;
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Linear) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Linear) problem.getObjective()).getTerms()) {
+                linearObjective[variables.getId(term.getSecond())] += term.getFirst();
+            }
+        } else if (quadratic) {
+            ObjectiveFunction.Quadratic objective = (ObjectiveFunction.Quadratic) problem.getObjective();
+
+            for (Pair<Double, String> term : objective.getLinearTerms()) {
+                linearObjective[variables.getId(term.getSecond())] += term.getFirst();
+            }
+
+            for (Pair<Double, String> term : objective.getQuadraticTerms()) {
+                quadraticObjective[variables.getId(term.getSecond())] += term.getFirst();
+            }
+        }
+
+        // Rows
+        rows = new ArrayList<>(nOriginalRows);
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+        int[] count = new int[nColumns];
+
+        for (int r = 0; r < nOriginalRows; r++) {
+            Row row = new Row(matrix.getComparison(r), matrix.getRightHandSides()[r]);
+
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                row.addLinear(columns[i], coefficients[i]);
+                count[columns[i]]++;
+            }
+
+            rows.add(row);
+        }
+
+        for (int i = 0; i < matrix.getNumBilinearTerms(); i++) {
+            int c1 = matrix.getBilinearColumns1()[i];
+            int c2 = matrix.getBilinearColumns2()[i];
+            rows.get(matrix.getBilinearRows()[i]).addBilinear(c1, c2, matrix.getBilinearCoefficients()[i]);
+            count[c1]++;
+            count[c2]++;
+        }
+
+        // Column occurrences
+        occurrences = new int[nColumns][];
+
+        for (int c = 0; c < nColumns; c++) {
+            occurrences[c] = new int[count[c]];
+            count[c] = 0;
+        }
+
+        for (int r = 0; r < nOriginalRows; r++) {
+            Row row = rows.get(r);
+
+            for (int i = 0; i < row.length; i++) {
+                occurrences[row.columns[i]][count[row.columns[i]]++] = r;
+            }
+
+            for (int i = 0; i < row.bilinearLength; i++) {
+                occurrences[row.bilinearColumns1[i]][count[row.bilinearColumns1[i]]++] = r;
+                occurrences[row.bilinearColumns2[i]][count[row.bilinearColumns2[i]]++] = r;
+            }
+        }
+    }
+
+    /**
+     * Returns the reduced problem, or null if presolve found the problem to be
+     * infeasible.
+     *
+     * @return
+     */
+    public MinimizationProblem getReducedProblem() {
+        return reducedProblem;
+    }
+
+    public boolean isInfeasible() {
+        return infeasible;
+    }
+
+    /**
+     * Returns the number of constraints removed by the given pass.
+     *
+     * @param pass
+     * @return
+     */
+    public int getRowsRemoved(Pass pass) {
+        return rowsRemoved[pass.ordinal()];
+    }
+
+    /**
+     * Returns the number of variables removed by the given pass.
+     *
+     * @param pass
+     * @return
+     */
+    public int getColumnsRemoved(Pass pass) {
+        return columnsRemoved[pass.ordinal()];
+    }
+
+    /**
+     * Reconstructs a solution to the original problem from the given solution
+     * to the reduced problem. Missing and infeasible solutions are returned
+     * unchanged.
+     *
+     * @param reducedSolution
+     * @return
+     */
+    public Solution postsolve(Solution reducedSolution) {
+        if (infeasible) {
+            return Solution.INFEASIBLE;
+        }
+
+        if (reducedSolution == null || reducedSolution.isInfeasible()) {
+            return reducedSolution;
+        }
+
+        double[] values = new double[nColumns];
+        BitSet assigned = new BitSet(nColumns);
+
+        if (reducedSolution.getVariables() == reducedProblem.getVariables()) {
+            for (int i = 0; i < keptColumns.length; i++) {
+                if (reducedSolution.isAssigned(i)) {
+                    values[keptColumns[i]] = reducedSolution.getValue(i);
+                    assigned.set(keptColumns[i]);
+                }
+            }
+        } else {
+            for (Map.Entry<String, Double> entry : reducedSolution.entrySet()) {
+                int id = variables.getId(entry.getKey());
+
+                if (id >= 0) {
+                    values[id] = entry.getValue();
+                    assigned.set(id);
+                }
+            }
+        }
+
+        // Undo the removals in reverse order
+        for (int i = removedColumns.size() - 1; i >= 0; i--) {
+            values[removedColumns.get(i)] = removedValues.get(i);
+            assigned.set(removedColumns.get(i));
+        }
+
+        Solution result = new Solution(reducedSolution.getObjectiveValue() + objectiveOffset, variables, values);
+        return (assigned.cardinality() == nColumns ? result : result.restrictTo(assigned));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Presolve: ");
+
+        if (infeasible) {
+            sb.append("infeasible");
+        } else {
+            sb.append(nOriginalRows).append(" -> ").append(reducedProblem.getConstraints().size()).append(" constraints, ");
+            sb.append(nColumns).append(" -> ").append(keptColumns.length).append(" variables");
+        }
+
+        for (Pass pass : Pass.values()) {
+            sb.append("\n  ").append(pass).append(": ")
+                    .append(rowsRemoved[pass.ordinal()]).append(" constraints, ")
+                    .append(columnsRemoved[pass.ordinal()]).append(" variables");
+        }
+
+        return sb.toString();
+    }
+
+    private void run() {
+        boolean changed = true;
+
+        for (int round = 0; changed && !infeasible && round < MAX_ROUNDS; round++) {
+            changed = removeSingletonRows();
+            changed |= tightenBounds();
+            changed |= removeFixedColumns();
+            changed |= removeDominatedRows();
+        }
+
+        if (!infeasible) {
+            removeEmptyColumns();
+        }
+    }
+
+    private boolean removeSingletonRows() {
+        boolean changed = false;
+
+        for (Row row : rows) {
+            if (row.removed || row.length != 1 || row.bilinearLength != 0) {
+                continue;
+            }
+
+            int column = row.columns[0];
+            double coefficient = row.coefficients[0];
+
+            if (Math.abs(coefficient) < EPSILON) {
+                row.coefficients[0] = 0;
+                row.length = 0;
+                removeEmptyRow(row, Pass.SINGLETON_ROWS);
+            } else {
+                double bound = row.rightHandSide / coefficient;
+                boolean lowerBound = (row.comparison == Constraint.Comparison.GREATER_THAN_OR_EQUAL) == (coefficient > 0);
+
+                if (row.comparison == Constraint.Comparison.EQUAL || lowerBound) {
+                    tightenLower(column, bound, true);
+                }
+
+                if (row.comparison == Constraint.Comparison.EQUAL || !lowerBound) {
+                    tightenUpper(column, bound, true);
+                }
+
+                row.removed = true;
+                rowsRemoved[Pass.SINGLETON_ROWS.ordinal()]++;
+            }
+
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    private boolean tightenBounds() {
+        boolean changed = false;
+
+        for (Row row : rows) {
+            if (row.removed || row.bilinearLength != 0 || row.length == 0) {
+                continue;
+            }
+
+            if (row.length == 2) {
+                changed |= propagate(row, 0, 1);
+                changed |= propagate(row, 1, 0);
+            }
+
+            if (isRedundant(row)) {
+                row.removed = true;
+                rowsRemoved[Pass.BOUND_TIGHTENING.ordinal()]++;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Derives bounds on the variable at position i of the given two-variable
+     * row from the bounds on the variable at position j.
+     */
+    private boolean propagate(Row row, int i, int j) {
+        int x = row.columns[i];
+        int y = row.columns[j];
+        double a = row.coefficients[i];
+        double b = row.coefficients[j];
+
+        if (Math.abs(a) < EPSILON) {
+            return false;
+        }
+
+        double minOther = (b > 0 ? b * lower[y] : b * upper[y]);
+        double maxOther = (b > 0 ? b * upper[y] : b * lower[y]);
+        boolean changed = false;
+
+        // a x >= rhs - b y >= rhs - maxOther
+        if (row.comparison != Constraint.Comparison.LESS_THAN_OR_EQUAL && !Double.isInfinite(maxOther)) {
+            double bound = (row.rightHandSide - maxOther) / a;
+            changed |= (a > 0 ? tightenLower(x, bound, false) : tightenUpper(x, bound, false));
+        }
+
+        // a x <= rhs - b y <= rhs - minOther
+        if (row.comparison != Constraint.Comparison.GREATER_THAN_OR_EQUAL && !Double.isInfinite(minOther)) {
+            double bound = (row.rightHandSide - minOther) / a;
+            changed |= (a > 0 ? tightenUpper(x, bound, false) : tightenLower(x, bound, false));
+        }
+
+        return changed;
+    }
+
+    /**
+     * Returns whether the given linear row holds for every assignment within
+     * the explicit bounds. Implied bounds cannot be used, since they may have
+     * been derived from this row.
+     */
+    private boolean isRedundant(Row row) {
+        double minActivity = 0, maxActivity = 0;
+
+        for (int i = 0; i < row.length; i++) {
+            double a = row.coefficients[i];
+            int x = row.columns[i];
+            minActivity += (a > 0 ? a * explicitLower[x] : a * explicitUpper[x]);
+            maxActivity += (a > 0 ? a * explicitUpper[x] : a * explicitLower[x]);
+        }
+
+        switch (row.comparison) {
+            case GREATER_THAN_OR_EQUAL:
+                return minActivity >= row.rightHandSide;
+            case LESS_THAN_OR_EQUAL:
+                return maxActivity <= row.rightHandSide;
+            default:
+                return false;
+        }
+    }
+
+    private boolean tightenLower(int column, double bound, boolean explicit) {
+        if (explicit && bound > explicitLower[column]) {
+            explicitLower[column] = bound;
+        }
+
+        if (bound > lower[column] + EPSILON * (1 + Math.abs(bound))) {
+            lower[column] = bound;
+            checkBounds(column);
+            return true;
+        }
+
+        return false;
+    }
+
+    private boolean tightenUpper(int column, double bound, boolean explicit) {
+        if (explicit && bound < explicitUpper[column]) {
+            explicitUpper[column] = bound;
+        }
+
+        if (bound < upper[column] - EPSILON * (1 + Math.abs(bound))) {
+            upper[column] = bound;
+            checkBounds(column);
+            return true;
+        }
+
+        return false;
+    }
+
+    private void checkBounds(int column) {
+        if (lower[column] > upper[column] + EPSILON * (1 + Math.abs(upper[column]))) {
+            infeasible = true;
+        }
+    }
+
+    private boolean removeFixedColumns() {
+        boolean changed = false;
+
+        for (int c = 0; c < nColumns && !infeasible; c++) {
+            if (!removed[c] && upper[c] - lower[c] <= EPSILON * (1 + Math.abs(lower[c]))) {
+                removeColumn(c, lower[c], Pass.FIXED_COLUMNS);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Fixes the given column at the given value, and substitutes this value
+     * into every row and the objective.
+     */
+    private void removeColumn(int column, double value, Pass pass) {
+        removed[column] = true;
+        removedColumns.add(column);
+        removedValues.add(value);
+        columnsRemoved[pass.ordinal()]++;
+        objectiveOffset += linearObjective[column] * value + quadraticObjective[column] * value * value;
+
+        for (int r : occurrences[column]) {
+            Row row = rows.get(r);
+
+            if (!row.removed && row.substitute(column, value) && row.length == 0 && row.bilinearLength == 0) {
+                removeEmptyRow(row, pass);
+            }
+        }
+    }
+
+    private void removeEmptyRow(Row row, Pass pass) {
+        double rhs = row.rightHandSide;
+        double tolerance = EPSILON * (1 + Math.abs(rhs));
+        boolean satisfied;
+
+        switch (row.comparison) {
+            case EQUAL:
+                satisfied = Math.abs(rhs) <= tolerance;
+                break;
+            case GREATER_THAN_OR_EQUAL:
+                satisfied = 0 >= rhs - tolerance;
+                break;
+            case LESS_THAN_OR_EQUAL:
+                satisfied = 0 <= rhs + tolerance;
+                break;
+            default:
+                throw new InternalError("Unrecognized comparison: " + row.comparison);
+        }
+
+        if (!satisfied) {
+            infeasible = true;
+        }
+
+        row.removed = true;
+        rowsRemoved[pass.ordinal()]++;
+    }
+
+    private boolean removeDominatedRows() {
+        Map<RowKey, List<Row>> groups = new HashMap<>();
+
+        for (Row row : rows) {
+            if (!row.removed && row.bilinearLength == 0 && row.length > 0) {
+                groups.computeIfAbsent(new RowKey(row), k -> new ArrayList<>(1)).add(row);
+            }
+        }
+
+        boolean changed = false;
+
+        for (List<Row> group : groups.values()) {
+            if (group.size() > 1) {
+                changed |= mergeRows(group);
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Replaces a group of rows with the same (scaled) left hand side by at
+     * most two rows: the strongest lower and upper bound on that left hand
+     * side.
+     */
+    private boolean mergeRows(List<Row> group) {
+        double lowest = Double.NEGATIVE_INFINITY, highest = Double.POSITIVE_INFINITY;
+
+        for (Row row : group) {
+            double rhs = row.rightHandSide / row.scale;
+
+            if (row.comparison != Constraint.Comparison.LESS_THAN_OR_EQUAL) {
+                lowest = Math.max(lowest, rhs);
+            }
+
+            if (row.comparison != Constraint.Comparison.GREATER_THAN_OR_EQUAL) {
+                highest = Math.min(highest, rhs);
+            }
+        }
+
+        if (lowest > highest + EPSILON * (1 + Math.abs(highest))) {
+            infeasible = true;
+            return true;
+        }
+
+        Row lowerRow = group.get(0);
+        Row upperRow = null;
+
+        if (Math.abs(highest - lowest) <= EPSILON * (1 + Math.abs(lowest))) {
+            lowerRow.comparison = Constraint.Comparison.EQUAL;
+            lowerRow.rightHandSide = lowest * lowerRow.scale;
+        } else {
+            if (Double.isInfinite(lowest)) {
+                lowerRow = null;
+            } else {
+                lowerRow.comparison = Constraint.Comparison.GREATER_THAN_OR_EQUAL;
+                lowerRow.rightHandSide = lowest * lowerRow.scale;
+            }
+
+            if (!Double.isInfinite(highest)) {
+                upperRow = group.get(lowerRow == null ? 0 : 1);
+                upperRow.comparison = Constraint.Comparison.LESS_THAN_OR_EQUAL;
+                upperRow.rightHandSide = highest * upperRow.scale;
+            }
+        }
+
+        int nRemoved = 0;
+
+        for (Row row : group) {
+            if (row != lowerRow && row != upperRow) {
+                row.removed = true;
+                nRemoved++;
+            }
+        }
+
+        rowsRemoved[Pass.DOMINATED_ROWS.ordinal()] += nRemoved;
+        return nRemoved > 0;
+    }
+
+    private void removeEmptyColumns() {
+        boolean[] used = new boolean[nColumns];
+
+        for (Row row : rows) {
+            if (!row.removed) {
+                for (int i = 0; i < row.length; i++) {
+                    used[row.columns[i]] = true;
+                }
+
+                for (int i = 0; i < row.bilinearLength; i++) {
+                    used[row.bilinearColumns1[i]] = true;
+                    used[row.bilinearColumns2[i]] = true;
+                }
+            }
+        }
+
+        for (int c = 0; c < nColumns; c++) {
+            if (removed[c] || used[c]) {
+                continue;
+            }
+
+            // Minimize q x^2 + l x within the explicit bounds
+            double q = quadraticObjective[c];
+            double l = linearObjective[c];
+            double lb = explicitLower[c], ub = explicitUpper[c];
+            double value;
+
+            if (q > 0) {
+                value = Math.max(lb, Math.min(ub, -l / (2 * q)));
+            } else if (q < 0) {
+                continue; // Not convex; leave it to the solver
+            } else if (l > 0 || l == 0 && !Double.isInfinite(lb)) {
+                value = lb;
+            } else {
+                value = ub;
+            }
+
+            if (!Double.isInfinite(value)) {
+                removeColumn(c, value, Pass.EMPTY_COLUMNS);
+            }
+        }
+    }
+
+    private void buildReducedProblem(ObjectiveFunction originalObjective) {
+        int nKept = 0;
+
+        for (int c = 0; c < nColumns; c++) {
+            if (!removed[c]) {
+                nKept++;
+            }
+        }
+
+        keptColumns = new int[nKept];
+        VariableRegistry reducedVariables = new VariableRegistry(nKept);
+
+        for (int c = 0, i = 0; c < nColumns; c++) {
+            if (!removed[c]) {
+                keptColumns[i++] = c;
+                reducedVariables.register(variables.getName(c));
+            }
+        }
+
+        reducedProblem = new MinimizationProblem(reducedVariables);
+
+        // Objective
+        if (originalObjective instanceof ObjectiveFunction.Linear) {
+            ObjectiveFunction.Linear objective = new ObjectiveFunction.Linear();
+
+            for (int c : keptColumns) {
+                if (linearObjective[c] != 0) {
+                    objective.addTerm(linearObjective[c], variables.getName(c));
+                }
+            }
+
+            reducedProblem.setObjective(objective);
+        } else if (quadratic) {
+            ObjectiveFunction.Quadratic objective = new ObjectiveFunction.Quadratic();
+
+            for (int c : keptColumns) {
+                if (linearObjective[c] != 0) {
+                    objective.addLinearTerm(linearObjective[c], variables.getName(c));
+                }
+
+                if (quadraticObjective[c] != 0) {
+                    objective.addQuadraticTerm(quadraticObjective[c], variables.getName(c));
+                }
+            }
+
+            reducedProblem.setObjective(objective);
+        }
+
+        // Explicit bounds
+        for (int c : keptColumns) {
+            if (explicitLower[c] != MinimizationProblem.DEFAULT_LOWER_BOUND || explicitUpper[c] != MinimizationProblem.DEFAULT_UPPER_BOUND) {
+                reducedProblem.setBounds(variables.getName(c), explicitLower[c], explicitUpper[c]);
+            }
+        }
+
+        // Remaining constraints
+        for (Row row : rows) {
+            if (!row.removed) {
+                reducedProblem.addConstraint(row.toConstraint());
+            }
+        }
+    }
+
+    private class Row {
+
+        Constraint.Comparison comparison;
+        double rightHandSide;
+        boolean removed = false;
+        double scale = 1; // Set when the row is grouped with rows with the same left hand side
+        int length = 0;
+        int[] columns = new int[2];
+        double[] coefficients = new double[2];
+        int bilinearLength = 0;
+        int[] bilinearColumns1 = new int[0];
+        int[] bilinearColumns2 = new int[0];
+        double[] bilinearCoefficients = new double[0];
+
+        Row(Constraint.Comparison comparison, double rightHandSide) {
+            this.comparison = comparison;
+            this.rightHandSide = rightHandSide;
+        }
+
+        void addLinear(int column, double coefficient) {
+            for (int i = 0; i < length; i++) {
+                if (columns[i] == column) {
+                    coefficients[i] += coefficient;
+                    return;
+                }
+            }
+
+            if (length == columns.length) {
+                columns = Arrays.copyOf(columns, 2 * length);
+                coefficients = Arrays.copyOf(coefficients, 2 * length);
+            }
+
+            columns[length] = column;
+            coefficients[length] = coefficient;
+            length++;
+        }
+
+        void addBilinear(int column1, int column2, double coefficient) {
+            if (bilinearLength == bilinearColumns1.length) {
+                int capacity = Math.max(4, 2 * bilinearLength);
+                bilinearColumns1 = Arrays.copyOf(bilinearColumns1, capacity);
+                bilinearColumns2 = Arrays.copyOf(bilinearColumns2, capacity);
+                bilinearCoefficients = Arrays.copyOf(bilinearCoefficients, capacity);
+            }
+
+            bilinearColumns1[bilinearLength] = column1;
+            bilinearColumns2[bilinearLength] = column2;
+            bilinearCoefficients[bilinearLength] = coefficient;
+            bilinearLength++;
+        }
+
+        /**
+         * Substitutes the given value for the given column.
+         *
+         * @return whether the column occurred in this row
+         */
+        boolean substitute(int column, double value) {
+            boolean found = false;
+
+            for (int i = 0; i < length; i++) {
+                if (columns[i] == column) {
+                    rightHandSide -= coefficients[i] * value;
+                    length--;
+                    columns[i] = columns[length];
+                    coefficients[i] = coefficients[length];
+                    found = true;
+                    break;
+                }
+            }
+
+            for (int i = bilinearLength - 1; i >= 0; i--) {
+                int c1 = bilinearColumns1[i];
+                int c2 = bilinearColumns2[i];
+
+                if (c1 != column && c2 != column) {
+                    continue;
+                }
+
+                double coefficient = bilinearCoefficients[i];
+                bilinearLength--;
+                bilinearColumns1[i] = bilinearColumns1[bilinearLength];
+                bilinearColumns2[i] = bilinearColumns2[bilinearLength];
+                bilinearCoefficients[i] = bilinearCoefficients[bilinearLength];
+                found = true;
+
+                if (c1 == column && c2 == column) {
+                    rightHandSide -= coefficient * value * value;
+                } else {
+                    addLinear(c1 == column ? c2 : c1, coefficient * value);
+                }
+            }
+
+            return found;
+        }
+
+        Constraint toConstraint() {
+            List<Pair<Double, String>> linearTerms = new ArrayList<>(length);
+
+            for (int i = 0; i < length; i++) {
+                linearTerms.add(new Pair<>(coefficients[i], variables.getName(columns[i])));
+            }
+
+            if (bilinearLength == 0) {
+                return new Constraint.Linear(linearTerms, comparison, rightHandSide);
+            }
+
+            List<Pair<Double, Pair<String, String>>> bilinearTerms = new ArrayList<>(bilinearLength);
+
+            for (int i = 0; i < bilinearLength; i++) {
+                bilinearTerms.add(new Pair<>(bilinearCoefficients[i], new Pair<>(variables.getName(bilinearColumns1[i]), variables.getName(bilinearColumns2[i]))));
+            }
+
+            return new Constraint.Bilinear(linearTerms, bilinearTerms, comparison, rightHandSide);
+        }
+    }
+
+    /**
+     * The left hand side of a linear row, scaled so that the coefficient of
+     * its first column (in order of id) has absolute value 1.
+     */
+    private static class RowKey {
+
+        final int[] columns;
+        final double[] coefficients;
+
+        RowKey(Row row) {
+            columns = Arrays.copyOf(row.columns, row.length);
+            Arrays.sort(columns);
+            coefficients = new double[row.length];
+
+            for (int i = 0; i < row.length; i++) {
+                coefficients[Arrays.binarySearch(columns, row.columns[i])] = row.coefficients[i];
+            }
+
+            double s = Math.abs(coefficients[0]);
+
+            if (s == 0) {
+                s = 1;
+            }
+
+            for (int i = 0; i < coefficients.length; i++) {
+                coefficients[i] /= s;
+            }
+
+            row.scale = s;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(columns) + Arrays.hashCode(coefficients);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RowKey)) {
+                return false;
+            }
+
+            RowKey other = (RowKey) obj;
+            return Arrays.equals(columns, other.columns) && Arrays.equals(coefficients, other.coefficients);
+        }
+    }
+}
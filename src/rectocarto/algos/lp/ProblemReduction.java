@@ -24,6 +24,7 @@ import rectangularcartogram.data.Pair;
 import rectocarto.data.lp.Constraint;
 import rectocarto.data.lp.MinimizationProblem;
 import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.VariableRegistry;
 
 public class ProblemReduction {
 
@@ -39,13 +40,15 @@ public class ProblemReduction {
         MinimizationProblem result = new MinimizationProblem();
         result.setObjective(problem.getObjective());
         result.getConstraints().addAll(uniqueConstraints);
+        result.copyBounds(problem);
         return result;
     }
 
     /**
      * Simplifies a given problem by (iteratively) finding all equality
-     * constraints in one variable and substituting the solution into other
-     * constraints that reference that variable.
+     * constraints in one variable and all variables with equal lower and upper
+     * bounds, and substituting the solution into other constraints that
+     * reference that variable.
      *
      * Assumes that the problem is satisfiable!
      *
@@ -59,6 +62,13 @@ public class ProblemReduction {
         while (!nothingChanged) {
             // Find the values
             Map<String, Double> fixedValues = new HashMap<>();
+            VariableRegistry variables = p.getVariables();
+
+            for (int id = 0; id < variables.size(); id++) {
+                if (p.getLowerBounds()[id] == p.getUpperBounds()[id]) {
+                    fixedValues.put(variables.getName(id), p.getLowerBounds()[id]);
+                }
+            }
 
             for (Constraint constraint : p.getConstraints()) {
                 if (constraint.getComparison() == Constraint.Comparison.EQUAL) {
@@ -82,6 +92,7 @@ public class ProblemReduction {
                     }
                 }
 
+                result.copyBounds(p);
                 p = result;
             }
         }
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * A precompiled version of BilinearToLinear.restrictToLinear for a fixed set
+ * of variables. The structure of the restricted linear program only depends on
+ * which variables are fixed, not on their values, so it is built once. Each
+ * call to restrict then only recomputes the coefficients and right hand sides
+ * that depend on the fixed values, and writes them into the same linear
+ * program. Bounds are taken from the bilinear program when the template is
+ * built.
+ */
+public class RestrictionTemplate {
+
+    private final VariableRegistry variables; // Of the bilinear program
+    private final int[] fixedIds;
+    private final BitSet free; // Ids of the variables of the linear program, in the bilinear program
+    private final int[] freeIds; // For each variable of the linear program, its id in the bilinear program
+    private final MinimizationProblem linearProgram;
+    private final int nRows; // Rows of the linear program; followed by the rows whose variables are all fixed
+    private final Constraint[] rows;
+    private final Constraint.Comparison[] comparisons;
+    private final double[] baseRightHandSide;
+    private final int[] rightHandSideStart; // rhs[r] = base[r] - sum of coef[i] * value[id1[i]] (* value[id2[i]] if id2[i] >= 0)
+    private final int[] rightHandSideIds1;
+    private final int[] rightHandSideIds2;
+    private final double[] rightHandSideCoefficients;
+    private final List<Pair<Double, String>> terms; // All terms of the linear program, in matrix order
+    private final double[] baseCoefficient;
+    private final int[] coefficientStart; // coef[t] = base[t] + sum of coef[i] * value[id[i]]
+    private final int[] coefficientIds;
+    private final double[] coefficientFactors;
+    private final double[] values; // Values of the fixed variables, indexed by id in the bilinear program
+    private final int[] boundedFixedIds; // Fixed variables with explicit bounds
+    private final double[] fixedLowerBounds, fixedUpperBounds; // Their bounds
+
+    /**
+     * Compiles the linear program that results from fixing the given variables
+     * of the bilinear program.
+     *
+     * @param bilinearProgram
+     * @param fixedVariables
+     * @throws IllegalArgumentException If there is a bilinear term, neither of
+     * whose variables is fixed.
+     */
+    public RestrictionTemplate(MinimizationProblem bilinearProgram, Collection<String> fixedVariables) {
+        variables = bilinearProgram.getVariables();
+        BitSet fixed = variables.getIds(fixedVariables);
+        fixedIds = fixed.stream().toArray();
+        values = new double[variables.size()];
+
+        Map<String, Double> fixedValues = new HashMap<>(2 * fixedIds.length);
+
+        for (int id : fixedIds) {
+            fixedValues.put(variables.getName(id), 0d);
+        }
+
+        linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(BilinearToLinear.substituteVariables(bilinearProgram.getObjective(), fixedValues));
+
+        // Compile every constraint
+        List<Constraint> emitted = new ArrayList<>();
+        List<Constraint> checked = new ArrayList<>();
+        List<RowCompilation> emittedRows = new ArrayList<>();
+        List<RowCompilation> checkedRows = new ArrayList<>();
+
+        for (Constraint c : bilinearProgram.getConstraints()) {
+            RowCompilation row = new RowCompilation(c, fixed);
+
+            if (row.termIds.isEmpty()) {
+                checked.add(c);
+                checkedRows.add(row);
+            } else {
+                Constraint.Linear linear = new Constraint.Linear(c.getComparison(), c.getRightHandSide());
+
+                for (int id : row.termIds) {
+                    linear.addTerm(0, variables.getName(id));
+                }
+
+                linearProgram.addConstraint(linear);
+                emitted.add(linear);
+                emittedRows.add(row);
+            }
+        }
+
+        nRows = emitted.size();
+        int nAllRows = nRows + checked.size();
+        rows = new Constraint[nAllRows];
+        comparisons = new Constraint.Comparison[nAllRows];
+        baseRightHandSide = new double[nAllRows];
+        rightHandSideStart = new int[nAllRows + 1];
+
+        List<RowCompilation> allRows = new ArrayList<>(emittedRows);
+        allRows.addAll(checkedRows);
+        int nRightHandSideTerms = 0;
+        int nTerms = 0;
+        int nCoefficientTerms = 0;
+
+        for (int r = 0; r < nAllRows; r++) {
+            RowCompilation row = allRows.get(r);
+            rows[r] = (r < nRows ? emitted.get(r) : checked.get(r - nRows));
+            comparisons[r] = row.comparison;
+            baseRightHandSide[r] = row.baseRightHandSide;
+            nRightHandSideTerms += row.rhsCoefficients.size();
+            rightHandSideStart[r + 1] = nRightHandSideTerms;
+            nTerms += row.termIds.size();
+
+            for (List<Integer> contributions : row.termContributionIds) {
+                nCoefficientTerms += contributions.size();
+            }
+        }
+
+        rightHandSideIds1 = new int[nRightHandSideTerms];
+        rightHandSideIds2 = new int[nRightHandSideTerms];
+        rightHandSideCoefficients = new double[nRightHandSideTerms];
+        terms = new ArrayList<>(nTerms);
+        baseCoefficient = new double[nTerms];
+        coefficientStart = new int[nTerms + 1];
+        coefficientIds = new int[nCoefficientTerms];
+        coefficientFactors = new double[nCoefficientTerms];
+
+        int rhsIndex = 0;
+        int term = 0;
+        int coefficientIndex = 0;
+
+        for (int r = 0; r < nAllRows; r++) {
+            RowCompilation row = allRows.get(r);
+
+            for (int i = 0; i < row.rhsCoefficients.size(); i++) {
+                rightHandSideIds1[rhsIndex] = row.rhsIds1.get(i);
+                rightHandSideIds2[rhsIndex] = row.rhsIds2.get(i);
+                rightHandSideCoefficients[rhsIndex] = row.rhsCoefficients.get(i);
+                rhsIndex++;
+            }
+
+            if (r < nRows) {
+                List<Pair<Double, String>> rowTerms = ((Constraint.Linear) rows[r]).getTerms();
+
+                for (int i = 0; i < row.termIds.size(); i++) {
+                    terms.add(rowTerms.get(i));
+                    baseCoefficient[term] = row.termBase.get(i);
+
+                    for (int j = 0; j < row.termContributionIds.get(i).size(); j++) {
+                        coefficientIds[coefficientIndex] = row.termContributionIds.get(i).get(j);
+                        coefficientFactors[coefficientIndex] = row.termContributionFactors.get(i).get(j);
+                        coefficientIndex++;
+                    }
+
+                    term++;
+                    coefficientStart[term] = coefficientIndex;
+                }
+            }
+        }
+
+        // Map the variables of the linear program back to the bilinear program
+        VariableRegistry linearVariables = linearProgram.getVariables();
+        freeIds = new int[linearVariables.size()];
+        free = new BitSet(variables.size());
+
+        for (int i = 0; i < freeIds.length; i++) {
+            freeIds[i] = variables.getId(linearVariables.getName(i));
+            free.set(freeIds[i]);
+        }
+
+        // Bounds
+        linearProgram.copyBounds(bilinearProgram);
+        double[] lowerBounds = bilinearProgram.getLowerBounds();
+        double[] upperBounds = bilinearProgram.getUpperBounds();
+        boundedFixedIds = Arrays.stream(fixedIds)
+                .filter(id -> BilinearToLinear.hasExplicitBounds(lowerBounds[id], upperBounds[id]))
+                .toArray();
+        fixedLowerBounds = new double[boundedFixedIds.length];
+        fixedUpperBounds = new double[boundedFixedIds.length];
+
+        for (int i = 0; i < boundedFixedIds.length; i++) {
+            fixedLowerBounds[i] = lowerBounds[boundedFixedIds[i]];
+            fixedUpperBounds[i] = upperBounds[boundedFixedIds[i]];
+        }
+
+        if (linearProgram.getConstraintMatrix().getNumTerms() != terms.size()) {
+            throw new InternalError("The linear program does not match its template.");
+        }
+    }
+
+    /**
+     * Returns the linear program obtained by substituting the given values for
+     * the fixed variables. This is always the same MinimizationProblem
+     * instance, which is updated in place, so its contents are only valid
+     * until the next call to this method.
+     *
+     * @param variableAssignment values for at least all fixed variables
+     * @return
+     * @throws IllegalArgumentException If a fixed variable has no value, or if
+     * the given variable assignment violates an explicit bound or a
+     * constraint whose variables are all fixed.
+     */
+    public MinimizationProblem restrict(Map<String, Double> variableAssignment) {
+        loadFixedValues(variableAssignment);
+
+        for (int i = 0; i < boundedFixedIds.length; i++) {
+            double value = values[boundedFixedIds[i]];
+
+            if (value < fixedLowerBounds[i] || value > fixedUpperBounds[i]) {
+                throw new IllegalArgumentException("Variable assignment is infeasible!");
+            }
+        }
+
+        ConstraintMatrix matrix = linearProgram.getConstraintMatrix();
+
+        for (int t = 0; t < terms.size(); t++) {
+            double coefficient = baseCoefficient[t];
+
+            for (int i = coefficientStart[t]; i < coefficientStart[t + 1]; i++) {
+                coefficient += coefficientFactors[i] * values[coefficientIds[i]];
+            }
+
+            terms.get(t).setFirst(coefficient);
+            matrix.setCoefficient(t, coefficient);
+        }
+
+        for (int r = 0; r < rows.length; r++) {
+            double rightHandSide = baseRightHandSide[r];
+
+            for (int i = rightHandSideStart[r]; i < rightHandSideStart[r + 1]; i++) {
+                double contribution = rightHandSideCoefficients[i] * values[rightHandSideIds1[i]];
+
+                if (rightHandSideIds2[i] >= 0) {
+                    contribution *= values[rightHandSideIds2[i]];
+                }
+
+                rightHandSide -= contribution;
+            }
+
+            if (r < nRows) {
+                rows[r].setRightHandSide(rightHandSide);
+                matrix.setRightHandSide(r, rightHandSide);
+            } else if (!(comparisons[r] == Constraint.Comparison.EQUAL && 0 == rightHandSide
+                    || comparisons[r] == Constraint.Comparison.GREATER_THAN_OR_EQUAL && 0 >= rightHandSide
+                    || comparisons[r] == Constraint.Comparison.LESS_THAN_OR_EQUAL && 0 <= rightHandSide)) {
+                throw new IllegalArgumentException("Variable assignment is infeasible!");
+            }
+        }
+
+        return linearProgram;
+    }
+
+    /**
+     * Converts a solution of the linear program to a solution that uses the
+     * variable ids of the bilinear program. Infeasible and missing solutions
+     * are returned unchanged.
+     *
+     * @param linearSolution
+     * @return
+     */
+    public Solution lift(Solution linearSolution) {
+        if (linearSolution == null || linearSolution.isInfeasible()) {
+            return linearSolution;
+        }
+
+        double[] liftedValues = new double[variables.size()];
+        BitSet assigned = new BitSet(variables.size());
+
+        if (linearSolution.getVariables() == linearProgram.getVariables()) {
+            for (int i = 0; i < freeIds.length; i++) {
+                if (linearSolution.isAssigned(i)) {
+                    liftedValues[freeIds[i]] = linearSolution.getValue(i);
+                    assigned.set(freeIds[i]);
+                }
+            }
+        } else {
+            for (Map.Entry<String, Double> entry : linearSolution.entrySet()) {
+                int id = variables.getId(entry.getKey());
+
+                if (id >= 0) {
+                    liftedValues[id] = entry.getValue();
+                    assigned.set(id);
+                }
+            }
+        }
+
+        return new Solution(linearSolution.getObjectiveValue(), variables, liftedValues).restrictTo(assigned);
+    }
+
+    /**
+     * Returns the ids, in the bilinear program, of the variables that remain
+     * in the linear program.
+     *
+     * @return
+     */
+    public BitSet getFreeVariables() {
+        return (BitSet) free.clone();
+    }
+
+    private void loadFixedValues(Map<String, Double> variableAssignment) {
+        if (variableAssignment instanceof Solution && ((Solution) variableAssignment).getVariables() == variables) {
+            Solution solution = (Solution) variableAssignment;
+
+            for (int id : fixedIds) {
+                if (!solution.isAssigned(id)) {
+                    throw new IllegalArgumentException("No value for fixed variable " + variables.getName(id));
+                }
+
+                values[id] = solution.getValue(id);
+            }
+        } else {
+            for (int id : fixedIds) {
+                Double value = variableAssignment.get(variables.getName(id));
+
+                if (value == null) {
+                    throw new IllegalArgumentException("No value for fixed variable " + variables.getName(id));
+                }
+
+                values[id] = value;
+            }
+        }
+    }
+
+    /**
+     * The part of one constraint that depends on the fixed variables.
+     */
+    private class RowCompilation {
+
+        final Constraint.Comparison comparison;
+        final double baseRightHandSide;
+        final List<Integer> rhsIds1 = new ArrayList<>();
+        final List<Integer> rhsIds2 = new ArrayList<>();
+        final List<Double> rhsCoefficients = new ArrayList<>();
+        final List<Integer> termIds = new ArrayList<>(); // Free variables, in order of first appearance
+        final List<Double> termBase = new ArrayList<>();
+        final List<List<Integer>> termContributionIds = new ArrayList<>();
+        final List<List<Double>> termContributionFactors = new ArrayList<>();
+
+        RowCompilation(Constraint c, BitSet fixed) {
+            comparison = c.getComparison();
+            baseRightHandSide = c.getRightHandSide();
+
+            List<Pair<Double, String>> linearTerms;
+
+            if (c instanceof Constraint.Linear) {
+                linearTerms = ((Constraint.Linear) c).getTerms();
+            } else if (c instanceof Constraint.Bilinear) {
+                linearTerms = ((Constraint.Bilinear) c).getLinearTerms();
+            } else {
+                throw new AssertionError("Unexpected constraint type: " + c.getClass());
+            }
+
+            for (Pair<Double, String> term : linearTerms) {
+                int id = variables.getId(term.getSecond());
+
+                if (fixed.get(id)) {
+                    addRightHandSideTerm(id, -1, term.getFirst());
+                } else {
+                    int t = getTerm(id);
+                    termBase.set(t, termBase.get(t) + term.getFirst());
+                }
+            }
+
+            if (c instanceof Constraint.Bilinear) {
+                for (Pair<Double, Pair<String, String>> term : ((Constraint.Bilinear) c).getBilinearTerms()) {
+                    int id1 = variables.getId(term.getSecond().getFirst());
+                    int id2 = variables.getId(term.getSecond().getSecond());
+
+                    if (fixed.get(id1)) {
+                        if (fixed.get(id2)) {
+                            addRightHandSideTerm(id1, id2, term.getFirst());
+                        } else {
+                            addContribution(getTerm(id2), id1, term.getFirst());
+                        }
+                    } else if (fixed.get(id2)) {
+                        addContribution(getTerm(id1), id2, term.getFirst());
+                    } else {
+                        throw new IllegalArgumentException("At least one of the variables of each bilinear term must be fixed.");
+                    }
+                }
+            }
+        }
+
+        private void addRightHandSideTerm(int id1, int id2, double coefficient) {
+            rhsIds1.add(id1);
+            rhsIds2.add(id2);
+            rhsCoefficients.add(coefficient);
+        }
+
+        private void addContribution(int t, int fixedId, double factor) {
+            termContributionIds.get(t).add(fixedId);
+            termContributionFactors.get(t).add(factor);
+        }
+
+        private int getTerm(int id) {
+            int t = termIds.indexOf(id);
+
+            if (t < 0) {
+                t = termIds.size();
+                termIds.add(id);
+                termBase.add(0d);
+                termContributionIds.add(new ArrayList<>(2));
+                termContributionFactors.add(new ArrayList<>(2));
+            }
+
+            return t;
+        }
+    }
+}
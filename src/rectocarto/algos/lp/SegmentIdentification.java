@@ -15,8 +15,16 @@
  */
 package rectocarto.algos.lp;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import rectangularcartogram.data.Pair;
 import rectangularcartogram.data.RegularEdgeLabeling;
 import rectangularcartogram.data.graph.Edge;
@@ -83,10 +91,49 @@ public class SegmentIdentification {
         return finalSegments;
     }
     
+    static final int LEFT = 0;
+    static final int TOP = 1;
+    static final int RIGHT = 2;
+    static final int BOTTOM = 3;
+
     public static class FaceSegments {
 
         String left, top, right, bottom;
 
+        String get(int side) {
+            switch (side) {
+                case LEFT:
+                    return left;
+                case TOP:
+                    return top;
+                case RIGHT:
+                    return right;
+                case BOTTOM:
+                    return bottom;
+                default:
+                    throw new IllegalArgumentException("Unexpected side: " + side);
+            }
+        }
+
+        void set(int side, String name) {
+            switch (side) {
+                case LEFT:
+                    left = name;
+                    break;
+                case TOP:
+                    top = name;
+                    break;
+                case RIGHT:
+                    right = name;
+                    break;
+                case BOTTOM:
+                    bottom = name;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected side: " + side);
+            }
+        }
+
         @Override
         public String toString() {
             return "S[" + "left=" + left + ", top=" + top + ", right=" + right + ", bottom=" + bottom + ']';
@@ -154,6 +201,291 @@ public class SegmentIdentification {
         }
     }
 
+    /**
+     * The segments of a subdivision, kept up to date while its regular edge
+     * labeling changes. After a flip of an alternating 4-cycle, only the
+     * segments that contain a side of a face incident to a flipped edge are
+     * identified again; all other segments keep their names.
+     *
+     * New segments take the name of an old segment they overlap if possible.
+     * Names of segments that disappear are retired, and reused for later new
+     * segments of the same orientation, so the number of distinct names stays
+     * close to the number of segments.
+     */
+    static class IncrementalSegments {
+
+        private final Subdivision sub;
+        private final Map<SubdivisionFace, FaceSegments> segments;
+        private final Map<String, List<Side>> sides; // The face sides that make up each segment
+        private final List<Side[]> boundaryMerges = new ArrayList<>(); // Sides that are always on the same segment
+        private final Deque<String> retiredHorizontal = new ArrayDeque<>();
+        private final Deque<String> retiredVertical = new ArrayDeque<>();
+        private int nextName;
+
+        IncrementalSegments(Subdivision sub) {
+            this.sub = sub;
+            segments = identifySegments(sub);
+            sides = new HashMap<>(4 * segments.size());
+
+            for (Map.Entry<SubdivisionFace, FaceSegments> entry : segments.entrySet()) {
+                for (int side = 0; side < 4; side++) {
+                    sides.computeIfAbsent(entry.getValue().get(side), name -> new ArrayList<>()).add(new Side(entry.getKey(), side));
+                }
+            }
+
+            nextName = 2 * sub.getTopLevelFaces().size();
+
+            // The same merges as identifySegments performs for the unlabelled boundary edges
+            addBoundaryMerge(sub.getNorthFace(), LEFT, sub.getWestFace(), RIGHT);
+            addBoundaryMerge(sub.getNorthFace(), RIGHT, sub.getEastFace(), LEFT);
+            addBoundaryMerge(sub.getNorthFace(), TOP, sub.getWestFace(), TOP);
+            addBoundaryMerge(sub.getNorthFace(), TOP, sub.getEastFace(), TOP);
+            addBoundaryMerge(sub.getSouthFace(), LEFT, sub.getWestFace(), RIGHT);
+            addBoundaryMerge(sub.getSouthFace(), RIGHT, sub.getEastFace(), LEFT);
+            addBoundaryMerge(sub.getSouthFace(), BOTTOM, sub.getWestFace(), BOTTOM);
+            addBoundaryMerge(sub.getSouthFace(), BOTTOM, sub.getEastFace(), BOTTOM);
+        }
+
+        private void addBoundaryMerge(SubdivisionFace face1, int side1, SubdivisionFace face2, int side2) {
+            boundaryMerges.add(new Side[]{new Side(face1, side1), new Side(face2, side2)});
+        }
+
+        /**
+         * Returns the segments of each face. The map and its FaceSegments are
+         * updated in place.
+         *
+         * @return
+         */
+        Map<SubdivisionFace, FaceSegments> getSegments() {
+            return segments;
+        }
+
+        /**
+         * Identifies the segments again after the labels of the given edges
+         * changed in the regular edge labeling of the subdivision's dual graph.
+         *
+         * @param changedEdges
+         * @return the faces incident to a changed edge or with a renamed
+         * segment, together with the names of new and retired segments
+         */
+        Update update(Collection<Edge> changedEdges) {
+            // Every segment with a side of a face incident to a changed edge may be split or merged
+            Set<SubdivisionFace> faces = new LinkedHashSet<>();
+
+            for (Edge edge : changedEdges) {
+                faces.add(sub.getFace(edge.getVA()));
+                faces.add(sub.getFace(edge.getVB()));
+            }
+
+            Set<String> oldNames = new LinkedHashSet<>();
+            Map<Side, Side> parent = new LinkedHashMap<>();
+            Deque<Side> unprocessed = new ArrayDeque<>();
+
+            for (SubdivisionFace face : faces) {
+                for (int side = 0; side < 4; side++) {
+                    addSegment(segments.get(face).get(side), oldNames, parent, unprocessed);
+                }
+            }
+
+            // Merge the sides again, following the current labels
+            RegularEdgeLabeling rel = sub.getDualGraph().getRegularEdgeLabeling();
+
+            while (!unprocessed.isEmpty()) {
+                Side side = unprocessed.remove();
+
+                for (Edge edge : side.face.getCorrespondingVertex().getEdges()) {
+                    Pair<Graph.Labeling, Edge.Direction> label = rel.get(edge);
+
+                    if (label == null) {
+                        continue;
+                    }
+
+                    SubdivisionFace origin = sub.getFace(edge.getOrigin());
+                    SubdivisionFace destination = sub.getFace(edge.getDestination());
+                    Side other = null;
+
+                    if (label.getFirst() == Graph.Labeling.BLUE) { // Horizontal
+                        if (side.side == RIGHT && origin == side.face) {
+                            other = new Side(destination, LEFT);
+                        } else if (side.side == LEFT && destination == side.face) {
+                            other = new Side(origin, RIGHT);
+                        }
+                    } else if (label.getFirst() == Graph.Labeling.RED) { // Vertical
+                        if (side.side == TOP && origin == side.face) {
+                            other = new Side(destination, BOTTOM);
+                        } else if (side.side == BOTTOM && destination == side.face) {
+                            other = new Side(origin, TOP);
+                        }
+                    }
+
+                    if (other != null) {
+                        addSegment(segments.get(other.face).get(other.side), oldNames, parent, unprocessed);
+                        union(parent, side, other);
+                    }
+                }
+
+                for (Side[] merge : boundaryMerges) {
+                    if (merge[0].equals(side) || merge[1].equals(side)) {
+                        addSegment(segments.get(merge[0].face).get(merge[0].side), oldNames, parent, unprocessed);
+                        addSegment(segments.get(merge[1].face).get(merge[1].side), oldNames, parent, unprocessed);
+                        union(parent, merge[0], merge[1]);
+                    }
+                }
+            }
+
+            // Collect the new segments
+            Map<Side, List<Side>> components = new LinkedHashMap<>();
+
+            for (Side side : parent.keySet()) {
+                components.computeIfAbsent(find(parent, side), root -> new ArrayList<>()).add(side);
+            }
+
+            // Name them, keeping an old name where possible
+            Set<String> unusedOldNames = new LinkedHashSet<>(oldNames);
+            List<Pair<String, List<Side>>> named = new ArrayList<>(components.size());
+            List<List<Side>> unnamed = new ArrayList<>();
+
+            for (List<Side> component : components.values()) {
+                String name = null;
+
+                for (Side side : component) {
+                    String oldName = segments.get(side.face).get(side.side);
+
+                    if (unusedOldNames.remove(oldName)) {
+                        name = oldName;
+                        break;
+                    }
+                }
+
+                if (name == null) {
+                    unnamed.add(component);
+                } else {
+                    named.add(new Pair<>(name, component));
+                }
+            }
+
+            Set<String> added = new LinkedHashSet<>();
+
+            for (List<Side> component : unnamed) {
+                boolean horizontal = (component.get(0).side == TOP || component.get(0).side == BOTTOM);
+                Deque<String> retired = (horizontal ? retiredHorizontal : retiredVertical);
+                String name = (retired.isEmpty() ? (horizontal ? "h" : "v") + nextName++ : retired.remove());
+                added.add(name);
+                named.add(new Pair<>(name, component));
+            }
+
+            for (String name : unusedOldNames) {
+                boolean horizontal = (sides.get(name).get(0).side == TOP || sides.get(name).get(0).side == BOTTOM);
+                (horizontal ? retiredHorizontal : retiredVertical).add(name);
+            }
+
+            // Store the new segments
+            for (String name : oldNames) {
+                sides.remove(name);
+            }
+
+            for (Pair<String, List<Side>> segment : named) {
+                sides.put(segment.getFirst(), segment.getSecond());
+
+                for (Side side : segment.getSecond()) {
+                    FaceSegments faceSegments = segments.get(side.face);
+
+                    if (!segment.getFirst().equals(faceSegments.get(side.side))) {
+                        faceSegments.set(side.side, segment.getFirst());
+                        faces.add(side.face);
+                    }
+                }
+            }
+
+            return new Update(faces, added, unusedOldNames);
+        }
+
+        private void addSegment(String name, Set<String> oldNames, Map<Side, Side> parent, Deque<Side> unprocessed) {
+            if (oldNames.add(name)) {
+                for (Side side : sides.get(name)) {
+                    parent.put(side, side);
+                    unprocessed.add(side);
+                }
+            }
+        }
+
+        private static Side find(Map<Side, Side> parent, Side side) {
+            Side root = side;
+
+            while (!parent.get(root).equals(root)) {
+                root = parent.get(root);
+            }
+
+            // Path compression
+            while (!side.equals(root)) {
+                Side next = parent.get(side);
+                parent.put(side, root);
+                side = next;
+            }
+
+            return root;
+        }
+
+        private static void union(Map<Side, Side> parent, Side side1, Side side2) {
+            Side root1 = find(parent, side1);
+            Side root2 = find(parent, side2);
+
+            if (!root1.equals(root2)) {
+                parent.put(root1, root2);
+            }
+        }
+    }
+
+    /**
+     * The result of updating the segments after a change in the labeling.
+     */
+    static class Update {
+
+        final Set<SubdivisionFace> faces; // Faces incident to a changed edge or with a renamed segment
+        final Set<String> addedSegments;
+        final Set<String> removedSegments;
+
+        Update(Set<SubdivisionFace> faces, Set<String> addedSegments, Set<String> removedSegments) {
+            this.faces = faces;
+            this.addedSegments = addedSegments;
+            this.removedSegments = removedSegments;
+        }
+    }
+
+    /**
+     * One side of a face.
+     */
+    private static class Side {
+
+        final SubdivisionFace face;
+        final int side;
+
+        Side(SubdivisionFace face, int side) {
+            this.face = face;
+            this.side = side;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Side)) {
+                return false;
+            }
+
+            Side other = (Side) obj;
+            return face == other.face && side == other.side;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(face) + side;
+        }
+
+        @Override
+        public String toString() {
+            return face.getName() + "." + side;
+        }
+    }
+
     private SegmentIdentification() {
     }
 }
@@ -15,12 +15,27 @@
  */
 package rectocarto.algos.lp;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import rectangularcartogram.data.Deadline;
 import rectangularcartogram.data.Pair;
 import rectangularcartogram.data.RegularEdgeLabeling;
 import rectangularcartogram.data.graph.Edge;
@@ -30,29 +45,105 @@ import rectangularcartogram.data.subdivision.Subdivision;
 import rectangularcartogram.data.subdivision.SubdivisionFace;
 import rectocarto.algos.lp.SegmentIdentification.FaceSegments;
 import rectocarto.algos.lp.solver.CLPSolver;
+import rectocarto.algos.lp.solver.PresolvingSolver;
 import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
 import rectocarto.data.lp.MinimizationProblem;
 import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.ProblemFile;
 import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
 
+/**
+ * Builds the bilinear program whose solutions are the rectangular cartograms
+ * of a subdivision with a regular edge labeling.
+ *
+ * The rows of the program are generated by parallel tasks, directly into the
+ * primitive arrays of its constraint matrix, which is what the solvers read.
+ * The Constraint objects that the rest of the code works with, such as the
+ * feasible-solution search, the restrictions to linear programs and problem
+ * files, are built from the matrix when they are first requested.
+ * Incremental updates replace individual rows by new constraint objects, and
+ * the matrix is compiled from those on its next use.
+ */
 public class SubdivisionToBilinearProblem {
 
     static final String MAX_ERROR_VARIABLE_NAME = "E_MAX";
+    /**
+     * Changes whenever the problem construction changes, so that cached
+     * problems built by earlier versions are not reused.
+     */
+    static final int CACHE_VERSION = 1;
+    private static final String HORIZONTAL_GROUP = "horizontal";
+    private static final String VERTICAL_GROUP = "vertical";
+    private static final String ERROR_GROUP = "error";
+    private static final int BLOCK_SIZE = 64; // Faces or separations per parallel task
+    private static final int SEPARATION_TERMS = 2; // successor - predecessor
+    private static final int ASPECT_RATIO_TERMS = 4; // right, left, top, bottom
+    private static final int AREA_TERMS = 1; // err; the area itself is bilinear
+    private static final int AREA_BILINEAR_TERMS = 4;
+    private static final int MAX_ERROR_TERMS = 2; // max - err
 
     // User-specified variables
     private final Subdivision sub;
     private final CartogramSettings settings;
+    private final Path cacheDirectory; // null if problems are not cached
+    private final ForkJoinPool pool; // Generates the constraints
     // Variables used internally by the class
     private MinimizationProblem problem;
+    private VariableRegistry variables; // The registry of the problem, if it was constructed
     Map<SubdivisionFace, FaceSegments> segments; // DEBUG: non-oprivate for testing purposes TODO
-    private Solution feasibleSolution;
+    private Solution feasibleSolution; // Only set once the search for it converged
+    private boolean feasibleSolutionConverged = false;
     private final Map<SubdivisionFace, String> errorVariables = new HashMap<>();
     Map<String, Map<String, PredecessorRelation>> predecessors; // DEBUG: non-oprivate for testing purposes TODO
     Map<String, Set<String>> successors; // DEBUG: non-oprivate for testing purposes TODO
+    private Map<String, Set<String>> cachedVariableGroups; // Only set if the problem was read from the cache
+    private SegmentIdentification.IncrementalSegments segmentTracker; // Only set if the problem was constructed
+    private boolean cacheable = false; // Whether the problem was constructed or read from scratch, and not updated since
+    private double weightToArea; // The desired area of a region per unit of weight
+    // Bookkeeping for incremental updates
+    private final List<Object> rowKeys = new ArrayList<>(); // What each constraint of the problem is for
+    private final Map<Object, Integer> rowOfKey = new HashMap<>();
+    private Runnable pendingRowKeys; // Records the keys of the generated rows; null once they are recorded
+    private final Map<Object, List<Separation>> separationsBySource = new HashMap<>(); // The separations required by each face and edge
+    private final Map<Pair<String, String>, int[]> separationCounts = new HashMap<>(); // The number of STANDARD and SEA separations required between a successor and predecessor
 
     public SubdivisionToBilinearProblem(Subdivision sub, CartogramSettings settings) {
+        this(sub, settings, null);
+    }
+
+    /**
+     * Creates a builder that caches its problem and feasible solution in the
+     * given directory, keyed on the subdivision, its regular edge labeling and
+     * the settings. If a matching problem was cached before, it is read from
+     * disk instead of constructed. A constructed problem is cached right away;
+     * the feasible solution is added to its entry once a search for it
+     * converges.
+     *
+     * @param sub
+     * @param settings
+     * @param cacheDirectory
+     */
+    public SubdivisionToBilinearProblem(Subdivision sub, CartogramSettings settings, Path cacheDirectory) {
+        this(sub, settings, cacheDirectory, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a builder that caches its problem as above, if the cache
+     * directory is not null, and generates the constraints of the problem on
+     * the given pool.
+     *
+     * @param sub
+     * @param settings
+     * @param cacheDirectory
+     * @param pool
+     */
+    public SubdivisionToBilinearProblem(Subdivision sub, CartogramSettings settings, Path cacheDirectory, ForkJoinPool pool) {
         this.sub = sub;
         this.settings = settings;
+        this.cacheDirectory = cacheDirectory;
+        this.pool = pool;
     }
 
     /**
@@ -62,9 +153,7 @@ public class SubdivisionToBilinearProblem {
      * @return
      */
     public MinimizationProblem getProblem() {
-        if (problem == null) {
-            constructProblem();
-        }
+        ensureProblem();
 
         return problem;
     }
@@ -75,25 +164,196 @@ public class SubdivisionToBilinearProblem {
      * @return
      */
     public Solution getFeasibleSolution() {
+        return getFeasibleSolution(Deadline.none());
+    }
+
+    /**
+     * Returns a feasible solution to the bilinear optimization problem, found
+     * before the given deadline. If the deadline expires before the search for
+     * a good solution converged, the best solution found so far is returned,
+     * but not remembered, so that a later call can search again. Only a
+     * converged solution is written to the cache.
+     *
+     * @param deadline
+     * @return
+     */
+    public Solution getFeasibleSolution(Deadline deadline) {
+        if (feasibleSolution == null) {
+            ensureProblem();
+        }
+
         if (feasibleSolution == null) {
-            if (problem == null) {
-                constructProblem();
+            if (segments == null) {
+                identifySegments(); // The problem was read from a cache entry without a solution
             }
 
-            feasibleSolution = FeasibleSolutionBuilder.constructFeasibleSolution3(sub, settings, problem, segments, predecessors, successors, new CLPSolver());
+            Pair<Solution, Boolean> result = FeasibleSolutionBuilder.constructFeasibleSolution3(sub, settings, problem, segments, predecessors, successors, new PresolvingSolver(new CLPSolver()), deadline);
+            feasibleSolutionConverged = result.getSecond();
+
+            if (!feasibleSolutionConverged) {
+                return result.getFirst();
+            }
+
+            feasibleSolution = result.getFirst();
+
+            if (cacheDirectory != null && cacheable) {
+                writeToCache();
+            }
+        } else {
+            feasibleSolutionConverged = true;
         }
 
         return feasibleSolution;
     }
 
+    /**
+     * Returns whether the search for the feasible solution returned by the
+     * last call to getFeasibleSolution converged before its deadline.
+     *
+     * @return
+     */
+    public boolean isFeasibleSolutionConverged() {
+        return feasibleSolutionConverged;
+    }
+
+    /**
+     * Updates the problem after the given alternating 4-cycle was flipped in
+     * the regular edge labeling of the subdivision's dual graph.
+     *
+     * @param fourCycle
+     * @see #update(java.util.Collection)
+     */
+    public void update(Edge[] fourCycle) {
+        update(sub.getDualGraph().getRegularEdgeLabeling().getGraph().getEdgesInside(fourCycle));
+    }
+
+    /**
+     * Updates the problem after the labels of the given edges changed in the
+     * regular edge labeling of the subdivision's dual graph, as they do when
+     * a search flips an alternating 4-cycle. Only the segments that contain a
+     * side of a face incident to a changed edge are identified again, and
+     * only the constraints of the faces and edges around these segments are
+     * replaced, so the work is proportional to the size of the flip rather
+     * than that of the subdivision. The constraint matrix is compiled again
+     * on its next use.
+     *
+     * Segments that disappear keep their variable, fixed to 0, and new
+     * segments may get new variables. The feasible solution is discarded. If
+     * the problem was read from the cache, it is simply read or constructed
+     * again for the new labeling.
+     *
+     * @param changedEdges
+     */
+    public void update(Collection<Edge> changedEdges) {
+        feasibleSolution = null;
+        cacheable = false; // Incremental updates may name the segments differently than a new construction
+
+        if (problem == null || segmentTracker == null) {
+            problem = null;
+            segments = null;
+            predecessors = null;
+            successors = null;
+            cachedVariableGroups = null;
+            return;
+        }
+
+        ensureRowKeys();
+
+        String[] oldFixedSegments = getFixedSegments();
+        SegmentIdentification.Update update = segmentTracker.update(changedEdges);
+
+        for (String segment : update.addedSegments) {
+            problem.setBounds(segment, MinimizationProblem.DEFAULT_LOWER_BOUND, MinimizationProblem.DEFAULT_UPPER_BOUND);
+            predecessors.put(segment, new HashMap<>());
+            successors.put(segment, new HashSet<>());
+        }
+
+        // Recompute the separations of all faces and edges around the changed segments
+        Set<Object> sources = new LinkedHashSet<>();
+
+        for (SubdivisionFace f : update.faces) {
+            if (!f.isBoundary()) {
+                sources.add(f);
+            }
+
+            sources.addAll(f.getCorrespondingVertex().getEdges());
+        }
+
+        Set<Pair<String, String>> changedPairs = new LinkedHashSet<>();
+
+        for (Object source : sources) {
+            List<Separation> old = separationsBySource.remove(source);
+
+            if (old != null) {
+                for (Separation separation : old) {
+                    countSeparation(separation, -1);
+                    changedPairs.add(separation.getKey());
+                }
+            }
+        }
+
+        for (Object source : sources) {
+            List<Separation> separations = (source instanceof Edge
+                    ? getEdgeSeparations((Edge) source)
+                    : getFaceSeparations((SubdivisionFace) source));
+
+            if (!separations.isEmpty()) {
+                separationsBySource.put(source, separations);
+
+                for (Separation separation : separations) {
+                    countSeparation(separation, 1);
+                    changedPairs.add(separation.getKey());
+                }
+            }
+        }
+
+        for (Pair<String, String> pair : changedPairs) {
+            updateSeparation(pair);
+        }
+
+        // Replace the constraints of the faces themselves
+        for (SubdivisionFace f : update.faces) {
+            if (!f.isBoundary() && !f.isSea()) {
+                List<Constraint> rows = buildConstraints(new int[]{ASPECT_RATIO_TERMS, ASPECT_RATIO_TERMS, AREA_TERMS, AREA_TERMS}, 2 * AREA_BILINEAR_TERMS, buffer -> {
+                    writeAspectRatioRows(buffer, 0, f);
+                    writeAreaRows(buffer, 2, 0, f);
+                });
+
+                for (int i = 0; i < rows.size(); i++) {
+                    setRow(new Pair<>(f, i), rows.get(i));
+                }
+            }
+        }
+
+        // Segments that disappeared occur in no constraint anymore
+        for (String segment : update.removedSegments) {
+            predecessors.remove(segment);
+            successors.remove(segment);
+            problem.fixVariable(segment, 0);
+        }
+
+        String[] fixedSegments = getFixedSegments();
+
+        for (int i = 0; i < fixedSegments.length; i++) {
+            if (!fixedSegments[i].equals(oldFixedSegments[i]) && !update.removedSegments.contains(oldFixedSegments[i])) {
+                problem.setBounds(oldFixedSegments[i], MinimizationProblem.DEFAULT_LOWER_BOUND, MinimizationProblem.DEFAULT_UPPER_BOUND);
+            }
+        }
+
+        fixBoundarySegments();
+        problem.invalidateConstraintMatrix();
+    }
+
     /**
      * Returns the set of variables representing horizontal segment positions.
      *
      * @return
      */
     public Set<String> getHorizontalSegmentVariables() {
-        if (problem == null) {
-            constructProblem();
+        ensureProblem();
+
+        if (cachedVariableGroups != null) {
+            return new HashSet<>(cachedVariableGroups.get(HORIZONTAL_GROUP));
         }
 
         Set<String> horizontal = new HashSet<>();
@@ -115,8 +375,10 @@ public class SubdivisionToBilinearProblem {
      * @return
      */
     public Set<String> getVerticalSegmentVariables() {
-        if (problem == null) {
-            constructProblem();
+        ensureProblem();
+
+        if (cachedVariableGroups != null) {
+            return new HashSet<>(cachedVariableGroups.get(VERTICAL_GROUP));
         }
 
         Set<String> vertical = new HashSet<>();
@@ -138,8 +400,10 @@ public class SubdivisionToBilinearProblem {
      * @return
      */
     public Set<String> getErrorVariables() {
-        if (problem == null) {
-            constructProblem();
+        ensureProblem();
+
+        if (cachedVariableGroups != null) {
+            return new HashSet<>(cachedVariableGroups.get(ERROR_GROUP));
         }
 
         Set<String> error = new HashSet<>(errorVariables.values());
@@ -153,6 +417,116 @@ public class SubdivisionToBilinearProblem {
         return error;
     }
 
+    private void ensureProblem() {
+        if (problem == null && !readFromCache()) {
+            constructProblem();
+
+            if (cacheDirectory != null) {
+                writeToCache();
+            }
+        }
+    }
+
+    /**
+     * Reads the problem, variable sets and, if present, feasible solution from
+     * the cache.
+     *
+     * @return whether a valid cache entry was found
+     */
+    private boolean readFromCache() {
+        if (cacheDirectory == null) {
+            return false;
+        }
+
+        try {
+            Path file = getCacheFile();
+
+            if (!Files.exists(file)) {
+                return false;
+            }
+
+            ProblemFile cached = ProblemFile.load(file);
+
+            if (!cached.getVariableGroups().keySet().containsAll(Arrays.asList(HORIZONTAL_GROUP, VERTICAL_GROUP, ERROR_GROUP))) {
+                return false;
+            }
+
+            problem = cached.getProblem();
+            feasibleSolution = cached.getSolution();
+            cachedVariableGroups = cached.getVariableGroups();
+            cacheable = true;
+            return true;
+        } catch (IOException ex) {
+            // Corrupt or outdated entries are rebuilt and overwritten
+            return false;
+        }
+    }
+
+    private void writeToCache() {
+        try {
+            Map<String, Set<String>> groups = new HashMap<>();
+            groups.put(HORIZONTAL_GROUP, getHorizontalSegmentVariables());
+            groups.put(VERTICAL_GROUP, getVerticalSegmentVariables());
+            groups.put(ERROR_GROUP, getErrorVariables());
+
+            Files.createDirectories(cacheDirectory);
+            ProblemFile.save(getCacheFile(), problem, feasibleSolution, groups);
+        } catch (IOException ex) {
+            // The cache is only an optimization; the problem is simply constructed again next time
+            System.err.println("Could not cache the problem: " + ex.getMessage());
+        }
+    }
+
+    private Path getCacheFile() throws IOException {
+        return cacheDirectory.resolve(getCacheKey(sub, settings) + ".rclp");
+    }
+
+    /**
+     * Returns a hash of everything the problem is constructed from: the
+     * subdivision, the regular edge labeling of its dual graph, and the
+     * settings.
+     *
+     * @param sub
+     * @param settings
+     * @return
+     * @throws IOException
+     */
+    static String getCacheKey(Subdivision sub, CartogramSettings settings) throws IOException {
+        StringWriter text = new StringWriter();
+
+        try (BufferedWriter out = new BufferedWriter(text)) {
+            out.write("Version " + CACHE_VERSION);
+            out.newLine();
+            sub.save(out);
+
+            Graph dual = sub.getDualGraph();
+            RegularEdgeLabeling labeling = dual.getRegularEdgeLabeling();
+
+            for (Edge edge : dual.getEdges()) {
+                Pair<Graph.Labeling, Edge.Direction> label = (labeling == null ? null : labeling.get(edge));
+                out.write(label == null ? "-" : label.getFirst() + " " + label.getSecond());
+                out.newLine();
+            }
+
+            out.write(settings.cartogramWidth + " " + settings.cartogramHeight + " " + settings.boundaryWidth + " "
+                    + settings.minimumSeaDimension + " " + settings.minimumFeatureSize + " " + settings.maximumAspectRatio + " "
+                    + settings.seaAreaFraction + " " + settings.objective);
+        }
+
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(2 * hash.length);
+
+            for (byte b : hash) {
+                key.append(String.format("%02x", b));
+            }
+
+            return key.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new InternalError("SHA-256 is not available.", ex);
+        }
+    }
+
     /**
      * Constructs the appropriate bilinear optimization problem for a given
      * subdivision with these cartogram settings.
@@ -164,8 +538,15 @@ public class SubdivisionToBilinearProblem {
     private void constructProblem() {
         checkForIssues();
 
-        segments = SegmentIdentification.identifySegments(sub);
-        problem = new MinimizationProblem();
+        segmentTracker = new SegmentIdentification.IncrementalSegments(sub);
+        segments = segmentTracker.getSegments();
+        variables = registerVariables();
+        problem = new MinimizationProblem(variables);
+        rowKeys.clear();
+        rowOfKey.clear();
+        pendingRowKeys = null;
+        separationsBySource.clear();
+        separationCounts.clear();
 
         problem.setObjective(buildObjectiveFunction());
 
@@ -173,13 +554,65 @@ public class SubdivisionToBilinearProblem {
         predecessors = predAndSucc.getFirst();
         successors = predAndSucc.getSecond();
 
-        addBoundaryConstraints();
-        addPlanarityAndAdjacencyConstraints();
-        addAspectRatioConstraints();
-        addAreaConstraints();
+        fixBoundarySegments();
+        computeWeightToArea();
+        addConstraints();
+        cacheable = true;
+    }
+
+    /**
+     * Identifies the segments and the order between them for a problem that
+     * was read from the cache, as the search for a feasible solution needs
+     * them. The problem itself is kept; it was constructed from the same
+     * segments, as segment identification names them deterministically.
+     */
+    private void identifySegments() {
+        segments = SegmentIdentification.identifySegments(sub);
+        separationsBySource.clear();
+        separationCounts.clear();
+
+        Pair<Map<String, Map<String, PredecessorRelation>>, Map<String, Set<String>>> predAndSucc = findPredecessorsAndSuccessors();
+        predecessors = predAndSucc.getFirst();
+        successors = predAndSucc.getSecond();
+    }
+
+    /**
+     * Registers all variables up front, so that the horizontal segments, the
+     * vertical segments and the error variables each occupy a contiguous range
+     * of ids.
+     *
+     * @return
+     */
+    private VariableRegistry registerVariables() {
+        VariableRegistry variables = new VariableRegistry(3 * sub.getTopLevelFaces().size());
+
+        for (SubdivisionFace f : sub.getTopLevelFaces()) {
+            if (!f.isBoundary()) {
+                variables.register(segments.get(f).bottom);
+                variables.register(segments.get(f).top);
+            }
+        }
+
+        for (SubdivisionFace f : sub.getTopLevelFaces()) {
+            if (!f.isBoundary()) {
+                variables.register(segments.get(f).left);
+                variables.register(segments.get(f).right);
+            }
+        }
 
-        //problem = ProblemReduction.substituteFixedVariables(problem);
-        //problem = ProblemReduction.removeDuplicateConstraints(problem);
+        for (SubdivisionFace f : sub.getTopLevelFaces()) {
+            if (!f.isBoundary() && !f.isSea()) {
+                variables.register(getErrorVariableName(f));
+            }
+        }
+
+        if (settings.objective == CartogramSettings.Objective.MAX_ERROR
+                || settings.objective == CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR
+                || settings.objective == CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR_SQUARED) {
+            variables.register(MAX_ERROR_VARIABLE_NAME);
+        }
+
+        return variables;
     }
 
     private void checkForIssues() {
@@ -220,46 +653,124 @@ public class SubdivisionToBilinearProblem {
 
         // planarity
         for (SubdivisionFace f : sub.getTopLevelFaces()) {
-            if (f.isBoundary()) {
-                continue;
+            if (!f.isBoundary()) {
+                addSeparations(f, getFaceSeparations(f), predecessors, successors);
             }
-
-            FaceSegments segs = segments.get(f);
-            PredecessorRelation rel = (f.isSea() ? PredecessorRelation.SEA : PredecessorRelation.STANDARD);
-
-            addPredecessor(segs.right, segs.left, rel, predecessors, successors);
-            addPredecessor(segs.top, segs.bottom, rel, predecessors, successors);
         }
 
         // adjacencies
-        RegularEdgeLabeling rel = sub.getDualGraph().getRegularEdgeLabeling();
-
         for (Edge edge : sub.getDualGraph().getEdges()) {
-            Pair<Graph.Labeling, Edge.Direction> label = rel.get(edge);
+            List<Separation> separations = getEdgeSeparations(edge);
 
-            if (label.getFirst() == Graph.Labeling.NONE) {
-                continue;
+            if (!separations.isEmpty()) {
+                addSeparations(edge, separations, predecessors, successors);
             }
+        }
+
+        return new Pair<>(predecessors, successors);
+    }
 
-            SubdivisionFace fromFace = sub.getFace(edge.getOrigin());
-            SubdivisionFace toFace = sub.getFace(edge.getDestination());
+    /**
+     * A segment that must lie at least a certain distance after another one.
+     */
+    private static class Separation {
 
-            if (fromFace.isBoundary() || toFace.isBoundary()) {
-                continue;
-            }
+        final String successor;
+        final String predecessor;
+        final PredecessorRelation relation; // STANDARD or SEA
 
-            if (label.getFirst() == Graph.Labeling.BLUE) { // Horizontal; left-to-right
-                // bottom <= top for both combinations
-                addPredecessor(segments.get(fromFace).top, segments.get(toFace).bottom, PredecessorRelation.STANDARD, predecessors, successors);
-                addPredecessor(segments.get(toFace).top, segments.get(fromFace).bottom, PredecessorRelation.STANDARD, predecessors, successors);
-            } else if (label.getFirst() == Graph.Labeling.RED) { // Vertical; bottom-to-top
-                // left <= right for both combinations
-                addPredecessor(segments.get(fromFace).right, segments.get(toFace).left, PredecessorRelation.STANDARD, predecessors, successors);
-                addPredecessor(segments.get(toFace).right, segments.get(fromFace).left, PredecessorRelation.STANDARD, predecessors, successors);
-            }
+        Separation(String successor, String predecessor, PredecessorRelation relation) {
+            this.successor = successor;
+            this.predecessor = predecessor;
+            this.relation = relation;
         }
 
-        return new Pair<>(predecessors, successors);
+        Pair<String, String> getKey() {
+            return new Pair<>(successor, predecessor);
+        }
+    }
+
+    /**
+     * Returns the separations required by the planarity of the given face.
+     */
+    private List<Separation> getFaceSeparations(SubdivisionFace f) {
+        FaceSegments segs = segments.get(f);
+        PredecessorRelation rel = (f.isSea() ? PredecessorRelation.SEA : PredecessorRelation.STANDARD);
+
+        return Arrays.asList(
+                new Separation(segs.right, segs.left, rel),
+                new Separation(segs.top, segs.bottom, rel));
+    }
+
+    /**
+     * Returns the separations required by the adjacency that the given edge
+     * of the dual graph represents.
+     */
+    private List<Separation> getEdgeSeparations(Edge edge) {
+        Pair<Graph.Labeling, Edge.Direction> label = sub.getDualGraph().getRegularEdgeLabeling().get(edge);
+
+        if (label == null || label.getFirst() == Graph.Labeling.NONE) {
+            return Collections.emptyList();
+        }
+
+        SubdivisionFace fromFace = sub.getFace(edge.getOrigin());
+        SubdivisionFace toFace = sub.getFace(edge.getDestination());
+
+        if (fromFace.isBoundary() || toFace.isBoundary()) {
+            return Collections.emptyList();
+        }
+
+        if (label.getFirst() == Graph.Labeling.BLUE) { // Horizontal; left-to-right
+            // bottom <= top for both combinations
+            return Arrays.asList(
+                    new Separation(segments.get(fromFace).top, segments.get(toFace).bottom, PredecessorRelation.STANDARD),
+                    new Separation(segments.get(toFace).top, segments.get(fromFace).bottom, PredecessorRelation.STANDARD));
+        } else { // Vertical; bottom-to-top
+            // left <= right for both combinations
+            return Arrays.asList(
+                    new Separation(segments.get(fromFace).right, segments.get(toFace).left, PredecessorRelation.STANDARD),
+                    new Separation(segments.get(toFace).right, segments.get(fromFace).left, PredecessorRelation.STANDARD));
+        }
+    }
+
+    private void addSeparations(Object source, List<Separation> separations, Map<String, Map<String, PredecessorRelation>> predecessors, Map<String, Set<String>> successors) {
+        separationsBySource.put(source, separations);
+
+        for (Separation separation : separations) {
+            countSeparation(separation, 1);
+            addPredecessor(separation.successor, separation.predecessor, separation.relation, predecessors, successors);
+        }
+    }
+
+    private void countSeparation(Separation separation, int change) {
+        separationCounts.computeIfAbsent(separation.getKey(), key -> new int[2])[separation.relation == PredecessorRelation.SEA ? 1 : 0] += change;
+    }
+
+    /**
+     * Brings the predecessor relation and the constraint between the given
+     * successor and predecessor in line with their separation counts.
+     */
+    private void updateSeparation(Pair<String, String> pair) {
+        String successor = pair.getFirst();
+        String predecessor = pair.getSecond();
+        int[] counts = separationCounts.get(pair);
+
+        if (counts == null || counts[0] + counts[1] == 0) {
+            separationCounts.remove(pair);
+            predecessors.get(successor).remove(predecessor);
+            successors.get(predecessor).remove(successor);
+
+            if (rowOfKey.containsKey(pair)) {
+                removeRow(pair);
+            }
+        } else {
+            PredecessorRelation rel = (counts[0] > 0
+                    ? (counts[1] > 0 ? PredecessorRelation.BOTH : PredecessorRelation.STANDARD)
+                    : PredecessorRelation.SEA);
+            predecessors.get(successor).put(predecessor, rel);
+            successors.get(predecessor).add(successor);
+            setRow(pair, buildConstraints(new int[]{SEPARATION_TERMS}, 0, buffer -> writeSeparationRow(buffer, 0, successor, predecessor, rel)).get(0));
+        }
     }
 
     private void addPredecessor(String successor, String predecessor, PredecessorRelation rel, Map<String, Map<String, PredecessorRelation>> predecessors, Map<String, Set<String>> successors) {
@@ -335,257 +846,393 @@ public class SubdivisionToBilinearProblem {
         }
     }
 
-    private void addBoundaryConstraints() {
+    private void fixBoundarySegments() {
         // North.bottom = cartogramHeight
-        problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                new Pair<>(1d, segments.get(sub.getNorthFace()).bottom)),
-                Constraint.Comparison.EQUAL,
-                settings.cartogramHeight));
+        problem.fixVariable(segments.get(sub.getNorthFace()).bottom, settings.cartogramHeight);
 
         // East.left = cartogramWidth
-        problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                new Pair<>(1d, segments.get(sub.getEastFace()).left)),
-                Constraint.Comparison.EQUAL,
-                settings.cartogramWidth));
+        problem.fixVariable(segments.get(sub.getEastFace()).left, settings.cartogramWidth);
 
         // South.top = 0
-        problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                new Pair<>(1d, segments.get(sub.getSouthFace()).top)),
-                Constraint.Comparison.EQUAL,
-                0));
+        problem.fixVariable(segments.get(sub.getSouthFace()).top, 0);
 
         // West.right = 0
-        problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                new Pair<>(1d, segments.get(sub.getWestFace()).right)),
-                Constraint.Comparison.EQUAL,
-                0));
+        problem.fixVariable(segments.get(sub.getWestFace()).right, 0);
     }
 
-    private void addPlanarityAndAdjacencyConstraints() {
+    /**
+     * Adds the separation, aspect ratio and area constraints, in that order.
+     * The rows for blocks of separations and faces are generated in parallel,
+     * straight into the arrays of the constraint matrix: every kind of row
+     * has a fixed number of terms, so each task knows up front where its rows
+     * go, and looks up the ids of its variables, which are all registered
+     * beforehand. This keeps the order of the rows independent of the
+     * scheduling. The problem builds its constraint objects from the matrix
+     * when they are first requested, and the keys of the rows, which only
+     * incremental updates need, are recorded on the first update.
+     */
+    private void addConstraints() {
+        // Fix the order of the separations and faces
+        List<String> separationSuccessors = new ArrayList<>();
+        List<String> separationPredecessors = new ArrayList<>();
+
         for (String segment : predecessors.keySet()) {
-            for (Map.Entry<String, PredecessorRelation> entry : predecessors.get(segment).entrySet()) {
-                String segment2 = entry.getKey();
-                PredecessorRelation rel = entry.getValue();
-
-                double sep;
-
-                switch (rel) {
-                    case STANDARD:
-                        sep = settings.minimumFeatureSize;
-                        break;
-                    case SEA:
-                        sep = settings.minimumSeaDimension;
-                        break;
-                    case BOTH:
-                        sep = Math.max(settings.minimumFeatureSize, settings.minimumSeaDimension);
-                        break;
-                    default:
-                        throw new InternalError("Unrecognized PredecessorRelation: " + rel);
+            for (String segment2 : predecessors.get(segment).keySet()) {
+                separationSuccessors.add(segment);
+                separationPredecessors.add(segment2);
+            }
+        }
+
+        List<SubdivisionFace> faces = new ArrayList<>();
+
+        for (SubdivisionFace f : sub.getTopLevelFaces()) {
+            if (!f.isBoundary() && !f.isSea()) {
+                faces.add(f);
+            }
+        }
+
+        boolean maxError = hasMaxError();
+        int nSeparations = separationSuccessors.size();
+        int nFaces = faces.size();
+        int areaRowsPerFace = (maxError ? 3 : 2);
+        int aspectRatioStart = nSeparations;
+        int areaStart = aspectRatioStart + 2 * nFaces;
+        int nRows = areaStart + areaRowsPerFace * nFaces;
+
+        int[] rowStart = new int[nRows + 1];
+
+        for (int row = 0; row < nRows; row++) {
+            int nTerms;
+
+            if (row < aspectRatioStart) {
+                nTerms = SEPARATION_TERMS;
+            } else if (row < areaStart) {
+                nTerms = ASPECT_RATIO_TERMS;
+            } else if ((row - areaStart) % areaRowsPerFace < 2) {
+                nTerms = AREA_TERMS;
+            } else {
+                nTerms = MAX_ERROR_TERMS;
+            }
+
+            rowStart[row + 1] = rowStart[row] + nTerms;
+        }
+
+        RowBuffer rows = new RowBuffer(rowStart, 2 * AREA_BILINEAR_TERMS * nFaces);
+
+        ParallelFor.run(pool, nSeparations, BLOCK_SIZE, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                String successor = separationSuccessors.get(i);
+                String predecessor = separationPredecessors.get(i);
+                writeSeparationRow(rows, i, successor, predecessor, predecessors.get(successor).get(predecessor));
+            }
+        });
+
+        ParallelFor.run(pool, nFaces, BLOCK_SIZE, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                SubdivisionFace f = faces.get(i);
+                int areaRow = areaStart + areaRowsPerFace * i;
+
+                writeAspectRatioRows(rows, aspectRatioStart + 2 * i, f);
+                writeAreaRows(rows, areaRow, 2 * AREA_BILINEAR_TERMS * i, f);
+
+                if (maxError) {
+                    writeMaxErrorRow(rows, areaRow + 2, f);
                 }
+            }
+        });
 
-                // segment => segment2 + sep
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segment),
-                        new Pair<>(-1d, segment2)),
-                        Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                        sep));
+        problem.setConstraints(rows.toMatrix(variables.size()));
+
+        pendingRowKeys = () -> {
+            for (int i = 0; i < nSeparations; i++) {
+                addRowKey(new Pair<>(separationSuccessors.get(i), separationPredecessors.get(i)));
+            }
+
+            for (SubdivisionFace f : faces) {
+                addRowKey(new Pair<>(f, 0));
+                addRowKey(new Pair<>(f, 1));
             }
+
+            for (SubdivisionFace f : faces) {
+                addRowKey(new Pair<>(f, 2));
+                addRowKey(new Pair<>(f, 3));
+
+                if (maxError) {
+                    addRowKey(new Pair<>(f, 4));
+                }
+            }
+        };
+    }
+
+    /**
+     * Rows of the problem in the primitive arrays of a constraint matrix, with
+     * the position of each row's terms fixed up front. Different rows can be
+     * written concurrently.
+     */
+    private static class RowBuffer {
+
+        final int[] rowStart;
+        final int[] columns;
+        final double[] coefficients;
+        final byte[] comparisons;
+        final double[] rightHandSides;
+        final int[] bilinearRows;
+        final int[] bilinearColumns1;
+        final int[] bilinearColumns2;
+        final double[] bilinearCoefficients;
+
+        /**
+         * @param rowStart the position of the first linear term of each row,
+         * followed by the total number of linear terms
+         * @param nBilinearTerms
+         */
+        RowBuffer(int[] rowStart, int nBilinearTerms) {
+            int nRows = rowStart.length - 1;
+            int nTerms = rowStart[nRows];
+
+            this.rowStart = rowStart;
+            columns = new int[nTerms];
+            coefficients = new double[nTerms];
+            comparisons = new byte[nRows];
+            rightHandSides = new double[nRows];
+            bilinearRows = new int[nBilinearTerms];
+            bilinearColumns1 = new int[nBilinearTerms];
+            bilinearColumns2 = new int[nBilinearTerms];
+            bilinearCoefficients = new double[nBilinearTerms];
+        }
+
+        void setRow(int row, Constraint.Comparison comparison, double rightHandSide) {
+            comparisons[row] = ConstraintMatrix.encode(comparison);
+            rightHandSides[row] = rightHandSide;
+        }
+
+        /**
+         * Sets the given linear term of the given row.
+         *
+         * @param row
+         * @param term the index of the term within the row
+         * @param column
+         * @param coefficient
+         */
+        void setTerm(int row, int term, int column, double coefficient) {
+            columns[rowStart[row] + term] = column;
+            coefficients[rowStart[row] + term] = coefficient;
+        }
+
+        /**
+         * Sets the bilinear term at the given position. Bilinear terms must be
+         * positioned in the order of their rows.
+         *
+         * @param position
+         * @param row
+         * @param column1
+         * @param column2
+         * @param coefficient
+         */
+        void setBilinearTerm(int position, int row, int column1, int column2, double coefficient) {
+            bilinearRows[position] = row;
+            bilinearColumns1[position] = column1;
+            bilinearColumns2[position] = column2;
+            bilinearCoefficients[position] = coefficient;
+        }
+
+        ConstraintMatrix toMatrix(int nColumns) {
+            return new ConstraintMatrix(nColumns, rowStart, columns, coefficients, comparisons, rightHandSides,
+                    bilinearRows, bilinearColumns1, bilinearColumns2, bilinearCoefficients);
         }
     }
 
-    private void addBoundaryConstraint(SubdivisionFace face) {
-        switch (face.getName()) {
-            case "NORTH":
-                // bottom = cartogramHeight
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(face).bottom)),
-                        Constraint.Comparison.EQUAL,
-                        settings.cartogramHeight));
-                break;
-            case "EAST":
-                // left = cartogramWidth
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(face).left)),
-                        Constraint.Comparison.EQUAL,
-                        settings.cartogramWidth));
+    /**
+     * Returns the constraint objects of rows written by the given writer into
+     * a buffer with the given number of terms per row, for the few rows that
+     * an incremental update replaces.
+     */
+    private List<Constraint> buildConstraints(int[] nTerms, int nBilinearTerms, Consumer<RowBuffer> writer) {
+        int[] rowStart = new int[nTerms.length + 1];
+
+        for (int row = 0; row < nTerms.length; row++) {
+            rowStart[row + 1] = rowStart[row] + nTerms[row];
+        }
+
+        RowBuffer rows = new RowBuffer(rowStart, nBilinearTerms);
+        writer.accept(rows);
+        return rows.toMatrix(variables.size()).toConstraints(variables);
+    }
+
+    private void writeSeparationRow(RowBuffer rows, int row, String segment, String segment2, PredecessorRelation rel) {
+        double sep;
+
+        switch (rel) {
+            case STANDARD:
+                sep = settings.minimumFeatureSize;
                 break;
-            case "SOUTH":
-                // top = 0
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(face).top)),
-                        Constraint.Comparison.EQUAL,
-                        0));
+            case SEA:
+                sep = settings.minimumSeaDimension;
                 break;
-            case "WEST":
-                // right = 0
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(face).right)),
-                        Constraint.Comparison.EQUAL,
-                        0));
+            case BOTH:
+                sep = Math.max(settings.minimumFeatureSize, settings.minimumSeaDimension);
                 break;
             default:
-                throw new IllegalArgumentException("Unexpected boundary region name: " + face.getName());
+                throw new InternalError("Unrecognized PredecessorRelation: " + rel);
         }
-    }
-
-    private void addPlanarityConstraints() {
-        for (SubdivisionFace f : sub.getTopLevelFaces()) {
-            if (f.isBoundary()) {
-                addBoundaryConstraint(f);
-                continue;
-            }
-
-            FaceSegments segs = segments.get(f);
-            double sep = (f.isSea() ? Math.max(settings.minimumSeaDimension, settings.minimumFeatureSize) : settings.minimumFeatureSize);
 
-            // f.right - f.left => eps
-            problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                    new Pair<>(1d, segs.right),
-                    new Pair<>(-1d, segs.left)),
-                    Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                    sep));
-            // f.top - f.bottom => eps
-            problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                    new Pair<>(1d, segs.top),
-                    new Pair<>(-1d, segs.bottom)),
-                    Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                    sep));
-        }
+        // segment => segment2 + sep
+        rows.setRow(row, Constraint.Comparison.GREATER_THAN_OR_EQUAL, sep);
+        rows.setTerm(row, 0, variables.getId(segment), 1);
+        rows.setTerm(row, 1, variables.getId(segment2), -1);
     }
 
     /**
-     * TODO: compress multiple same-label edges incident to one face into fewer
-     * constraints TODO: false sea adjacencies
+     * Returns the segments whose positions are fixed by fixBoundarySegments.
      */
-    private void addAdjacencyConstraints() {
-        RegularEdgeLabeling rel = sub.getDualGraph().getRegularEdgeLabeling();
-
-        for (Edge edge : sub.getDualGraph().getEdges()) {
-            Pair<Graph.Labeling, Edge.Direction> label = rel.get(edge);
+    private String[] getFixedSegments() {
+        return new String[]{
+            segments.get(sub.getNorthFace()).bottom,
+            segments.get(sub.getEastFace()).left,
+            segments.get(sub.getSouthFace()).top,
+            segments.get(sub.getWestFace()).right
+        };
+    }
 
-            if (label.getFirst() == Graph.Labeling.NONE) {
-                continue;
-            }
+    /**
+     * Records what the next row of the problem is for.
+     */
+    private void addRowKey(Object key) {
+        rowOfKey.put(key, rowKeys.size());
+        rowKeys.add(key);
+    }
 
-            SubdivisionFace fromFace = sub.getFace(edge.getOrigin());
-            SubdivisionFace toFace = sub.getFace(edge.getDestination());
+    /**
+     * Adds a constraint to the problem, recording what it is for.
+     */
+    private void addRow(Object key, Constraint constraint) {
+        addRowKey(key);
+        problem.addConstraint(constraint);
+    }
 
-            if (fromFace.isBoundary() || toFace.isBoundary()) {
-                continue;
-            }
+    /**
+     * Replaces the constraint for the given key, or adds it if there is none.
+     */
+    private void setRow(Object key, Constraint constraint) {
+        Integer row = rowOfKey.get(key);
 
-            if (label.getFirst() == Graph.Labeling.BLUE) { // Horizontal; left-to-right
-                // bottom <= top for both combinations
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(fromFace).top),
-                        new Pair<>(-1d, segments.get(toFace).bottom)),
-                        Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                        settings.minimumFeatureSize));
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(toFace).top),
-                        new Pair<>(-1d, segments.get(fromFace).bottom)),
-                        Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                        settings.minimumFeatureSize));
-            } else if (label.getFirst() == Graph.Labeling.RED) { // Vertical; bottom-to-top
-                // left <= right for both combinations
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(toFace).right),
-                        new Pair<>(-1d, segments.get(fromFace).left)),
-                        Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                        settings.minimumFeatureSize));
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segments.get(fromFace).right),
-                        new Pair<>(-1d, segments.get(toFace).left)),
-                        Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                        settings.minimumFeatureSize));
-            }
+        if (row == null) {
+            addRow(key, constraint);
+        } else {
+            problem.getConstraints().set(row, constraint);
         }
     }
 
-    private void addAspectRatioConstraints() {
-        for (SubdivisionFace f : sub.getTopLevelFaces()) {
-            if (!f.isBoundary() && !f.isSea()) {
-                FaceSegments segs = segments.get(f);
+    /**
+     * Removes the constraint for the given key by moving the last constraint
+     * into its place.
+     */
+    private void removeRow(Object key) {
+        int row = rowOfKey.remove(key);
+        List<Constraint> constraints = problem.getConstraints();
+        int last = constraints.size() - 1;
+
+        if (row != last) {
+            Object lastKey = rowKeys.get(last);
+            constraints.set(row, constraints.get(last));
+            rowKeys.set(row, lastKey);
+            rowOfKey.put(lastKey, row);
+        }
 
-                //     (right - left)/(top - bottom) <= maximumAR
-                // or: right - left <= maximumAR * (top - bottom)
-                // or: right - left - maximumAR * top + maximumAR * bottom <= 0
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segs.right),
-                        new Pair<>(-1d, segs.left),
-                        new Pair<>(-settings.maximumAspectRatio, segs.top),
-                        new Pair<>(settings.maximumAspectRatio, segs.bottom)),
-                        Constraint.Comparison.LESS_THAN_OR_EQUAL,
-                        0));
+        constraints.remove(last);
+        rowKeys.remove(last);
+    }
 
-                //     (top - bottom)/(right - left) <= maximumAR
-                // or: top - bottom - maximumAR * right + maximumAR * left <= 0
-                problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                        new Pair<>(1d, segs.top),
-                        new Pair<>(-1d, segs.bottom),
-                        new Pair<>(-settings.maximumAspectRatio, segs.right),
-                        new Pair<>(settings.maximumAspectRatio, segs.left)),
-                        Constraint.Comparison.LESS_THAN_OR_EQUAL,
-                        0));
-            }
+    /**
+     * Records what each generated row is for, if this has not been done yet.
+     */
+    private void ensureRowKeys() {
+        if (pendingRowKeys != null) {
+            pendingRowKeys.run();
+            pendingRowKeys = null;
         }
     }
 
-    private void addAreaConstraints() {
+    private void writeAspectRatioRows(RowBuffer rows, int row, SubdivisionFace f) {
+        FaceSegments segs = segments.get(f);
+        int right = variables.getId(segs.right);
+        int left = variables.getId(segs.left);
+        int top = variables.getId(segs.top);
+        int bottom = variables.getId(segs.bottom);
+
+        //     (right - left)/(top - bottom) <= maximumAR
+        // or: right - left <= maximumAR * (top - bottom)
+        // or: right - left - maximumAR * top + maximumAR * bottom <= 0
+        rows.setRow(row, Constraint.Comparison.LESS_THAN_OR_EQUAL, 0);
+        rows.setTerm(row, 0, right, 1);
+        rows.setTerm(row, 1, left, -1);
+        rows.setTerm(row, 2, top, -settings.maximumAspectRatio);
+        rows.setTerm(row, 3, bottom, settings.maximumAspectRatio);
+
+        //     (top - bottom)/(right - left) <= maximumAR
+        // or: top - bottom - maximumAR * right + maximumAR * left <= 0
+        rows.setRow(row + 1, Constraint.Comparison.LESS_THAN_OR_EQUAL, 0);
+        rows.setTerm(row + 1, 0, top, 1);
+        rows.setTerm(row + 1, 1, bottom, -1);
+        rows.setTerm(row + 1, 2, right, -settings.maximumAspectRatio);
+        rows.setTerm(row + 1, 3, left, settings.maximumAspectRatio);
+    }
+
+    private void computeWeightToArea() {
         // Count the total weight
         double totalWeight = sub.getTopLevelFaces().stream()
                 .filter(f -> !f.isBoundary() && !f.isSea())
                 .mapToDouble(SubdivisionFace::getWeight)
                 .sum();
-        double weightToArea = (settings.cartogramWidth * settings.cartogramHeight) / totalWeight;
+        weightToArea = (settings.cartogramWidth * settings.cartogramHeight) / totalWeight;
         
         if (sub.getTopLevelFaces().stream().anyMatch(f -> f.isSea() && !f.isBoundary())) {
             weightToArea *= (1 - settings.seaAreaFraction);
         }
+    }
 
-        for (SubdivisionFace f : sub.getTopLevelFaces()) {
-            if (!f.isBoundary() && !f.isSea()) {
-                double desiredArea = weightToArea * f.getWeight();
-                FaceSegments segs = segments.get(f);
-                String err = getErrorVariableName(f);
-
-                List<Pair<Double, Pair<String, String>>> area = Arrays.asList(
-                        new Pair<>(1d, new Pair<>(segs.right, segs.top)),
-                        new Pair<>(-1d, new Pair<>(segs.right, segs.bottom)),
-                        new Pair<>(-1d, new Pair<>(segs.left, segs.top)),
-                        new Pair<>(1d, new Pair<>(segs.left, segs.bottom))
-                );
-
-                //     area >= (1 - err) * desiredArea
-                // or: area + desiredArea * err >= desiredArea
-                problem.addConstraint(new Constraint.Bilinear(Arrays.asList(
-                        new Pair<>(desiredArea, err)),
-                        area,
-                        Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                        desiredArea));
-
-                //     area <= (1 + err) * desiredArea
-                // or: area - desiredArea * err <= desiredArea
-                problem.addConstraint(new Constraint.Bilinear(Arrays.asList(
-                        new Pair<>(-desiredArea, err)),
-                        area,
-                        Constraint.Comparison.LESS_THAN_OR_EQUAL,
-                        desiredArea));
-
-                if (settings.objective == CartogramSettings.Objective.MAX_ERROR
-                        || settings.objective == CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR
-                        || settings.objective == CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR_SQUARED) {
-                    // err <= max
-                    problem.addConstraint(new Constraint.Linear(Arrays.asList(
-                            new Pair<>(1d, MAX_ERROR_VARIABLE_NAME),
-                            new Pair<>(-1d, getErrorVariableName(f))),
-                            Constraint.Comparison.GREATER_THAN_OR_EQUAL,
-                            0));
-                }
-            }
+    private void writeAreaRows(RowBuffer rows, int row, int bilinearPosition, SubdivisionFace f) {
+        double desiredArea = weightToArea * f.getWeight();
+        FaceSegments segs = segments.get(f);
+        int err = variables.getId(getErrorVariableName(f)); // err >= 0 through its default lower bound
+
+        //     area >= (1 - err) * desiredArea
+        // or: area + desiredArea * err >= desiredArea
+        rows.setRow(row, Constraint.Comparison.GREATER_THAN_OR_EQUAL, desiredArea);
+        rows.setTerm(row, 0, err, desiredArea);
+
+        //     area <= (1 + err) * desiredArea
+        // or: area - desiredArea * err <= desiredArea
+        rows.setRow(row + 1, Constraint.Comparison.LESS_THAN_OR_EQUAL, desiredArea);
+        rows.setTerm(row + 1, 0, err, -desiredArea);
+
+        int right = variables.getId(segs.right);
+        int left = variables.getId(segs.left);
+        int top = variables.getId(segs.top);
+        int bottom = variables.getId(segs.bottom);
+
+        for (int i = 0; i < 2; i++) {
+            int position = bilinearPosition + AREA_BILINEAR_TERMS * i;
+            rows.setBilinearTerm(position, row + i, right, top, 1);
+            rows.setBilinearTerm(position + 1, row + i, right, bottom, -1);
+            rows.setBilinearTerm(position + 2, row + i, left, top, -1);
+            rows.setBilinearTerm(position + 3, row + i, left, bottom, 1);
         }
     }
 
+    private void writeMaxErrorRow(RowBuffer rows, int row, SubdivisionFace f) {
+        // err <= max
+        rows.setRow(row, Constraint.Comparison.GREATER_THAN_OR_EQUAL, 0);
+        rows.setTerm(row, 0, variables.getId(MAX_ERROR_VARIABLE_NAME), 1);
+        rows.setTerm(row, 1, variables.getId(getErrorVariableName(f)), -1);
+    }
+
+    private boolean hasMaxError() {
+        return settings.objective == CartogramSettings.Objective.MAX_ERROR
+                || settings.objective == CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR
+                || settings.objective == CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR_SQUARED;
+    }
+
     private String getErrorVariableName(SubdivisionFace face) {
         String err = errorVariables.get(face);
 
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+
+/**
+ * Solves many independent linear programs, such as those of a generation of
+ * the genetic algorithm or of a parameter sweep, in parallel. Each problem is
+ * solved on a thread of a bounded executor, by an instance leased from a
+ * solver pool, and its solution is delivered through a CompletableFuture.
+ *
+ * At most a fixed number of problems is pending (queued or being solved) at
+ * any time; submitting more blocks the caller until earlier problems finish,
+ * so a producer that is faster than the solvers does not build up an
+ * unbounded queue of problems in memory.
+ *
+ * Cancelling the future of a problem that has not started yet means it is
+ * never solved. A problem that is being solved runs to completion, as native
+ * solvers cannot be interrupted, but its result is discarded. Either way, a
+ * cancelled problem no longer counts as pending, so it makes room for the next
+ * one right away. Instances of this class can be shared between threads.
+ */
+public class BatchSolver {
+
+    private final SolverPool<? extends LinearSolver> pool;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Semaphore pending;
+
+    /**
+     * Creates a batch solver with a daemon thread for each instance in the
+     * pool, that allows four problems per thread to be pending.
+     *
+     * @param pool
+     */
+    public BatchSolver(SolverPool<? extends LinearSolver> pool) {
+        this(pool, 4 * pool.getCapacity());
+    }
+
+    /**
+     * Creates a batch solver with a daemon thread for each instance in the
+     * pool.
+     *
+     * @param pool
+     * @param maxPending the maximum number of problems that are queued or
+     * being solved at any time
+     */
+    public BatchSolver(SolverPool<? extends LinearSolver> pool, int maxPending) {
+        this(pool, maxPending, Executors.newFixedThreadPool(pool.getCapacity(), runnable -> {
+            Thread thread = new Thread(runnable, "BatchSolver");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public BatchSolver(SolverPool<? extends LinearSolver> pool, int maxPending, ExecutorService executor) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("At least one problem must be allowed to be pending.");
+        }
+
+        this.pool = pool;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.pending = new Semaphore(maxPending);
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Returns the number of problems that are currently queued or being
+     * solved.
+     *
+     * @return
+     */
+    public int getNumPending() {
+        return maxPending - pending.availablePermits();
+    }
+
+    /**
+     * Schedules the given problem, waiting until fewer than the maximum
+     * number of problems are pending.
+     *
+     * @param problem
+     * @return a future that completes with the solution, which is null if the
+     * solver failed, or exceptionally if the solver threw an exception
+     * @throws InterruptedException
+     */
+    public CompletableFuture<Solution> submit(MinimizationProblem problem) throws InterruptedException {
+        pending.acquire();
+        Task task = new Task(problem);
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.release();
+            throw ex;
+        }
+
+        return task.result;
+    }
+
+    /**
+     * Schedules all given problems, in order. This returns once the last
+     * problem is scheduled, which may have to wait for earlier problems to
+     * finish. If the calling thread is interrupted while waiting, the problems
+     * scheduled so far are cancelled.
+     *
+     * @param problems
+     * @return a future for the solution of each problem
+     * @throws InterruptedException
+     */
+    public List<CompletableFuture<Solution>> solveAll(List<MinimizationProblem> problems) throws InterruptedException {
+        List<CompletableFuture<Solution>> results = new ArrayList<>(problems.size());
+
+        try {
+            for (MinimizationProblem problem : problems) {
+                results.add(submit(problem));
+            }
+        } catch (InterruptedException | RuntimeException ex) {
+            for (CompletableFuture<Solution> result : results) {
+                result.cancel(false);
+            }
+
+            throw ex;
+        }
+
+        return results;
+    }
+
+    /**
+     * Stops the executor and cancels all problems that have not started yet.
+     * The solver cannot be used afterwards.
+     */
+    public void shutdown() {
+        for (Runnable runnable : executor.shutdownNow()) {
+            if (runnable instanceof Task) {
+                ((Task) runnable).result.cancel(false);
+            }
+        }
+    }
+
+    private class Task implements Runnable {
+
+        final MinimizationProblem problem;
+        final CompletableFuture<Solution> result = new CompletableFuture<>();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        Task(MinimizationProblem problem) {
+            this.problem = problem;
+
+            // Don't wait for a worker to dequeue a cancelled problem
+            result.whenComplete((solution, ex) -> {
+                if (result.isCancelled()) {
+                    release();
+                }
+            });
+        }
+
+        /**
+         * Returns the permit of this problem, the first time it is called.
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                pending.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (result.isDone()) {
+                    return; // Cancelled before it started
+                }
+
+                try (SolverPool.Lease<? extends LinearSolver> lease = pool.lease()) {
+                    if (!result.isDone()) {
+                        result.complete(lease.get().solve(problem));
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                result.cancel(false);
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            } finally {
+                release();
+            }
+        }
+    }
+}
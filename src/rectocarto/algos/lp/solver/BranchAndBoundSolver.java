@@ -0,0 +1,584 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import rectangularcartogram.data.Pair;
+import rectocarto.algos.lp.McCormickRelaxation;
+import rectocarto.algos.lp.RestrictionTemplate;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.ProblemEvaluator;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * Solves bilinear programs to global optimality, or to within a given gap, by
+ * spatial branch-and-bound. Each node of the search tree is a box of bounds on
+ * the variables. Its lower bound comes from the McCormick relaxation on that
+ * box, and it is split at the relaxed value of a variable of the product whose
+ * relaxation is most violated. Before a node is solved, its bounds are
+ * tightened by propagating them through the linear constraints.
+ *
+ * Feasible solutions are found by fixing one side of the products at the
+ * values of a relaxed solution and solving the remaining linear program, and
+ * at the root are improved further with IteratedLinearSolver. This needs the
+ * products to form a bipartite graph, as the area constraints of a cartogram
+ * do; otherwise only relaxed solutions that happen to be feasible are found.
+ *
+ * The search stops when the gap between the best solution and the lower bound
+ * drops below the gap tolerance, relative to the objective value (or absolute
+ * if that is less than one), or when the time or node limit is reached. The
+ * bounds are available afterwards through getLowerBound and getUpperBound.
+ * All variables that occur in products need finite bounds, either explicitly
+ * or implied by the linear constraints.
+ */
+public class BranchAndBoundSolver implements BilinearSolver {
+
+    public enum Status {
+        OPTIMAL, INFEASIBLE, TIME_LIMIT, NODE_LIMIT
+    }
+
+    private static final double FEASIBILITY_TOLERANCE = 1e-7;
+    private static final int ROOT_PROPAGATION_ROUNDS = 100;
+    private static final int NODE_PROPAGATION_ROUNDS = 10;
+    private static final int HEURISTIC_FREQUENCY = 10; // Run the restriction heuristic every this many nodes
+    private static final double MIN_BRANCH_FRACTION = 0.1; // Branch points are at least this fraction of the range away from the bounds
+
+    private final LinearSolver solver;
+    private double gap = 1e-4;
+    private long timeLimit = Long.MAX_VALUE; // In milliseconds
+    private int maxNodes = Integer.MAX_VALUE;
+    private double lowerBound = Double.NEGATIVE_INFINITY;
+    private double upperBound = Double.POSITIVE_INFINITY;
+    private int nNodes = 0;
+    private Status lastStatus = null;
+
+    /**
+     * Creates a branch-and-bound solver that solves the relaxations with the
+     * given solver. This must be a QuadraticSolver if the objective function
+     * is quadratic.
+     *
+     * @param solver
+     */
+    public BranchAndBoundSolver(LinearSolver solver) {
+        this.solver = solver;
+    }
+
+    public double getGap() {
+        return gap;
+    }
+
+    /**
+     * Stops once the best solution is within the given fraction of the lower
+     * bound.
+     *
+     * @param gap
+     */
+    public void setGap(double gap) {
+        this.gap = gap;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Stops after the given number of milliseconds.
+     *
+     * @param timeLimit
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * Returns the lower bound on the optimal objective value proven by the
+     * last solve.
+     *
+     * @return
+     */
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * Returns the objective value of the best solution found by the last
+     * solve, or infinity if none was found.
+     *
+     * @return
+     */
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * Returns the number of nodes solved by the last solve.
+     *
+     * @return
+     */
+    public int getNumNodes() {
+        return nNodes;
+    }
+
+    public Status getLastStatus() {
+        return lastStatus;
+    }
+
+    /**
+     * Finds a solution to the given bilinear program.
+     *
+     * @param bilinearProgram
+     * @return the best solution found, Solution.INFEASIBLE if the program is
+     * infeasible, or null if no solution was found before the search stopped
+     * @throws IllegalArgumentException If a variable of a product does not
+     * have finite bounds.
+     */
+    @Override
+    public Solution solve(MinimizationProblem bilinearProgram) {
+        if (bilinearProgram.getObjective() instanceof ObjectiveFunction.Quadratic && !(solver instanceof QuadraticSolver)) {
+            throw new IllegalArgumentException("Quadratic program passed, while the underlying solver cannot solve quadratic programs.");
+        }
+
+        long start = System.nanoTime();
+        VariableRegistry variables = bilinearProgram.getVariables();
+        int n = variables.size();
+        McCormickRelaxation relaxation = new McCormickRelaxation(bilinearProgram);
+        ProblemEvaluator evaluator = new ProblemEvaluator(bilinearProgram);
+        ConstraintMatrix matrix = bilinearProgram.getConstraintMatrix();
+        boolean[] linearRows = new boolean[matrix.getNumRows()];
+        Arrays.fill(linearRows, true);
+
+        for (int row : matrix.getBilinearRows()) {
+            linearRows[row] = false;
+        }
+
+        Pair<Set<String>, Set<String>> partition = findPartition(relaxation, variables);
+        RestrictionTemplate fixFirst = (partition == null ? null : new RestrictionTemplate(bilinearProgram, partition.getFirst()));
+
+        lowerBound = Double.NEGATIVE_INFINITY;
+        upperBound = Double.POSITIVE_INFINITY;
+        nNodes = 0;
+        double[] incumbent = null;
+        double failedBound = Double.POSITIVE_INFINITY; // Lowest bound of the nodes the solver failed on
+
+        // Root node
+        double[] rootLower = Arrays.copyOf(bilinearProgram.getLowerBounds(), n);
+        double[] rootUpper = Arrays.copyOf(bilinearProgram.getUpperBounds(), n);
+
+        if (!propagateBounds(matrix, linearRows, rootLower, rootUpper, ROOT_PROPAGATION_ROUNDS)) {
+            lowerBound = Double.POSITIVE_INFINITY;
+            lastStatus = Status.INFEASIBLE;
+            return Solution.INFEASIBLE;
+        }
+
+        PriorityQueue<Node> queue = new PriorityQueue<>();
+        queue.add(new Node(rootLower, rootUpper, Double.NEGATIVE_INFINITY));
+        lastStatus = null;
+
+        while (!queue.isEmpty()) {
+            lowerBound = Math.min(queue.peek().bound, failedBound);
+
+            if (isWithinGap(lowerBound)) {
+                break;
+            }
+
+            if (elapsedMillis(start) >= timeLimit) {
+                lastStatus = Status.TIME_LIMIT;
+                break;
+            }
+
+            if (nNodes >= maxNodes) {
+                lastStatus = Status.NODE_LIMIT;
+                break;
+            }
+
+            Node node = queue.poll();
+            nNodes++;
+
+            if (nNodes > 1 && !propagateBounds(matrix, linearRows, node.lower, node.upper, NODE_PROPAGATION_ROUNDS)) {
+                continue;
+            }
+
+            Solution relaxed = solver.solve(relaxation.relax(node.lower, node.upper));
+
+            if (relaxed == null || relaxed.isUnbounded()) {
+                failedBound = Math.min(failedBound, node.bound);
+                continue;
+            }
+
+            if (relaxed.isInfeasible()) {
+                continue;
+            }
+
+            double bound = Math.max(node.bound, relaxed.getObjectiveValue());
+
+            if (isWithinGap(bound)) {
+                continue;
+            }
+
+            double[] relaxedValues = relaxation.getValues(relaxed);
+            double[] values = Arrays.copyOf(relaxedValues, n);
+
+            // A feasible relaxed solution is optimal for this node
+            if (evaluator.isFeasible(values, FEASIBILITY_TOLERANCE)) {
+                double objective = evaluator.evaluateObjective(values);
+
+                if (objective < upperBound) {
+                    upperBound = objective;
+                    incumbent = values;
+                }
+
+                continue;
+            }
+
+            if (fixFirst != null && (nNodes == 1 || nNodes % HEURISTIC_FREQUENCY == 0)) {
+                double[] candidate = restrictionHeuristic(fixFirst, variables, values, nNodes == 1 ? partition : null, bilinearProgram, evaluator);
+
+                if (candidate != null) {
+                    double objective = evaluator.evaluateObjective(candidate);
+
+                    if (objective < upperBound) {
+                        upperBound = objective;
+                        incumbent = candidate;
+                    }
+                }
+
+                if (isWithinGap(bound)) {
+                    continue;
+                }
+            }
+
+            // Branch on the most violated product
+            int branchProduct = -1;
+            double maxViolation = 0;
+
+            for (int p = 0; p < relaxation.getNumProducts(); p++) {
+                double violation = Math.abs(relaxedValues[relaxation.getProductVariable(p)]
+                        - values[relaxation.getFirstVariable(p)] * values[relaxation.getSecondVariable(p)]);
+
+                if (violation > maxViolation) {
+                    maxViolation = violation;
+                    branchProduct = p;
+                }
+            }
+
+            if (branchProduct < 0) {
+                // The products are exact, so the violated constraints are only violated numerically
+                failedBound = Math.min(failedBound, bound);
+                continue;
+            }
+
+            int x = relaxation.getFirstVariable(branchProduct);
+            int y = relaxation.getSecondVariable(branchProduct);
+            int branchVariable = (node.upper[x] - node.lower[x] >= node.upper[y] - node.lower[y] ? x : y);
+            double range = node.upper[branchVariable] - node.lower[branchVariable];
+            double branchPoint = Math.min(Math.max(values[branchVariable],
+                    node.lower[branchVariable] + MIN_BRANCH_FRACTION * range),
+                    node.upper[branchVariable] - MIN_BRANCH_FRACTION * range);
+
+            double[] leftUpper = node.upper.clone();
+            leftUpper[branchVariable] = branchPoint;
+            queue.add(new Node(node.lower.clone(), leftUpper, bound));
+
+            double[] rightLower = node.lower.clone();
+            rightLower[branchVariable] = branchPoint;
+            queue.add(new Node(rightLower, node.upper, bound));
+        }
+
+        if (queue.isEmpty()) {
+            lowerBound = Math.min(failedBound, upperBound);
+        }
+
+        if (lastStatus == null) {
+            lastStatus = (incumbent == null && failedBound == Double.POSITIVE_INFINITY ? Status.INFEASIBLE : Status.OPTIMAL);
+        }
+
+        if (incumbent == null) {
+            return (lastStatus == Status.INFEASIBLE ? Solution.INFEASIBLE : null);
+        }
+
+        return new Solution(upperBound, variables, incumbent);
+    }
+
+    /**
+     * Fixes the first side of the products at the given values and solves
+     * the remaining linear program. At the root, the result is improved by
+     * alternating between both sides.
+     *
+     * @return the values of a feasible solution, or null if none was found
+     */
+    private double[] restrictionHeuristic(RestrictionTemplate fixFirst, VariableRegistry variables, double[] values, Pair<Set<String>, Set<String>> polishPartition, MinimizationProblem bilinearProgram, ProblemEvaluator evaluator) {
+        Solution relaxed = new Solution(0, variables, values);
+        Solution restricted;
+
+        try {
+            restricted = fixFirst.lift(solver.solve(fixFirst.restrict(relaxed)));
+        } catch (IllegalArgumentException ex) {
+            // The relaxed values of the fixed variables violate a constraint among themselves
+            return null;
+        }
+
+        if (restricted == null || restricted.isInfeasible() || restricted.isUnbounded()) {
+            return null;
+        }
+
+        double[] candidate = values.clone();
+
+        for (int id = 0; id < candidate.length; id++) {
+            if (restricted.isAssigned(id)) {
+                candidate[id] = restricted.getValue(id);
+            }
+        }
+
+        if (!evaluator.isFeasible(candidate, FEASIBILITY_TOLERANCE)) {
+            return null;
+        }
+
+        if (polishPartition != null) {
+            Solution polished = new IteratedLinearSolver(solver, 10).solve(bilinearProgram, polishPartition, new Solution(0, variables, candidate));
+
+            if (polished != null) {
+                double[] polishedValues = evaluator.getValues(polished, new double[candidate.length]);
+
+                if (evaluator.isFeasible(polishedValues, FEASIBILITY_TOLERANCE)
+                        && evaluator.evaluateObjective(polishedValues) < evaluator.evaluateObjective(candidate)) {
+                    return polishedValues.clone();
+                }
+            }
+        }
+
+        return candidate;
+    }
+
+    /**
+     * Splits the variables of the products into two sets, such that each
+     * product has a variable in each set, or returns null if that is not
+     * possible.
+     */
+    private static Pair<Set<String>, Set<String>> findPartition(McCormickRelaxation relaxation, VariableRegistry variables) {
+        int n = variables.size();
+        int[] firstNeighbour = new int[n];
+        Arrays.fill(firstNeighbour, -1);
+        int nProducts = relaxation.getNumProducts();
+        int[] next = new int[2 * nProducts];
+        int[] target = new int[2 * nProducts];
+
+        for (int p = 0; p < nProducts; p++) {
+            int x = relaxation.getFirstVariable(p);
+            int y = relaxation.getSecondVariable(p);
+
+            if (x == y) {
+                return null;
+            }
+
+            target[2 * p] = y;
+            next[2 * p] = firstNeighbour[x];
+            firstNeighbour[x] = 2 * p;
+            target[2 * p + 1] = x;
+            next[2 * p + 1] = firstNeighbour[y];
+            firstNeighbour[y] = 2 * p + 1;
+        }
+
+        // Two-colour the graph of the products
+        int[] colour = new int[n];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        Set<String> first = new HashSet<>();
+        Set<String> second = new HashSet<>();
+
+        for (int start = 0; start < n; start++) {
+            if (firstNeighbour[start] < 0 || colour[start] != 0) {
+                continue;
+            }
+
+            colour[start] = 1;
+            queue.add(start);
+
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                (colour[v] == 1 ? first : second).add(variables.getName(v));
+
+                for (int e = firstNeighbour[v]; e >= 0; e = next[e]) {
+                    int w = target[e];
+
+                    if (colour[w] == 0) {
+                        colour[w] = -colour[v];
+                        queue.add(w);
+                    } else if (colour[w] == colour[v]) {
+                        return null;
+                    }
+                }
+            }
+        }
+
+        return new Pair<>(first, second);
+    }
+
+    /**
+     * Tightens the given bounds by propagating them through the linear
+     * constraints.
+     *
+     * @return false if the bounds are inconsistent
+     */
+    private static boolean propagateBounds(ConstraintMatrix matrix, boolean[] linearRows, double[] lower, double[] upper, int maxRounds) {
+        byte[] comparisons = matrix.getComparisons();
+        double[] rightHandSides = matrix.getRightHandSides();
+
+        for (int round = 0; round < maxRounds; round++) {
+            boolean changed = false;
+
+            for (int row = 0; row < linearRows.length; row++) {
+                if (!linearRows[row]) {
+                    continue;
+                }
+
+                if (comparisons[row] != ConstraintMatrix.GREATER_THAN_OR_EQUAL) {
+                    changed |= propagateRow(matrix, row, 1, rightHandSides[row], lower, upper);
+                }
+
+                if (comparisons[row] != ConstraintMatrix.LESS_THAN_OR_EQUAL) {
+                    changed |= propagateRow(matrix, row, -1, -rightHandSides[row], lower, upper);
+                }
+            }
+
+            for (int id = 0; id < lower.length; id++) {
+                if (lower[id] > upper[id]) {
+                    if (lower[id] - upper[id] > FEASIBILITY_TOLERANCE * Math.max(1, Math.abs(upper[id]))) {
+                        return false;
+                    }
+
+                    lower[id] = upper[id];
+                }
+            }
+
+            if (!changed) {
+                break;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Derives bounds from the constraint sign * row &lt;= rightHandSide.
+     *
+     * @return whether a bound changed
+     */
+    private static boolean propagateRow(ConstraintMatrix matrix, int row, double sign, double rightHandSide, double[] lower, double[] upper) {
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+
+        // The minimum activity of the row, split into its finite part and the number of infinite terms
+        double minActivity = 0;
+        int nInfinite = 0;
+
+        for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+            double a = sign * coefficients[i];
+            double min = (a > 0 ? a * lower[columns[i]] : a * upper[columns[i]]);
+
+            if (Double.isInfinite(min)) {
+                nInfinite++;
+
+                if (nInfinite > 1) {
+                    return false;
+                }
+            } else {
+                minActivity += min;
+            }
+        }
+
+        boolean changed = false;
+
+        for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+            double a = sign * coefficients[i];
+
+            if (a == 0) {
+                continue;
+            }
+
+            int c = columns[i];
+            double min = (a > 0 ? a * lower[c] : a * upper[c]);
+            double rest; // Minimum activity of the other terms
+
+            if (Double.isInfinite(min)) {
+                rest = minActivity;
+            } else if (nInfinite == 0) {
+                rest = minActivity - min;
+            } else {
+                continue;
+            }
+
+            double bound = (rightHandSide - rest) / a;
+
+            if (a > 0 && bound < upper[c] - FEASIBILITY_TOLERANCE * Math.max(1, Math.abs(bound))) {
+                upper[c] = bound;
+                changed = true;
+            } else if (a < 0 && bound > lower[c] + FEASIBILITY_TOLERANCE * Math.max(1, Math.abs(bound))) {
+                lower[c] = bound;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Returns whether no solution with an objective value of at least the
+     * given bound can improve the best solution by more than the gap.
+     */
+    private boolean isWithinGap(double bound) {
+        return upperBound < Double.POSITIVE_INFINITY
+                && upperBound - bound <= gap * Math.max(1, Math.abs(upperBound));
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * A box of bounds, with a lower bound on the objective inside it.
+     */
+    private static class Node implements Comparable<Node> {
+
+        final double[] lower, upper;
+        final double bound;
+
+        Node(double[] lower, double[] upper, double bound) {
+            this.lower = lower;
+            this.upper = upper;
+            this.bound = bound;
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            return Double.compare(bound, other.bound);
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import com.quantego.clp.CLP;
+import com.quantego.clp.CLPConstraint;
+import com.quantego.clp.CLPExpression;
+import com.quantego.clp.CLPVariable;
+import java.util.Arrays;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * A linear or convex quadratic program loaded into a native CLP model, together
+ * with a copy of the data it was loaded from. A later problem with the same
+ * structure (the same columns, non-zero pattern, comparisons and squared
+ * variables) can be loaded by changing only the values that differ, which
+ * keeps CLP's last basis available for a warm start.
+ *
+ * CLP's Java interface has no quadratic objectives, so each term q x^2 is
+ * replaced by q t, with t >= x^2 approximated from below by tangent cuts
+ * t >= 2 a x - a^2. After each solve, cuts are added at the current values of
+ * the variables whose squares are underestimated, until the approximation
+ * error is within a relative tolerance. The cuts do not depend on the
+ * problem's data, so they stay valid when the model is updated.
+ *
+ * CLP cannot remove rows, so each squared variable has a pool of at most
+ * MAX_CUTS_PER_SQUARE cut rows. Once the pool is full, a new cut overwrites
+ * the cut that has not been binding for the longest time. This keeps a model
+ * that is updated and re-solved many times from growing without bound.
+ *
+ * The rows of a new model are taken straight from the arrays of the
+ * constraint matrix. CLP's Java interface buffers them, together with the
+ * variables and their bounds, and passes them to the native model in bulk.
+ */
+class CLPModel {
+
+    /**
+     * The types of change made by an update.
+     */
+    static final int MATRIX_CHANGED = 1; // Coefficients, right hand sides or bounds
+    static final int OBJECTIVE_CHANGED = 2;
+    /**
+     * The relative error in the objective value of a quadratic program.
+     */
+    static final double QUADRATIC_TOLERANCE = 1e-7;
+    static final int MAX_CUT_ROUNDS = 200;
+    static final int MAX_CUTS_PER_SQUARE = 32;
+    private static final double ACTIVE_TOLERANCE = 1e-9; // Relative slack below which a cut counts as binding
+    private static final int CLP_ROW_BUFFER = 100000; // The default size of CLP's row buffer
+
+    private final CLP model;
+    private final CLPVariable[] columns; // Indexed by variable id
+    private final CLPConstraint[] rows;
+    private final int[] rowStart;
+    private final int[] matrixColumns;
+    private final byte[] comparisons;
+    private final double[] coefficients;
+    private final double[] rightHandSides;
+    private final double[] objective;
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+    private final int[] squaredIds; // Variables with a quadratic objective term
+    private final CLPVariable[] squares; // For each of these, the variable t that replaces its square
+    private final double[] quadraticCoefficients; // Indexed by variable id
+    // The cut pool of each squared variable
+    private final CLPConstraint[][] cuts;
+    private final double[][] cutPoints; // The point a of each cut
+    private final int[][] lastBinding; // The last solve in which each cut was binding
+    private final boolean[][] anchors; // Cuts around the unconstrained minimum, which keep the approximation bounded
+    private final int[] nCuts;
+    private int nSolves = 0;
+
+    private CLPModel(MinimizationProblem problem) {
+        int nColumns = problem.getVariables().size();
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+
+        if (!matrix.isLinear()) {
+            throw new IllegalArgumentException("CLP can only solve problems with linear constraints.");
+        }
+
+        model = new CLP().minimization();
+        columns = new CLPVariable[nColumns];
+        rows = new CLPConstraint[matrix.getNumRows()];
+        rowStart = matrix.getRowStart().clone();
+        matrixColumns = matrix.getColumns().clone();
+        comparisons = matrix.getComparisons().clone();
+        coefficients = matrix.getCoefficients().clone();
+        rightHandSides = matrix.getRightHandSides().clone();
+        objective = getObjectiveCoefficients(problem);
+        quadraticCoefficients = getQuadraticCoefficients(problem);
+        squaredIds = getSquaredIds(quadraticCoefficients);
+        squares = new CLPVariable[squaredIds.length];
+        cuts = new CLPConstraint[squaredIds.length][MAX_CUTS_PER_SQUARE];
+        cutPoints = new double[squaredIds.length][MAX_CUTS_PER_SQUARE];
+        lastBinding = new int[squaredIds.length][MAX_CUTS_PER_SQUARE];
+        anchors = new boolean[squaredIds.length][MAX_CUTS_PER_SQUARE];
+        nCuts = new int[squaredIds.length];
+        lowerBounds = Arrays.copyOf(problem.getLowerBounds(), nColumns);
+        upperBounds = Arrays.copyOf(problem.getUpperBounds(), nColumns);
+
+        // Add all variables, indexed by their id
+        for (int i = 0; i < nColumns; i++) {
+            columns[i] = model.addVariable();
+
+            // CLP uses the same default bounds
+            if (lowerBounds[i] != MinimizationProblem.DEFAULT_LOWER_BOUND || upperBounds[i] != MinimizationProblem.DEFAULT_UPPER_BOUND) {
+                columns[i].bounds(lowerBounds[i], upperBounds[i]);
+            }
+
+            if (objective[i] != 0) {
+                columns[i].obj(objective[i]);
+            }
+        }
+
+        // CLP collects new rows in a buffer and passes each full buffer on in one native call.
+        // Its default buffer holds far more rows than our problems have (World has 1714),
+        // so it only needs to grow for larger ones.
+        if (rows.length > CLP_ROW_BUFFER) {
+            model.buffer(rows.length);
+        }
+
+        // Add all the constraints
+        for (int row = 0; row < rows.length; row++) {
+            int length = rowStart[row + 1] - rowStart[row];
+            CLPVariable[] rowVariables = new CLPVariable[length];
+
+            for (int i = 0; i < length; i++) {
+                rowVariables[i] = columns[matrixColumns[rowStart[row] + i]];
+            }
+
+            CLPExpression clpConstraint = model.createExpression()
+                    .add(Arrays.copyOfRange(coefficients, rowStart[row], rowStart[row + 1]), rowVariables);
+
+            switch (comparisons[row]) {
+                case ConstraintMatrix.EQUAL:
+                    rows[row] = clpConstraint.eq(rightHandSides[row]);
+                    break;
+                case ConstraintMatrix.LESS_THAN_OR_EQUAL:
+                    rows[row] = clpConstraint.leq(rightHandSides[row]);
+                    break;
+                case ConstraintMatrix.GREATER_THAN_OR_EQUAL:
+                    rows[row] = clpConstraint.geq(rightHandSides[row]);
+                    break;
+            }
+        }
+
+        // Replace the squares by approximations from below
+        for (int k = 0; k < squaredIds.length; k++) {
+            int id = squaredIds[k];
+            squares[k] = model.addVariable().obj(quadraticCoefficients[id]);
+
+            addAnchors(k, objective[id]);
+        }
+    }
+
+    /**
+     * Loads the given linear program into a new CLP model.
+     *
+     * @param problem
+     * @return
+     */
+    static CLPModel build(MinimizationProblem problem) {
+        return new CLPModel(problem);
+    }
+
+    CLP getModel() {
+        return model;
+    }
+
+    /**
+     * Returns whether the given problem has the same variables, non-zero
+     * pattern and comparisons as the problem this model was built from.
+     *
+     * @param problem
+     * @return
+     */
+    boolean hasStructureOf(MinimizationProblem problem) {
+        if (problem.getVariables().size() != columns.length
+                || !Arrays.equals(getSquaredIds(getQuadraticCoefficients(problem)), squaredIds)) {
+            return false;
+        }
+
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+
+        return matrix.isLinear()
+                && Arrays.equals(matrix.getComparisons(), comparisons)
+                && Arrays.equals(matrix.getRowStart(), rowStart)
+                && Arrays.equals(matrix.getColumns(), matrixColumns);
+    }
+
+    /**
+     * Changes the coefficients, right hand sides, objective and bounds of the
+     * model to those of the given problem, which must have the same structure.
+     * Only values that differ are passed to CLP.
+     *
+     * @param problem
+     * @return a combination of MATRIX_CHANGED and OBJECTIVE_CHANGED
+     */
+    int update(MinimizationProblem problem) {
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        double[] newCoefficients = matrix.getCoefficients();
+        double[] newRightHandSides = matrix.getRightHandSides();
+        double[] newObjective = getObjectiveCoefficients(problem);
+        double[] newQuadraticCoefficients = getQuadraticCoefficients(problem);
+        double[] newLowerBounds = problem.getLowerBounds();
+        double[] newUpperBounds = problem.getUpperBounds();
+        int changes = 0;
+
+        for (int row = 0; row < rows.length; row++) {
+            for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+                if (newCoefficients[k] != coefficients[k]) {
+                    coefficients[k] = newCoefficients[k];
+                    model.setConstraintCoefficient(rows[row], columns[matrixColumns[k]], coefficients[k]);
+                    changes |= MATRIX_CHANGED;
+                }
+            }
+
+            if (newRightHandSides[row] != rightHandSides[row]) {
+                rightHandSides[row] = newRightHandSides[row];
+
+                switch (comparisons[row]) {
+                    case ConstraintMatrix.EQUAL:
+                        model.setConstraintBounds(rows[row], rightHandSides[row], rightHandSides[row]);
+                        break;
+                    case ConstraintMatrix.LESS_THAN_OR_EQUAL:
+                        model.setConstraintUpperBound(rows[row], rightHandSides[row]);
+                        break;
+                    case ConstraintMatrix.GREATER_THAN_OR_EQUAL:
+                        model.setConstraintLowerBound(rows[row], rightHandSides[row]);
+                        break;
+                }
+
+                changes |= MATRIX_CHANGED;
+            }
+        }
+
+        for (int k = 0; k < squaredIds.length; k++) {
+            int id = squaredIds[k];
+
+            if (newQuadraticCoefficients[id] != quadraticCoefficients[id] || newObjective[id] != objective[id]) {
+                if (newQuadraticCoefficients[id] != quadraticCoefficients[id]) {
+                    quadraticCoefficients[id] = newQuadraticCoefficients[id];
+                    model.setObjectiveCoefficient(squares[k], quadraticCoefficients[id]);
+                }
+
+                // Keep the approximation bounded around the new minimum
+                addAnchors(k, newObjective[id]);
+                changes |= OBJECTIVE_CHANGED;
+            }
+        }
+
+        for (int i = 0; i < columns.length; i++) {
+            if (newLowerBounds[i] != lowerBounds[i] || newUpperBounds[i] != upperBounds[i]) {
+                lowerBounds[i] = newLowerBounds[i];
+                upperBounds[i] = newUpperBounds[i];
+                model.setVariableBounds(columns[i], lowerBounds[i], upperBounds[i]);
+                changes |= MATRIX_CHANGED;
+            }
+
+            if (newObjective[i] != objective[i]) {
+                objective[i] = newObjective[i];
+                model.setObjectiveCoefficient(columns[i], objective[i]);
+                changes |= OBJECTIVE_CHANGED;
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Solves the model from its current state and reads the solution. For
+     * quadratic programs, cuts are added and the model is re-solved until the
+     * objective value is within QUADRATIC_TOLERANCE of the optimum, or
+     * MAX_CUT_ROUNDS rounds have passed, in which case the solution is marked
+     * as not converged. The objective value of the solution is that of the
+     * original problem.
+     *
+     * @param variables the registry of the problem that was loaded
+     * @return the solution, or null if CLP reported an error
+     */
+    Solution solve(VariableRegistry variables) {
+        for (int round = 0;; round++) {
+            CLP.STATUS returnStatus = model.solve();
+            nSolves++;
+            double objectiveValue;
+
+            switch (returnStatus) {
+                case ERROR:
+                    return null;
+                case INFEASIBLE:
+                    return Solution.INFEASIBLE;
+                case UNBOUNDED:
+                    objectiveValue = Double.POSITIVE_INFINITY;
+                    break;
+                case LIMIT: // fallthrough
+                case OPTIMAL:
+                    objectiveValue = model.getObjectiveValue();
+                    break;
+                case UNKNOWN: // fallthrough
+                default:
+                    return null;
+            }
+
+            double[] values = new double[columns.length];
+
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = model.getSolution(columns[i]);
+            }
+
+            if (squaredIds.length == 0 || returnStatus == CLP.STATUS.UNBOUNDED) {
+                return new Solution(objectiveValue, variables, values);
+            }
+
+            // The approximation underestimates the objective by the sum of the gaps q (x^2 - t)
+            double[] gaps = new double[squaredIds.length];
+            double totalGap = 0;
+
+            for (int k = 0; k < squaredIds.length; k++) {
+                double x = values[squaredIds[k]];
+                double t = model.getSolution(squares[k]);
+                gaps[k] = Math.max(0, quadraticCoefficients[squaredIds[k]] * (x * x - t));
+                totalGap += gaps[k];
+                recordBindingCuts(k, x, t);
+            }
+
+            objectiveValue += totalGap;
+            double allowedGap = QUADRATIC_TOLERANCE * Math.max(1, Math.abs(objectiveValue));
+
+            if (totalGap <= allowedGap || returnStatus == CLP.STATUS.LIMIT || round == MAX_CUT_ROUNDS) {
+                Solution solution = new Solution(objectiveValue, variables, values);
+                solution.setConverged(totalGap <= allowedGap);
+                return solution;
+            }
+
+            for (int k = 0; k < squaredIds.length; k++) {
+                if (gaps[k] > allowedGap / squaredIds.length) {
+                    addCut(k, values[squaredIds[k]]);
+                }
+            }
+
+            // New rows keep the basis dual feasible
+            model.presolve(false).algorithm(CLP.ALGORITHM.DUAL);
+        }
+    }
+
+    /**
+     * Returns the number of rows used for cuts, which is at most
+     * MAX_CUTS_PER_SQUARE for each squared variable.
+     *
+     * @return
+     */
+    int getNumCuts() {
+        int n = 0;
+
+        for (int k = 0; k < squaredIds.length; k++) {
+            n += nCuts[k];
+        }
+
+        return n;
+    }
+
+    /**
+     * Adds cuts at the unconstrained minimum of q x^2 + c x and on either side
+     * of it, for the k-th squared variable x. These make the approximation
+     * grow in both directions, and are never overwritten until the objective
+     * changes again.
+     *
+     * @param k
+     * @param c the linear objective coefficient of x
+     */
+    private void addAnchors(int k, double c) {
+        Arrays.fill(anchors[k], false);
+
+        double minimum = -c / (2 * quadraticCoefficients[squaredIds[k]]);
+
+        for (double a : new double[]{minimum - 1, minimum, minimum + 1}) {
+            int cut = addCut(k, a);
+
+            if (cut >= 0) {
+                anchors[k][cut] = true;
+            }
+        }
+    }
+
+    /**
+     * Adds the tangent cut t >= 2 a x - a^2 of x^2 at a, for the k-th squared
+     * variable x. If its pool is full, the cut overwrites the one that has not
+     * been binding for the longest time. Anchors and cuts that were binding
+     * in the last solve are kept.
+     *
+     * @param k
+     * @param a
+     * @return the index of the cut in the pool, or -1 if no cut could be
+     * overwritten
+     */
+    private int addCut(int k, double a) {
+        int cut;
+
+        if (nCuts[k] < MAX_CUTS_PER_SQUARE) {
+            cut = nCuts[k];
+            nCuts[k]++;
+            cuts[k][cut] = model.createExpression()
+                    .add(new double[]{1, -2 * a}, new CLPVariable[]{squares[k], columns[squaredIds[k]]})
+                    .geq(-a * a);
+        } else {
+            cut = -1;
+
+            for (int i = 0; i < MAX_CUTS_PER_SQUARE; i++) {
+                if (!anchors[k][i] && lastBinding[k][i] < nSolves
+                        && (cut < 0 || lastBinding[k][i] < lastBinding[k][cut])) {
+                    cut = i;
+                }
+            }
+
+            if (cut < 0) {
+                return -1;
+            }
+
+            model.setConstraintCoefficient(cuts[k][cut], columns[squaredIds[k]], -2 * a);
+            model.setConstraintLowerBound(cuts[k][cut], -a * a);
+        }
+
+        cutPoints[k][cut] = a;
+        lastBinding[k][cut] = nSolves; // Only overwritten after the next solve
+        anchors[k][cut] = false;
+        return cut;
+    }
+
+    /**
+     * Marks the cuts of the k-th squared variable that are binding at the
+     * given values of x and t.
+     */
+    private void recordBindingCuts(int k, double x, double t) {
+        double tolerance = ACTIVE_TOLERANCE * Math.max(1, Math.abs(t));
+
+        for (int i = 0; i < nCuts[k]; i++) {
+            double a = cutPoints[k][i];
+
+            if (t - (2 * a * x - a * a) <= tolerance) {
+                lastBinding[k][i] = nSolves;
+            }
+        }
+    }
+
+    /**
+     * Returns the objective coefficient of each variable, indexed by id.
+     * Repeated terms in the same variable are added.
+     *
+     * @param problem
+     * @return
+     */
+    private static double[] getObjectiveCoefficients(MinimizationProblem problem) {
+        VariableRegistry variables = problem.getVariables();
+        double[] result = new double[variables.size()];
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Linear) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Linear) problem.getObjective()).getTerms()) {
+                result[variables.getId(term.getSecond())] += term.getFirst();
+            }
+        } else if (problem.getObjective() instanceof ObjectiveFunction.Quadratic) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Quadratic) problem.getObjective()).getLinearTerms()) {
+                result[variables.getId(term.getSecond())] += term.getFirst();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the coefficient of the square of each variable, indexed by id.
+     *
+     * @param problem
+     * @return
+     * @throws IllegalArgumentException if a coefficient is negative, making the
+     * objective non-convex.
+     */
+    private static double[] getQuadraticCoefficients(MinimizationProblem problem) {
+        VariableRegistry variables = problem.getVariables();
+        double[] result = new double[variables.size()];
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Quadratic) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Quadratic) problem.getObjective()).getQuadraticTerms()) {
+                result[variables.getId(term.getSecond())] += term.getFirst();
+            }
+
+            for (double coefficient : result) {
+                if (coefficient < 0) {
+                    throw new IllegalArgumentException("CLP can only minimize convex quadratic objectives.");
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static int[] getSquaredIds(double[] quadraticCoefficients) {
+        int n = 0;
+
+        for (double coefficient : quadraticCoefficients) {
+            if (coefficient != 0) {
+                n++;
+            }
+        }
+
+        int[] ids = new int[n];
+        n = 0;
+
+        for (int i = 0; i < quadraticCoefficients.length; i++) {
+            if (quadraticCoefficients[i] != 0) {
+                ids[n++] = i;
+            }
+        }
+
+        return ids;
+    }
+}
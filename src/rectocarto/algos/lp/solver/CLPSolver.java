@@ -16,104 +16,42 @@
 package rectocarto.algos.lp.solver;
 
 import com.quantego.clp.CLP;
-import com.quantego.clp.CLPExpression;
-import com.quantego.clp.CLPVariable;
-import java.util.HashMap;
-import java.util.Map;
-import rectangularcartogram.data.Pair;
-import rectocarto.data.lp.Constraint;
 import rectocarto.data.lp.MinimizationProblem;
-import rectocarto.data.lp.ObjectiveFunction;
 import rectocarto.data.lp.Solution;
 
+/**
+ * Solves each problem with a new CLP model. Use WarmStartCLPSolver to solve a
+ * sequence of problems with the same structure.
+ */
 public class CLPSolver implements LinearSolver, QuadraticSolver {
 
-    @Override
-    public Solution solve(MinimizationProblem quadraticProgram) {
-        Pair<CLP, Map<String, CLPVariable>> conversion = convertToCLP(quadraticProgram);
-        return extractSolution(conversion.getFirst(), conversion.getSecond());
-    }
-
-    private Pair<CLP, Map<String, CLPVariable>> convertToCLP(MinimizationProblem quadraticProgram) {
-        CLP model = new CLP().minimization();
-        Map<String, CLPVariable> variables = new HashMap<>(quadraticProgram.getConstraints().size());
-
-        // Add all the constraints (variables are added as-needed)
-        for (Constraint constraint : quadraticProgram.getConstraints()) {
-            Constraint.Linear linear = (Constraint.Linear) constraint;
-            CLPExpression clpConstraint = model.createExpression();
-
-            for (Pair<Double, String> term : linear.getTerms()) {
-                clpConstraint.add(term.getFirst(), getOrAddVariable(term.getSecond(), variables, model));
-            }
-
-            switch (linear.getComparison()) {
-                case EQUAL:
-                    clpConstraint.eq(linear.getRightHandSide());
-                    break;
-                case LESS_THAN_OR_EQUAL:
-                    clpConstraint.leq(linear.getRightHandSide());
-                    break;
-                case GREATER_THAN_OR_EQUAL:
-                    clpConstraint.geq(linear.getRightHandSide());
-                    break;
-            }
-        }
-
-        // Set the objective function
-        if (quadraticProgram.getObjective() instanceof ObjectiveFunction.Linear) {
-            ObjectiveFunction.Linear objective = (ObjectiveFunction.Linear) quadraticProgram.getObjective();
+    private final CLP.ALGORITHM algorithm;
 
-            for (Pair<Double, String> term : objective.getTerms()) {
-                variables.get(term.getSecond()).obj(term.getFirst());
-            }
-        } else {
-            ObjectiveFunction.Quadratic objective = (ObjectiveFunction.Quadratic) quadraticProgram.getObjective();
-            
-            // TODO
-            throw new Error("Not implemented yet.");
-        }
-
-        return new Pair<>(model, variables);
+    /**
+     * Creates a solver that lets CLP choose the algorithm.
+     */
+    public CLPSolver() {
+        this(CLP.ALGORITHM.AUTO);
     }
 
-    private CLPVariable getOrAddVariable(String varName, Map<String, CLPVariable> variables, CLP model) {
-        CLPVariable clpVar = variables.get(varName);
-
-        if (clpVar == null) {
-            clpVar = model.addVariable().name(varName);
-            variables.put(varName, clpVar);
-        }
-
-        return clpVar;
+    /**
+     * Creates a solver that uses the given simplex algorithm, for instance to
+     * race the primal and dual simplex methods in a PortfolioSolver.
+     *
+     * @param algorithm
+     */
+    public CLPSolver(CLP.ALGORITHM algorithm) {
+        this.algorithm = algorithm;
     }
 
-    private Solution extractSolution(CLP model, Map<String, CLPVariable> variables) {
-        CLP.STATUS returnStatus = model.solve();
-        Solution sol;
-
-        switch (returnStatus) {
-            case ERROR:
-                return null;
-            case INFEASIBLE:
-                return Solution.INFEASIBLE;
-            case UNBOUNDED:
-                sol = new Solution(Double.POSITIVE_INFINITY);
-                break;
-            case LIMIT: // fallthrough
-            case OPTIMAL:
-                sol = new Solution(model.getObjectiveValue());
-                break;
-            case UNKNOWN: // fallthrough
-            default:
-                return null;
-        }
+    @Override
+    public Solution solve(MinimizationProblem quadraticProgram) {
+        CLPModel model = CLPModel.build(quadraticProgram);
 
-        for (Map.Entry<String, CLPVariable> entry : variables.entrySet()) {
-            sol.put(entry.getKey(), model.getSolution(entry.getValue()));
+        if (algorithm != CLP.ALGORITHM.AUTO) {
+            model.getModel().algorithm(algorithm);
         }
 
-        return sol;
+        return model.solve(quadraticProgram.getVariables());
     }
-
 }
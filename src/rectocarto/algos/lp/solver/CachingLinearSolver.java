@@ -0,0 +1,590 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * Serves repeated solves of the same problem from a cache. Genetic algorithms
+ * and simulated annealing evaluate the same labeling many times, and each
+ * evaluation generates an identical program.
+ *
+ * Problems are identified by a 128-bit fingerprint that does not depend on the
+ * order in which variables were registered or constraints were added, nor on
+ * the order of the terms within a constraint or on a positive scaling of a
+ * constraint. The most recently used solutions are kept in memory, and
+ * optionally all solutions are also written to a directory, so they survive
+ * between runs.
+ *
+ * Results of null are not cached. Problems with bilinear constraints are
+ * passed on to the underlying solver directly. This class is thread-safe if
+ * the underlying solver is.
+ */
+public class CachingLinearSolver implements LinearSolver {
+
+    private static final int FILE_MAGIC = 0x52435346; // "RCSF"
+
+    private final LinearSolver solver;
+    private final Path directory;
+    private final Map<Fingerprint, CachedSolution> cache;
+    private int nHits = 0;
+    private int nDiskHits = 0;
+    private int nMisses = 0;
+
+    /**
+     * Creates a cache in memory that keeps at most the given number of
+     * solutions.
+     *
+     * @param solver
+     * @param capacity
+     */
+    public CachingLinearSolver(LinearSolver solver, int capacity) {
+        this(solver, capacity, null);
+    }
+
+    /**
+     * Creates a cache that keeps at most the given number of solutions in
+     * memory, and all solutions in the given directory.
+     *
+     * @param solver
+     * @param capacity
+     * @param directory the directory for the on-disk tier, or null to only
+     * cache in memory
+     */
+    public CachingLinearSolver(LinearSolver solver, int capacity, Path directory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+
+        this.solver = solver;
+        this.directory = directory;
+        this.cache = new LinkedHashMap<Fingerprint, CachedSolution>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Fingerprint, CachedSolution> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem linearProgram) {
+        if (!linearProgram.getConstraintMatrix().isLinear()) {
+            return solver.solve(linearProgram);
+        }
+
+        int[] rank = getNameRanks(linearProgram.getVariables());
+        Fingerprint fingerprint = fingerprint(linearProgram, rank);
+        CachedSolution cached;
+
+        synchronized (cache) {
+            cached = cache.get(fingerprint);
+
+            if (cached != null) {
+                nHits++;
+            }
+        }
+
+        if (cached == null && directory != null) {
+            cached = readFromDisk(fingerprint);
+
+            if (cached != null) {
+                synchronized (cache) {
+                    cache.put(fingerprint, cached);
+                    nDiskHits++;
+                }
+            }
+        }
+
+        if (cached != null) {
+            return cached.toSolution(linearProgram.getVariables(), rank);
+        }
+
+        synchronized (cache) {
+            nMisses++;
+        }
+
+        Solution solution = solver.solve(linearProgram);
+
+        if (solution != null) {
+            cached = new CachedSolution(solution, linearProgram.getVariables(), rank);
+
+            synchronized (cache) {
+                cache.put(fingerprint, cached);
+            }
+
+            if (directory != null) {
+                writeToDisk(fingerprint, cached);
+            }
+        }
+
+        return solution;
+    }
+
+    /**
+     * Removes all solutions from memory. Solutions on disk are kept.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of solves that were answered from memory.
+     *
+     * @return
+     */
+    public int getNumHits() {
+        synchronized (cache) {
+            return nHits;
+        }
+    }
+
+    /**
+     * Returns the number of solves that were answered from disk.
+     *
+     * @return
+     */
+    public int getNumDiskHits() {
+        synchronized (cache) {
+            return nDiskHits;
+        }
+    }
+
+    /**
+     * Returns the number of solves that were passed on to the underlying
+     * solver.
+     *
+     * @return
+     */
+    public int getNumMisses() {
+        synchronized (cache) {
+            return nMisses;
+        }
+    }
+
+    /**
+     * Computes the fingerprint of the given problem. It covers the variable
+     * names and bounds, the objective, and the constraints, each scaled so its
+     * largest coefficient is one and with its terms sorted by variable name.
+     * The constraints themselves are hashed as a multiset. Coefficients are
+     * rounded to 40 bits of precision, so that rounding errors in the scaling
+     * do not matter.
+     *
+     * @param problem
+     * @return
+     */
+    public static Fingerprint fingerprint(MinimizationProblem problem) {
+        return fingerprint(problem, getNameRanks(problem.getVariables()));
+    }
+
+    private static Fingerprint fingerprint(MinimizationProblem problem, int[] rank) {
+        VariableRegistry variables = problem.getVariables();
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        int n = variables.size();
+        int m = matrix.getNumRows();
+        MessageDigest md5 = getMD5();
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+
+        // Variables, with their bounds, in order of name
+        double[] lowerBounds = problem.getLowerBounds();
+        double[] upperBounds = problem.getUpperBounds();
+        int[] byRank = new int[n];
+
+        for (int id = 0; id < n; id++) {
+            byRank[rank[id]] = id;
+        }
+
+        putInt(md5, buffer, n);
+
+        for (int r = 0; r < n; r++) {
+            int id = byRank[r];
+            byte[] name = variables.getName(id).getBytes(StandardCharsets.UTF_8);
+            putInt(md5, buffer, name.length);
+            md5.update(name);
+            putDouble(md5, buffer, lowerBounds[id]);
+            putDouble(md5, buffer, upperBounds[id]);
+        }
+
+        // Objective
+        double[] linear = new double[n];
+        double[] quadratic = new double[n];
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Linear) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Linear) problem.getObjective()).getTerms()) {
+                linear[rank[variables.getId(term.getSecond())]] += term.getFirst();
+            }
+        } else if (problem.getObjective() instanceof ObjectiveFunction.Quadratic) {
+            ObjectiveFunction.Quadratic objective = (ObjectiveFunction.Quadratic) problem.getObjective();
+
+            for (Pair<Double, String> term : objective.getLinearTerms()) {
+                linear[rank[variables.getId(term.getSecond())]] += term.getFirst();
+            }
+
+            for (Pair<Double, String> term : objective.getQuadraticTerms()) {
+                quadratic[rank[variables.getId(term.getSecond())]] += term.getFirst();
+            }
+        }
+
+        for (int r = 0; r < n; r++) {
+            if (linear[r] != 0 || quadratic[r] != 0) {
+                putInt(md5, buffer, r);
+                putDouble(md5, buffer, linear[r]);
+                putDouble(md5, buffer, quadratic[r]);
+            }
+        }
+
+        // Constraints, each hashed separately and then sorted
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+        byte[] comparisons = matrix.getComparisons();
+        double[] rightHandSides = matrix.getRightHandSides();
+        long[][] rowHashes = new long[m][];
+        MessageDigest rowMD5 = getMD5();
+        int[] termRanks = new int[0];
+        double[] termCoefficients = new double[0];
+
+        for (int i = 0; i < m; i++) {
+            int length = rowStart[i + 1] - rowStart[i];
+
+            if (termRanks.length < length) {
+                termRanks = new int[2 * length];
+                termCoefficients = new double[2 * length];
+            }
+
+            // Sort the terms by rank and merge duplicates
+            int nTerms = 0;
+
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                int r = rank[columns[k]];
+                int pos = nTerms;
+
+                while (pos > 0 && termRanks[pos - 1] > r) {
+                    termRanks[pos] = termRanks[pos - 1];
+                    termCoefficients[pos] = termCoefficients[pos - 1];
+                    pos--;
+                }
+
+                termRanks[pos] = r;
+                termCoefficients[pos] = coefficients[k];
+                nTerms++;
+            }
+
+            int nMerged = 0;
+
+            for (int t = 0; t < nTerms; t++) {
+                if (nMerged > 0 && termRanks[nMerged - 1] == termRanks[t]) {
+                    termCoefficients[nMerged - 1] += termCoefficients[t];
+                } else {
+                    termRanks[nMerged] = termRanks[t];
+                    termCoefficients[nMerged] = termCoefficients[t];
+                    nMerged++;
+                }
+            }
+
+            nTerms = nMerged;
+            double scale = 0;
+
+            for (int t = 0; t < nTerms; t++) {
+                scale = Math.max(scale, Math.abs(termCoefficients[t]));
+            }
+
+            if (scale == 0) {
+                scale = 1;
+            }
+
+            rowMD5.reset();
+            putInt(rowMD5, buffer, comparisons[i]);
+            putDouble(rowMD5, buffer, rightHandSides[i] / scale);
+
+            for (int t = 0; t < nTerms; t++) {
+                if (termCoefficients[t] != 0) {
+                    putInt(rowMD5, buffer, termRanks[t]);
+                    putDouble(rowMD5, buffer, termCoefficients[t] / scale);
+                }
+            }
+
+            ByteBuffer digest = ByteBuffer.wrap(rowMD5.digest());
+            rowHashes[i] = new long[]{digest.getLong(), digest.getLong()};
+        }
+
+        Arrays.sort(rowHashes, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                int result = Long.compare(a[0], b[0]);
+                return (result != 0 ? result : Long.compare(a[1], b[1]));
+            }
+        });
+
+        putInt(md5, buffer, m);
+
+        for (long[] rowHash : rowHashes) {
+            putLong(md5, buffer, rowHash[0]);
+            putLong(md5, buffer, rowHash[1]);
+        }
+
+        ByteBuffer digest = ByteBuffer.wrap(md5.digest());
+        return new Fingerprint(digest.getLong(), digest.getLong());
+    }
+
+    /**
+     * Returns the position of each variable in the order of their names.
+     */
+    private static int[] getNameRanks(VariableRegistry variables) {
+        int n = variables.size();
+        Integer[] ids = new Integer[n];
+
+        for (int id = 0; id < n; id++) {
+            ids[id] = id;
+        }
+
+        Arrays.sort(ids, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return variables.getName(a).compareTo(variables.getName(b));
+            }
+        });
+
+        int[] rank = new int[n];
+
+        for (int r = 0; r < n; r++) {
+            rank[ids[r]] = r;
+        }
+
+        return rank;
+    }
+
+    private static void putInt(MessageDigest md, ByteBuffer buffer, int value) {
+        buffer.clear();
+        buffer.putInt(value);
+        md.update(buffer.array(), 0, buffer.position());
+    }
+
+    private static void putLong(MessageDigest md, ByteBuffer buffer, long value) {
+        buffer.clear();
+        buffer.putLong(value);
+        md.update(buffer.array(), 0, buffer.position());
+    }
+
+    private static void putDouble(MessageDigest md, ByteBuffer buffer, double value) {
+        if (value == 0) {
+            value = 0; // Treat -0 as 0
+        }
+
+        // Keep 40 of the 52 bits of the mantissa, rounding to nearest
+        long bits = Double.doubleToLongBits(value);
+
+        if (!Double.isInfinite(value) && !Double.isNaN(value)) {
+            bits = (bits + 0x800L) & ~0xFFFL;
+        }
+
+        putLong(md, buffer, bits);
+    }
+
+    private static MessageDigest getMD5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new InternalError("MD5 is not available.", ex);
+        }
+    }
+
+    private Path getFile(Fingerprint fingerprint) {
+        return directory.resolve(fingerprint + ".rcsf");
+    }
+
+    private CachedSolution readFromDisk(Fingerprint fingerprint) {
+        Path file = getFile(fingerprint);
+
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readLong() != fingerprint.getHigh() || in.readLong() != fingerprint.getLow()) {
+                return null;
+            }
+
+            double objectiveValue = in.readDouble();
+            int n = in.readInt();
+            double[] values = new double[n];
+            boolean[] assigned = new boolean[n];
+
+            for (int r = 0; r < n; r++) {
+                assigned[r] = in.readBoolean();
+                values[r] = in.readDouble();
+            }
+
+            return new CachedSolution(objectiveValue, values, assigned);
+        } catch (IOException ex) {
+            // A damaged file is treated as a miss, and overwritten after solving
+            return null;
+        }
+    }
+
+    private void writeToDisk(Fingerprint fingerprint, CachedSolution cached) {
+        Path file = getFile(fingerprint);
+
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, fingerprint.toString(), ".tmp");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeLong(fingerprint.getHigh());
+                out.writeLong(fingerprint.getLow());
+                out.writeDouble(cached.objectiveValue);
+                out.writeInt(cached.values.length);
+
+                for (int r = 0; r < cached.values.length; r++) {
+                    out.writeBoolean(cached.assigned[r]);
+                    out.writeDouble(cached.values[r]);
+                }
+            }
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // The on-disk tier is best effort; the solution is still cached in memory
+            System.err.println("Could not write cached solution " + file + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * A 128-bit problem fingerprint.
+     */
+    public static final class Fingerprint {
+
+        private final long high, low;
+
+        public Fingerprint(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        public long getHigh() {
+            return high;
+        }
+
+        public long getLow() {
+            return low;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+
+            Fingerprint other = (Fingerprint) obj;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (high ^ (high >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
+
+    /**
+     * A solution, with its values in order of variable name.
+     */
+    private static class CachedSolution {
+
+        final double objectiveValue;
+        final double[] values;
+        final boolean[] assigned;
+
+        CachedSolution(double objectiveValue, double[] values, boolean[] assigned) {
+            this.objectiveValue = objectiveValue;
+            this.values = values;
+            this.assigned = assigned;
+        }
+
+        CachedSolution(Solution solution, VariableRegistry variables, int[] rank) {
+            objectiveValue = solution.getObjectiveValue();
+            int n = variables.size();
+            values = new double[n];
+            assigned = new boolean[n];
+
+            if (!solution.isInfeasible()) {
+                for (int id = 0; id < n; id++) {
+                    Double value = solution.get(variables.getName(id));
+
+                    if (value != null) {
+                        values[rank[id]] = value;
+                        assigned[rank[id]] = true;
+                    }
+                }
+            }
+        }
+
+        Solution toSolution(VariableRegistry variables, int[] rank) {
+            if (objectiveValue == Double.NEGATIVE_INFINITY) {
+                return Solution.INFEASIBLE;
+            }
+
+            int n = variables.size();
+            double[] result = new double[n];
+            boolean complete = true;
+
+            for (int id = 0; id < n; id++) {
+                result[id] = values[rank[id]];
+                complete &= assigned[rank[id]];
+            }
+
+            if (complete) {
+                return new Solution(objectiveValue, variables, result);
+            }
+
+            Solution solution = new Solution(objectiveValue);
+
+            for (int id = 0; id < n; id++) {
+                if (assigned[rank[id]]) {
+                    solution.put(variables.getName(id), result[id]);
+                }
+            }
+
+            return solution;
+        }
+    }
+}
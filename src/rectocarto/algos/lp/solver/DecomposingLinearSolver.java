@@ -0,0 +1,340 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * Splits a linear program into independent blocks and solves these in
+ * parallel. Two variables are in the same block if they are connected through
+ * a chain of constraints. Once one side of a cartogram's bilinear program is
+ * fixed, islands and other separate clusters of regions often end up in
+ * blocks of their own.
+ *
+ * Blocks with fewer than a minimum number of variables are grouped together,
+ * so the overhead of building and solving a problem is only paid for
+ * reasonably sized pieces. Each group is solved by an instance leased from a
+ * solver pool, and the solutions of the groups are merged. If the program has
+ * only one group, it is solved directly on the calling thread.
+ *
+ * The returned solution is infeasible if any group is infeasible, unbounded
+ * if any group is unbounded, and null if the solver failed on any group.
+ * Instances of this class can be shared between threads.
+ */
+public class DecomposingLinearSolver implements LinearSolver {
+
+    private static final double TOLERANCE = 1e-9;
+
+    private final SolverPool<? extends LinearSolver> pool;
+    private final ExecutorService executor;
+    private int minGroupSize = 500;
+    private volatile int lastNumBlocks = 0;
+
+    /**
+     * Creates a solver that solves the groups on a daemon thread for each
+     * instance in the pool.
+     *
+     * @param pool
+     */
+    public DecomposingLinearSolver(SolverPool<? extends LinearSolver> pool) {
+        this(pool, Executors.newFixedThreadPool(pool.getCapacity(), runnable -> {
+            Thread thread = new Thread(runnable, "DecomposingLinearSolver");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public DecomposingLinearSolver(SolverPool<? extends LinearSolver> pool, ExecutorService executor) {
+        this.pool = pool;
+        this.executor = executor;
+    }
+
+    public int getMinGroupSize() {
+        return minGroupSize;
+    }
+
+    /**
+     * Sets the minimum number of variables of a group of blocks. Use 1 to
+     * solve every block on its own.
+     *
+     * @param minGroupSize
+     */
+    public void setMinGroupSize(int minGroupSize) {
+        this.minGroupSize = minGroupSize;
+    }
+
+    /**
+     * Returns the number of blocks found in the last solved problem.
+     *
+     * @return
+     */
+    public int getLastNumBlocks() {
+        return lastNumBlocks;
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem linearProgram) {
+        VariableRegistry variables = linearProgram.getVariables();
+        ConstraintMatrix matrix = linearProgram.getConstraintMatrix();
+
+        if (!matrix.isLinear()) {
+            throw new IllegalArgumentException("This solver can only solve linear programs.");
+        }
+
+        int n = variables.size();
+        int nRows = matrix.getNumRows();
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+
+        // Constraints without variables belong to no block, and are either always or never satisfied
+        double[] rightHandSides = matrix.getRightHandSides();
+
+        for (int row = 0; row < nRows; row++) {
+            if (rowStart[row] == rowStart[row + 1] && !isSatisfiedByZero(matrix.getComparison(row), rightHandSides[row])) {
+                lastNumBlocks = 0;
+                return Solution.INFEASIBLE;
+            }
+        }
+
+        // Find the blocks
+        int[] parent = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+
+        for (int row = 0; row < nRows; row++) {
+            for (int k = rowStart[row] + 1; k < rowStart[row + 1]; k++) {
+                union(parent, columns[rowStart[row]], columns[k]);
+            }
+        }
+
+        int[] block = new int[n]; // The block of each variable
+        int[] blockSize = new int[n];
+        int nBlocks = 0;
+        int[] blockOfRoot = new int[n];
+        Arrays.fill(blockOfRoot, -1);
+
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+
+            if (blockOfRoot[root] < 0) {
+                blockOfRoot[root] = nBlocks++;
+            }
+
+            block[i] = blockOfRoot[root];
+            blockSize[block[i]]++;
+        }
+
+        lastNumBlocks = nBlocks;
+
+        // Group small blocks together
+        int[] groupOfBlock = new int[nBlocks];
+        int nGroups = 0;
+        int currentSize = 0;
+
+        for (int b = 0; b < nBlocks; b++) {
+            if (nGroups == 0 || currentSize >= minGroupSize) {
+                nGroups++;
+                currentSize = 0;
+            }
+
+            groupOfBlock[b] = nGroups - 1;
+            currentSize += blockSize[b];
+        }
+
+        if (nGroups <= 1) {
+            return solveWithPool(linearProgram);
+        }
+
+        int[] group = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            group[i] = groupOfBlock[block[i]];
+        }
+
+        List<MinimizationProblem> subproblems = buildSubproblems(linearProgram, group, nGroups);
+
+        // Solve the groups in parallel
+        List<Future<Solution>> futures = new ArrayList<>(nGroups);
+
+        for (MinimizationProblem subproblem : subproblems) {
+            futures.add(executor.submit(() -> solveWithPool(subproblem)));
+        }
+
+        double[] values = new double[n];
+        double objective = 0;
+        boolean unbounded = false;
+
+        try {
+            for (int g = 0; g < nGroups; g++) {
+                Solution solution = futures.get(g).get();
+
+                if (solution == null || solution.isInfeasible()) {
+                    return solution;
+                }
+
+                if (solution.isUnbounded()) {
+                    unbounded = true;
+                }
+
+                objective += solution.getObjectiveValue();
+                VariableRegistry subVariables = subproblems.get(g).getVariables();
+
+                for (int id = 0; id < subVariables.size(); id++) {
+                    values[variables.getId(subVariables.getName(id))] = solution.get(subVariables.getName(id));
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            throw (ex.getCause() instanceof RuntimeException
+                    ? (RuntimeException) ex.getCause()
+                    : new RuntimeException(ex.getCause()));
+        } finally {
+            for (Future<Solution> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return new Solution(unbounded ? Double.POSITIVE_INFINITY : objective, variables, values);
+    }
+
+    private Solution solveWithPool(MinimizationProblem problem) {
+        try (SolverPool.Lease<? extends LinearSolver> lease = pool.lease()) {
+            return lease.get().solve(problem);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Builds a problem for each group, with the constraints, objective terms
+     * and bounds of its variables.
+     */
+    private static List<MinimizationProblem> buildSubproblems(MinimizationProblem linearProgram, int[] group, int nGroups) {
+        VariableRegistry variables = linearProgram.getVariables();
+        int[] rowStart = linearProgram.getConstraintMatrix().getRowStart();
+        int[] columns = linearProgram.getConstraintMatrix().getColumns();
+        double[] lower = linearProgram.getLowerBounds();
+        double[] upper = linearProgram.getUpperBounds();
+
+        List<MinimizationProblem> subproblems = new ArrayList<>(nGroups);
+
+        for (int g = 0; g < nGroups; g++) {
+            subproblems.add(new MinimizationProblem());
+        }
+
+        // Objective
+        ObjectiveFunction objective = linearProgram.getObjective();
+        List<ObjectiveFunction> objectives = new ArrayList<>(nGroups);
+
+        for (int g = 0; g < nGroups; g++) {
+            objectives.add(objective instanceof ObjectiveFunction.Quadratic
+                    ? new ObjectiveFunction.Quadratic()
+                    : new ObjectiveFunction.Linear());
+        }
+
+        if (objective instanceof ObjectiveFunction.Linear) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Linear) objective).getTerms()) {
+                ((ObjectiveFunction.Linear) objectives.get(group[variables.getId(term.getSecond())])).addTerm(term.getFirst(), term.getSecond());
+            }
+        } else if (objective instanceof ObjectiveFunction.Quadratic) {
+            ObjectiveFunction.Quadratic quadratic = (ObjectiveFunction.Quadratic) objective;
+
+            for (Pair<Double, String> term : quadratic.getLinearTerms()) {
+                ((ObjectiveFunction.Quadratic) objectives.get(group[variables.getId(term.getSecond())])).addLinearTerm(term.getFirst(), term.getSecond());
+            }
+
+            for (Pair<Double, String> term : quadratic.getQuadraticTerms()) {
+                ((ObjectiveFunction.Quadratic) objectives.get(group[variables.getId(term.getSecond())])).addQuadraticTerm(term.getFirst(), term.getSecond());
+            }
+        }
+
+        for (int g = 0; g < nGroups; g++) {
+            subproblems.get(g).setObjective(objectives.get(g));
+        }
+
+        // Constraints; the rows of the matrix are in the order of the constraints
+        List<Constraint> constraints = linearProgram.getConstraints();
+
+        for (int row = 0; row < constraints.size(); row++) {
+            if (rowStart[row] < rowStart[row + 1]) {
+                subproblems.get(group[columns[rowStart[row]]]).addConstraint(constraints.get(row));
+            }
+        }
+
+        // Bounds, which also registers variables that occur nowhere else
+        for (int id = 0; id < variables.size(); id++) {
+            subproblems.get(group[id]).setBounds(variables.getName(id), lower[id], upper[id]);
+        }
+
+        return subproblems;
+    }
+
+    private static boolean isSatisfiedByZero(Constraint.Comparison comparison, double rightHandSide) {
+        switch (comparison) {
+            case EQUAL:
+                return Math.abs(rightHandSide) <= TOLERANCE;
+            case LESS_THAN_OR_EQUAL:
+                return rightHandSide >= -TOLERANCE;
+            case GREATER_THAN_OR_EQUAL:
+                return rightHandSide <= TOLERANCE;
+            default:
+                throw new IllegalArgumentException("Unexpected comparison: " + comparison);
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        int rootI = find(parent, i);
+        int rootJ = find(parent, j);
+
+        if (rootI != rootJ) {
+            parent[rootI] = rootJ;
+        }
+    }
+
+    /**
+     * Stops the executor. The solver cannot be used afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
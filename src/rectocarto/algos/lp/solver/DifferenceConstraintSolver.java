@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import rectangularcartogram.data.Pair;
+import rectocarto.algos.lp.DifferenceConstraints;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ * Solves linear programs that consist only of difference constraints and
+ * bounds with a longest-path computation, and detects infeasibility of the
+ * difference constraints without an LP. All other problems are passed on to
+ * another solver.
+ */
+public class DifferenceConstraintSolver implements LinearSolver {
+
+    private final LinearSolver solver;
+
+    public DifferenceConstraintSolver(LinearSolver solver) {
+        this.solver = solver;
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem linearProgram) {
+        DifferenceConstraints differences = new DifferenceConstraints(linearProgram);
+
+        if (!differences.isFeasible()) {
+            return Solution.INFEASIBLE;
+        }
+
+        if (differences.getRemainingConstraints().length == 0 && linearProgram.getObjective() instanceof ObjectiveFunction.Linear) {
+            boolean anyPositive = false, anyNegative = false;
+
+            for (Pair<Double, String> term : ((ObjectiveFunction.Linear) linearProgram.getObjective()).getTerms()) {
+                anyPositive |= term.getFirst() > 0;
+                anyNegative |= term.getFirst() < 0;
+            }
+
+            Solution solution = null;
+
+            if (!anyNegative) {
+                solution = differences.getLeastSolution();
+            } else if (!anyPositive) {
+                solution = differences.getGreatestSolution();
+            }
+
+            if (solution != null) {
+                return solution;
+            }
+        }
+
+        return solver.solve(linearProgram);
+    }
+}
@@ -0,0 +1,782 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The bounded dual simplex method for min c^T x subject to A x - r = 0 and
+ * lower <= (x, r) <= upper. Variables 0 to n - 1 are the structural columns of
+ * A; variable n + i is the activity r_i of row i, whose column is -e_i.
+ *
+ * The basis is factorized with a SparseLU and updated with Forrest-Tomlin
+ * updates. The leaving row is chosen by dual steepest edge pricing, and the
+ * entering column by a two-pass Harris ratio test. A starting basis is made
+ * dual feasible by moving nonbasic variables to their other bound; variables
+ * without that bound get a large artificial bound, which is moved further out
+ * when it is still active at the optimum, until the problem is found to be
+ * unbounded. Costs are perturbed slightly to avoid stalling on dual
+ * degeneracy, and restored before the final iterations.
+ */
+class DualSimplex {
+
+    enum Status {
+        OPTIMAL, INFEASIBLE, UNBOUNDED, ITERATION_LIMIT, SINGULAR, INTERRUPTED
+    }
+
+    static final byte BASIC = 0;
+    static final byte AT_LOWER = 1;
+    static final byte AT_UPPER = 2;
+    static final byte AT_ZERO = 3; // Free nonbasic variables
+
+    private static final double PRIMAL_TOLERANCE = 1e-9; // Relative to the magnitude of the bound, at least 1
+    private static final double DUAL_TOLERANCE = 1e-9;
+    private static final double PIVOT_TOLERANCE = 1e-9;
+    private static final double PERTURBATION = 1e-7;
+    private static final int REFACTORIZATION_INTERVAL = 100;
+    private static final double ARTIFICIAL_BOUND = 1e6;
+    private static final double MAX_ARTIFICIAL_BOUND = 1e14;
+
+    private final int m, n, nVariables;
+    private final int[] rowStart, rowColumns;
+    private final double[] rowValues;
+    private final int[] columnStart, columnRows;
+    private final double[] columnValues;
+    private final double[] originalCost, cost;
+    private final double[] lower, upper; // Including artificial bounds
+    private final boolean[] artificialLower, artificialUpper;
+    private final double[] x, d;
+    private final int[] head; // The basic variable at each basis position
+    private final int[] positionOf; // The basis position of each variable, or -1
+    private final double[] weights; // Dual steepest edge weights, by basis position
+    private final SparseLU lu;
+    private boolean perturbed = false;
+    private int iterations = 0;
+    // Work space
+    private final double[] rowWork, positionWork, rho, alphaRow, alphaColumn, tau;
+    private final int[] basisStart, basisIndex;
+    private final double[] basisValue;
+
+    /**
+     * Creates the problem min cost^T x subject to lower <= (x, A x) <= upper,
+     * where row i of A has the entries (rowColumns[k], rowValues[k]) for
+     * rowStart[i] <= k < rowStart[i + 1]. The cost and bound arrays are indexed
+     * by variable: n structural variables followed by m row activities. The
+     * initial basis consists of the row activities.
+     *
+     * @param m
+     * @param n
+     * @param rowStart
+     * @param rowColumns
+     * @param rowValues
+     * @param cost
+     * @param lower
+     * @param upper
+     */
+    DualSimplex(int m, int n, int[] rowStart, int[] rowColumns, double[] rowValues, double[] cost, double[] lower, double[] upper) {
+        this.m = m;
+        this.n = n;
+        this.nVariables = n + m;
+        this.rowStart = rowStart;
+        this.rowColumns = rowColumns;
+        this.rowValues = rowValues;
+        this.originalCost = cost;
+        this.cost = cost.clone();
+        this.lower = lower.clone();
+        this.upper = upper.clone();
+        artificialLower = new boolean[nVariables];
+        artificialUpper = new boolean[nVariables];
+        x = new double[nVariables];
+        d = new double[nVariables];
+        head = new int[m];
+        positionOf = new int[nVariables];
+        weights = new double[m];
+        lu = new SparseLU(m);
+        rowWork = new double[m];
+        positionWork = new double[m];
+        rho = new double[m];
+        alphaRow = new double[nVariables];
+        alphaColumn = new double[m];
+        tau = new double[m];
+
+        // Transpose A
+        int nTerms = rowStart[m];
+        columnStart = new int[n + 1];
+        columnRows = new int[nTerms];
+        columnValues = new double[nTerms];
+
+        for (int k = 0; k < nTerms; k++) {
+            columnStart[rowColumns[k] + 1]++;
+        }
+
+        for (int j = 0; j < n; j++) {
+            columnStart[j + 1] += columnStart[j];
+        }
+
+        int[] next = Arrays.copyOf(columnStart, n);
+
+        for (int i = 0; i < m; i++) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                int pos = next[rowColumns[k]]++;
+                columnRows[pos] = i;
+                columnValues[pos] = rowValues[k];
+            }
+        }
+
+        basisStart = new int[m + 1];
+        basisIndex = new int[nTerms + m];
+        basisValue = new double[nTerms + m];
+
+        // Start from the slack basis
+        Arrays.fill(positionOf, -1);
+
+        for (int i = 0; i < m; i++) {
+            head[i] = n + i;
+            positionOf[n + i] = i;
+        }
+
+        for (int j = 0; j < n; j++) {
+            x[j] = defaultValue(j);
+        }
+
+        Arrays.fill(weights, 1);
+    }
+
+    /**
+     * Starts from the given basis instead of the slack basis. The status of
+     * each nonbasic variable determines at which bound it starts, if that
+     * bound is finite.
+     *
+     * @param newHead
+     * @param status
+     * @return whether the basis was accepted
+     */
+    boolean setBasis(int[] newHead, byte[] status) {
+        if (newHead.length != m || status.length != nVariables) {
+            return false;
+        }
+
+        int[] newPositionOf = new int[nVariables];
+        Arrays.fill(newPositionOf, -1);
+
+        for (int p = 0; p < m; p++) {
+            int j = newHead[p];
+
+            if (j < 0 || j >= nVariables || newPositionOf[j] >= 0) {
+                return false;
+            }
+
+            newPositionOf[j] = p;
+        }
+
+        System.arraycopy(newHead, 0, head, 0, m);
+        System.arraycopy(newPositionOf, 0, positionOf, 0, nVariables);
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] >= 0) {
+                continue;
+            }
+
+            if (status[j] == AT_UPPER && upper[j] < Double.POSITIVE_INFINITY) {
+                x[j] = upper[j];
+            } else if (status[j] == AT_LOWER && lower[j] > Double.NEGATIVE_INFINITY) {
+                x[j] = lower[j];
+            } else {
+                x[j] = defaultValue(j);
+            }
+        }
+
+        return true;
+    }
+
+    int[] getHead() {
+        return head;
+    }
+
+    /**
+     * Returns the status of each variable: BASIC, AT_LOWER, AT_UPPER or
+     * AT_ZERO.
+     *
+     * @return
+     */
+    byte[] getStatus() {
+        byte[] status = new byte[nVariables];
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] >= 0) {
+                status[j] = BASIC;
+            } else if (x[j] == lower[j]) {
+                status[j] = AT_LOWER;
+            } else if (x[j] == upper[j]) {
+                status[j] = AT_UPPER;
+            } else {
+                status[j] = AT_ZERO;
+            }
+        }
+
+        return status;
+    }
+
+    /**
+     * Returns the values of all variables: the structural variables followed
+     * by the row activities.
+     *
+     * @return
+     */
+    double[] getValues() {
+        return x;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    Status solve(int maxIterations) {
+        if (!factorize()) {
+            return Status.SINGULAR;
+        }
+
+        computePrimal();
+        computeDual();
+
+        if (correctDualInfeasibilities()) {
+            computePrimal();
+        }
+
+        perturbCosts();
+        boolean refactorize = false;
+
+        while (true) {
+            if (iterations >= maxIterations) {
+                return Status.ITERATION_LIMIT;
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                return Status.INTERRUPTED;
+            }
+
+            if (refactorize) {
+                if (!factorize()) {
+                    return Status.SINGULAR;
+                }
+
+                computePrimal();
+                computeDual();
+
+                if (correctDualInfeasibilities()) {
+                    computePrimal();
+                }
+
+                refactorize = false;
+            }
+
+            int r = chooseLeavingRow();
+
+            if (r < 0) {
+                // Optimal for the current costs and bounds
+                if (perturbed) {
+                    System.arraycopy(originalCost, 0, cost, 0, nVariables);
+                    perturbed = false;
+                    refactorize = true;
+                    continue;
+                }
+
+                int nRelaxed = 0;
+
+                for (int j = 0; j < nVariables; j++) {
+                    if (positionOf[j] < 0
+                            && (artificialUpper[j] && x[j] == upper[j] && d[j] < -DUAL_TOLERANCE
+                            || artificialLower[j] && x[j] == lower[j] && d[j] > DUAL_TOLERANCE)) {
+                        // The objective still improves beyond the artificial bound
+                        if (!relaxArtificialBound(j)) {
+                            return Status.UNBOUNDED;
+                        }
+
+                        nRelaxed++;
+                    }
+                }
+
+                if (nRelaxed == 0) {
+                    return Status.OPTIMAL;
+                }
+
+                computePrimal();
+                continue;
+            }
+
+            int leaving = head[r];
+            boolean toLower = x[leaving] < lower[leaving];
+            double bound = (toLower ? lower[leaving] : upper[leaving]);
+            double delta = x[leaving] - bound;
+
+            // rho = row r of the inverse of B, alphaRow = rho A
+            Arrays.fill(positionWork, 0);
+            positionWork[r] = 1;
+            lu.btran(positionWork, rho);
+            computeAlphaRow();
+
+            int q = ratioTest(toLower);
+
+            if (q < 0) {
+                // The row cannot be made feasible, unless an artificial bound is in the way
+                if (relaxBlockingArtificialBounds(toLower)) {
+                    computePrimal();
+                    continue;
+                }
+
+                return Status.INFEASIBLE;
+            }
+
+            // alphaColumn = B^-1 a_q
+            loadColumn(q, rowWork);
+            lu.ftran(rowWork, alphaColumn, true);
+            double alpha = alphaColumn[r];
+
+            if (lu.getNumUpdates() > 0 && Math.abs(alpha - alphaRow[q]) > 1e-7 * (1 + Math.abs(alpha))) {
+                // The row and column disagree on the pivot; the factorization has become inaccurate
+                refactorize = true;
+                continue;
+            }
+
+            // Update the reduced costs
+            double thetaDual = d[q] / alpha;
+
+            for (int j = 0; j < nVariables; j++) {
+                if (positionOf[j] < 0 && alphaRow[j] != 0) {
+                    d[j] -= thetaDual * alphaRow[j];
+                }
+            }
+
+            d[q] = 0;
+            d[leaving] = -thetaDual;
+
+            // Update the primal values
+            double thetaPrimal = delta / alpha;
+
+            for (int p = 0; p < m; p++) {
+                if (alphaColumn[p] != 0) {
+                    x[head[p]] -= thetaPrimal * alphaColumn[p];
+                }
+            }
+
+            x[q] += thetaPrimal;
+            x[leaving] = bound;
+
+            // Update the dual steepest edge weights
+            double rhoNorm = 0;
+
+            for (int i = 0; i < m; i++) {
+                rowWork[i] = rho[i];
+                rhoNorm += rho[i] * rho[i];
+            }
+
+            lu.ftran(rowWork, tau, false);
+
+            for (int p = 0; p < m; p++) {
+                if (p != r && alphaColumn[p] != 0) {
+                    double ratio = alphaColumn[p] / alpha;
+                    weights[p] = Math.max(weights[p] - 2 * ratio * tau[p] + ratio * ratio * rhoNorm, 1e-6);
+                }
+            }
+
+            weights[r] = Math.max(rhoNorm / (alpha * alpha), 1e-6);
+
+            // Update the basis
+            head[r] = q;
+            positionOf[q] = r;
+            positionOf[leaving] = -1;
+            iterations++;
+
+            if (!lu.update(r) || lu.getNumUpdates() >= REFACTORIZATION_INTERVAL) {
+                refactorize = true;
+            }
+        }
+    }
+
+    /**
+     * Factorizes the basis. Basic variables whose columns make the basis
+     * singular are replaced by row activities.
+     *
+     * @return
+     */
+    private boolean factorize() {
+        for (int attempt = 0; attempt <= m; attempt++) {
+            int k = 0;
+
+            for (int p = 0; p < m; p++) {
+                basisStart[p] = k;
+                int j = head[p];
+
+                if (j < n) {
+                    for (int t = columnStart[j]; t < columnStart[j + 1]; t++) {
+                        basisIndex[k] = columnRows[t];
+                        basisValue[k] = columnValues[t];
+                        k++;
+                    }
+                } else {
+                    basisIndex[k] = j - n;
+                    basisValue[k] = -1;
+                    k++;
+                }
+            }
+
+            basisStart[m] = k;
+
+            if (lu.factorize(basisStart, basisIndex, basisValue)) {
+                return true;
+            }
+
+            int[] columns = lu.getSingularColumns();
+            int[] rows = lu.getUnpivotedRows();
+
+            for (int i = 0; i < columns.length; i++) {
+                int p = columns[i];
+                int replaced = head[p];
+                int logical = n + rows[i];
+                head[p] = logical;
+                positionOf[logical] = p;
+                positionOf[replaced] = -1;
+                x[replaced] = defaultValue(replaced);
+                weights[p] = 1;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Computes the values of the basic variables from those of the nonbasic
+     * variables.
+     */
+    private void computePrimal() {
+        Arrays.fill(rowWork, 0);
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] < 0 && x[j] != 0) {
+                if (j < n) {
+                    for (int t = columnStart[j]; t < columnStart[j + 1]; t++) {
+                        rowWork[columnRows[t]] -= columnValues[t] * x[j];
+                    }
+                } else {
+                    rowWork[j - n] += x[j];
+                }
+            }
+        }
+
+        lu.ftran(rowWork, positionWork, false);
+
+        for (int p = 0; p < m; p++) {
+            x[head[p]] = positionWork[p];
+        }
+    }
+
+    /**
+     * Computes the reduced costs of all variables.
+     */
+    private void computeDual() {
+        for (int p = 0; p < m; p++) {
+            positionWork[p] = cost[head[p]];
+        }
+
+        lu.btran(positionWork, rowWork); // The dual values y
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] >= 0) {
+                d[j] = 0;
+            } else if (j < n) {
+                double dj = cost[j];
+
+                for (int t = columnStart[j]; t < columnStart[j + 1]; t++) {
+                    dj -= columnValues[t] * rowWork[columnRows[t]];
+                }
+
+                d[j] = dj;
+            } else {
+                d[j] = cost[j] + rowWork[j - n];
+            }
+        }
+    }
+
+    /**
+     * Moves nonbasic variables whose reduced cost has the wrong sign to their
+     * other bound, introducing artificial bounds where necessary.
+     *
+     * @return whether any variable moved
+     */
+    private boolean correctDualInfeasibilities() {
+        boolean changed = false;
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] >= 0 || lower[j] == upper[j]) {
+                continue;
+            }
+
+            if (d[j] < -DUAL_TOLERANCE && x[j] != upper[j]) {
+                if (upper[j] == Double.POSITIVE_INFINITY) {
+                    upper[j] = (lower[j] > Double.NEGATIVE_INFINITY ? lower[j] : x[j]) + ARTIFICIAL_BOUND;
+                    artificialUpper[j] = true;
+                }
+
+                x[j] = upper[j];
+                changed = true;
+            } else if (d[j] > DUAL_TOLERANCE && x[j] != lower[j]) {
+                if (lower[j] == Double.NEGATIVE_INFINITY) {
+                    lower[j] = (upper[j] < Double.POSITIVE_INFINITY ? upper[j] : x[j]) - ARTIFICIAL_BOUND;
+                    artificialLower[j] = true;
+                }
+
+                x[j] = lower[j];
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Moves the artificial bound at which the given nonbasic variable sits a
+     * hundred times further out, and moves the variable along.
+     *
+     * @param j
+     * @return false if the bound would become too large
+     */
+    private boolean relaxArtificialBound(int j) {
+        if (artificialUpper[j] && x[j] == upper[j]) {
+            double reference = (lower[j] > Double.NEGATIVE_INFINITY && !artificialLower[j] ? lower[j] : 0);
+            double distance = 100 * Math.max(upper[j] - reference, ARTIFICIAL_BOUND);
+
+            if (distance > MAX_ARTIFICIAL_BOUND) {
+                return false;
+            }
+
+            upper[j] = reference + distance;
+            x[j] = upper[j];
+            return true;
+        } else if (artificialLower[j] && x[j] == lower[j]) {
+            double reference = (upper[j] < Double.POSITIVE_INFINITY && !artificialUpper[j] ? upper[j] : 0);
+            double distance = 100 * Math.max(reference - lower[j], ARTIFICIAL_BOUND);
+
+            if (distance > MAX_ARTIFICIAL_BOUND) {
+                return false;
+            }
+
+            lower[j] = reference - distance;
+            x[j] = lower[j];
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Relaxes the artificial bounds of nonbasic variables that could make the
+     * leaving row feasible if they could move beyond them.
+     *
+     * @param toLower
+     * @return whether any bound was relaxed
+     */
+    private boolean relaxBlockingArtificialBounds(boolean toLower) {
+        boolean relaxed = false;
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] >= 0) {
+                continue;
+            }
+
+            double a = (toLower ? -alphaRow[j] : alphaRow[j]);
+
+            if (artificialUpper[j] && x[j] == upper[j] && a > PIVOT_TOLERANCE
+                    || artificialLower[j] && x[j] == lower[j] && a < -PIVOT_TOLERANCE) {
+                relaxed |= relaxArtificialBound(j);
+            }
+        }
+
+        return relaxed;
+    }
+
+    private void perturbCosts() {
+        Random random = new Random(42);
+
+        for (int j = 0; j < n; j++) {
+            if (positionOf[j] >= 0 || lower[j] == upper[j]) {
+                continue;
+            }
+
+            double perturbation = PERTURBATION * (1 + Math.abs(cost[j])) * (1 + random.nextDouble());
+
+            if (x[j] == lower[j]) {
+                cost[j] += perturbation;
+                d[j] += perturbation;
+                perturbed = true;
+            } else if (x[j] == upper[j]) {
+                cost[j] -= perturbation;
+                d[j] -= perturbation;
+                perturbed = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the basis position with the largest primal infeasibility,
+     * relative to its dual steepest edge weight, or -1 if the basis is primal
+     * feasible.
+     *
+     * @return
+     */
+    private int chooseLeavingRow() {
+        int best = -1;
+        double bestScore = 0;
+
+        for (int p = 0; p < m; p++) {
+            int j = head[p];
+            double infeasibility;
+
+            if (x[j] < lower[j] - PRIMAL_TOLERANCE * Math.max(1, Math.abs(lower[j]))) {
+                infeasibility = lower[j] - x[j];
+            } else if (x[j] > upper[j] + PRIMAL_TOLERANCE * Math.max(1, Math.abs(upper[j]))) {
+                infeasibility = x[j] - upper[j];
+            } else {
+                continue;
+            }
+
+            double score = infeasibility * infeasibility / weights[p];
+
+            if (score > bestScore) {
+                bestScore = score;
+                best = p;
+            }
+        }
+
+        return best;
+    }
+
+    private void computeAlphaRow() {
+        Arrays.fill(alphaRow, 0);
+
+        for (int i = 0; i < m; i++) {
+            double value = rho[i];
+
+            if (value != 0) {
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    alphaRow[rowColumns[k]] += value * rowValues[k];
+                }
+
+                alphaRow[n + i] = -value;
+            }
+        }
+    }
+
+    /**
+     * Chooses the entering variable with a two-pass Harris ratio test.
+     *
+     * @param toLower whether the leaving variable leaves at its lower bound
+     * @return the entering variable, or -1 if there is none
+     */
+    private int ratioTest(boolean toLower) {
+        double maxStep = Double.POSITIVE_INFINITY;
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] >= 0 || lower[j] == upper[j]) {
+                continue;
+            }
+
+            double a = (toLower ? -alphaRow[j] : alphaRow[j]);
+
+            if (Math.abs(a) <= PIVOT_TOLERANCE) {
+                continue;
+            }
+
+            if (x[j] == lower[j]) {
+                if (a > 0) {
+                    maxStep = Math.min(maxStep, (d[j] + DUAL_TOLERANCE) / a);
+                }
+            } else if (x[j] == upper[j]) {
+                if (a < 0) {
+                    maxStep = Math.min(maxStep, (d[j] - DUAL_TOLERANCE) / a);
+                }
+            } else {
+                maxStep = Math.min(maxStep, (Math.abs(d[j]) + DUAL_TOLERANCE) / Math.abs(a));
+            }
+        }
+
+        if (maxStep == Double.POSITIVE_INFINITY) {
+            return -1;
+        }
+
+        int best = -1;
+        double bestAlpha = 0;
+
+        for (int j = 0; j < nVariables; j++) {
+            if (positionOf[j] >= 0 || lower[j] == upper[j]) {
+                continue;
+            }
+
+            double a = (toLower ? -alphaRow[j] : alphaRow[j]);
+
+            if (Math.abs(a) <= PIVOT_TOLERANCE) {
+                continue;
+            }
+
+            double step;
+
+            if (x[j] == lower[j]) {
+                if (a <= 0) {
+                    continue;
+                }
+
+                step = d[j] / a;
+            } else if (x[j] == upper[j]) {
+                if (a >= 0) {
+                    continue;
+                }
+
+                step = d[j] / a;
+            } else {
+                step = Math.abs(d[j]) / Math.abs(a);
+            }
+
+            if (step <= maxStep && Math.abs(a) > bestAlpha) {
+                bestAlpha = Math.abs(a);
+                best = j;
+            }
+        }
+
+        return best;
+    }
+
+    private void loadColumn(int j, double[] column) {
+        Arrays.fill(column, 0);
+
+        if (j < n) {
+            for (int t = columnStart[j]; t < columnStart[j + 1]; t++) {
+                column[columnRows[t]] = columnValues[t];
+            }
+        } else {
+            column[j - n] = -1;
+        }
+    }
+
+    private double defaultValue(int j) {
+        if (lower[j] > Double.NEGATIVE_INFINITY) {
+            return lower[j];
+        } else if (upper[j] < Double.POSITIVE_INFINITY) {
+            return upper[j];
+        } else {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * A linear solver written in Java, which needs no native libraries. It uses
+ * the bounded dual simplex method with a sparse LU factorization of the basis,
+ * see DualSimplex.
+ *
+ * The final basis of each solve is remembered, and reused as the starting
+ * basis for a later problem with the same variables, non-zero pattern and
+ * comparisons. Restricted programs of consecutive iterations of
+ * IteratedLinearSolver only differ in their coefficients and bounds, so their
+ * previous optimal basis is usually only a few pivots away from optimal.
+ *
+ * Rows and columns are scaled by powers of two before solving, so the scaling
+ * introduces no rounding errors. Returns null if the iteration limit is
+ * reached or the thread is interrupted. This class is not thread-safe.
+ */
+public class DualSimplexSolver implements LinearSolver {
+
+    private static final int SCALING_PASSES = 4;
+
+    private final int capacity;
+    private final LinkedList<Basis> bases = new LinkedList<>(); // Most recently used first
+    private int lastIterations = 0;
+
+    public DualSimplexSolver() {
+        this(2);
+    }
+
+    /**
+     * Creates a solver that remembers the optimal bases of at most the given
+     * number of problem structures.
+     *
+     * @param capacity
+     */
+    public DualSimplexSolver(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The number of bases to keep cannot be negative.");
+        }
+
+        this.capacity = capacity;
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem linearProgram) {
+        ConstraintMatrix matrix = linearProgram.getConstraintMatrix();
+
+        if (!matrix.isLinear()) {
+            throw new IllegalArgumentException("This solver can only solve linear programs.");
+        }
+
+        VariableRegistry variables = linearProgram.getVariables();
+        int n = variables.size();
+        int m = matrix.getNumRows();
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+        byte[] comparisons = matrix.getComparisons();
+        double[] rightHandSides = matrix.getRightHandSides();
+        double[] objective = getObjectiveCoefficients(linearProgram);
+        double[] lowerBounds = linearProgram.getLowerBounds();
+        double[] upperBounds = linearProgram.getUpperBounds();
+
+        // Scale
+        double[] rowScale = new double[m];
+        double[] columnScale = new double[n];
+        computeScaling(m, n, rowStart, columns, coefficients, rowScale, columnScale);
+
+        double[] scaledCoefficients = new double[rowStart[m]];
+
+        for (int i = 0; i < m; i++) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                scaledCoefficients[k] = coefficients[k] * rowScale[i] * columnScale[columns[k]];
+            }
+        }
+
+        double[] cost = new double[n + m];
+        double[] lower = new double[n + m];
+        double[] upper = new double[n + m];
+
+        for (int j = 0; j < n; j++) {
+            cost[j] = objective[j] * columnScale[j];
+            lower[j] = lowerBounds[j] / columnScale[j];
+            upper[j] = upperBounds[j] / columnScale[j];
+        }
+
+        for (int i = 0; i < m; i++) {
+            double rhs = rightHandSides[i] * rowScale[i];
+
+            switch (comparisons[i]) {
+                case ConstraintMatrix.EQUAL:
+                    lower[n + i] = rhs;
+                    upper[n + i] = rhs;
+                    break;
+                case ConstraintMatrix.LESS_THAN_OR_EQUAL:
+                    lower[n + i] = Double.NEGATIVE_INFINITY;
+                    upper[n + i] = rhs;
+                    break;
+                case ConstraintMatrix.GREATER_THAN_OR_EQUAL:
+                    lower[n + i] = rhs;
+                    upper[n + i] = Double.POSITIVE_INFINITY;
+                    break;
+            }
+        }
+
+        DualSimplex simplex = new DualSimplex(m, n, rowStart, columns, scaledCoefficients, cost, lower, upper);
+        Basis basis = findBasis(matrix, n);
+
+        if (basis != null) {
+            simplex.setBasis(basis.head, basis.status);
+        }
+
+        DualSimplex.Status status = simplex.solve(20 * (n + m) + 1000);
+        lastIterations = simplex.getIterations();
+
+        if (status == DualSimplex.Status.OPTIMAL || status == DualSimplex.Status.UNBOUNDED) {
+            storeBasis(matrix, n, simplex.getHead(), simplex.getStatus());
+        } else if (basis != null) {
+            bases.remove(basis);
+        }
+
+        switch (status) {
+            case INFEASIBLE:
+                return Solution.INFEASIBLE;
+            case ITERATION_LIMIT:
+            case INTERRUPTED:
+            case SINGULAR:
+                return null;
+        }
+
+        double[] scaledValues = simplex.getValues();
+        double[] values = new double[n];
+        double objectiveValue = 0;
+
+        for (int j = 0; j < n; j++) {
+            values[j] = scaledValues[j] * columnScale[j];
+            objectiveValue += objective[j] * values[j];
+        }
+
+        if (status == DualSimplex.Status.UNBOUNDED) {
+            return new Solution(Double.POSITIVE_INFINITY, variables, values);
+        } else {
+            return new Solution(objectiveValue, variables, values);
+        }
+    }
+
+    /**
+     * Forgets all stored bases, so the next problem is solved from the slack
+     * basis.
+     */
+    public void reset() {
+        bases.clear();
+    }
+
+    /**
+     * Returns the number of simplex iterations of the last solve.
+     *
+     * @return
+     */
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    private Basis findBasis(ConstraintMatrix matrix, int n) {
+        for (Iterator<Basis> it = bases.iterator(); it.hasNext();) {
+            Basis basis = it.next();
+
+            if (basis.hasStructureOf(matrix, n)) {
+                it.remove();
+                bases.addFirst(basis);
+                return basis;
+            }
+        }
+
+        return null;
+    }
+
+    private void storeBasis(ConstraintMatrix matrix, int n, int[] head, byte[] status) {
+        if (capacity == 0) {
+            return;
+        }
+
+        Basis basis = findBasis(matrix, n);
+
+        if (basis == null) {
+            basis = new Basis(matrix, n);
+            bases.addFirst(basis);
+
+            if (bases.size() > capacity) {
+                bases.removeLast();
+            }
+        }
+
+        basis.head = head.clone();
+        basis.status = status;
+    }
+
+    /**
+     * Computes geometric mean scale factors, rounded to powers of two, such
+     * that the scaled coefficients rowScale[i] * a_ij * columnScale[j] are
+     * close to one.
+     */
+    private static void computeScaling(int m, int n, int[] rowStart, int[] columns, double[] coefficients, double[] rowScale, double[] columnScale) {
+        Arrays.fill(rowScale, 1);
+        Arrays.fill(columnScale, 1);
+        double[] columnMin = new double[n];
+        double[] columnMax = new double[n];
+
+        for (int pass = 0; pass < SCALING_PASSES; pass++) {
+            for (int i = 0; i < m; i++) {
+                double min = Double.POSITIVE_INFINITY, max = 0;
+
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    double a = Math.abs(coefficients[k] * columnScale[columns[k]]);
+
+                    if (a > 0) {
+                        min = Math.min(min, a);
+                        max = Math.max(max, a);
+                    }
+                }
+
+                rowScale[i] = (max > 0 ? 1 / powerOfTwo(Math.sqrt(min * max)) : 1);
+            }
+
+            Arrays.fill(columnMin, Double.POSITIVE_INFINITY);
+            Arrays.fill(columnMax, 0);
+
+            for (int i = 0; i < m; i++) {
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    double a = Math.abs(coefficients[k] * rowScale[i]);
+
+                    if (a > 0) {
+                        columnMin[columns[k]] = Math.min(columnMin[columns[k]], a);
+                        columnMax[columns[k]] = Math.max(columnMax[columns[k]], a);
+                    }
+                }
+            }
+
+            for (int j = 0; j < n; j++) {
+                columnScale[j] = (columnMax[j] > 0 ? 1 / powerOfTwo(Math.sqrt(columnMin[j] * columnMax[j])) : 1);
+            }
+        }
+    }
+
+    private static double powerOfTwo(double value) {
+        return Math.scalb(1.0, Math.getExponent(value));
+    }
+
+    /**
+     * Returns the objective coefficient of each variable, or throws an
+     * IllegalArgumentException if the objective has quadratic terms.
+     *
+     * @param problem
+     * @return
+     */
+    static double[] getObjectiveCoefficients(MinimizationProblem problem) {
+        VariableRegistry variables = problem.getVariables();
+        double[] result = new double[variables.size()];
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Linear) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Linear) problem.getObjective()).getTerms()) {
+                result[variables.getId(term.getSecond())] += term.getFirst();
+            }
+        } else if (problem.getObjective() instanceof ObjectiveFunction.Quadratic) {
+            ObjectiveFunction.Quadratic objective = (ObjectiveFunction.Quadratic) problem.getObjective();
+
+            for (Pair<Double, String> term : objective.getQuadraticTerms()) {
+                if (term.getFirst() != 0) {
+                    throw new IllegalArgumentException("This solver can only solve linear programs.");
+                }
+            }
+
+            for (Pair<Double, String> term : objective.getLinearTerms()) {
+                result[variables.getId(term.getSecond())] += term.getFirst();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * An optimal basis, together with the structure of the problem it belongs
+     * to.
+     */
+    private static class Basis {
+
+        final int nColumns;
+        final int[] rowStart;
+        final int[] columns;
+        final byte[] comparisons;
+        int[] head;
+        byte[] status;
+
+        Basis(ConstraintMatrix matrix, int nColumns) {
+            this.nColumns = nColumns;
+            rowStart = matrix.getRowStart().clone();
+            columns = Arrays.copyOf(matrix.getColumns(), matrix.getNumTerms());
+            comparisons = matrix.getComparisons().clone();
+        }
+
+        boolean hasStructureOf(ConstraintMatrix matrix, int n) {
+            return n == nColumns
+                    && Arrays.equals(matrix.getComparisons(), comparisons)
+                    && Arrays.equals(matrix.getRowStart(), rowStart)
+                    && Arrays.equals(Arrays.copyOf(matrix.getColumns(), matrix.getNumTerms()), columns);
+        }
+    }
+}
@@ -17,16 +17,67 @@ package rectocarto.algos.lp.solver;
 
 import java.util.Map;
 import java.util.Set;
+import rectangularcartogram.data.Deadline;
 import rectangularcartogram.data.Pair;
-import rectocarto.algos.lp.BilinearToLinear;
+import rectocarto.algos.lp.RestrictionTemplate;
 import rectocarto.data.lp.MinimizationProblem;
 import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.ProblemEvaluator;
 import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
 
+/**
+ * Solves a bilinear program by alternately fixing each of two sets of
+ * variables and solving the resulting linear program. Each iteration solves
+ * both restricted programs, and never makes the objective worse.
+ *
+ * The iterations stop as soon as one of the following holds:
+ * <ul>
+ * <li>the maximum number of iterations was reached;</li>
+ * <li>the last iteration improved the objective by less than the convergence
+ * tolerance, relative to its value;</li>
+ * <li>the last stallIterations iterations together improved the objective by
+ * less than the stall tolerance;</li>
+ * <li>the time limit was exceeded;</li>
+ * <li>the deadline passed, or was cancelled;</li>
+ * <li>the underlying solver failed to solve a restricted program.</li>
+ * </ul>
+ * A final half-iteration then builds a complete solution. If the deadline
+ * passed, this is skipped, and the solution of the last complete iteration is
+ * returned instead.
+ */
 public class IteratedLinearSolver {
 
+    public enum StopReason {
+        MAX_ITERATIONS, CONVERGED, STALLED, TIME_LIMIT, CANCELLED, SOLVER_FAILED
+    }
+
+    /**
+     * Receives the progress of the solver after each iteration.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after each iteration.
+         *
+         * @param iteration the number of the iteration, starting at 0
+         * @param objectiveValue the objective value after this iteration
+         * @param relativeImprovement the improvement of this iteration,
+         * relative to the previous objective value
+         * @param elapsedMillis the time since the solve started
+         */
+        void iterationCompleted(int iteration, double objectiveValue, double relativeImprovement, long elapsedMillis);
+    }
+
     private int nIterations = 50;
+    private double convergenceTolerance = 1e-6;
+    private int stallIterations = 5;
+    private double stallTolerance = 1e-4;
+    private long timeLimit = Long.MAX_VALUE; // In milliseconds
+    private ProgressListener progressListener = null;
     private final LinearSolver solver;
+    private int lastIterations = 0;
+    private StopReason lastStopReason = null;
 
     public IteratedLinearSolver(LinearSolver solver) {
         this.solver = solver;
@@ -37,6 +88,11 @@ public class IteratedLinearSolver {
         this.nIterations = nIterations;
     }
 
+    /**
+     * Returns the maximum number of iterations.
+     *
+     * @return
+     */
     public int getnIterations() {
         return nIterations;
     }
@@ -45,39 +101,239 @@ public class IteratedLinearSolver {
         this.nIterations = nIterations;
     }
 
+    public double getConvergenceTolerance() {
+        return convergenceTolerance;
+    }
+
+    /**
+     * Stops when an iteration improves the objective by less than the given
+     * fraction. Use 0 to disable this rule.
+     *
+     * @param convergenceTolerance
+     */
+    public void setConvergenceTolerance(double convergenceTolerance) {
+        this.convergenceTolerance = convergenceTolerance;
+    }
+
+    public int getStallIterations() {
+        return stallIterations;
+    }
+
+    public double getStallTolerance() {
+        return stallTolerance;
+    }
+
+    /**
+     * Stops when the given number of consecutive iterations together improve
+     * the objective by less than the given fraction. Use 0 iterations to
+     * disable this rule.
+     *
+     * @param stallIterations
+     * @param stallTolerance
+     */
+    public void setStallDetection(int stallIterations, double stallTolerance) {
+        this.stallIterations = stallIterations;
+        this.stallTolerance = stallTolerance;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Stops starting new iterations after the given number of milliseconds.
+     * The iteration in progress and the final half-iteration still complete.
+     *
+     * @param timeLimit
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Returns the number of iterations of the last solve.
+     *
+     * @return
+     */
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    /**
+     * Returns why the iterations of the last solve stopped.
+     *
+     * @return
+     */
+    public StopReason getLastStopReason() {
+        return lastStopReason;
+    }
+
+    /**
+     * Improves the given feasible solution of the bilinear program.
+     *
+     * @param bilinearProgram
+     * @param variablePartition two sets of variables, such that fixing either
+     * set makes the program linear
+     * @param feasibleSolution
+     * @return the improved solution, or null if the underlying solver failed
+     * on the final half-iteration
+     */
     public Solution solve(MinimizationProblem bilinearProgram, Pair<Set<String>, Set<String>> variablePartition, Solution feasibleSolution) {
+        return solve(bilinearProgram, variablePartition, feasibleSolution, Deadline.none());
+    }
+
+    /**
+     * Improves the given feasible solution of the bilinear program until the
+     * given deadline. The deadline is checked between linear programs; once it
+     * has expired, the best solution found so far is returned, and
+     * getLastStopReason is TIME_LIMIT or CANCELLED.
+     *
+     * @param bilinearProgram
+     * @param variablePartition two sets of variables, such that fixing either
+     * set makes the program linear
+     * @param feasibleSolution
+     * @param deadline
+     * @return the improved solution, or null if the underlying solver failed
+     * on the final half-iteration
+     */
+    public Solution solve(MinimizationProblem bilinearProgram, Pair<Set<String>, Set<String>> variablePartition, Solution feasibleSolution, Deadline deadline) {
         if (bilinearProgram.getObjective() instanceof ObjectiveFunction.Quadratic && !(solver instanceof QuadraticSolver)) {
             throw new IllegalArgumentException("Quadratic program passed, while the underlying solver cannot solve quadratic programs.");
         }
 
-        // Build a first partial solution from the feasible solution
-        Solution lastSolution = new Solution(feasibleSolution.getObjectiveValue());
-        for (String var : variablePartition.getFirst()) {
-            lastSolution.put(var, feasibleSolution.get(var));
-        }
+        long start = System.nanoTime();
+
+        // The structure of both restricted programs is the same in every iteration
+        RestrictionTemplate fixFirst = new RestrictionTemplate(bilinearProgram, variablePartition.getFirst());
+        RestrictionTemplate fixSecond = new RestrictionTemplate(bilinearProgram, variablePartition.getSecond());
+
+        // The restricted programs drop constant terms, so the objective is evaluated on the complete assignment
+        ProblemEvaluator evaluator = new ProblemEvaluator(bilinearProgram);
+        VariableRegistry variables = bilinearProgram.getVariables();
+        double[] values = new double[variables.size()];
+        copyValues(feasibleSolution, variables, values);
+
+        // Start from the feasible solution
+        Solution lastSolution = feasibleSolution;
+        double[] objectiveHistory = new double[nIterations];
+        double lastObjective = Double.NaN;
+        lastIterations = 0;
+        lastStopReason = StopReason.MAX_ITERATIONS;
+        boolean expired = false;
 
         for (int i = 0; i < nIterations; i++) {
-            lastSolution.keySet().retainAll(variablePartition.getFirst());
-            System.out.println("Iteration " + i + "a. Last solution: " + lastSolution);
-            lastSolution = solver.solve(BilinearToLinear.restrictToLinear(bilinearProgram, lastSolution));
-            
-            lastSolution.keySet().retainAll(variablePartition.getSecond());
-            System.out.println("Iteration " + i + "b. Last solution: " + lastSolution);
-            lastSolution = solver.solve(BilinearToLinear.restrictToLinear(bilinearProgram, lastSolution));
+            if (deadline.isExpired()) {
+                lastStopReason = (deadline.isCancelled() ? StopReason.CANCELLED : StopReason.TIME_LIMIT);
+                expired = true;
+                break;
+            }
+
+            if (elapsedMillis(start) >= timeLimit) {
+                lastStopReason = StopReason.TIME_LIMIT;
+                break;
+            }
+
+            Solution half = fixFirst.lift(solver.solve(fixFirst.restrict(lastSolution)));
+
+            if (half == null || half.isInfeasible()) {
+                lastStopReason = StopReason.SOLVER_FAILED;
+                break;
+            }
+
+            Solution full = fixSecond.lift(solver.solve(fixSecond.restrict(half)));
+
+            if (full == null || full.isInfeasible()) {
+                lastStopReason = StopReason.SOLVER_FAILED;
+                break;
+            }
+
+            lastSolution = full;
+            lastIterations++;
+
+            copyValues(half, variables, values);
+            copyValues(full, variables, values);
+            double objective = evaluator.evaluateObjective(values);
+            objectiveHistory[i] = objective;
+            double improvement = relativeImprovement(lastObjective, objective);
+            lastObjective = objective;
+
+            if (progressListener != null) {
+                progressListener.iterationCompleted(i, objective, improvement, elapsedMillis(start));
+            }
+
+            if (improvement < convergenceTolerance) {
+                lastStopReason = StopReason.CONVERGED;
+                break;
+            }
+
+            if (stallIterations > 0 && i >= stallIterations
+                    && relativeImprovement(objectiveHistory[i - stallIterations], objective) < stallTolerance) {
+                lastStopReason = StopReason.STALLED;
+                break;
+            }
         }
-        
+
+        if (expired) {
+            // The last complete iteration assigned every variable
+            return (lastIterations == 0
+                    ? feasibleSolution
+                    : new Solution(evaluator.evaluateObjective(values), variables, values));
+        }
+
         // Run a final iteration to build a complete solution
-        lastSolution.keySet().retainAll(variablePartition.getFirst());
-        Solution finalSolution = solver.solve(BilinearToLinear.restrictToLinear(bilinearProgram, lastSolution));
-        finalSolution.putAll(lastSolution);
-        
-        for (Map.Entry<String, Double> entry : feasibleSolution.entrySet()) {
-            finalSolution.putIfAbsent(entry.getKey(), entry.getValue());
+        lastSolution = lastSolution.restrictTo(variablePartition.getFirst());
+        Solution solved = fixFirst.lift(solver.solve(fixFirst.restrict(lastSolution)));
+
+        if (solved == null || solved.isInfeasible()) {
+            lastStopReason = StopReason.SOLVER_FAILED;
+            return null;
+        }
+
+        Solution assignment = new Solution(solved.getObjectiveValue(), feasibleSolution);
+        assignment.putAll(solved);
+        assignment.putAll(lastSolution);
+
+        // Like the iterations, report the objective of the complete assignment
+        copyValues(assignment, variables, values);
+        return new Solution(evaluator.evaluateObjective(values), assignment);
+    }
+
+    private static void copyValues(Solution solution, VariableRegistry variables, double[] values) {
+        if (solution.getVariables() == variables) {
+            for (int id = 0; id < values.length; id++) {
+                if (solution.isAssigned(id)) {
+                    values[id] = solution.getValue(id);
+                }
+            }
+        } else {
+            for (Map.Entry<String, Double> entry : solution.entrySet()) {
+                int id = variables.getId(entry.getKey());
+
+                if (id >= 0) {
+                    values[id] = entry.getValue();
+                }
+            }
         }
-        
-        System.out.println("Last solution: " + lastSolution);
-        System.out.println("Final solution: " + finalSolution);
+    }
+
+    /**
+     * Returns the improvement from the previous to the current objective
+     * value, relative to the previous value, or infinity if there is no
+     * previous value.
+     */
+    private static double relativeImprovement(double previous, double current) {
+        if (Double.isNaN(previous)) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        return (previous - current) / Math.max(Math.abs(previous), 1e-12);
+    }
 
-        return finalSolution;
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1000000;
     }
 }
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import rectocarto.algos.lp.ParallelFor;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+
+/**
+ * A first-order linear solver based on the primal-dual hybrid gradient method,
+ * in the style of PDLP. Each iteration consists of one product with the
+ * constraint matrix and one with its transpose, which are split into blocks of
+ * rows and columns and computed in parallel on a fork-join pool. This makes it
+ * suitable for very large programs, where the simplex method leaves most cores
+ * idle.
+ *
+ * The matrix is preconditioned by Ruiz equilibration followed by
+ * Pock-Chambolle scaling. The iterates are restarted from the current point or
+ * the average since the last restart whenever the KKT error has decreased
+ * enough, and the primal weight that balances the primal and dual step sizes
+ * is adjusted at every restart.
+ *
+ * The solutions are approximate: the solver stops as soon as the relative
+ * primal residual, dual residual and duality gap are all below the tolerance.
+ * A loose tolerance is often good enough for the first iterations of an
+ * IteratedLinearSolver. Infeasibility and unboundedness are not detected;
+ * null is returned if the iteration limit is reached or the thread is
+ * interrupted.
+ */
+public class PDLPSolver implements LinearSolver {
+
+    private static final int RUIZ_ITERATIONS = 10;
+    private static final double STEP_SIZE = 0.95; // The preconditioned matrix has norm at most 1
+    private static final int EVALUATION_FREQUENCY = 64;
+    private static final double SUFFICIENT_REDUCTION = 0.2;
+    private static final double NECESSARY_REDUCTION = 0.8;
+    private static final double ARTIFICIAL_RESTART = 0.36; // Of the total number of iterations
+    private static final int BLOCK_SIZE = 512; // Rows or columns per parallel task
+
+    private final double tolerance;
+    private final ForkJoinPool pool;
+    private int maxIterations = 200000;
+    private int lastIterations = 0;
+
+    // The preconditioned problem: min c^T x subject to K x >= b for inequality rows,
+    // K x = b for equality rows, and lower <= x <= upper
+    private int m, n;
+    private int[] rowStart, rowColumns, columnStart, columnRows;
+    private double[] rowValues, columnValues;
+    private double[] c, b, lower, upper, rowScale, columnScale;
+    private boolean[] equality;
+    private double bNorm, cNorm;
+
+    public PDLPSolver() {
+        this(1e-4);
+    }
+
+    /**
+     * Creates a solver that stops when the relative residuals and duality gap
+     * are below the given tolerance, and runs on the common fork-join pool.
+     *
+     * @param tolerance
+     */
+    public PDLPSolver(double tolerance) {
+        this(tolerance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a solver that stops when the relative residuals and duality gap
+     * are below the given tolerance, and runs on the given pool.
+     *
+     * @param tolerance
+     * @param pool
+     */
+    public PDLPSolver(double tolerance, ForkJoinPool pool) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("The tolerance must be positive.");
+        }
+
+        this.tolerance = tolerance;
+        this.pool = pool;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * Returns the number of iterations of the last solve.
+     *
+     * @return
+     */
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem linearProgram) {
+        ConstraintMatrix matrix = linearProgram.getConstraintMatrix();
+
+        if (!matrix.isLinear()) {
+            throw new IllegalArgumentException("This solver can only solve linear programs.");
+        }
+
+        double[] objective = DualSimplexSolver.getObjectiveCoefficients(linearProgram);
+        precondition(matrix, objective, linearProgram.getLowerBounds(), linearProgram.getUpperBounds());
+
+        double[] x = new double[n];
+        double[] y = new double[m];
+
+        for (int j = 0; j < n; j++) {
+            x[j] = project(j, 0);
+        }
+
+        lastIterations = 0;
+        double[] result = iterate(x, y);
+
+        if (result == null) {
+            return null;
+        }
+
+        double[] values = new double[n];
+        double objectiveValue = 0;
+
+        for (int j = 0; j < n; j++) {
+            values[j] = result[j] * columnScale[j];
+            objectiveValue += objective[j] * values[j];
+        }
+
+        return new Solution(objectiveValue, linearProgram.getVariables(), values);
+    }
+
+    /**
+     * Runs restarted PDHG from the given point.
+     *
+     * @return the primal solution of the preconditioned problem, or null if
+     * the iteration limit was reached or the thread was interrupted
+     */
+    private double[] iterate(double[] x, double[] y) {
+        double[] xNext = new double[n];
+        double[] yNext = new double[m];
+        double[] xBar = new double[n];
+        double[] xSum = new double[n];
+        double[] ySum = new double[m];
+        double[] xAverage = new double[n];
+        double[] yAverage = new double[m];
+        double[] xRestart = x.clone();
+        double[] yRestart = y.clone();
+        double[] work = new double[Math.max(m, n)];
+
+        double primalWeight = (bNorm > 0 && cNorm > 0 ? norm(c) / norm(b) : 1);
+        double restartError = evaluate(x, y, work)[0];
+        double lastCandidateError = Double.POSITIVE_INFINITY;
+        int nAveraged = 0;
+        int sinceRestart = 0;
+
+        while (lastIterations < maxIterations && !Thread.currentThread().isInterrupted()) {
+            final double tau = STEP_SIZE / primalWeight;
+            final double sigma = STEP_SIZE * primalWeight;
+            final double[] xCurrent = x, yCurrent = y, xUpdate = xNext, yUpdate = yNext;
+
+            // Primal step: x+ = proj(x - tau (c - K^T y)), xBar = 2 x+ - x
+            ParallelFor.run(pool, n, BLOCK_SIZE, (from, to) -> {
+                for (int j = from; j < to; j++) {
+                    double gradient = c[j];
+
+                    for (int k = columnStart[j]; k < columnStart[j + 1]; k++) {
+                        gradient -= columnValues[k] * yCurrent[columnRows[k]];
+                    }
+
+                    double value = project(j, xCurrent[j] - tau * gradient);
+                    xUpdate[j] = value;
+                    xBar[j] = 2 * value - xCurrent[j];
+                    xSum[j] += value;
+                }
+            });
+
+            // Dual step: y+ = proj(y + sigma (b - K xBar))
+            ParallelFor.run(pool, m, BLOCK_SIZE, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    double activity = 0;
+
+                    for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                        activity += rowValues[k] * xBar[rowColumns[k]];
+                    }
+
+                    double value = yCurrent[i] + sigma * (b[i] - activity);
+                    yUpdate[i] = (equality[i] ? value : Math.max(0, value));
+                    ySum[i] += yUpdate[i];
+                }
+            });
+
+            xNext = x;
+            x = xUpdate;
+            yNext = y;
+            y = yUpdate;
+            nAveraged++;
+            sinceRestart++;
+            lastIterations++;
+
+            if (lastIterations % EVALUATION_FREQUENCY != 0) {
+                continue;
+            }
+
+            for (int j = 0; j < n; j++) {
+                xAverage[j] = xSum[j] / nAveraged;
+            }
+
+            for (int i = 0; i < m; i++) {
+                yAverage[i] = ySum[i] / nAveraged;
+            }
+
+            double[] current = evaluate(x, y, work);
+            double[] average = evaluate(xAverage, yAverage, work);
+
+            if (current[1] > 0) {
+                return x;
+            } else if (average[1] > 0) {
+                return xAverage;
+            }
+
+            // Restart from whichever point is closer to optimal
+            boolean useAverage = average[0] < current[0];
+            double candidateError = Math.min(average[0], current[0]);
+
+            if (candidateError <= SUFFICIENT_REDUCTION * restartError
+                    || candidateError <= NECESSARY_REDUCTION * restartError && candidateError > lastCandidateError
+                    || sinceRestart >= ARTIFICIAL_RESTART * lastIterations) {
+                double[] xCandidate = (useAverage ? xAverage : x);
+                double[] yCandidate = (useAverage ? yAverage : y);
+                double primalDistance = distance(xCandidate, xRestart);
+                double dualDistance = distance(yCandidate, yRestart);
+
+                if (primalDistance > 1e-10 && dualDistance > 1e-10) {
+                    primalWeight = Math.sqrt(primalWeight * dualDistance / primalDistance);
+                }
+
+                System.arraycopy(xCandidate, 0, xRestart, 0, n);
+                System.arraycopy(yCandidate, 0, yRestart, 0, m);
+                System.arraycopy(xCandidate, 0, x, 0, n);
+                System.arraycopy(yCandidate, 0, y, 0, m);
+                Arrays.fill(xSum, 0);
+                Arrays.fill(ySum, 0);
+                nAveraged = 0;
+                sinceRestart = 0;
+                restartError = candidateError;
+                lastCandidateError = Double.POSITIVE_INFINITY;
+            } else {
+                lastCandidateError = candidateError;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Computes the KKT error of the given point, measured in the original
+     * problem.
+     *
+     * @return the KKT error, and whether the point satisfies the tolerance (1)
+     * or not (0)
+     */
+    private double[] evaluate(double[] x, double[] y, double[] work) {
+        // Primal residual
+        multiply(x, work);
+        double primalResidual = 0;
+        double dualObjective = 0;
+
+        for (int i = 0; i < m; i++) {
+            double residual = b[i] - work[i];
+
+            if (!equality[i]) {
+                residual = Math.max(0, residual);
+            }
+
+            residual /= rowScale[i];
+            primalResidual += residual * residual;
+            dualObjective += b[i] * y[i];
+        }
+
+        // Dual residual: the part of the reduced costs that no finite bound can absorb
+        multiplyTransposed(y, work);
+        double dualResidual = 0;
+        double primalObjective = 0;
+
+        for (int j = 0; j < n; j++) {
+            double reducedCost = c[j] - work[j];
+            primalObjective += c[j] * x[j];
+
+            if (reducedCost > 0) {
+                if (lower[j] > Double.NEGATIVE_INFINITY) {
+                    dualObjective += reducedCost * lower[j];
+                } else {
+                    dualResidual += (reducedCost / columnScale[j]) * (reducedCost / columnScale[j]);
+                }
+            } else if (reducedCost < 0) {
+                if (upper[j] < Double.POSITIVE_INFINITY) {
+                    dualObjective += reducedCost * upper[j];
+                } else {
+                    dualResidual += (reducedCost / columnScale[j]) * (reducedCost / columnScale[j]);
+                }
+            }
+        }
+
+        primalResidual = Math.sqrt(primalResidual);
+        dualResidual = Math.sqrt(dualResidual);
+        double gap = Math.abs(primalObjective - dualObjective);
+
+        boolean converged = primalResidual <= tolerance * (1 + bNorm)
+                && dualResidual <= tolerance * (1 + cNorm)
+                && gap <= tolerance * (1 + Math.abs(primalObjective) + Math.abs(dualObjective));
+
+        return new double[]{Math.sqrt(primalResidual * primalResidual + dualResidual * dualResidual + gap * gap), converged ? 1 : 0};
+    }
+
+    /**
+     * Rewrites the problem as min c^T x subject to K x >= b or K x = b and
+     * lower <= x <= upper, and scales the rows and columns of K.
+     */
+    private void precondition(ConstraintMatrix matrix, double[] objective, double[] lowerBounds, double[] upperBounds) {
+        m = matrix.getNumRows();
+        n = objective.length;
+        rowStart = matrix.getRowStart();
+        rowColumns = matrix.getColumns();
+        byte[] comparisons = matrix.getComparisons();
+        double[] coefficients = matrix.getCoefficients();
+        double[] rightHandSides = matrix.getRightHandSides();
+
+        rowValues = new double[rowStart[m]];
+        b = new double[m];
+        equality = new boolean[m];
+
+        for (int i = 0; i < m; i++) {
+            double sign = (comparisons[i] == ConstraintMatrix.LESS_THAN_OR_EQUAL ? -1 : 1);
+            equality[i] = (comparisons[i] == ConstraintMatrix.EQUAL);
+            b[i] = sign * rightHandSides[i];
+
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                rowValues[k] = sign * coefficients[k];
+            }
+        }
+
+        bNorm = norm(b);
+        cNorm = norm(objective);
+
+        // Ruiz equilibration: scale every row and column to a maximum of one
+        rowScale = new double[m];
+        columnScale = new double[n];
+        Arrays.fill(rowScale, 1);
+        Arrays.fill(columnScale, 1);
+        double[] rowFactor = new double[m];
+        double[] columnFactor = new double[n];
+
+        for (int iteration = 0; iteration < RUIZ_ITERATIONS; iteration++) {
+            Arrays.fill(rowFactor, 0);
+            Arrays.fill(columnFactor, 0);
+
+            for (int i = 0; i < m; i++) {
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    double a = Math.abs(rowValues[k] * rowScale[i] * columnScale[rowColumns[k]]);
+                    rowFactor[i] = Math.max(rowFactor[i], a);
+                    columnFactor[rowColumns[k]] = Math.max(columnFactor[rowColumns[k]], a);
+                }
+            }
+
+            applyScaling(rowFactor, columnFactor);
+        }
+
+        // Pock-Chambolle: scale by the square roots of the absolute row and column sums
+        Arrays.fill(rowFactor, 0);
+        Arrays.fill(columnFactor, 0);
+
+        for (int i = 0; i < m; i++) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                double a = Math.abs(rowValues[k] * rowScale[i] * columnScale[rowColumns[k]]);
+                rowFactor[i] += a;
+                columnFactor[rowColumns[k]] += a;
+            }
+        }
+
+        applyScaling(rowFactor, columnFactor);
+
+        for (int i = 0; i < m; i++) {
+            b[i] *= rowScale[i];
+
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                rowValues[k] *= rowScale[i] * columnScale[rowColumns[k]];
+            }
+        }
+
+        c = new double[n];
+        lower = new double[n];
+        upper = new double[n];
+
+        for (int j = 0; j < n; j++) {
+            c[j] = objective[j] * columnScale[j];
+            lower[j] = lowerBounds[j] / columnScale[j];
+            upper[j] = upperBounds[j] / columnScale[j];
+        }
+
+        // Transpose K
+        int nTerms = rowStart[m];
+        columnStart = new int[n + 1];
+        columnRows = new int[nTerms];
+        columnValues = new double[nTerms];
+
+        for (int k = 0; k < nTerms; k++) {
+            columnStart[rowColumns[k] + 1]++;
+        }
+
+        for (int j = 0; j < n; j++) {
+            columnStart[j + 1] += columnStart[j];
+        }
+
+        int[] next = Arrays.copyOf(columnStart, n);
+
+        for (int i = 0; i < m; i++) {
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                int position = next[rowColumns[k]]++;
+                columnRows[position] = i;
+                columnValues[position] = rowValues[k];
+            }
+        }
+    }
+
+    private void applyScaling(double[] rowFactor, double[] columnFactor) {
+        for (int i = 0; i < m; i++) {
+            if (rowFactor[i] > 0) {
+                rowScale[i] /= Math.sqrt(rowFactor[i]);
+            }
+        }
+
+        for (int j = 0; j < n; j++) {
+            if (columnFactor[j] > 0) {
+                columnScale[j] /= Math.sqrt(columnFactor[j]);
+            }
+        }
+    }
+
+    private double project(int j, double value) {
+        return Math.min(upper[j], Math.max(lower[j], value));
+    }
+
+    private void multiply(double[] x, double[] result) {
+        ParallelFor.run(pool, m, BLOCK_SIZE, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                double activity = 0;
+
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                    activity += rowValues[k] * x[rowColumns[k]];
+                }
+
+                result[i] = activity;
+            }
+        });
+    }
+
+    private void multiplyTransposed(double[] y, double[] result) {
+        ParallelFor.run(pool, n, BLOCK_SIZE, (from, to) -> {
+            for (int j = from; j < to; j++) {
+                double value = 0;
+
+                for (int k = columnStart[j]; k < columnStart[j + 1]; k++) {
+                    value += columnValues[k] * y[columnRows[k]];
+                }
+
+                result[j] = value;
+            }
+        });
+    }
+
+    private static double norm(double[] v) {
+        double sum = 0;
+
+        for (double value : v) {
+            sum += value * value;
+        }
+
+        return Math.sqrt(sum);
+    }
+
+    private static double distance(double[] v, double[] w) {
+        double sum = 0;
+
+        for (int i = 0; i < v.length; i++) {
+            sum += (v[i] - w[i]) * (v[i] - w[i]);
+        }
+
+        return Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * Runs several solvers on the same problem at the same time, and returns the
+ * first result. Which algorithm is fastest varies a lot between problems, so
+ * racing, for instance, CLP's primal and dual simplex methods against
+ * DualSimplexSolver on spare cores cuts down on the slowest solves.
+ *
+ * A backend that returns null or throws an exception is ignored, as long as
+ * another backend still produces a result. The first result wins, whether or
+ * not it is optimal: PDLPSolver's solutions are only accurate up to its
+ * tolerance, and CLP returns its current point when it hits a limit. Only
+ * combine backends whose results are all good enough for the caller.
+ *
+ * Once a result is found, the other backends are cancelled by interrupting
+ * them, and solve returns right away. DualSimplexSolver and PDLPSolver stop
+ * promptly; native solvers such as CLP cannot be interrupted and finish their
+ * solve in the background. The backends work on a snapshot of the problem,
+ * so the caller can change the problem in place afterwards, as
+ * RestrictionTemplate does.
+ *
+ * Each backend is leased to one thread at a time, so solve can be called
+ * concurrently; a call waits for a backend that is still busy with an earlier
+ * call, cancelled or not.
+ */
+public class PortfolioSolver implements LinearSolver {
+
+    private final List<LinearSolver> backends;
+    private final ExecutorService executor;
+    private final Semaphore[] leases; // One permit per backend
+    private final AtomicIntegerArray nWins;
+
+    /**
+     * Creates a portfolio of the given solvers, each of which runs on its own
+     * daemon thread.
+     *
+     * @param backends
+     */
+    public PortfolioSolver(LinearSolver... backends) {
+        this(Executors.newFixedThreadPool(backends.length, runnable -> {
+            Thread thread = new Thread(runnable, "PortfolioSolver");
+            thread.setDaemon(true);
+            return thread;
+        }), Arrays.asList(backends));
+    }
+
+    /**
+     * Creates a portfolio of the given solvers that runs on the given
+     * executor, which should be able to run all of them at the same time.
+     *
+     * @param executor
+     * @param backends
+     */
+    public PortfolioSolver(ExecutorService executor, List<LinearSolver> backends) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("A portfolio needs at least one solver.");
+        }
+
+        this.backends = Collections.unmodifiableList(new ArrayList<>(backends));
+        this.executor = executor;
+        this.nWins = new AtomicIntegerArray(backends.size());
+        this.leases = new Semaphore[backends.size()];
+
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = new Semaphore(1);
+        }
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem linearProgram) {
+        // Cancelled backends may still be reading their problem after we return
+        MinimizationProblem snapshot = linearProgram.snapshot();
+
+        // Build everything that is built lazily now, so the backends only read the snapshot
+        snapshot.getConstraints();
+        snapshot.getConstraintMatrix();
+        snapshot.getLowerBounds();
+        snapshot.getUpperBounds();
+
+        CompletionService<Solution> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Solution>> futures = new ArrayList<>(backends.size());
+
+        for (int i = 0; i < backends.size(); i++) {
+            int backend = i;
+
+            futures.add(completion.submit(() -> {
+                leases[backend].acquire();
+
+                try {
+                    return backends.get(backend).solve(snapshot);
+                } finally {
+                    leases[backend].release();
+                }
+            }));
+        }
+
+        RuntimeException failure = null;
+
+        try {
+            for (int i = 0; i < backends.size(); i++) {
+                Future<Solution> done = completion.take();
+
+                try {
+                    Solution solution = done.get();
+
+                    if (solution != null) {
+                        nWins.incrementAndGet(futures.indexOf(done));
+                        return rebind(solution, snapshot.getVariables(), linearProgram.getVariables());
+                    }
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = (ex.getCause() instanceof RuntimeException
+                                ? (RuntimeException) ex.getCause()
+                                : new RuntimeException(ex.getCause()));
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            for (Future<Solution> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return null;
+    }
+
+    /**
+     * Moves a solution over the snapshot's registry to the caller's registry,
+     * which has the same ids, so callers can keep comparing registries by
+     * identity.
+     */
+    private static Solution rebind(Solution solution, VariableRegistry snapshot, VariableRegistry original) {
+        if (solution.getVariables() != snapshot) {
+            return solution;
+        }
+
+        double[] values = new double[original.size()];
+        BitSet assigned = new BitSet(values.length);
+
+        for (int id = 0; id < values.length; id++) {
+            if (solution.isAssigned(id)) {
+                values[id] = solution.getValue(id);
+                assigned.set(id);
+            }
+        }
+
+        Solution rebound = new Solution(solution.getObjectiveValue(), original, values).restrictTo(assigned);
+        rebound.setConverged(solution.isConverged());
+        return rebound;
+    }
+
+    /**
+     * Returns the backends, in the order they were given.
+     *
+     * @return
+     */
+    public List<LinearSolver> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Returns how often the given backend produced the returned result.
+     *
+     * @param backend the index of the backend
+     * @return
+     */
+    public int getNumWins(int backend) {
+        return nWins.get(backend);
+    }
+
+    /**
+     * Stops the executor. The portfolio cannot be used afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
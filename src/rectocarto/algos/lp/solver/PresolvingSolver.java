@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import rectocarto.algos.lp.Presolve;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ * Presolves each problem before passing it to another solver, and translates
+ * the solution back to the original problem.
+ */
+public class PresolvingSolver implements LinearSolver, QuadraticSolver {
+
+    private final LinearSolver solver;
+    private Presolve lastPresolve = null;
+
+    public PresolvingSolver(LinearSolver solver) {
+        this.solver = solver;
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem quadraticProgram) {
+        if (quadraticProgram.getObjective() instanceof ObjectiveFunction.Quadratic && !(solver instanceof QuadraticSolver)) {
+            throw new IllegalArgumentException("The underlying solver cannot handle quadratic objectives.");
+        }
+
+        lastPresolve = Presolve.presolve(quadraticProgram);
+
+        if (lastPresolve.isInfeasible()) {
+            return Solution.INFEASIBLE;
+        }
+
+        return lastPresolve.postsolve(solver.solve(lastPresolve.getReducedProblem()));
+    }
+
+    /**
+     * Returns the result of presolving the most recently solved problem, which
+     * reports how much each pass removed.
+     *
+     * @return
+     */
+    public Presolve getLastPresolve() {
+        return lastPresolve;
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.ProblemEvaluator;
+import rectocarto.data.lp.Solution;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ * Solves a bilinear program by sequential linear programming with a trust
+ * region. Each iteration replaces every product x y by its first-order
+ * expansion around the current point, xk y + yk x - xk yk, and solves the
+ * resulting linear program over all variables at once, with each variable
+ * restricted to a box around its current value. Unlike IteratedLinearSolver,
+ * which moves the horizontal and vertical segments in turn, this moves both
+ * at the same time.
+ *
+ * Every constraint is elastic: its violation is allowed, but penalised in the
+ * objective. A step is accepted if it reduces the merit function, the
+ * objective plus the penalty times the total violation, by a reasonable
+ * fraction of what the linear model predicted. The trust region grows after
+ * good steps that reach its boundary, and shrinks after poor or rejected
+ * steps. The penalty grows while accepted points remain infeasible.
+ *
+ * Quadratic objective terms are linearised as well, so the underlying solver
+ * only needs to solve linear programs. The linear program is built once, and
+ * updated in place in every iteration.
+ */
+public class SequentialLinearSolver implements BilinearSolver {
+
+    public enum StopReason {
+        CONVERGED, MAX_ITERATIONS, TIME_LIMIT, SOLVER_FAILED
+    }
+
+    private static final double FEASIBILITY_TOLERANCE = 1e-7;
+    private static final double ACCEPT_RATIO = 0.1; // Accept steps that achieve this fraction of the predicted reduction
+    private static final double GOOD_RATIO = 0.75; // Grow the trust region after steps that achieve this fraction
+    private static final double POOR_RATIO = 0.25; // Shrink the trust region after steps that achieve less
+    private static final double MAX_PENALTY = 1e9;
+
+    private final LinearSolver solver;
+    private int maxIterations = 100;
+    private double tolerance = 1e-6;
+    private double initialRadius = 0.1;
+    private double minRadius = 1e-8;
+    private double initialPenalty = 10;
+    private long timeLimit = Long.MAX_VALUE; // In milliseconds
+    private int lastIterations = 0;
+    private StopReason lastStopReason = null;
+
+    public SequentialLinearSolver(LinearSolver solver) {
+        this.solver = solver;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Sets the maximum number of linear programs solved.
+     *
+     * @param maxIterations
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Stops when the linear model predicts a reduction of the merit function
+     * of less than the given fraction of its value.
+     *
+     * @param tolerance
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public double getInitialRadius() {
+        return initialRadius;
+    }
+
+    /**
+     * Sets the initial size of the trust region, as a fraction of the range of
+     * each variable, or of its magnitude if it is unbounded.
+     *
+     * @param initialRadius
+     */
+    public void setInitialRadius(double initialRadius) {
+        this.initialRadius = initialRadius;
+    }
+
+    public double getInitialPenalty() {
+        return initialPenalty;
+    }
+
+    /**
+     * Sets the initial cost of a unit of constraint violation.
+     *
+     * @param initialPenalty
+     */
+    public void setInitialPenalty(double initialPenalty) {
+        this.initialPenalty = initialPenalty;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Stops starting new iterations after the given number of milliseconds.
+     *
+     * @param timeLimit
+     */
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Returns the number of linear programs solved by the last solve.
+     *
+     * @return
+     */
+    public int getLastIterations() {
+        return lastIterations;
+    }
+
+    public StopReason getLastStopReason() {
+        return lastStopReason;
+    }
+
+    /**
+     * Finds a solution to the given bilinear program, starting from the middle
+     * of the bounds of each variable, or the value closest to zero for
+     * variables that are unbounded.
+     *
+     * @param bilinearProgram
+     * @return
+     */
+    @Override
+    public Solution solve(MinimizationProblem bilinearProgram) {
+        return solve(bilinearProgram, null);
+    }
+
+    /**
+     * Finds a solution to the given bilinear program, starting from the given
+     * point. The starting point does not need to be feasible.
+     *
+     * @param bilinearProgram
+     * @param start a value for each variable, or null to start from the
+     * middle of the bounds
+     * @return a locally optimal solution, or null if no feasible point was
+     * found
+     */
+    public Solution solve(MinimizationProblem bilinearProgram, Map<String, Double> start) {
+        long startTime = System.nanoTime();
+        VariableRegistry variables = bilinearProgram.getVariables();
+        int n = variables.size();
+        double[] lower = bilinearProgram.getLowerBounds();
+        double[] upper = bilinearProgram.getUpperBounds();
+        ProblemEvaluator evaluator = new ProblemEvaluator(bilinearProgram);
+        Linearization linearization = new Linearization(bilinearProgram);
+
+        // Starting point, projected onto the bounds
+        double[] current = new double[n];
+
+        if (start != null) {
+            current = evaluator.getValues(start, current).clone();
+        } else {
+            for (int id = 0; id < n; id++) {
+                if (!Double.isInfinite(lower[id]) && !Double.isInfinite(upper[id])) {
+                    current[id] = (lower[id] + upper[id]) / 2;
+                }
+            }
+        }
+
+        for (int id = 0; id < n; id++) {
+            current[id] = Math.min(Math.max(current[id], lower[id]), upper[id]);
+        }
+
+        // Scale of each variable, for the trust region
+        double[] scale = new double[n];
+
+        for (int id = 0; id < n; id++) {
+            double range = upper[id] - lower[id];
+            scale[id] = (Double.isInfinite(range) || range == 0 ? Math.max(1, Math.abs(current[id])) : range);
+        }
+
+        double radius = initialRadius;
+        double penalty = initialPenalty;
+        double merit = merit(evaluator, current, penalty);
+        double[] stepLower = new double[n];
+        double[] stepUpper = new double[n];
+        lastIterations = 0;
+        lastStopReason = StopReason.MAX_ITERATIONS;
+
+        while (lastIterations < maxIterations) {
+            if (elapsedMillis(startTime) >= timeLimit) {
+                lastStopReason = StopReason.TIME_LIMIT;
+                break;
+            }
+
+            for (int id = 0; id < n; id++) {
+                stepLower[id] = Math.max(lower[id], current[id] - radius * scale[id]);
+                stepUpper[id] = Math.min(upper[id], current[id] + radius * scale[id]);
+            }
+
+            Solution step = solver.solve(linearization.linearize(current, stepLower, stepUpper, penalty));
+            lastIterations++;
+
+            if (step == null || step.isInfeasible() || step.isUnbounded()) {
+                lastStopReason = StopReason.SOLVER_FAILED;
+                break;
+            }
+
+            double[] stepValues = linearization.getValues(step);
+            double[] candidate = new double[n];
+            System.arraycopy(stepValues, 0, candidate, 0, n);
+
+            double predicted = merit - linearization.evaluateModel(stepValues);
+
+            if (predicted <= tolerance * Math.max(1, Math.abs(merit))) {
+                if (evaluator.isFeasible(current, FEASIBILITY_TOLERANCE) || penalty >= MAX_PENALTY) {
+                    lastStopReason = StopReason.CONVERGED;
+                    break;
+                }
+
+                // The model cannot reduce the violation at this penalty
+                penalty = Math.min(10 * penalty, MAX_PENALTY);
+                merit = merit(evaluator, current, penalty);
+                continue;
+            }
+
+            double candidateMerit = merit(evaluator, candidate, penalty);
+            double ratio = (merit - candidateMerit) / predicted;
+
+            if (ratio >= ACCEPT_RATIO) {
+                boolean onBoundary = false;
+
+                for (int id = 0; id < n; id++) {
+                    if (Math.abs(candidate[id] - current[id]) >= 0.99 * radius * scale[id]) {
+                        onBoundary = true;
+                        break;
+                    }
+                }
+
+                current = candidate;
+                merit = candidateMerit;
+
+                if (ratio >= GOOD_RATIO && onBoundary) {
+                    radius = Math.min(2 * radius, 1);
+                } else if (ratio < POOR_RATIO) {
+                    radius /= 4;
+                }
+
+                // Steer towards feasibility if the model still needs to violate constraints
+                if (linearization.getModelViolation(stepValues) > FEASIBILITY_TOLERANCE
+                        && !evaluator.isFeasible(current, FEASIBILITY_TOLERANCE)
+                        && penalty < MAX_PENALTY) {
+                    penalty = Math.min(10 * penalty, MAX_PENALTY);
+                    merit = merit(evaluator, current, penalty);
+                }
+            } else {
+                radius /= 4;
+            }
+
+            if (radius < minRadius) {
+                lastStopReason = StopReason.CONVERGED;
+                break;
+            }
+        }
+
+        if (!evaluator.isFeasible(current, FEASIBILITY_TOLERANCE)) {
+            return null;
+        }
+
+        return new Solution(evaluator.evaluateObjective(current), variables, current);
+    }
+
+    private static double merit(ProblemEvaluator evaluator, double[] values, double penalty) {
+        double violation = 0;
+
+        for (int r = 0; r < evaluator.getNumRows(); r++) {
+            violation += Math.max(0, -evaluator.slack(r, values));
+        }
+
+        return evaluator.evaluateObjective(values) + penalty * violation;
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * The elastic linear program that linearises a bilinear program around a
+     * point. Each row gets a non-negative violation variable per direction in
+     * which it can be violated.
+     */
+    private static class Linearization {
+
+        private final VariableRegistry variables; // Of the bilinear program
+        private final int n;
+        private final MinimizationProblem linearProgram;
+        private final double[] baseRightHandSides;
+        private final Constraint.Linear[] rows;
+        // The terms of each row, in the order of the matrix of the bilinear program
+        private final int[] termStart;
+        private final int[] termColumns;
+        private final double[] termBase; // Linear coefficient in the bilinear program
+        private final List<Pair<Double, String>> terms;
+        private final int[] positions; // In the matrix of the linear program
+        private final int[] bilinearStart; // Bilinear terms of each row
+        private final int[] bilinearColumns1, bilinearColumns2;
+        private final double[] bilinearCoefficients;
+        private final int[] bilinearTerm1, bilinearTerm2; // Index of the term of each variable of a bilinear term
+        // Objective
+        private final double[] linearObjective; // Indexed by id
+        private final double[] quadraticObjective;
+        private final List<Pair<Double, String>> objectiveTerms; // Indexed by id; null if the variable is not in the objective
+        private final List<Pair<Double, String>> penaltyTerms = new ArrayList<>();
+        private final int violationStart; // Id of the first violation variable
+        private double modelConstant = 0; // The linearised objective is the objective of the linear program plus this constant
+        private double penalty = 0;
+
+        Linearization(MinimizationProblem bilinearProgram) {
+            variables = bilinearProgram.getVariables();
+            n = variables.size();
+            ConstraintMatrix matrix = bilinearProgram.getConstraintMatrix();
+            int nRows = matrix.getNumRows();
+            int[] rowStart = matrix.getRowStart();
+            int[] columns = matrix.getColumns();
+            double[] coefficients = matrix.getCoefficients();
+            byte[] comparisons = matrix.getComparisons();
+            baseRightHandSides = matrix.getRightHandSides().clone();
+
+            // The bilinear terms of each row
+            int[] bilinearRows = matrix.getBilinearRows();
+            bilinearStart = new int[nRows + 1];
+
+            for (int row : bilinearRows) {
+                bilinearStart[row + 1]++;
+            }
+
+            for (int r = 0; r < nRows; r++) {
+                bilinearStart[r + 1] += bilinearStart[r];
+            }
+
+            bilinearColumns1 = matrix.getBilinearColumns1();
+            bilinearColumns2 = matrix.getBilinearColumns2();
+            bilinearCoefficients = matrix.getBilinearCoefficients();
+            bilinearTerm1 = new int[bilinearCoefficients.length];
+            bilinearTerm2 = new int[bilinearCoefficients.length];
+
+            // Collect the variables of each row: first its linear terms, then the new variables of its bilinear terms
+            List<Integer> columnList = new ArrayList<>();
+            List<Double> baseList = new ArrayList<>();
+            termStart = new int[nRows + 1];
+
+            for (int r = 0; r < nRows; r++) {
+                int first = columnList.size();
+
+                for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                    columnList.add(columns[i]);
+                    baseList.add(coefficients[i]);
+                }
+
+                for (int b = bilinearStart[r]; b < bilinearStart[r + 1]; b++) {
+                    bilinearTerm1[b] = findOrAddTerm(columnList, baseList, first, bilinearColumns1[b]);
+                    bilinearTerm2[b] = findOrAddTerm(columnList, baseList, first, bilinearColumns2[b]);
+                }
+
+                termStart[r + 1] = columnList.size();
+            }
+
+            termColumns = columnList.stream().mapToInt(Integer::intValue).toArray();
+            termBase = baseList.stream().mapToDouble(Double::doubleValue).toArray();
+            terms = new ArrayList<>(termColumns.length);
+
+            // Build the linear program
+            linearProgram = new MinimizationProblem(new VariableRegistry(variables));
+            rows = new Constraint.Linear[nRows];
+
+            for (int r = 0; r < nRows; r++) {
+                Constraint.Linear row = new Constraint.Linear(ConstraintMatrix.decode(comparisons[r]), baseRightHandSides[r]);
+
+                for (int t = termStart[r]; t < termStart[r + 1]; t++) {
+                    row.addTerm(termBase[t], variables.getName(termColumns[t]));
+                    terms.add(row.getTerms().get(row.getTerms().size() - 1));
+                }
+
+                rows[r] = row;
+            }
+
+            violationStart = n;
+
+            for (int r = 0; r < nRows; r++) {
+                if (comparisons[r] != ConstraintMatrix.LESS_THAN_OR_EQUAL) {
+                    String violation = "$below" + r;
+                    rows[r].addTerm(1, violation);
+                    penaltyTerms.add(new Pair<>(0d, violation));
+                }
+
+                if (comparisons[r] != ConstraintMatrix.GREATER_THAN_OR_EQUAL) {
+                    String violation = "$above" + r;
+                    rows[r].addTerm(-1, violation);
+                    penaltyTerms.add(new Pair<>(0d, violation));
+                }
+
+                linearProgram.addConstraint(rows[r]);
+            }
+
+            // Objective
+            linearObjective = new double[n];
+            quadraticObjective = new double[n];
+            ObjectiveFunction objective = bilinearProgram.getObjective();
+
+            if (objective instanceof ObjectiveFunction.Linear) {
+                for (Pair<Double, String> term : ((ObjectiveFunction.Linear) objective).getTerms()) {
+                    linearObjective[variables.getId(term.getSecond())] += term.getFirst();
+                }
+            } else if (objective instanceof ObjectiveFunction.Quadratic) {
+                for (Pair<Double, String> term : ((ObjectiveFunction.Quadratic) objective).getLinearTerms()) {
+                    linearObjective[variables.getId(term.getSecond())] += term.getFirst();
+                }
+
+                for (Pair<Double, String> term : ((ObjectiveFunction.Quadratic) objective).getQuadraticTerms()) {
+                    quadraticObjective[variables.getId(term.getSecond())] += term.getFirst();
+                }
+            }
+
+            ObjectiveFunction.Linear linearizedObjective = new ObjectiveFunction.Linear();
+            objectiveTerms = new ArrayList<>(n);
+
+            for (int id = 0; id < n; id++) {
+                if (linearObjective[id] != 0 || quadraticObjective[id] != 0) {
+                    linearizedObjective.addTerm(linearObjective[id], variables.getName(id));
+                    objectiveTerms.add(linearizedObjective.getTerms().get(linearizedObjective.getTerms().size() - 1));
+                } else {
+                    objectiveTerms.add(null);
+                }
+            }
+
+            linearizedObjective.getTerms().addAll(penaltyTerms);
+            linearProgram.setObjective(linearizedObjective);
+
+            // Find the positions of the terms in the matrix of the linear program
+            ConstraintMatrix linearMatrix = linearProgram.getConstraintMatrix();
+            positions = new int[termColumns.length];
+
+            for (int r = 0; r < nRows; r++) {
+                for (int t = termStart[r]; t < termStart[r + 1]; t++) {
+                    positions[t] = findPosition(linearMatrix, r, termColumns[t]);
+                }
+            }
+        }
+
+        private static int findOrAddTerm(List<Integer> columnList, List<Double> baseList, int first, int column) {
+            for (int t = first; t < columnList.size(); t++) {
+                if (columnList.get(t) == column) {
+                    return t;
+                }
+            }
+
+            columnList.add(column);
+            baseList.add(0d);
+            return columnList.size() - 1;
+        }
+
+        private static int findPosition(ConstraintMatrix matrix, int row, int column) {
+            for (int i = matrix.getRowStart()[row]; i < matrix.getRowStart()[row + 1]; i++) {
+                if (matrix.getColumns()[i] == column) {
+                    return i;
+                }
+            }
+
+            throw new InternalError("The linear program does not match its template.");
+        }
+
+        /**
+         * Returns the linear program around the given point, with the given
+         * bounds on the variables of the bilinear program. This is always the
+         * same instance, updated in place.
+         */
+        MinimizationProblem linearize(double[] point, double[] lower, double[] upper, double penalty) {
+            ConstraintMatrix matrix = linearProgram.getConstraintMatrix();
+
+            for (int r = 0; r < rows.length; r++) {
+                double rightHandSide = baseRightHandSides[r];
+
+                for (int t = termStart[r]; t < termStart[r + 1]; t++) {
+                    terms.get(t).setFirst(termBase[t]);
+                }
+
+                // c x y ~ c yk x + c xk y - c xk yk
+                for (int b = bilinearStart[r]; b < bilinearStart[r + 1]; b++) {
+                    double c = bilinearCoefficients[b];
+                    double x = point[bilinearColumns1[b]];
+                    double y = point[bilinearColumns2[b]];
+                    terms.get(bilinearTerm1[b]).setFirst(terms.get(bilinearTerm1[b]).getFirst() + c * y);
+                    terms.get(bilinearTerm2[b]).setFirst(terms.get(bilinearTerm2[b]).getFirst() + c * x);
+                    rightHandSide += c * x * y;
+                }
+
+                for (int t = termStart[r]; t < termStart[r + 1]; t++) {
+                    matrix.setCoefficient(positions[t], terms.get(t).getFirst());
+                }
+
+                rows[r].setRightHandSide(rightHandSide);
+                matrix.setRightHandSide(r, rightHandSide);
+            }
+
+            // q x^2 ~ 2 q xk x - q xk^2
+            for (int id = 0; id < n; id++) {
+                if (objectiveTerms.get(id) != null) {
+                    objectiveTerms.get(id).setFirst(linearObjective[id] + 2 * quadraticObjective[id] * point[id]);
+                }
+            }
+
+            for (Pair<Double, String> term : penaltyTerms) {
+                term.setFirst(penalty);
+            }
+
+            for (int id = 0; id < n; id++) {
+                linearProgram.setBounds(variables.getName(id), lower[id], upper[id]);
+            }
+
+            modelConstant = 0;
+
+            for (int id = 0; id < n; id++) {
+                modelConstant -= quadraticObjective[id] * point[id] * point[id];
+            }
+
+            this.penalty = penalty;
+            return linearProgram;
+        }
+
+        /**
+         * Returns the values of a solution of the linear program, indexed by
+         * id in the linear program.
+         */
+        double[] getValues(Solution solution) {
+            VariableRegistry linearVariables = linearProgram.getVariables();
+            double[] values = new double[linearVariables.size()];
+
+            for (int id = 0; id < values.length; id++) {
+                if (solution.getVariables() == linearVariables) {
+                    values[id] = (solution.isAssigned(id) ? solution.getValue(id) : 0);
+                } else {
+                    Double value = solution.get(linearVariables.getName(id));
+                    values[id] = (value == null ? 0 : value);
+                }
+            }
+
+            return values;
+        }
+
+        /**
+         * Returns the value of the linearised merit function for the given
+         * solution of the last linear program.
+         */
+        double evaluateModel(double[] values) {
+            double result = modelConstant;
+
+            for (int id = 0; id < n; id++) {
+                if (objectiveTerms.get(id) != null) {
+                    result += objectiveTerms.get(id).getFirst() * values[id];
+                }
+            }
+
+            return result + penalty * getModelViolation(values);
+        }
+
+        /**
+         * Returns the total violation of the linearised constraints for the
+         * given solution of the last linear program.
+         */
+        double getModelViolation(double[] values) {
+            double result = 0;
+
+            for (int id = violationStart; id < values.length; id++) {
+                result += values[id];
+            }
+
+            return result;
+        }
+    }
+}
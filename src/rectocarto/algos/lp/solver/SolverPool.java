@@ -0,0 +1,401 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+
+/**
+ * A bounded pool of solver instances, such as CLP models or CPLEX
+ * environments, that are not thread-safe and expensive to create. A thread
+ * leases an instance for as long as it needs it, and gets the instance it used
+ * last if that one is idle, so warm-start information stays with the thread
+ * that built it. At most a fixed number of instances exist at the same time;
+ * further leases wait until an instance is returned. The pool only remembers
+ * which instance a thread used last for as long as both are alive: disposing
+ * an instance or closing the pool forgets it, and the entry of a thread that
+ * terminated is dropped.
+ *
+ * Instances are checked by the factory before they are handed out, and
+ * replaced if they are no longer healthy. A lessee that runs into a native
+ * error should invalidate its lease, so the instance is disposed instead of
+ * returned.
+ *
+ * @param <T> the type of solver instance
+ */
+public class SolverPool<T> implements AutoCloseable {
+
+    /**
+     * Creates, checks and disposes the instances of a pool.
+     *
+     * @param <T>
+     */
+    public interface Factory<T> {
+
+        T create() throws Exception;
+
+        /**
+         * Returns whether the given idle instance can be leased again. This
+         * may also reset the instance for its next use.
+         *
+         * @param instance
+         * @return
+         */
+        boolean isHealthy(T instance);
+
+        void dispose(T instance);
+    }
+
+    private final Factory<T> factory;
+    private final int capacity;
+    private final ArrayDeque<T> idle = new ArrayDeque<>();
+    private final Map<Thread, T> lastUsed = new WeakHashMap<>();
+    private int nLeased = 0;
+    private int nCreated = 0;
+    private int nDisposed = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a pool that holds at most the given number of instances.
+     *
+     * @param factory
+     * @param capacity
+     */
+    public SolverPool(Factory<T> factory, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+
+        this.factory = factory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Leases an instance, waiting until one is available.
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public Lease<T> lease() throws InterruptedException {
+        T instance;
+
+        synchronized (this) {
+            while (nLeased >= capacity && !closed) {
+                wait();
+            }
+
+            instance = reserve();
+        }
+
+        return prepare(instance);
+    }
+
+    /**
+     * Leases an instance, waiting at most the given time for one to become
+     * available.
+     *
+     * @param timeout
+     * @param unit
+     * @return the lease, or null if no instance became available in time
+     * @throws InterruptedException
+     */
+    public Lease<T> lease(long timeout, TimeUnit unit) throws InterruptedException {
+        T instance;
+
+        synchronized (this) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            while (nLeased >= capacity && !closed) {
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    return null;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            instance = reserve();
+        }
+
+        return prepare(instance);
+    }
+
+    /**
+     * Claims a slot in the pool, and takes the idle instance this thread used
+     * last, or any idle instance.
+     */
+    private T reserve() {
+        if (closed) {
+            throw new IllegalStateException("The pool is closed.");
+        }
+
+        nLeased++;
+        T preferred = lastUsed.get(Thread.currentThread());
+
+        if (preferred != null && idle.remove(preferred)) {
+            return preferred;
+        }
+
+        return idle.pollFirst();
+    }
+
+    /**
+     * Replaces the reserved instance if it is missing or unhealthy.
+     */
+    private Lease<T> prepare(T instance) {
+        try {
+            if (instance != null && !factory.isHealthy(instance)) {
+                dispose(instance);
+                instance = null;
+            }
+
+            if (instance == null) {
+                instance = factory.create();
+
+                synchronized (this) {
+                    nCreated++;
+                }
+            }
+        } catch (Exception ex) {
+            synchronized (this) {
+                nLeased--;
+                notifyAll();
+            }
+
+            throw new IllegalStateException("Could not create a solver instance.", ex);
+        }
+
+        synchronized (this) {
+            lastUsed.put(Thread.currentThread(), instance);
+        }
+
+        return new Lease<>(this, instance);
+    }
+
+    private void release(T instance, boolean invalid) {
+        boolean keep;
+
+        synchronized (this) {
+            nLeased--;
+            keep = !invalid && !closed;
+
+            if (keep) {
+                idle.addFirst(instance);
+            }
+
+            notifyAll();
+        }
+
+        if (!keep) {
+            dispose(instance);
+        }
+    }
+
+    private void dispose(T instance) {
+        synchronized (this) {
+            nDisposed++;
+            lastUsed.values().removeIf(used -> used == instance);
+        }
+
+        factory.dispose(instance);
+    }
+
+    /**
+     * Disposes all idle instances. Leased instances are disposed when they are
+     * returned.
+     */
+    @Override
+    public void close() {
+        T[] disposable;
+
+        synchronized (this) {
+            closed = true;
+            @SuppressWarnings("unchecked")
+            T[] instances = (T[]) idle.toArray();
+            disposable = instances;
+            idle.clear();
+            lastUsed.clear();
+            notifyAll();
+        }
+
+        for (T instance : disposable) {
+            dispose(instance);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of instances that are currently leased.
+     *
+     * @return
+     */
+    public synchronized int getNumLeased() {
+        return nLeased;
+    }
+
+    /**
+     * Returns the number of instances created so far.
+     *
+     * @return
+     */
+    public synchronized int getNumCreated() {
+        return nCreated;
+    }
+
+    /**
+     * Returns the number of instances disposed so far.
+     *
+     * @return
+     */
+    public synchronized int getNumDisposed() {
+        return nDisposed;
+    }
+
+    /**
+     * Returns a solver that leases an instance from the given pool for each
+     * problem it solves, so it can be shared between threads.
+     *
+     * @param pool
+     * @return
+     */
+    public static LinearSolver asLinearSolver(SolverPool<? extends LinearSolver> pool) {
+        return new LinearSolver() {
+            @Override
+            public Solution solve(MinimizationProblem linearProgram) {
+                try (Lease<? extends LinearSolver> lease = pool.lease()) {
+                    return lease.get().solve(linearProgram);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a pool of CPLEX environments. Each environment is created with
+     * its output disabled, and its model is cleared before it is leased
+     * again.
+     *
+     * @param capacity
+     * @return
+     */
+    public static SolverPool<IloCplex> forCplex(int capacity) {
+        return new SolverPool<>(new Factory<IloCplex>() {
+            @Override
+            public IloCplex create() throws IloException {
+                IloCplex cplex = new IloCplex();
+                cplex.setOut(null);
+                return cplex;
+            }
+
+            @Override
+            public boolean isHealthy(IloCplex cplex) {
+                try {
+                    cplex.clearModel();
+                    return true;
+                } catch (IloException | RuntimeException ex) {
+                    return false;
+                }
+            }
+
+            @Override
+            public void dispose(IloCplex cplex) {
+                cplex.end();
+            }
+        }, capacity);
+    }
+
+    /**
+     * Returns a pool of warm-starting CLP solvers. As threads tend to get back
+     * the instance they used last, each keeps the models of the problems it
+     * solved recently.
+     *
+     * @param capacity
+     * @return
+     */
+    public static SolverPool<WarmStartCLPSolver> forCLP(int capacity) {
+        return new SolverPool<>(new Factory<WarmStartCLPSolver>() {
+            @Override
+            public WarmStartCLPSolver create() {
+                return new WarmStartCLPSolver();
+            }
+
+            @Override
+            public boolean isHealthy(WarmStartCLPSolver solver) {
+                return true;
+            }
+
+            @Override
+            public void dispose(WarmStartCLPSolver solver) {
+                solver.reset();
+            }
+        }, capacity);
+    }
+
+    /**
+     * A leased instance, which is returned to the pool when the lease is
+     * closed.
+     *
+     * @param <T>
+     */
+    public static final class Lease<T> implements AutoCloseable {
+
+        private final SolverPool<T> pool;
+        private final T instance;
+        private boolean invalid = false;
+        private boolean closed = false;
+
+        private Lease(SolverPool<T> pool, T instance) {
+            this.pool = pool;
+            this.instance = instance;
+        }
+
+        public T get() {
+            if (closed) {
+                throw new IllegalStateException("The lease was closed.");
+            }
+
+            return instance;
+        }
+
+        /**
+         * Marks the instance as broken, so it is disposed rather than
+         * returned to the pool.
+         */
+        public void invalidate() {
+            invalid = true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                pool.release(instance, invalid);
+            }
+        }
+    }
+}
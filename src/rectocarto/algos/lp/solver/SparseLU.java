@@ -0,0 +1,609 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+
+/**
+ * A sparse LU factorization of a square basis matrix B, with Forrest-Tomlin
+ * updates for replacing one of its columns.
+ *
+ * The factorization is kept as F B = U, where F is a sequence of column etas
+ * from Gaussian elimination followed by one row eta per update, and U is
+ * triangular under a pivot order: pivot k lies in row pivotRow[k] and column
+ * pivotColumn[k], and row pivotRow[k] of U only has entries in columns with a
+ * later pivot. Rows of B are constraint rows; columns are basis positions.
+ * U is stored both row- and column-wise, so that an update can remove a column
+ * and eliminate a row.
+ */
+class SparseLU {
+
+    private static final double PIVOT_THRESHOLD = 0.1; // Relative to the largest entry in the column
+    private static final double SINGULAR_TOLERANCE = 1e-11;
+    private static final double UPDATE_TOLERANCE = 1e-9;
+    private static final int CANDIDATE_COLUMNS = 4;
+
+    private final int m;
+    // F: etas[e] transforms y[etaIndex[k]] -= etaValue[k] * y[etaPivot[e]] for column etas,
+    // and y[etaPivot[e]] -= etaValue[k] * y[etaIndex[k]] for row etas, for etaStart[e] <= k < etaStart[e + 1]
+    private int nEtas = 0;
+    private int nColumnEtas = 0;
+    private int currentEtaLength = 0; // Entries of the eta being built
+    private int[] etaPivot;
+    private int[] etaStart;
+    private int[] etaIndex;
+    private double[] etaValue;
+    // U, without its diagonal
+    private final int[][] rowIndex;
+    private final double[][] rowValue;
+    private final int[] rowLength;
+    private final int[][] columnIndex;
+    private final double[][] columnValue;
+    private final int[] columnLength;
+    private final double[] diagonal; // By row
+    private final int[] pivotRow;
+    private final int[] pivotColumn;
+    private final int[] orderOfColumn;
+    // Work space
+    private final double[] work;
+    private final double[] spike;
+    private boolean spikeValid = false;
+    private int nUpdates = 0;
+    private int[] singularColumns = new int[0];
+    private int[] unpivotedRows = new int[0];
+
+    SparseLU(int m) {
+        this.m = m;
+        etaPivot = new int[Math.max(m, 1) + 1];
+        etaStart = new int[Math.max(m, 1) + 2];
+        etaIndex = new int[Math.max(4 * m, 1)];
+        etaValue = new double[Math.max(4 * m, 1)];
+        rowIndex = new int[m][];
+        rowValue = new double[m][];
+        rowLength = new int[m];
+        columnIndex = new int[m][];
+        columnValue = new double[m][];
+        columnLength = new int[m];
+        diagonal = new double[m];
+        pivotRow = new int[m];
+        pivotColumn = new int[m];
+        orderOfColumn = new int[m];
+        work = new double[m];
+        spike = new double[m];
+
+        for (int i = 0; i < m; i++) {
+            rowIndex[i] = new int[4];
+            rowValue[i] = new double[4];
+            columnIndex[i] = new int[4];
+            columnValue[i] = new double[4];
+        }
+    }
+
+    /**
+     * Factorizes the matrix whose column p has the entries
+     * (index[k], value[k]) for start[p] <= k < start[p + 1].
+     *
+     * @param start
+     * @param index
+     * @param value
+     * @return whether the matrix is non-singular. If it is singular,
+     * getSingularColumns and getUnpivotedRows report which columns could not
+     * be pivoted and which rows are left.
+     */
+    boolean factorize(int[] start, int[] index, double[] value) {
+        nEtas = 0;
+        nColumnEtas = 0;
+        nUpdates = 0;
+        spikeValid = false;
+        etaStart[0] = 0;
+
+        // Load the matrix into the row lists; the column lists hold the active pattern
+        Arrays.fill(rowLength, 0);
+        Arrays.fill(columnLength, 0);
+
+        for (int p = 0; p < m; p++) {
+            for (int k = start[p]; k < start[p + 1]; k++) {
+                if (value[k] != 0) {
+                    appendToRow(index[k], p, value[k]);
+                    appendToColumn(p, index[k], 0);
+                }
+            }
+        }
+
+        boolean[] rowDone = new boolean[m];
+        boolean[] columnDone = new boolean[m];
+        int[] position = new int[m]; // Scatter map of a row
+        Arrays.fill(position, -1);
+        int[] candidates = new int[CANDIDATE_COLUMNS];
+        int nPivots = 0;
+        int nSingular = 0;
+        int[] singular = new int[m];
+
+        while (nPivots + nSingular < m) {
+            // Find the active columns with the fewest entries
+            int nCandidates = 0;
+
+            for (int c = 0; c < m; c++) {
+                if (columnDone[c]) {
+                    continue;
+                }
+
+                if (nCandidates < CANDIDATE_COLUMNS) {
+                    candidates[nCandidates++] = c;
+                } else if (columnLength[c] < columnLength[candidates[nCandidates - 1]]) {
+                    candidates[nCandidates - 1] = c;
+                } else {
+                    continue;
+                }
+
+                // Keep the candidates sorted by count
+                for (int i = nCandidates - 1; i > 0 && columnLength[candidates[i]] < columnLength[candidates[i - 1]]; i--) {
+                    int t = candidates[i];
+                    candidates[i] = candidates[i - 1];
+                    candidates[i - 1] = t;
+                }
+            }
+
+            // Choose the pivot with the lowest Markowitz cost among entries that are large enough
+            int bestRow = -1, bestColumn = -1;
+            long bestCost = Long.MAX_VALUE;
+            double bestValue = 0;
+
+            for (int ci = 0; ci < nCandidates; ci++) {
+                int c = candidates[ci];
+                double max = 0;
+
+                for (int k = 0; k < columnLength[c]; k++) {
+                    max = Math.max(max, Math.abs(findInRow(columnIndex[c][k], c)));
+                }
+
+                if (max <= SINGULAR_TOLERANCE) {
+                    continue;
+                }
+
+                for (int k = 0; k < columnLength[c]; k++) {
+                    int r = columnIndex[c][k];
+                    double v = findInRow(r, c);
+
+                    if (Math.abs(v) >= PIVOT_THRESHOLD * max) {
+                        long cost = (long) (rowLength[r] - 1) * (columnLength[c] - 1);
+
+                        if (cost < bestCost || cost == bestCost && Math.abs(v) > Math.abs(bestValue)) {
+                            bestCost = cost;
+                            bestRow = r;
+                            bestColumn = c;
+                            bestValue = v;
+                        }
+                    }
+                }
+            }
+
+            if (bestRow < 0) {
+                // Every candidate column is (numerically) empty
+                for (int ci = 0; ci < nCandidates; ci++) {
+                    int c = candidates[ci];
+                    columnDone[c] = true;
+                    singular[nSingular++] = c;
+
+                    for (int k = 0; k < columnLength[c]; k++) {
+                        removeFromRow(columnIndex[c][k], c);
+                    }
+
+                    columnLength[c] = 0;
+                }
+
+                continue;
+            }
+
+            // Eliminate the pivot column from the other active rows
+            int p = bestRow, c = bestColumn;
+            double pivot = bestValue;
+            beginEta(p);
+
+            for (int k = 0; k < rowLength[p]; k++) {
+                position[rowIndex[p][k]] = k;
+            }
+
+            for (int ck = 0; ck < columnLength[c]; ck++) {
+                int r = columnIndex[c][ck];
+
+                if (r == p) {
+                    continue;
+                }
+
+                double multiplier = removeFromRow(r, c) / pivot;
+
+                if (multiplier == 0) {
+                    continue;
+                }
+
+                addEtaEntry(r, multiplier);
+
+                // Row r -= multiplier * row p, over the columns of row p other than c
+                int[] rIndex = rowIndex[r];
+
+                for (int k = 0; k < rowLength[r]; k++) {
+                    int pk = position[rIndex[k]];
+
+                    if (pk >= 0) {
+                        rowValue[r][k] -= multiplier * rowValue[p][pk];
+                        work[rIndex[k]] = 1; // Mark as updated
+                    }
+                }
+
+                for (int k = 0; k < rowLength[p]; k++) {
+                    int col = rowIndex[p][k];
+
+                    if (col != c && work[col] == 0) {
+                        appendToRow(r, col, -multiplier * rowValue[p][k]);
+                        appendToColumn(col, r, 0);
+                    }
+                }
+
+                for (int k = 0; k < rowLength[p]; k++) {
+                    work[rowIndex[p][k]] = 0;
+                }
+            }
+
+            endEta();
+
+            for (int k = 0; k < rowLength[p]; k++) {
+                position[rowIndex[p][k]] = -1;
+            }
+
+            // Row p becomes a row of U; remove it from the active pattern
+            removeFromRow(p, c);
+
+            for (int k = 0; k < rowLength[p]; k++) {
+                removeFromColumn(rowIndex[p][k], p);
+            }
+
+            diagonal[p] = pivot;
+            pivotRow[nPivots] = p;
+            pivotColumn[nPivots] = c;
+            rowDone[p] = true;
+            columnDone[c] = true;
+            columnLength[c] = 0;
+            nPivots++;
+        }
+
+        nColumnEtas = nEtas;
+
+        if (nSingular > 0) {
+            singularColumns = Arrays.copyOf(singular, nSingular);
+            unpivotedRows = new int[nSingular];
+            int n = 0;
+
+            for (int r = 0; r < m; r++) {
+                if (!rowDone[r]) {
+                    unpivotedRows[n++] = r;
+                }
+            }
+
+            return false;
+        }
+
+        singularColumns = new int[0];
+        unpivotedRows = new int[0];
+
+        // Build the column-wise copy of U
+        Arrays.fill(columnLength, 0);
+
+        for (int r = 0; r < m; r++) {
+            for (int k = 0; k < rowLength[r]; k++) {
+                appendToColumn(rowIndex[r][k], r, rowValue[r][k]);
+            }
+        }
+
+        for (int k = 0; k < m; k++) {
+            orderOfColumn[pivotColumn[k]] = k;
+        }
+
+        return true;
+    }
+
+    int[] getSingularColumns() {
+        return singularColumns;
+    }
+
+    int[] getUnpivotedRows() {
+        return unpivotedRows;
+    }
+
+    int getNumUpdates() {
+        return nUpdates;
+    }
+
+    /**
+     * Solves B x = b. The right hand side is indexed by row, and is
+     * overwritten; the result is indexed by basis position. If saveSpike is
+     * set, F b is kept for a following call to update.
+     *
+     * @param b
+     * @param x
+     * @param saveSpike
+     */
+    void ftran(double[] b, double[] x, boolean saveSpike) {
+        applyF(b);
+
+        if (saveSpike) {
+            System.arraycopy(b, 0, spike, 0, m);
+            spikeValid = true;
+        }
+
+        for (int k = m - 1; k >= 0; k--) {
+            int r = pivotRow[k];
+            int c = pivotColumn[k];
+            double value = b[r] / diagonal[r];
+            x[c] = value;
+
+            if (value != 0) {
+                int[] index = columnIndex[c];
+                double[] values = columnValue[c];
+
+                for (int i = 0; i < columnLength[c]; i++) {
+                    b[index[i]] -= values[i] * value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves B^T y = c. The right hand side is indexed by basis position, and
+     * is overwritten; the result is indexed by row.
+     *
+     * @param c
+     * @param y
+     */
+    void btran(double[] c, double[] y) {
+        for (int k = 0; k < m; k++) {
+            int r = pivotRow[k];
+            int col = pivotColumn[k];
+            double value = c[col] / diagonal[r];
+            y[r] = value;
+
+            if (value != 0) {
+                int[] index = rowIndex[r];
+                double[] values = rowValue[r];
+
+                for (int i = 0; i < rowLength[r]; i++) {
+                    c[index[i]] -= values[i] * value;
+                }
+            }
+        }
+
+        applyFTransposed(y);
+    }
+
+    /**
+     * Replaces the column at the given basis position by the column whose
+     * spike was saved by the last call to ftran.
+     *
+     * @param position
+     * @return false if the update would be numerically unstable; the
+     * factorization must then be recomputed.
+     */
+    boolean update(int position) {
+        if (!spikeValid) {
+            throw new IllegalStateException("No spike saved for the update.");
+        }
+
+        spikeValid = false;
+        int kr = orderOfColumn[position];
+        int rho = pivotRow[kr];
+        double spikeMax = 0;
+
+        // Replace column position of U by the spike
+        for (int i = 0; i < columnLength[position]; i++) {
+            removeFromRow(columnIndex[position][i], position);
+        }
+
+        columnLength[position] = 0;
+
+        for (int r = 0; r < m; r++) {
+            if (spike[r] != 0) {
+                spikeMax = Math.max(spikeMax, Math.abs(spike[r]));
+
+                if (r != rho) {
+                    appendToRow(r, position, spike[r]);
+                    appendToColumn(position, r, spike[r]);
+                }
+            }
+        }
+
+        // Load row rho into the work array and eliminate its entries with the later pivot rows
+        for (int i = 0; i < rowLength[rho]; i++) {
+            int c = rowIndex[rho][i];
+            work[c] = rowValue[rho][i];
+            removeFromColumn(c, rho);
+        }
+
+        rowLength[rho] = 0;
+        work[position] = spike[rho];
+        beginEta(rho);
+
+        for (int k = kr + 1; k < m; k++) {
+            int c = pivotColumn[k];
+
+            if (work[c] != 0) {
+                int r = pivotRow[k];
+                double multiplier = work[c] / diagonal[r];
+                work[c] = 0;
+                addEtaEntry(r, multiplier);
+
+                for (int i = 0; i < rowLength[r]; i++) {
+                    work[rowIndex[r][i]] -= multiplier * rowValue[r][i];
+                }
+            }
+        }
+
+        endEta();
+        double newDiagonal = work[position];
+        work[position] = 0;
+
+        // Move the pivot to the end of the order
+        System.arraycopy(pivotRow, kr + 1, pivotRow, kr, m - kr - 1);
+        System.arraycopy(pivotColumn, kr + 1, pivotColumn, kr, m - kr - 1);
+        pivotRow[m - 1] = rho;
+        pivotColumn[m - 1] = position;
+
+        for (int k = kr; k < m; k++) {
+            orderOfColumn[pivotColumn[k]] = k;
+        }
+
+        diagonal[rho] = newDiagonal;
+        nUpdates++;
+
+        return Math.abs(newDiagonal) > UPDATE_TOLERANCE * Math.max(1, spikeMax);
+    }
+
+    private void applyF(double[] y) {
+        for (int e = 0; e < nColumnEtas; e++) {
+            double value = y[etaPivot[e]];
+
+            if (value != 0) {
+                for (int k = etaStart[e]; k < etaStart[e + 1]; k++) {
+                    y[etaIndex[k]] -= etaValue[k] * value;
+                }
+            }
+        }
+
+        for (int e = nColumnEtas; e < nEtas; e++) {
+            double sum = 0;
+
+            for (int k = etaStart[e]; k < etaStart[e + 1]; k++) {
+                sum += etaValue[k] * y[etaIndex[k]];
+            }
+
+            y[etaPivot[e]] -= sum;
+        }
+    }
+
+    private void applyFTransposed(double[] y) {
+        for (int e = nEtas - 1; e >= nColumnEtas; e--) {
+            double value = y[etaPivot[e]];
+
+            if (value != 0) {
+                for (int k = etaStart[e]; k < etaStart[e + 1]; k++) {
+                    y[etaIndex[k]] -= etaValue[k] * value;
+                }
+            }
+        }
+
+        for (int e = nColumnEtas - 1; e >= 0; e--) {
+            double sum = 0;
+
+            for (int k = etaStart[e]; k < etaStart[e + 1]; k++) {
+                sum += etaValue[k] * y[etaIndex[k]];
+            }
+
+            y[etaPivot[e]] -= sum;
+        }
+    }
+
+    private void beginEta(int pivot) {
+        if (nEtas + 1 >= etaPivot.length) {
+            etaPivot = Arrays.copyOf(etaPivot, 2 * etaPivot.length);
+            etaStart = Arrays.copyOf(etaStart, 2 * etaStart.length);
+        }
+
+        etaPivot[nEtas] = pivot;
+    }
+
+    private void addEtaEntry(int index, double value) {
+        int k = etaStart[nEtas] + currentEtaLength;
+
+        if (k == etaIndex.length) {
+            etaIndex = Arrays.copyOf(etaIndex, 2 * k);
+            etaValue = Arrays.copyOf(etaValue, 2 * k);
+        }
+
+        etaIndex[k] = index;
+        etaValue[k] = value;
+        currentEtaLength++;
+    }
+
+    private void endEta() {
+        if (currentEtaLength > 0) {
+            etaStart[nEtas + 1] = etaStart[nEtas] + currentEtaLength;
+            nEtas++;
+        }
+
+        currentEtaLength = 0;
+    }
+
+    private double findInRow(int r, int c) {
+        for (int k = 0; k < rowLength[r]; k++) {
+            if (rowIndex[r][k] == c) {
+                return rowValue[r][k];
+            }
+        }
+
+        return 0;
+    }
+
+    private void appendToRow(int r, int c, double value) {
+        if (rowLength[r] == rowIndex[r].length) {
+            rowIndex[r] = Arrays.copyOf(rowIndex[r], 2 * rowLength[r]);
+            rowValue[r] = Arrays.copyOf(rowValue[r], 2 * rowLength[r]);
+        }
+
+        rowIndex[r][rowLength[r]] = c;
+        rowValue[r][rowLength[r]] = value;
+        rowLength[r]++;
+    }
+
+    private void appendToColumn(int c, int r, double value) {
+        if (columnLength[c] == columnIndex[c].length) {
+            columnIndex[c] = Arrays.copyOf(columnIndex[c], 2 * columnLength[c]);
+            columnValue[c] = Arrays.copyOf(columnValue[c], 2 * columnLength[c]);
+        }
+
+        columnIndex[c][columnLength[c]] = r;
+        columnValue[c][columnLength[c]] = value;
+        columnLength[c]++;
+    }
+
+    /**
+     * Removes the entry in column c from row r.
+     *
+     * @return its value, or 0 if there was none
+     */
+    private double removeFromRow(int r, int c) {
+        for (int k = 0; k < rowLength[r]; k++) {
+            if (rowIndex[r][k] == c) {
+                double value = rowValue[r][k];
+                rowLength[r]--;
+                rowIndex[r][k] = rowIndex[r][rowLength[r]];
+                rowValue[r][k] = rowValue[r][rowLength[r]];
+                return value;
+            }
+        }
+
+        return 0;
+    }
+
+    private void removeFromColumn(int c, int r) {
+        for (int k = 0; k < columnLength[c]; k++) {
+            if (columnIndex[c][k] == r) {
+                columnLength[c]--;
+                columnIndex[c][k] = columnIndex[c][columnLength[c]];
+                columnValue[c][k] = columnValue[c][columnLength[c]];
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import com.quantego.clp.CLP;
+import java.util.Iterator;
+import java.util.LinkedList;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.Solution;
+
+/**
+ * A CLP solver that keeps its native models alive between calls. When a
+ * problem has the same structure as one solved before, only the coefficients,
+ * right hand sides, bounds and objective coefficients that changed are updated
+ * in place, and CLP re-solves from its last basis: with the dual simplex
+ * method if the constraints changed, and with the primal simplex method if
+ * only the objective changed.
+ *
+ * IteratedLinearSolver alternates between two restricted programs, so by
+ * default the two most recently used models are kept. This class is not
+ * thread-safe.
+ */
+public class WarmStartCLPSolver implements LinearSolver, QuadraticSolver {
+
+    private final int capacity;
+    private final LinkedList<CLPModel> models = new LinkedList<>(); // Most recently used first
+    private int nColdSolves = 0;
+    private int nWarmSolves = 0;
+
+    public WarmStartCLPSolver() {
+        this(2);
+    }
+
+    /**
+     * Creates a solver that keeps at most the given number of models.
+     *
+     * @param capacity
+     */
+    public WarmStartCLPSolver(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("At least one model must be kept.");
+        }
+
+        this.capacity = capacity;
+    }
+
+    @Override
+    public Solution solve(MinimizationProblem quadraticProgram) {
+        for (Iterator<CLPModel> it = models.iterator(); it.hasNext();) {
+            CLPModel model = it.next();
+
+            if (model.hasStructureOf(quadraticProgram)) {
+                it.remove();
+                models.addFirst(model);
+
+                int changes = model.update(quadraticProgram);
+
+                // Presolve would discard the basis
+                model.getModel().presolve(false);
+
+                if ((changes & CLPModel.MATRIX_CHANGED) != 0) {
+                    model.getModel().algorithm(CLP.ALGORITHM.DUAL);
+                } else {
+                    model.getModel().algorithm(CLP.ALGORITHM.PRIMAL);
+                }
+
+                nWarmSolves++;
+                return model.solve(quadraticProgram.getVariables());
+            }
+        }
+
+        CLPModel model = CLPModel.build(quadraticProgram);
+        models.addFirst(model);
+
+        if (models.size() > capacity) {
+            models.removeLast();
+        }
+
+        nColdSolves++;
+        return model.solve(quadraticProgram.getVariables());
+    }
+
+    /**
+     * Discards all models, so the next problem is solved from scratch.
+     */
+    public void reset() {
+        models.clear();
+    }
+
+    /**
+     * Returns the number of problems that were solved with a new model.
+     *
+     * @return
+     */
+    public int getNumColdSolves() {
+        return nColdSolves;
+    }
+
+    /**
+     * Returns the number of problems that were solved by updating an existing
+     * model.
+     *
+     * @return
+     */
+    public int getNumWarmSolves() {
+        return nWarmSolves;
+    }
+}
@@ -23,7 +23,7 @@ import rectangularcartogram.data.Pair;
 public abstract class Constraint {
 
     private final Comparison comparison;
-    private final double rightHandSide;
+    private double rightHandSide;
 
     public Constraint(Comparison op, double rightHandSide) {
         this.comparison = op;
@@ -291,6 +291,17 @@ public abstract class Constraint {
         return rightHandSide;
     }
 
+    /**
+     * Changes the right hand side of this constraint. Problems that contain
+     * this constraint may cache a compiled form of it; see
+     * MinimizationProblem.invalidateConstraintMatrix.
+     *
+     * @param rightHandSide
+     */
+    public void setRightHandSide(double rightHandSide) {
+        this.rightHandSide = rightHandSide;
+    }
+
     public enum Comparison {
 
         EQUAL, LESS_THAN_OR_EQUAL, GREATER_THAN_OR_EQUAL;
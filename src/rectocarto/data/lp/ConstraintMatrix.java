@@ -0,0 +1,433 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import rectangularcartogram.data.Pair;
+
+/**
+ * The constraints of a problem in compressed sparse row form. The linear terms
+ * of row i are stored at positions rowStart[i] up to (but not including)
+ * rowStart[i + 1] of the column index and coefficient arrays. Bilinear terms
+ * are stored separately as (row, column1, column2, coefficient) tuples, sorted
+ * by row. Columns are the variable ids of the problem's VariableRegistry.
+ *
+ * All getters return the actual arrays, so they can be passed to a solver
+ * without copying. They must not be modified directly; use setCoefficient and
+ * setRightHandSide to update a matrix in place.
+ */
+public class ConstraintMatrix {
+
+    public static final byte EQUAL = 0;
+    public static final byte LESS_THAN_OR_EQUAL = 1;
+    public static final byte GREATER_THAN_OR_EQUAL = 2;
+
+    private final int nRows;
+    private final int nColumns;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] coefficients;
+    private final byte[] comparisons;
+    private final double[] rightHandSides;
+    private final int nBilinearTerms;
+    private final int[] bilinearRows;
+    private final int[] bilinearColumns1;
+    private final int[] bilinearColumns2;
+    private final double[] bilinearCoefficients;
+
+    private ConstraintMatrix(Builder builder) {
+        nRows = builder.nRows;
+        nColumns = builder.nColumns;
+        rowStart = Arrays.copyOf(builder.rowStart, nRows + 1);
+        columns = Arrays.copyOf(builder.columns, builder.nTerms);
+        coefficients = Arrays.copyOf(builder.coefficients, builder.nTerms);
+        comparisons = Arrays.copyOf(builder.comparisons, nRows);
+        rightHandSides = Arrays.copyOf(builder.rightHandSides, nRows);
+        nBilinearTerms = builder.nBilinearTerms;
+        bilinearRows = Arrays.copyOf(builder.bilinearRows, nBilinearTerms);
+        bilinearColumns1 = Arrays.copyOf(builder.bilinearColumns1, nBilinearTerms);
+        bilinearColumns2 = Arrays.copyOf(builder.bilinearColumns2, nBilinearTerms);
+        bilinearCoefficients = Arrays.copyOf(builder.bilinearCoefficients, nBilinearTerms);
+    }
+
+    /**
+     * Creates a matrix that uses the given arrays directly, for readers of
+     * serialized problems and for code that fills the arrays in parallel. The
+     * arrays must be trimmed to their exact sizes, each row may contain a
+     * column at most once, and the bilinear terms must be sorted by row.
+     */
+    public ConstraintMatrix(int nColumns, int[] rowStart, int[] columns, double[] coefficients, byte[] comparisons, double[] rightHandSides,
+            int[] bilinearRows, int[] bilinearColumns1, int[] bilinearColumns2, double[] bilinearCoefficients) {
+        this.nRows = comparisons.length;
+        this.nColumns = nColumns;
+        this.rowStart = rowStart;
+        this.columns = columns;
+        this.coefficients = coefficients;
+        this.comparisons = comparisons;
+        this.rightHandSides = rightHandSides;
+        this.nBilinearTerms = bilinearRows.length;
+        this.bilinearRows = bilinearRows;
+        this.bilinearColumns1 = bilinearColumns1;
+        this.bilinearColumns2 = bilinearColumns2;
+        this.bilinearCoefficients = bilinearCoefficients;
+    }
+
+    /**
+     * Returns a matrix with the same rows as this one that shares none of its
+     * arrays, so it can be read while this matrix is updated in place.
+     *
+     * @return
+     */
+    public ConstraintMatrix copy() {
+        return new ConstraintMatrix(nColumns, rowStart.clone(), columns.clone(), coefficients.clone(), comparisons.clone(), rightHandSides.clone(),
+                bilinearRows.clone(), bilinearColumns1.clone(), bilinearColumns2.clone(), bilinearCoefficients.clone());
+    }
+
+    /**
+     * Returns the rows of this matrix as constraints over the variables of the
+     * given registry, with their terms in the order of the matrix. Rows with
+     * bilinear terms become bilinear constraints; all other rows are linear.
+     *
+     * @param variables
+     * @return
+     */
+    public List<Constraint> toConstraints(VariableRegistry variables) {
+        List<Constraint> constraints = new ArrayList<>(nRows);
+        int bilinear = 0;
+
+        for (int row = 0; row < nRows; row++) {
+            Constraint.Comparison comparison = decode(comparisons[row]);
+            List<Pair<Double, String>> linearTerms;
+
+            if (bilinear < nBilinearTerms && bilinearRows[bilinear] == row) {
+                Constraint.Bilinear constraint = new Constraint.Bilinear(comparison, rightHandSides[row]);
+
+                for (; bilinear < nBilinearTerms && bilinearRows[bilinear] == row; bilinear++) {
+                    constraint.getBilinearTerms().add(new Pair<>(bilinearCoefficients[bilinear],
+                            new Pair<>(variables.getName(bilinearColumns1[bilinear]), variables.getName(bilinearColumns2[bilinear]))));
+                }
+
+                linearTerms = constraint.getLinearTerms();
+                constraints.add(constraint);
+            } else {
+                Constraint.Linear constraint = new Constraint.Linear(comparison, rightHandSides[row]);
+                linearTerms = constraint.getTerms();
+                constraints.add(constraint);
+            }
+
+            for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+                linearTerms.add(new Pair<>(coefficients[i], variables.getName(columns[i])));
+            }
+        }
+
+        return constraints;
+    }
+
+    /**
+     * Compiles the given constraints into a matrix. The variables of all
+     * constraints must be registered with the given registry. Multiple linear
+     * terms in the same variable are collected.
+     *
+     * @param constraints
+     * @param variables
+     * @return
+     */
+    public static ConstraintMatrix compile(List<Constraint> constraints, VariableRegistry variables) {
+        Builder builder = new Builder(variables.size(), constraints.size(), 4 * constraints.size());
+
+        for (Constraint c : constraints) {
+            if (c instanceof Constraint.Linear) {
+                for (Pair<Double, String> term : ((Constraint.Linear) c).getTerms()) {
+                    builder.addTerm(variables.getId(term.getSecond()), term.getFirst());
+                }
+            } else if (c instanceof Constraint.Bilinear) {
+                Constraint.Bilinear bilinear = (Constraint.Bilinear) c;
+
+                for (Pair<Double, String> term : bilinear.getLinearTerms()) {
+                    builder.addTerm(variables.getId(term.getSecond()), term.getFirst());
+                }
+
+                for (Pair<Double, Pair<String, String>> term : bilinear.getBilinearTerms()) {
+                    builder.addBilinearTerm(variables.getId(term.getSecond().getFirst()), variables.getId(term.getSecond().getSecond()), term.getFirst());
+                }
+            } else {
+                throw new IllegalArgumentException("Unexpected constraint type: " + c);
+            }
+
+            builder.endRow(c.getComparison(), c.getRightHandSide());
+        }
+
+        return builder.build();
+    }
+
+    public int getNumRows() {
+        return nRows;
+    }
+
+    public int getNumColumns() {
+        return nColumns;
+    }
+
+    /**
+     * Returns the number of linear terms over all rows.
+     *
+     * @return
+     */
+    public int getNumTerms() {
+        return rowStart[nRows];
+    }
+
+    public int[] getRowStart() {
+        return rowStart;
+    }
+
+    public int[] getColumns() {
+        return columns;
+    }
+
+    public double[] getCoefficients() {
+        return coefficients;
+    }
+
+    /**
+     * Returns the comparison of each row, encoded as EQUAL, LESS_THAN_OR_EQUAL
+     * or GREATER_THAN_OR_EQUAL.
+     *
+     * @return
+     */
+    public byte[] getComparisons() {
+        return comparisons;
+    }
+
+    public Constraint.Comparison getComparison(int row) {
+        return decode(comparisons[row]);
+    }
+
+    public double[] getRightHandSides() {
+        return rightHandSides;
+    }
+
+    /**
+     * Changes the coefficient of the linear term at the given position, for
+     * callers that update a problem in place. The matching term of the
+     * original constraint should be updated as well.
+     *
+     * @param position
+     * @param coefficient
+     */
+    public void setCoefficient(int position, double coefficient) {
+        coefficients[position] = coefficient;
+    }
+
+    /**
+     * Changes the right hand side of the given row, for callers that update a
+     * problem in place. The original constraint should be updated as well.
+     *
+     * @param row
+     * @param rightHandSide
+     */
+    public void setRightHandSide(int row, double rightHandSide) {
+        rightHandSides[row] = rightHandSide;
+    }
+
+    public int getNumBilinearTerms() {
+        return nBilinearTerms;
+    }
+
+    public boolean isLinear() {
+        return nBilinearTerms == 0;
+    }
+
+    public int[] getBilinearRows() {
+        return bilinearRows;
+    }
+
+    public int[] getBilinearColumns1() {
+        return bilinearColumns1;
+    }
+
+    public int[] getBilinearColumns2() {
+        return bilinearColumns2;
+    }
+
+    public double[] getBilinearCoefficients() {
+        return bilinearCoefficients;
+    }
+
+    public static byte encode(Constraint.Comparison comparison) {
+        switch (comparison) {
+            case EQUAL:
+                return EQUAL;
+            case LESS_THAN_OR_EQUAL:
+                return LESS_THAN_OR_EQUAL;
+            case GREATER_THAN_OR_EQUAL:
+                return GREATER_THAN_OR_EQUAL;
+            default:
+                throw new InternalError("Incorrect comparison type - " + comparison.name());
+        }
+    }
+
+    public static Constraint.Comparison decode(byte comparison) {
+        switch (comparison) {
+            case EQUAL:
+                return Constraint.Comparison.EQUAL;
+            case LESS_THAN_OR_EQUAL:
+                return Constraint.Comparison.LESS_THAN_OR_EQUAL;
+            case GREATER_THAN_OR_EQUAL:
+                return Constraint.Comparison.GREATER_THAN_OR_EQUAL;
+            default:
+                throw new IllegalArgumentException("Incorrect comparison code - " + comparison);
+        }
+    }
+
+    /**
+     * Builds a matrix row by row, directly from variable ids. Terms are added
+     * to the current row until endRow is called.
+     */
+    public static class Builder {
+
+        private int nColumns;
+        private int nRows = 0;
+        private int nTerms = 0;
+        private int nBilinearTerms = 0;
+        private int[] rowStart;
+        private int[] columns;
+        private double[] coefficients;
+        private byte[] comparisons;
+        private double[] rightHandSides;
+        private int[] bilinearRows = new int[16];
+        private int[] bilinearColumns1 = new int[16];
+        private int[] bilinearColumns2 = new int[16];
+        private double[] bilinearCoefficients = new double[16];
+        private int[] positionInRow; // For each column, its position in the current row, if rowStart[nRows] <= position < nTerms
+
+        /**
+         * Creates a new builder. The expected sizes only affect the initial
+         * capacity.
+         *
+         * @param nColumns
+         * @param expectedRows
+         * @param expectedTerms
+         */
+        public Builder(int nColumns, int expectedRows, int expectedTerms) {
+            this.nColumns = nColumns;
+            rowStart = new int[Math.max(expectedRows, 1) + 1];
+            columns = new int[Math.max(expectedTerms, 1)];
+            coefficients = new double[Math.max(expectedTerms, 1)];
+            comparisons = new byte[Math.max(expectedRows, 1)];
+            rightHandSides = new double[Math.max(expectedRows, 1)];
+            positionInRow = new int[Math.max(nColumns, 1)];
+        }
+
+        /**
+         * Adds the term "coefficient * column" to the current row. If the
+         * current row already contains this column, the coefficients are
+         * added.
+         *
+         * @param column
+         * @param coefficient
+         */
+        public void addTerm(int column, double coefficient) {
+            ensureColumn(column);
+            int pos = positionInRow[column];
+
+            if (rowStart[nRows] <= pos && pos < nTerms && columns[pos] == column) {
+                coefficients[pos] += coefficient;
+                return;
+            }
+
+            if (nTerms == columns.length) {
+                columns = Arrays.copyOf(columns, 2 * nTerms);
+                coefficients = Arrays.copyOf(coefficients, 2 * nTerms);
+            }
+
+            columns[nTerms] = column;
+            coefficients[nTerms] = coefficient;
+            positionInRow[column] = nTerms;
+            nTerms++;
+        }
+
+        /**
+         * Adds the term "coefficient * column1 * column2" to the current row.
+         *
+         * @param column1
+         * @param column2
+         * @param coefficient
+         */
+        public void addBilinearTerm(int column1, int column2, double coefficient) {
+            ensureColumn(Math.max(column1, column2));
+
+            if (nBilinearTerms == bilinearRows.length) {
+                bilinearRows = Arrays.copyOf(bilinearRows, 2 * nBilinearTerms);
+                bilinearColumns1 = Arrays.copyOf(bilinearColumns1, 2 * nBilinearTerms);
+                bilinearColumns2 = Arrays.copyOf(bilinearColumns2, 2 * nBilinearTerms);
+                bilinearCoefficients = Arrays.copyOf(bilinearCoefficients, 2 * nBilinearTerms);
+            }
+
+            bilinearRows[nBilinearTerms] = nRows;
+            bilinearColumns1[nBilinearTerms] = column1;
+            bilinearColumns2[nBilinearTerms] = column2;
+            bilinearCoefficients[nBilinearTerms] = coefficient;
+            nBilinearTerms++;
+        }
+
+        /**
+         * Finishes the current row with the given comparison and right hand
+         * side, and starts a new one.
+         *
+         * @param comparison
+         * @param rightHandSide
+         * @return the index of the finished row
+         */
+        public int endRow(Constraint.Comparison comparison, double rightHandSide) {
+            if (nRows == comparisons.length) {
+                comparisons = Arrays.copyOf(comparisons, 2 * nRows);
+                rightHandSides = Arrays.copyOf(rightHandSides, 2 * nRows);
+                rowStart = Arrays.copyOf(rowStart, 2 * nRows + 1);
+            }
+
+            comparisons[nRows] = encode(comparison);
+            rightHandSides[nRows] = rightHandSide;
+            nRows++;
+            rowStart[nRows] = nTerms;
+            return nRows - 1;
+        }
+
+        public int getNumRows() {
+            return nRows;
+        }
+
+        public ConstraintMatrix build() {
+            return new ConstraintMatrix(this);
+        }
+
+        private void ensureColumn(int column) {
+            if (column < 0) {
+                throw new IllegalArgumentException("Unregistered variable: " + column);
+            }
+
+            if (column >= nColumns) {
+                nColumns = column + 1;
+            }
+
+            if (column >= positionInRow.length) {
+                positionInRow = Arrays.copyOf(positionInRow, Math.max(column + 1, 2 * positionInRow.length));
+            }
+        }
+    }
+}
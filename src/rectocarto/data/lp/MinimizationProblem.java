@@ -15,16 +15,43 @@
  */
 package rectocarto.data.lp;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
+import rectangularcartogram.data.Pair;
 
+/**
+ * A minimization problem with per-variable bounds. Variables without explicit
+ * bounds are non-negative, as in most LP solvers.
+ */
 public class MinimizationProblem {
 
+    public static final double DEFAULT_LOWER_BOUND = 0;
+    public static final double DEFAULT_UPPER_BOUND = Double.POSITIVE_INFINITY;
+
     private ObjectiveFunction objective;
-    private final List<Constraint> constraints;
+    private final ConstraintList constraints = new ConstraintList();
+    private final VariableRegistry variables;
+    private ConstraintMatrix matrix; // Cached compiled form of the constraints
+    private boolean constraintsPending = false; // Whether the constraints are only held in the matrix, until they are first requested
+    private double[] lowerBounds = new double[0]; // Indexed by variable id
+    private double[] upperBounds = new double[0];
 
     public MinimizationProblem() {
-        constraints = new ArrayList<>();
+        variables = new VariableRegistry();
+    }
+
+    /**
+     * Creates a new problem whose variables are registered with the given
+     * registry. This allows a builder to fix the ids of its variables before
+     * adding any constraints.
+     *
+     * @param variables
+     */
+    public MinimizationProblem(VariableRegistry variables) {
+        this.variables = variables;
     }
 
     /**
@@ -43,20 +70,267 @@ public class MinimizationProblem {
      */
     public void setObjective(ObjectiveFunction objective) {
         this.objective = objective;
+        registerVariables(objective);
     }
 
     /**
      * Returns the actual list of constraints. Changes to this list will be
-     * reflected in the problem.
+     * reflected in the problem: the variables of constraints that are added or
+     * set are registered, and the cached constraint matrix is discarded.
      *
      * @return
      */
     public List<Constraint> getConstraints() {
+        if (constraintsPending) {
+            constraintsPending = false;
+            constraints.list.addAll(matrix.toConstraints(variables));
+        }
+
         return constraints;
     }
     
     public void addConstraint(Constraint c) {
-        constraints.add(c);
+        getConstraints().add(c);
+    }
+
+    /**
+     * Replaces all constraints of this problem by the rows of the given
+     * matrix, whose columns are the ids of this problem's registry. The
+     * constraint objects are only built once getConstraints is called, so
+     * solvers that only read the matrix never pay for them.
+     *
+     * @param matrix
+     */
+    public void setConstraints(ConstraintMatrix matrix) {
+        constraints.clear();
+        this.matrix = matrix;
+        constraintsPending = true;
+    }
+
+    /**
+     * Returns the constraints of this problem in compressed sparse row form,
+     * with the variable ids of this problem's registry as columns. The matrix
+     * is cached and rebuilt when the list of constraints changes. Changes to
+     * the terms or right hand sides of constraints in the list are not
+     * tracked; call invalidateConstraintMatrix after making such changes.
+     *
+     * @return
+     */
+    public ConstraintMatrix getConstraintMatrix() {
+        if (matrix == null) {
+            matrix = ConstraintMatrix.compile(constraints, getVariables());
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Replaces the cached constraint matrix by one that is known to match the
+     * constraints, such as one read from a file or generated together with
+     * the constraints.
+     *
+     * @param matrix
+     */
+    public void setConstraintMatrix(ConstraintMatrix matrix) {
+        getConstraints();
+        this.matrix = matrix;
+    }
+
+    /**
+     * Discards the cached constraint matrix, so it is rebuilt on the next call
+     * to getConstraintMatrix.
+     */
+    public void invalidateConstraintMatrix() {
+        getConstraints();
+        matrix = null;
+    }
+
+    /**
+     * Sets the lower and upper bound of the given variable, registering it if
+     * it is new. Use infinite values for missing bounds.
+     *
+     * @param variable
+     * @param lower
+     * @param upper
+     */
+    public void setBounds(String variable, double lower, double upper) {
+        int id = variables.register(variable);
+        ensureBoundCapacity();
+        lowerBounds[id] = lower;
+        upperBounds[id] = upper;
+    }
+
+    public void setLowerBound(String variable, double lower) {
+        int id = variables.register(variable);
+        ensureBoundCapacity();
+        lowerBounds[id] = lower;
+    }
+
+    public void setUpperBound(String variable, double upper) {
+        int id = variables.register(variable);
+        ensureBoundCapacity();
+        upperBounds[id] = upper;
+    }
+
+    /**
+     * Fixes the given variable to the given value.
+     *
+     * @param variable
+     * @param value
+     */
+    public void fixVariable(String variable, double value) {
+        setBounds(variable, value, value);
+    }
+
+    public double getLowerBound(String variable) {
+        int id = variables.getId(variable);
+        return (id < 0 || id >= lowerBounds.length ? DEFAULT_LOWER_BOUND : lowerBounds[id]);
+    }
+
+    public double getUpperBound(String variable) {
+        int id = variables.getId(variable);
+        return (id < 0 || id >= upperBounds.length ? DEFAULT_UPPER_BOUND : upperBounds[id]);
+    }
+
+    /**
+     * Returns the lower bound of each variable, indexed by id. This is the
+     * actual array; it must not be modified.
+     *
+     * @return
+     */
+    public double[] getLowerBounds() {
+        getVariables();
+        ensureBoundCapacity();
+        return lowerBounds;
+    }
+
+    /**
+     * Returns the upper bound of each variable, indexed by id. This is the
+     * actual array; it must not be modified.
+     *
+     * @return
+     */
+    public double[] getUpperBounds() {
+        getVariables();
+        ensureBoundCapacity();
+        return upperBounds;
+    }
+
+    /**
+     * Sets the bounds of each variable of this problem that also occurs in the
+     * given problem to its bounds there.
+     *
+     * @param other
+     */
+    public void copyBounds(MinimizationProblem other) {
+        VariableRegistry vars = getVariables();
+        ensureBoundCapacity();
+
+        for (int id = 0; id < vars.size(); id++) {
+            int otherId = other.variables.getId(vars.getName(id));
+
+            if (otherId >= 0 && otherId < other.lowerBounds.length) {
+                lowerBounds[id] = other.lowerBounds[otherId];
+                upperBounds[id] = other.upperBounds[otherId];
+            }
+        }
+    }
+
+    private void ensureBoundCapacity() {
+        int n = variables.size();
+
+        if (lowerBounds.length < n) {
+            int oldLength = lowerBounds.length;
+            int newLength = Math.max(n, 2 * oldLength);
+            lowerBounds = Arrays.copyOf(lowerBounds, newLength);
+            upperBounds = Arrays.copyOf(upperBounds, newLength);
+            Arrays.fill(lowerBounds, oldLength, newLength, DEFAULT_LOWER_BOUND);
+            Arrays.fill(upperBounds, oldLength, newLength, DEFAULT_UPPER_BOUND);
+        }
+    }
+
+    /**
+     * Returns a copy of this problem that can be read while this problem is
+     * changed. The copy has its own registry, with the same ids, and its own
+     * objective function, bounds and constraint matrix. The constraint objects
+     * themselves are shared.
+     *
+     * @return
+     */
+    public MinimizationProblem snapshot() {
+        MinimizationProblem copy = new MinimizationProblem(new VariableRegistry(getVariables()));
+
+        if (objective instanceof ObjectiveFunction.Linear) {
+            copy.objective = new ObjectiveFunction.Linear(((ObjectiveFunction.Linear) objective).getTerms());
+        } else if (objective instanceof ObjectiveFunction.Quadratic) {
+            ObjectiveFunction.Quadratic quadratic = (ObjectiveFunction.Quadratic) objective;
+            copy.objective = new ObjectiveFunction.Quadratic(quadratic.getLinearTerms(), quadratic.getQuadraticTerms());
+        }
+
+        if (constraintsPending) {
+            copy.setConstraints(matrix.copy());
+        } else {
+            copy.constraints.addAll(constraints);
+            copy.matrix = getConstraintMatrix().copy();
+        }
+
+        copy.lowerBounds = getLowerBounds().clone();
+        copy.upperBounds = getUpperBounds().clone();
+        return copy;
+    }
+
+    /**
+     * Returns the registry that assigns an integer id to each variable in this
+     * problem. Variables of terms added to the objective function are
+     * registered when this method is called. Terms that are added to
+     * constraints after they were added to the problem are not tracked.
+     *
+     * @return
+     */
+    public VariableRegistry getVariables() {
+        registerVariables(objective);
+        return variables;
+    }
+
+    private void registerVariables(Constraint c) {
+        if (c instanceof Constraint.Linear) {
+            for (Pair<Double, String> term : ((Constraint.Linear) c).getTerms()) {
+                variables.register(term.getSecond());
+            }
+        } else if (c instanceof Constraint.Bilinear) {
+            Constraint.Bilinear bilinear = (Constraint.Bilinear) c;
+
+            for (Pair<Double, String> term : bilinear.getLinearTerms()) {
+                variables.register(term.getSecond());
+            }
+
+            for (Pair<Double, Pair<String, String>> term : bilinear.getBilinearTerms()) {
+                variables.register(term.getSecond().getFirst());
+                variables.register(term.getSecond().getSecond());
+            }
+        } else {
+            throw new IllegalArgumentException("Unexpected constraint type: " + c);
+        }
+    }
+
+    private void registerVariables(ObjectiveFunction objective) {
+        if (objective instanceof ObjectiveFunction.Linear) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Linear) objective).getTerms()) {
+                variables.register(term.getSecond());
+            }
+        } else if (objective instanceof ObjectiveFunction.Quadratic) {
+            ObjectiveFunction.Quadratic quadratic = (ObjectiveFunction.Quadratic) objective;
+
+            for (Pair<Double, String> term : quadratic.getLinearTerms()) {
+                variables.register(term.getSecond());
+            }
+
+            for (Pair<Double, String> term : quadratic.getQuadraticTerms()) {
+                variables.register(term.getSecond());
+            }
+        } else if (objective != null) {
+            throw new IllegalArgumentException("Unexpected objective function type: " + objective);
+        }
     }
 
     @Override
@@ -67,7 +341,7 @@ public class MinimizationProblem {
             sb.append("Minimize ").append(objective.toString()).append('\n');
         }
 
-        if (!constraints.isEmpty()) {
+        if (!getConstraints().isEmpty()) {
             sb.append("Such that ");
 
             for (Constraint c : constraints) {
@@ -77,6 +351,84 @@ public class MinimizationProblem {
             sb.append("With no constraints.");
         }
 
+        VariableRegistry vars = getVariables();
+        ensureBoundCapacity();
+
+        for (int id = 0; id < vars.size(); id++) {
+            double lower = lowerBounds[id];
+            double upper = upperBounds[id];
+
+            if (lower == DEFAULT_LOWER_BOUND && upper == DEFAULT_UPPER_BOUND) {
+                continue;
+            }
+
+            sb.append("\nBound ");
+
+            if (lower == upper) {
+                sb.append(vars.getName(id)).append(" = ").append(lower);
+            } else {
+                if (lower != Double.NEGATIVE_INFINITY) {
+                    sb.append(lower).append(" <= ");
+                }
+
+                sb.append(vars.getName(id));
+
+                if (upper != Double.POSITIVE_INFINITY) {
+                    sb.append(" <= ").append(upper);
+                }
+            }
+        }
+
         return sb.toString();
     }
+
+    /**
+     * The constraints of a problem. Adding or setting a constraint registers
+     * its variables, and every change discards the cached constraint matrix.
+     */
+    private class ConstraintList extends AbstractList<Constraint> implements RandomAccess {
+
+        private final ArrayList<Constraint> list = new ArrayList<>();
+
+        @Override
+        public Constraint get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public Constraint set(int index, Constraint c) {
+            registerVariables(c);
+            Constraint previous = list.set(index, c);
+            matrix = null;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, Constraint c) {
+            registerVariables(c);
+            list.add(index, c);
+            modCount++;
+            matrix = null;
+        }
+
+        @Override
+        public Constraint remove(int index) {
+            Constraint previous = list.remove(index);
+            modCount++;
+            matrix = null;
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            list.clear();
+            modCount++;
+            matrix = null;
+        }
+    }
 }
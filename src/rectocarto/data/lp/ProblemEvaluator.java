@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import rectangularcartogram.data.Pair;
+
+/**
+ * Evaluates the objective and constraints of a problem for solution vectors
+ * indexed by variable id. The terms of the problem are compiled once; none of
+ * the evaluation methods allocate memory.
+ *
+ * The evaluator reads the problem's constraint matrix directly, so in-place
+ * updates of the matrix are reflected. Other changes to the problem require a
+ * new evaluator.
+ */
+public class ProblemEvaluator {
+
+    private final VariableRegistry variables;
+    private final int nColumns;
+    private final int nRows;
+    private final int[] rowStart;
+    private final int[] columns;
+    private final double[] coefficients;
+    private final byte[] comparisons;
+    private final double[] rightHandSides;
+    private final int[] bilinearRowStart; // Bilinear terms of row r are at positions bilinearRowStart[r] up to bilinearRowStart[r + 1]
+    private final int[] bilinearColumns1;
+    private final int[] bilinearColumns2;
+    private final double[] bilinearCoefficients;
+    private final int[] objectiveColumns;
+    private final double[] objectiveCoefficients;
+    private final int[] quadraticColumns;
+    private final double[] quadraticCoefficients;
+    private final double[] lowerBounds;
+    private final double[] upperBounds;
+
+    public ProblemEvaluator(MinimizationProblem problem) {
+        variables = problem.getVariables();
+        nColumns = variables.size();
+
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        nRows = matrix.getNumRows();
+        rowStart = matrix.getRowStart();
+        columns = matrix.getColumns();
+        coefficients = matrix.getCoefficients();
+        comparisons = matrix.getComparisons();
+        rightHandSides = matrix.getRightHandSides();
+        bilinearColumns1 = matrix.getBilinearColumns1();
+        bilinearColumns2 = matrix.getBilinearColumns2();
+        bilinearCoefficients = matrix.getBilinearCoefficients();
+
+        // The bilinear terms are sorted by row
+        bilinearRowStart = new int[nRows + 1];
+
+        for (int row : matrix.getBilinearRows()) {
+            bilinearRowStart[row + 1]++;
+        }
+
+        for (int r = 0; r < nRows; r++) {
+            bilinearRowStart[r + 1] += bilinearRowStart[r];
+        }
+
+        // Objective
+        ObjectiveFunction objective = problem.getObjective();
+        List<Pair<Double, String>> linearTerms;
+        List<Pair<Double, String>> quadraticTerms;
+
+        if (objective instanceof ObjectiveFunction.Linear) {
+            linearTerms = ((ObjectiveFunction.Linear) objective).getTerms();
+            quadraticTerms = Collections.emptyList();
+        } else if (objective instanceof ObjectiveFunction.Quadratic) {
+            linearTerms = ((ObjectiveFunction.Quadratic) objective).getLinearTerms();
+            quadraticTerms = ((ObjectiveFunction.Quadratic) objective).getQuadraticTerms();
+        } else if (objective == null) {
+            linearTerms = Collections.emptyList();
+            quadraticTerms = Collections.emptyList();
+        } else {
+            throw new IllegalArgumentException("Unexpected objective function type: " + objective);
+        }
+
+        objectiveColumns = new int[linearTerms.size()];
+        objectiveCoefficients = new double[linearTerms.size()];
+
+        for (int i = 0; i < objectiveColumns.length; i++) {
+            objectiveColumns[i] = variables.getId(linearTerms.get(i).getSecond());
+            objectiveCoefficients[i] = linearTerms.get(i).getFirst();
+        }
+
+        quadraticColumns = new int[quadraticTerms.size()];
+        quadraticCoefficients = new double[quadraticTerms.size()];
+
+        for (int i = 0; i < quadraticColumns.length; i++) {
+            quadraticColumns[i] = variables.getId(quadraticTerms.get(i).getSecond());
+            quadraticCoefficients[i] = quadraticTerms.get(i).getFirst();
+        }
+
+        lowerBounds = problem.getLowerBounds();
+        upperBounds = problem.getUpperBounds();
+    }
+
+    public int getNumColumns() {
+        return nColumns;
+    }
+
+    public int getNumRows() {
+        return nRows;
+    }
+
+    /**
+     * Returns the values of the given assignment as an array indexed by
+     * variable id. If the assignment is a complete Solution over the same
+     * variables, its own array is returned without copying. Otherwise, the
+     * values are copied into the given array.
+     *
+     * @param assignment
+     * @param buffer an array with room for all variables
+     * @return
+     * @throws IllegalArgumentException If a variable has no value.
+     */
+    public double[] getValues(Map<String, Double> assignment, double[] buffer) {
+        if (assignment instanceof Solution && ((Solution) assignment).getVariables() == variables) {
+            double[] values = ((Solution) assignment).getCompleteValues();
+
+            if (values != null) {
+                return values;
+            }
+        }
+
+        for (int id = 0; id < nColumns; id++) {
+            Double value = assignment.get(variables.getName(id));
+
+            if (value == null) {
+                throw new IllegalArgumentException("No value for variable " + variables.getName(id));
+            }
+
+            buffer[id] = value;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Returns the value of the objective function.
+     *
+     * @param values
+     * @return
+     */
+    public double evaluateObjective(double[] values) {
+        double result = 0;
+
+        for (int i = 0; i < objectiveColumns.length; i++) {
+            result += objectiveCoefficients[i] * values[objectiveColumns[i]];
+        }
+
+        for (int i = 0; i < quadraticColumns.length; i++) {
+            double value = values[quadraticColumns[i]];
+            result += quadraticCoefficients[i] * value * value;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the value of the left hand side of the given row.
+     *
+     * @param row
+     * @param values
+     * @return
+     */
+    public double evaluateRow(int row, double[] values) {
+        double result = 0;
+
+        for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+            result += coefficients[i] * values[columns[i]];
+        }
+
+        for (int i = bilinearRowStart[row]; i < bilinearRowStart[row + 1]; i++) {
+            result += bilinearCoefficients[i] * values[bilinearColumns1[i]] * values[bilinearColumns2[i]];
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns by how much the given row is satisfied: positive if it holds
+     * with room to spare, zero if it is tight, and negative if it is violated.
+     * Equality constraints never have a positive slack.
+     *
+     * @param row
+     * @param values
+     * @return
+     */
+    public double slack(int row, double[] values) {
+        double difference = evaluateRow(row, values) - rightHandSides[row];
+
+        switch (comparisons[row]) {
+            case ConstraintMatrix.GREATER_THAN_OR_EQUAL:
+                return difference;
+            case ConstraintMatrix.LESS_THAN_OR_EQUAL:
+                return -difference;
+            default:
+                return -Math.abs(difference);
+        }
+    }
+
+    /**
+     * Stores the slack of every row in the given array.
+     *
+     * @param values
+     * @param slacks an array with room for all rows
+     */
+    public void computeSlacks(double[] values, double[] slacks) {
+        for (int r = 0; r < nRows; r++) {
+            slacks[r] = slack(r, values);
+        }
+    }
+
+    /**
+     * Returns the largest amount by which a constraint or bound is violated,
+     * or 0 if the values are feasible.
+     *
+     * @param values
+     * @return
+     */
+    public double maxViolation(double[] values) {
+        double result = 0;
+
+        for (int r = 0; r < nRows; r++) {
+            result = Math.max(result, -slack(r, values));
+        }
+
+        for (int id = 0; id < nColumns; id++) {
+            result = Math.max(result, Math.max(lowerBounds[id] - values[id], values[id] - upperBounds[id]));
+        }
+
+        return result;
+    }
+
+    /**
+     * Stores the indices of the rows that are violated by more than the given
+     * tolerance in the given array, in increasing order.
+     *
+     * @param values
+     * @param tolerance
+     * @param violatedRows an array with room for all rows
+     * @return the number of violated rows
+     */
+    public int findViolatedRows(double[] values, double tolerance, int[] violatedRows) {
+        int nViolated = 0;
+
+        for (int r = 0; r < nRows; r++) {
+            if (slack(r, values) < -tolerance) {
+                violatedRows[nViolated++] = r;
+            }
+        }
+
+        return nViolated;
+    }
+
+    /**
+     * Returns whether all constraints and bounds hold within the given
+     * tolerance.
+     *
+     * @param values
+     * @param tolerance
+     * @return
+     */
+    public boolean isFeasible(double[] values, double tolerance) {
+        return maxViolation(values) <= tolerance;
+    }
+}
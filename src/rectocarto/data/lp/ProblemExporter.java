@@ -0,0 +1,389 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import rectangularcartogram.data.Pair;
+
+/**
+ * Writes problems in the standard text formats understood by other solvers:
+ * the CPLEX LP format and free MPS. Variable names are sanitized where
+ * necessary; rows are named c0, c1, ... in the order of the constraints.
+ */
+public class ProblemExporter {
+
+    /**
+     * Writes the given problem in CPLEX LP format. Bilinear constraints are
+     * written as quadratic constraints.
+     *
+     * @param out
+     * @param problem
+     * @throws IOException
+     */
+    public static void writeLP(Writer out, MinimizationProblem problem) throws IOException {
+        String[] names = sanitizeNames(problem.getVariables());
+        double[] linear = getLinearObjective(problem);
+        double[] quadratic = getQuadraticObjective(problem);
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+
+        out.write("Minimize\n obj:");
+
+        boolean empty = true;
+
+        for (int id = 0; id < names.length; id++) {
+            if (linear[id] != 0) {
+                writeTerm(out, linear[id], names[id], empty);
+                empty = false;
+            }
+        }
+
+        boolean hasQuadratic = false;
+
+        for (int id = 0; id < names.length; id++) {
+            if (quadratic[id] != 0) {
+                if (!hasQuadratic) {
+                    out.write(empty ? " [" : " + [");
+                    hasQuadratic = true;
+                    empty = true;
+                }
+
+                // Quadratic objective terms are halved in LP format
+                writeTerm(out, 2 * quadratic[id], names[id] + " ^2", empty);
+                empty = false;
+            }
+        }
+
+        if (hasQuadratic) {
+            out.write(" ] / 2");
+        } else if (empty) {
+            out.write(" 0");
+
+            if (names.length > 0) {
+                out.write(' ');
+                out.write(names[0]);
+            }
+        }
+
+        out.write("\nSubject To\n");
+
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+        int[] bilinearRows = matrix.getBilinearRows();
+        int b = 0;
+
+        for (int row = 0; row < matrix.getNumRows(); row++) {
+            out.write(" c" + row + ":");
+            empty = true;
+
+            for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+                writeTerm(out, coefficients[k], names[columns[k]], empty);
+                empty = false;
+            }
+
+            if (b < matrix.getNumBilinearTerms() && bilinearRows[b] == row) {
+                out.write(empty ? " [" : " + [");
+                empty = true;
+
+                for (; b < matrix.getNumBilinearTerms() && bilinearRows[b] == row; b++) {
+                    writeTerm(out, matrix.getBilinearCoefficients()[b], names[matrix.getBilinearColumns1()[b]] + " * " + names[matrix.getBilinearColumns2()[b]], empty);
+                    empty = false;
+                }
+
+                out.write(" ]");
+            } else if (empty) {
+                out.write(" 0 " + names[0]);
+            }
+
+            out.write(' ');
+            out.write(matrix.getComparison(row).toString());
+            out.write(' ');
+            out.write(format(matrix.getRightHandSides()[row]));
+            out.write('\n');
+        }
+
+        double[] lowerBounds = problem.getLowerBounds();
+        double[] upperBounds = problem.getUpperBounds();
+        boolean boundsWritten = false;
+
+        for (int id = 0; id < names.length; id++) {
+            double lower = lowerBounds[id];
+            double upper = upperBounds[id];
+
+            if (lower == MinimizationProblem.DEFAULT_LOWER_BOUND && upper == MinimizationProblem.DEFAULT_UPPER_BOUND) {
+                continue;
+            }
+
+            if (!boundsWritten) {
+                out.write("Bounds\n");
+                boundsWritten = true;
+            }
+
+            if (lower == upper) {
+                out.write(" " + names[id] + " = " + format(lower) + "\n");
+            } else if (lower == Double.NEGATIVE_INFINITY && upper == Double.POSITIVE_INFINITY) {
+                out.write(" " + names[id] + " free\n");
+            } else {
+                out.write(" " + format(lower) + " <= " + names[id] + " <= " + format(upper) + "\n");
+            }
+        }
+
+        out.write("End\n");
+        out.flush();
+    }
+
+    /**
+     * Writes the given linear or quadratic program in free MPS format. The
+     * quadratic objective is written in a QUADOBJ section.
+     *
+     * @param out
+     * @param problem
+     * @throws IOException
+     * @throws IllegalArgumentException if the problem has bilinear
+     * constraints, which MPS cannot represent.
+     */
+    public static void writeMPS(Writer out, MinimizationProblem problem) throws IOException {
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+
+        if (!matrix.isLinear()) {
+            throw new IllegalArgumentException("MPS files cannot contain bilinear constraints.");
+        }
+
+        String[] names = sanitizeNames(problem.getVariables());
+        double[] linear = getLinearObjective(problem);
+        double[] quadratic = getQuadraticObjective(problem);
+        int nRows = matrix.getNumRows();
+        int nColumns = names.length;
+
+        out.write("NAME rectocarto\nROWS\n N obj\n");
+
+        for (int row = 0; row < nRows; row++) {
+            switch (matrix.getComparisons()[row]) {
+                case ConstraintMatrix.EQUAL:
+                    out.write(" E c" + row + "\n");
+                    break;
+                case ConstraintMatrix.LESS_THAN_OR_EQUAL:
+                    out.write(" L c" + row + "\n");
+                    break;
+                case ConstraintMatrix.GREATER_THAN_OR_EQUAL:
+                    out.write(" G c" + row + "\n");
+                    break;
+            }
+        }
+
+        // Transpose the matrix, as MPS lists the entries by column
+        int[] rowStart = matrix.getRowStart();
+        int[] columns = matrix.getColumns();
+        double[] coefficients = matrix.getCoefficients();
+        int[] columnStart = new int[nColumns + 1];
+
+        for (int k = 0; k < matrix.getNumTerms(); k++) {
+            columnStart[columns[k] + 1]++;
+        }
+
+        for (int i = 0; i < nColumns; i++) {
+            columnStart[i + 1] += columnStart[i];
+        }
+
+        int[] next = columnStart.clone();
+        int[] rows = new int[matrix.getNumTerms()];
+        double[] values = new double[matrix.getNumTerms()];
+
+        for (int row = 0; row < nRows; row++) {
+            for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+                int pos = next[columns[k]]++;
+                rows[pos] = row;
+                values[pos] = coefficients[k];
+            }
+        }
+
+        out.write("COLUMNS\n");
+
+        for (int i = 0; i < nColumns; i++) {
+            if (linear[i] != 0 || columnStart[i] == columnStart[i + 1]) {
+                // Columns without entries are listed so their bounds can refer to them
+                out.write(" " + names[i] + " obj " + format(linear[i]) + "\n");
+            }
+
+            for (int k = columnStart[i]; k < columnStart[i + 1]; k++) {
+                out.write(" " + names[i] + " c" + rows[k] + " " + format(values[k]) + "\n");
+            }
+        }
+
+        out.write("RHS\n");
+
+        for (int row = 0; row < nRows; row++) {
+            double rhs = matrix.getRightHandSides()[row];
+
+            if (rhs != 0) {
+                out.write(" RHS c" + row + " " + format(rhs) + "\n");
+            }
+        }
+
+        double[] lowerBounds = problem.getLowerBounds();
+        double[] upperBounds = problem.getUpperBounds();
+        boolean boundsWritten = false;
+
+        for (int id = 0; id < nColumns; id++) {
+            double lower = lowerBounds[id];
+            double upper = upperBounds[id];
+
+            if (lower == MinimizationProblem.DEFAULT_LOWER_BOUND && upper == MinimizationProblem.DEFAULT_UPPER_BOUND) {
+                continue;
+            }
+
+            if (!boundsWritten) {
+                out.write("BOUNDS\n");
+                boundsWritten = true;
+            }
+
+            if (lower == upper) {
+                out.write(" FX BND " + names[id] + " " + format(lower) + "\n");
+                continue;
+            }
+
+            if (lower == Double.NEGATIVE_INFINITY) {
+                out.write(upper == Double.POSITIVE_INFINITY ? " FR BND " + names[id] + "\n" : " MI BND " + names[id] + "\n");
+            } else if (lower != MinimizationProblem.DEFAULT_LOWER_BOUND) {
+                out.write(" LO BND " + names[id] + " " + format(lower) + "\n");
+            }
+
+            if (upper != Double.POSITIVE_INFINITY) {
+                out.write(" UP BND " + names[id] + " " + format(upper) + "\n");
+            }
+        }
+
+        boolean quadraticWritten = false;
+
+        for (int id = 0; id < nColumns; id++) {
+            if (quadratic[id] != 0) {
+                if (!quadraticWritten) {
+                    out.write("QUADOBJ\n");
+                    quadraticWritten = true;
+                }
+
+                // The objective contains Q_ii / 2 * x_i^2
+                out.write(" " + names[id] + " " + names[id] + " " + format(2 * quadratic[id]) + "\n");
+            }
+        }
+
+        out.write("ENDATA\n");
+        out.flush();
+    }
+
+    /**
+     * Returns the name of each variable, indexed by id, changed where necessary
+     * to be valid in both LP and MPS files: only letters, digits, '_' and '.'
+     * are kept, names may not start with a digit, '.' or an exponent, and
+     * names that become equal are made unique with their id.
+     *
+     * @param variables
+     * @return
+     */
+    static String[] sanitizeNames(VariableRegistry variables) {
+        String[] names = new String[variables.size()];
+        Set<String> used = new HashSet<>(2 * names.length);
+
+        for (int id = 0; id < names.length; id++) {
+            String name = variables.getName(id);
+            StringBuilder sb = new StringBuilder(name.length() + 1);
+
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                sb.append(c < 128 && (Character.isLetterOrDigit(c) || c == '_' || c == '.') ? c : '_');
+            }
+
+            if (sb.length() == 0 || !Character.isLetter(sb.charAt(0)) && sb.charAt(0) != '_'
+                    || (sb.charAt(0) == 'e' || sb.charAt(0) == 'E') && (sb.length() == 1 || Character.isDigit(sb.charAt(1)))) {
+                sb.insert(0, '_');
+            }
+
+            String sanitized = sb.toString();
+
+            if (!used.add(sanitized)) {
+                sanitized = sanitized + "_" + id;
+                used.add(sanitized);
+            }
+
+            names[id] = sanitized;
+        }
+
+        return names;
+    }
+
+    private static double[] getLinearObjective(MinimizationProblem problem) {
+        double[] linear = new double[problem.getVariables().size()];
+        List<Pair<Double, String>> terms = null;
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Linear) {
+            terms = ((ObjectiveFunction.Linear) problem.getObjective()).getTerms();
+        } else if (problem.getObjective() instanceof ObjectiveFunction.Quadratic) {
+            terms = ((ObjectiveFunction.Quadratic) problem.getObjective()).getLinearTerms();
+        }
+
+        if (terms != null) {
+            for (Pair<Double, String> term : terms) {
+                linear[problem.getVariables().getId(term.getSecond())] += term.getFirst();
+            }
+        }
+
+        return linear;
+    }
+
+    private static double[] getQuadraticObjective(MinimizationProblem problem) {
+        double[] quadratic = new double[problem.getVariables().size()];
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Quadratic) {
+            for (Pair<Double, String> term : ((ObjectiveFunction.Quadratic) problem.getObjective()).getQuadraticTerms()) {
+                quadratic[problem.getVariables().getId(term.getSecond())] += term.getFirst();
+            }
+        }
+
+        return quadratic;
+    }
+
+    private static void writeTerm(Writer out, double coefficient, String variable, boolean first) throws IOException {
+        if (coefficient < 0) {
+            out.write(first ? " -" : " - ");
+            out.write(format(-coefficient));
+        } else {
+            out.write(first ? " " : " + ");
+            out.write(format(coefficient));
+        }
+
+        out.write(' ');
+        out.write(variable);
+    }
+
+    private static String format(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "inf";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "-inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        } else {
+            return Double.toString(value);
+        }
+    }
+
+    private ProblemExporter() {
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import rectangularcartogram.data.Pair;
+
+/**
+ * Reads and writes a problem, together with an optional solution and named
+ * groups of variables, in a compact binary format. Everything is stored as
+ * primitive arrays, so a file is read through a memory mapping with bulk
+ * copies, and the constraint matrix does not need to be recompiled.
+ *
+ * The layout, in little-endian byte order, is:
+ * <pre>
+ * int magic, int version
+ * int nStrings, int nVariables, int[nStrings] name lengths, UTF-8 names
+ * double[nVariables] lower bounds, double[nVariables] upper bounds
+ * byte objective type, int n, int[n] ids, double[n] coefficients (linear terms),
+ *     int n, int[n] ids, double[n] coefficients (quadratic terms)
+ * int nRows, int nTerms, int nBilinear, int[nRows + 1] row starts,
+ *     int[nTerms] columns, double[nTerms] coefficients, byte[nRows] comparisons,
+ *     double[nRows] right hand sides, int[nBilinear] rows, int[nBilinear] columns1,
+ *     int[nBilinear] columns2, double[nBilinear] coefficients
+ * byte hasSolution, [double objective value, int nWords, long[nWords] assigned ids,
+ *     double[nStrings] values]
+ * int nGroups, per group: int name length, UTF-8 name, int size, int[size] ids
+ * </pre>
+ * The string table lists the problem's variables by id, followed by variables
+ * that only occur in the solution or the groups.
+ */
+public class ProblemFile {
+
+    public static final int MAGIC = 0x504C4352; // "RCLP"
+    public static final int VERSION = 1;
+
+    private static final byte NO_OBJECTIVE = 0;
+    private static final byte LINEAR_OBJECTIVE = 1;
+    private static final byte QUADRATIC_OBJECTIVE = 2;
+
+    private final MinimizationProblem problem;
+    private final Solution solution;
+    private final Map<String, Set<String>> variableGroups;
+
+    private ProblemFile(MinimizationProblem problem, Solution solution, Map<String, Set<String>> variableGroups) {
+        this.problem = problem;
+        this.solution = solution;
+        this.variableGroups = Collections.unmodifiableMap(variableGroups);
+    }
+
+    public MinimizationProblem getProblem() {
+        return problem;
+    }
+
+    /**
+     * Returns the stored solution, or null if the file did not contain one.
+     * The solution shares the variable registry of the problem.
+     *
+     * @return
+     */
+    public Solution getSolution() {
+        return solution;
+    }
+
+    public Map<String, Set<String>> getVariableGroups() {
+        return variableGroups;
+    }
+
+    /**
+     * Returns the group of variables stored under the given name, or null if
+     * there is no such group.
+     *
+     * @param name
+     * @return
+     */
+    public Set<String> getVariableGroup(String name) {
+        return variableGroups.get(name);
+    }
+
+    /**
+     * Writes the given problem and solution to the given file.
+     *
+     * @param file
+     * @param problem
+     * @param solution may be null
+     * @throws IOException
+     */
+    public static void save(Path file, MinimizationProblem problem, Solution solution) throws IOException {
+        save(file, problem, solution, Collections.<String, Set<String>>emptyMap());
+    }
+
+    /**
+     * Writes the given problem, solution and groups of variables to the given
+     * file. The file is replaced only after it has been written completely.
+     *
+     * @param file
+     * @param problem
+     * @param solution may be null
+     * @param variableGroups
+     * @throws IOException
+     */
+    public static void save(Path file, MinimizationProblem problem, Solution solution, Map<String, Set<String>> variableGroups) throws IOException {
+        VariableRegistry variables = problem.getVariables();
+        int nVariables = variables.size();
+        double[] lowerBounds = problem.getLowerBounds();
+        double[] upperBounds = problem.getUpperBounds();
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+
+        // Build the string table
+        VariableRegistry strings = new VariableRegistry(variables);
+
+        if (solution != null) {
+            for (String variable : solution.keySet()) {
+                strings.register(variable);
+            }
+        }
+
+        for (Set<String> group : variableGroups.values()) {
+            for (String variable : group) {
+                strings.register(variable);
+            }
+        }
+
+        int nStrings = strings.size();
+        byte[][] encodedNames = new byte[nStrings][];
+        int nameBytes = 0;
+
+        for (int i = 0; i < nStrings; i++) {
+            encodedNames[i] = strings.getName(i).getBytes(StandardCharsets.UTF_8);
+            nameBytes += encodedNames[i].length;
+        }
+
+        // Compile the objective
+        byte objectiveType;
+        List<Pair<Double, String>> linearTerms = Collections.emptyList();
+        List<Pair<Double, String>> quadraticTerms = Collections.emptyList();
+
+        if (problem.getObjective() instanceof ObjectiveFunction.Linear) {
+            objectiveType = LINEAR_OBJECTIVE;
+            linearTerms = ((ObjectiveFunction.Linear) problem.getObjective()).getTerms();
+        } else if (problem.getObjective() instanceof ObjectiveFunction.Quadratic) {
+            objectiveType = QUADRATIC_OBJECTIVE;
+            linearTerms = ((ObjectiveFunction.Quadratic) problem.getObjective()).getLinearTerms();
+            quadraticTerms = ((ObjectiveFunction.Quadratic) problem.getObjective()).getQuadraticTerms();
+        } else if (problem.getObjective() == null) {
+            objectiveType = NO_OBJECTIVE;
+        } else {
+            throw new IllegalArgumentException("Unexpected objective function type: " + problem.getObjective());
+        }
+
+        // Collect the solution
+        double[] values = null;
+        long[] assigned = null;
+
+        if (solution != null) {
+            values = new double[nStrings];
+            BitSet assignedIds = new BitSet(nStrings);
+
+            if (solution.getVariables() == variables) {
+                for (int id = 0; id < nVariables; id++) {
+                    if (solution.isAssigned(id)) {
+                        values[id] = solution.getValue(id);
+                        assignedIds.set(id);
+                    }
+                }
+            } else {
+                for (Map.Entry<String, Double> entry : solution.entrySet()) {
+                    int id = strings.getId(entry.getKey());
+                    values[id] = entry.getValue();
+                    assignedIds.set(id);
+                }
+            }
+
+            assigned = assignedIds.toLongArray();
+        }
+
+        // Compute the exact size of the file
+        int nRows = matrix.getNumRows();
+        int nTerms = matrix.getNumTerms();
+        int nBilinear = matrix.getNumBilinearTerms();
+        long size = 8
+                + 8 + 4L * nStrings + nameBytes
+                + 16L * nVariables
+                + 1 + 4 + 12L * linearTerms.size() + 4 + 12L * quadraticTerms.size()
+                + 12 + 4L * (nRows + 1) + 12L * nTerms + 9L * nRows + 20L * nBilinear
+                + 1 + (solution == null ? 0 : 8 + 4 + 8L * assigned.length + 8L * nStrings)
+                + 4;
+
+        for (Map.Entry<String, Set<String>> group : variableGroups.entrySet()) {
+            size += 4 + group.getKey().getBytes(StandardCharsets.UTF_8).length + 4 + 4L * group.getValue().size();
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Problem is too large to be written to a single file.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+
+        // String table
+        buffer.putInt(nStrings);
+        buffer.putInt(nVariables);
+
+        for (byte[] name : encodedNames) {
+            buffer.putInt(name.length);
+        }
+
+        for (byte[] name : encodedNames) {
+            buffer.put(name);
+        }
+
+        // Bounds
+        putDoubles(buffer, lowerBounds, nVariables);
+        putDoubles(buffer, upperBounds, nVariables);
+
+        // Objective
+        buffer.put(objectiveType);
+        putTerms(buffer, linearTerms, variables);
+        putTerms(buffer, quadraticTerms, variables);
+
+        // Constraints
+        buffer.putInt(nRows);
+        buffer.putInt(nTerms);
+        buffer.putInt(nBilinear);
+        putInts(buffer, matrix.getRowStart(), nRows + 1);
+        putInts(buffer, matrix.getColumns(), nTerms);
+        putDoubles(buffer, matrix.getCoefficients(), nTerms);
+        buffer.put(matrix.getComparisons(), 0, nRows);
+        putDoubles(buffer, matrix.getRightHandSides(), nRows);
+        putInts(buffer, matrix.getBilinearRows(), nBilinear);
+        putInts(buffer, matrix.getBilinearColumns1(), nBilinear);
+        putInts(buffer, matrix.getBilinearColumns2(), nBilinear);
+        putDoubles(buffer, matrix.getBilinearCoefficients(), nBilinear);
+
+        // Solution
+        if (solution == null) {
+            buffer.put((byte) 0);
+        } else {
+            buffer.put((byte) 1);
+            buffer.putDouble(solution.getObjectiveValue());
+            buffer.putInt(assigned.length);
+            buffer.asLongBuffer().put(assigned);
+            buffer.position(buffer.position() + 8 * assigned.length);
+            putDoubles(buffer, values, nStrings);
+        }
+
+        // Variable groups
+        buffer.putInt(variableGroups.size());
+
+        for (Map.Entry<String, Set<String>> group : variableGroups.entrySet()) {
+            byte[] name = group.getKey().getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(name.length);
+            buffer.put(name);
+            buffer.putInt(group.getValue().size());
+
+            for (String variable : group.getValue()) {
+                buffer.putInt(strings.getId(variable));
+            }
+        }
+
+        buffer.flip();
+
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a problem file written by save.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file cannot be read, was written by an
+     * incompatible version, or is corrupt.
+     */
+    public static ProblemFile load(Path file) throws IOException {
+        ByteBuffer buffer;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        try {
+            return read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException ex) {
+            throw new IOException("Corrupt problem file: " + file, ex);
+        }
+    }
+
+    private static ProblemFile read(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a problem file.");
+        }
+
+        int version = buffer.getInt();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported problem file version: " + version);
+        }
+
+        // String table
+        int nStrings = buffer.getInt();
+        int nVariables = buffer.getInt();
+        int[] nameLengths = getInts(buffer, nStrings);
+        String[] names = new String[nStrings];
+
+        for (int i = 0; i < nStrings; i++) {
+            byte[] name = new byte[nameLengths[i]];
+            buffer.get(name);
+            names[i] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        VariableRegistry variables = new VariableRegistry(nVariables);
+
+        for (int i = 0; i < nVariables; i++) {
+            variables.register(names[i]);
+        }
+
+        MinimizationProblem problem = new MinimizationProblem(variables);
+
+        // Bounds
+        double[] lowerBounds = getDoubles(buffer, nVariables);
+        double[] upperBounds = getDoubles(buffer, nVariables);
+
+        for (int i = 0; i < nVariables; i++) {
+            if (lowerBounds[i] != MinimizationProblem.DEFAULT_LOWER_BOUND || upperBounds[i] != MinimizationProblem.DEFAULT_UPPER_BOUND) {
+                problem.setBounds(names[i], lowerBounds[i], upperBounds[i]);
+            }
+        }
+
+        // Objective
+        byte objectiveType = buffer.get();
+        List<Pair<Double, String>> linearTerms = getTerms(buffer, names);
+        List<Pair<Double, String>> quadraticTerms = getTerms(buffer, names);
+
+        switch (objectiveType) {
+            case NO_OBJECTIVE:
+                break;
+            case LINEAR_OBJECTIVE:
+                problem.setObjective(new ObjectiveFunction.Linear(linearTerms));
+                break;
+            case QUADRATIC_OBJECTIVE:
+                problem.setObjective(new ObjectiveFunction.Quadratic(linearTerms, quadraticTerms));
+                break;
+            default:
+                throw new IOException("Unknown objective type: " + objectiveType);
+        }
+
+        // Constraints
+        int nRows = buffer.getInt();
+        int nTerms = buffer.getInt();
+        int nBilinear = buffer.getInt();
+        int[] rowStart = getInts(buffer, nRows + 1);
+        int[] columns = getInts(buffer, nTerms);
+        double[] coefficients = getDoubles(buffer, nTerms);
+        byte[] comparisons = new byte[nRows];
+        buffer.get(comparisons);
+        double[] rightHandSides = getDoubles(buffer, nRows);
+        int[] bilinearRows = getInts(buffer, nBilinear);
+        int[] bilinearColumns1 = getInts(buffer, nBilinear);
+        int[] bilinearColumns2 = getInts(buffer, nBilinear);
+        double[] bilinearCoefficients = getDoubles(buffer, nBilinear);
+
+        List<Constraint> constraints = problem.getConstraints();
+        int b = 0;
+
+        for (int row = 0; row < nRows; row++) {
+            Constraint.Comparison comparison = ConstraintMatrix.decode(comparisons[row]);
+
+            if (b < nBilinear && bilinearRows[b] == row) {
+                Constraint.Bilinear c = new Constraint.Bilinear(comparison, rightHandSides[row]);
+
+                for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+                    c.addLinearTerm(coefficients[k], names[columns[k]]);
+                }
+
+                for (; b < nBilinear && bilinearRows[b] == row; b++) {
+                    c.addBilinearTerm(bilinearCoefficients[b], names[bilinearColumns1[b]], names[bilinearColumns2[b]]);
+                }
+
+                constraints.add(c);
+            } else {
+                Constraint.Linear c = new Constraint.Linear(comparison, rightHandSides[row]);
+
+                for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+                    c.addTerm(coefficients[k], names[columns[k]]);
+                }
+
+                constraints.add(c);
+            }
+        }
+
+        problem.setConstraintMatrix(new ConstraintMatrix(nVariables, rowStart, columns, coefficients, comparisons, rightHandSides,
+                bilinearRows, bilinearColumns1, bilinearColumns2, bilinearCoefficients));
+
+        // Solution
+        Solution solution = null;
+
+        if (buffer.get() != 0) {
+            double objectiveValue = buffer.getDouble();
+            long[] words = new long[buffer.getInt()];
+            buffer.asLongBuffer().get(words);
+            buffer.position(buffer.position() + 8 * words.length);
+            BitSet assigned = BitSet.valueOf(words);
+            double[] values = getDoubles(buffer, nStrings);
+
+            if (objectiveValue == Double.NEGATIVE_INFINITY && assigned.isEmpty()) {
+                solution = Solution.INFEASIBLE;
+            } else {
+                VariableRegistry solutionVariables = variables;
+
+                if (nStrings > nVariables) {
+                    solutionVariables = new VariableRegistry(variables);
+
+                    for (int i = nVariables; i < nStrings; i++) {
+                        solutionVariables.register(names[i]);
+                    }
+                }
+
+                solution = new Solution(objectiveValue, solutionVariables, values);
+
+                if (assigned.cardinality() < nStrings) {
+                    solution = solution.restrictTo(assigned);
+                }
+            }
+        }
+
+        // Variable groups
+        int nGroups = buffer.getInt();
+        Map<String, Set<String>> variableGroups = new HashMap<>(2 * nGroups);
+
+        for (int i = 0; i < nGroups; i++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            int[] ids = getInts(buffer, buffer.getInt());
+            Set<String> group = new HashSet<>(2 * ids.length);
+
+            for (int id : ids) {
+                group.add(names[id]);
+            }
+
+            variableGroups.put(new String(name, StandardCharsets.UTF_8), Collections.unmodifiableSet(group));
+        }
+
+        return new ProblemFile(problem, solution, variableGroups);
+    }
+
+    private static void putTerms(ByteBuffer buffer, List<Pair<Double, String>> terms, VariableRegistry variables) {
+        buffer.putInt(terms.size());
+
+        for (Pair<Double, String> term : terms) {
+            buffer.putInt(variables.getId(term.getSecond()));
+        }
+
+        for (Pair<Double, String> term : terms) {
+            buffer.putDouble(term.getFirst());
+        }
+    }
+
+    private static List<Pair<Double, String>> getTerms(ByteBuffer buffer, String[] names) {
+        int n = buffer.getInt();
+        int[] ids = getInts(buffer, n);
+        double[] coefficients = getDoubles(buffer, n);
+        List<Pair<Double, String>> terms = new ArrayList<>(n);
+
+        for (int i = 0; i < n; i++) {
+            terms.add(new Pair<>(coefficients[i], names[ids[i]]));
+        }
+
+        return terms;
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values, int length) {
+        buffer.asIntBuffer().put(values, 0, length);
+        buffer.position(buffer.position() + 4 * length);
+    }
+
+    private static void putDoubles(ByteBuffer buffer, double[] values, int length) {
+        buffer.asDoubleBuffer().put(values, 0, length);
+        buffer.position(buffer.position() + 8 * length);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * length);
+        return values;
+    }
+
+    private static double[] getDoubles(ByteBuffer buffer, int length) {
+        double[] values = new double[length];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * length);
+        return values;
+    }
+}
@@ -15,14 +15,44 @@
  */
 package rectocarto.data.lp;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class Solution extends HashMap<String, Double> {
+/**
+ * A variable assignment together with the value of the objective function. The
+ * values are stored in an array indexed by the ids of a VariableRegistry; the
+ * Map interface provides lookup by variable name.
+ *
+ * Solutions created by a solver share the registry of the problem they solve.
+ * Assigning a variable that is not in the registry makes the solution switch
+ * to a private copy of the registry, so the problem is never modified.
+ *
+ * Copies share their values until one of them is modified. Taking a copy
+ * never writes to the solution it is taken from, only to a flag shared by all
+ * solutions that use the same values, so a solution that is no longer modified,
+ * such as a feasible solution handed to several solvers, can be copied from
+ * several threads at once.
+ */
+public class Solution extends AbstractMap<String, Double> {
 
     public static final Solution INFEASIBLE = new Solution(Double.NEGATIVE_INFINITY);
 
     private final double objectiveValue;
+    private VariableRegistry variables;
+    private boolean ownsVariables; // Whether the registry may be modified by this solution
+    private double[] values;
+    private AtomicBoolean valuesShared; // Set once the values array is referenced by another solution; common to all solutions that reference it
+    private BitSet assigned;
+    private boolean converged = true;
+    private EntrySet entrySet;
 
     /**
      * Creates a new solution.
@@ -32,6 +62,11 @@ public class Solution extends HashMap<String, Double> {
      */
     public Solution(double objectiveValue) {
         this.objectiveValue = objectiveValue;
+        this.variables = new VariableRegistry();
+        this.ownsVariables = true;
+        this.values = new double[0];
+        this.valuesShared = new AtomicBoolean(false);
+        this.assigned = new BitSet();
     }
 
     /**
@@ -43,8 +78,45 @@ public class Solution extends HashMap<String, Double> {
      * solution
      */
     public Solution(double objectiveValue, Map<? extends String, ? extends Double> variableAssignment) {
-        super(variableAssignment);
         this.objectiveValue = objectiveValue;
+
+        if (variableAssignment instanceof Solution) {
+            Solution other = (Solution) variableAssignment;
+            this.variables = other.variables;
+            this.ownsVariables = false;
+            other.valuesShared.set(true);
+            this.values = other.values;
+            this.valuesShared = other.valuesShared;
+            this.assigned = (BitSet) other.assigned.clone();
+            this.converged = other.converged;
+        } else {
+            this.variables = new VariableRegistry(variableAssignment.size());
+            this.ownsVariables = true;
+            this.values = new double[variableAssignment.size()];
+            this.valuesShared = new AtomicBoolean(false);
+            this.assigned = new BitSet(variableAssignment.size());
+            putAll(variableAssignment);
+        }
+    }
+
+    /**
+     * Creates a new solution that assigns values[i] to the variable with id i,
+     * for every variable in the registry. The array is used directly, and
+     * should not be modified by the caller afterwards.
+     *
+     * @param objectiveValue the value of the objective function with this
+     * solution.
+     * @param variables
+     * @param values
+     */
+    public Solution(double objectiveValue, VariableRegistry variables, double[] values) {
+        this.objectiveValue = objectiveValue;
+        this.variables = variables;
+        this.ownsVariables = false;
+        this.values = values;
+        this.valuesShared = new AtomicBoolean(false);
+        this.assigned = new BitSet(values.length);
+        this.assigned.set(0, Math.min(values.length, variables.size()));
     }
 
     /**
@@ -65,9 +137,351 @@ public class Solution extends HashMap<String, Double> {
     public boolean isUnbounded() {
         return objectiveValue == Double.POSITIVE_INFINITY;
     }
-    
+
+    /**
+     * Returns whether the solver that found this solution reached its
+     * tolerance. If not, for instance because it hit an iteration limit, the
+     * solution is feasible and its objective value is exact, but it may be
+     * suboptimal.
+     *
+     * @return
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+
+    public void setConverged(boolean converged) {
+        this.converged = converged;
+    }
+
+    /**
+     * Returns the registry that maps variable names to the ids used by this
+     * solution.
+     *
+     * @return
+     */
+    public VariableRegistry getVariables() {
+        return variables;
+    }
+
+    /**
+     * Returns whether the variable with the given id has a value in this
+     * solution.
+     *
+     * @param id
+     * @return
+     */
+    public boolean isAssigned(int id) {
+        return id >= 0 && id < values.length && assigned.get(id);
+    }
+
+    /**
+     * Returns the value of the variable with the given id.
+     *
+     * @param id
+     * @return
+     * @throws IllegalArgumentException if the variable is not assigned.
+     */
+    public double getValue(int id) {
+        if (!isAssigned(id)) {
+            throw new IllegalArgumentException("Variable " + id + " is not assigned.");
+        }
+
+        return values[id];
+    }
+
+    /**
+     * Assigns the given value to the variable with the given id.
+     *
+     * @param id
+     * @param value
+     */
+    public void setValue(int id, double value) {
+        if (id < 0 || id >= variables.size()) {
+            throw new IllegalArgumentException("Unregistered variable: " + id);
+        }
+
+        ensureWritable(id);
+        values[id] = value;
+        assigned.set(id);
+    }
+
+    /**
+     * Returns the actual array of values if every registered variable is
+     * assigned, and null otherwise. For read-only use by evaluators.
+     *
+     * @return
+     */
+    double[] getCompleteValues() {
+        int n = variables.size();
+        return (values.length >= n && assigned.nextClearBit(0) >= n ? values : null);
+    }
+
+    /**
+     * Returns a copy of this solution that shares its values until either
+     * solution is modified.
+     *
+     * @return
+     */
+    public Solution snapshot() {
+        return new Solution(objectiveValue, this);
+    }
+
+    /**
+     * Returns a copy of this solution that only contains the variables with
+     * the given ids. The values are shared until either solution is modified.
+     *
+     * @param ids
+     * @return
+     */
+    public Solution restrictTo(BitSet ids) {
+        Solution result = snapshot();
+        result.assigned.and(ids);
+        return result;
+    }
+
+    /**
+     * Returns a copy of this solution that only contains the given variables.
+     * The values are shared until either solution is modified.
+     *
+     * @param variableNames
+     * @return
+     */
+    public Solution restrictTo(Collection<String> variableNames) {
+        return restrictTo(variables.getIds(variableNames));
+    }
+
+    /**
+     * Returns the change from the given previous solution to this one: a
+     * solution whose objective value is the difference between the objective
+     * values, and that assigns each variable present in both solutions the
+     * difference between its values.
+     *
+     * @param previous
+     * @return
+     */
+    public Solution delta(Solution previous) {
+        double[] differences = new double[values.length];
+        Solution result = new Solution(objectiveValue - previous.objectiveValue, variables, differences);
+        result.assigned.clear();
+
+        for (int id = assigned.nextSetBit(0); id >= 0 && id < values.length; id = assigned.nextSetBit(id + 1)) {
+            int previousId = (previous.variables == variables ? id : previous.variables.getId(variables.getName(id)));
+
+            if (previous.isAssigned(previousId)) {
+                differences[id] = values[id] - previous.values[previousId];
+                result.assigned.set(id);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the largest absolute change in the value of a variable present
+     * in both this solution and the given previous solution.
+     *
+     * @param previous
+     * @return
+     */
+    public double maxDifference(Solution previous) {
+        double max = 0;
+
+        for (int id = assigned.nextSetBit(0); id >= 0 && id < values.length; id = assigned.nextSetBit(id + 1)) {
+            int previousId = (previous.variables == variables ? id : previous.variables.getId(variables.getName(id)));
+
+            if (previous.isAssigned(previousId)) {
+                max = Math.max(max, Math.abs(values[id] - previous.values[previousId]));
+            }
+        }
+
+        return max;
+    }
+
+    @Override
+    public Double get(Object key) {
+        int id = idOf(key);
+        return (isAssigned(id) ? values[id] : null);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return isAssigned(idOf(key));
+    }
+
+    @Override
+    public Double put(String key, Double value) {
+        int id = variables.getId(key);
+
+        if (id < 0) {
+            if (!ownsVariables) {
+                variables = new VariableRegistry(variables);
+                ownsVariables = true;
+            }
+
+            id = variables.register(key);
+        }
+
+        Double previous = (isAssigned(id) ? values[id] : null);
+        setValue(id, value);
+        return previous;
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Double> m) {
+        if (m instanceof Solution && ((Solution) m).variables == variables) {
+            Solution other = (Solution) m;
+
+            for (int id = other.assigned.nextSetBit(0); id >= 0 && id < other.values.length; id = other.assigned.nextSetBit(id + 1)) {
+                setValue(id, other.values[id]);
+            }
+        } else {
+            super.putAll(m);
+        }
+    }
+
+    @Override
+    public Double remove(Object key) {
+        int id = idOf(key);
+
+        if (isAssigned(id)) {
+            assigned.clear(id);
+            return values[id];
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public void clear() {
+        assigned.clear();
+    }
+
+    @Override
+    public int size() {
+        return assigned.cardinality();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Double>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+
+        return entrySet;
+    }
+
     @Override
     public Object clone() {
-        return super.clone(); //To change body of generated methods, choose Tools | Templates.
+        return snapshot();
+    }
+
+    private int idOf(Object key) {
+        return (key instanceof String ? variables.getId((String) key) : -1);
+    }
+
+    private void ensureWritable(int id) {
+        if (valuesShared.get() || id >= values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length, Math.max(id + 1, variables.size())));
+            valuesShared = new AtomicBoolean(false);
+        }
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, Double>> {
+
+        @Override
+        public Iterator<Map.Entry<String, Double>> iterator() {
+            return new Iterator<Map.Entry<String, Double>>() {
+                int next = nextAssigned(0);
+                int last = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                @Override
+                public Map.Entry<String, Double> next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+
+                    last = next;
+                    next = nextAssigned(next + 1);
+                    return new Entry(last);
+                }
+
+                @Override
+                public void remove() {
+                    if (last < 0) {
+                        throw new IllegalStateException();
+                    }
+
+                    assigned.clear(last);
+                    last = -1;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return Solution.this.size();
+        }
+
+        @Override
+        public void clear() {
+            Solution.this.clear();
+        }
+
+        private int nextAssigned(int from) {
+            int id = assigned.nextSetBit(from);
+            return (id < values.length ? id : -1);
+        }
+    }
+
+    private class Entry implements Map.Entry<String, Double> {
+
+        private final int id;
+
+        Entry(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getKey() {
+            return variables.getName(id);
+        }
+
+        @Override
+        public Double getValue() {
+            return values[id];
+        }
+
+        @Override
+        public Double setValue(Double value) {
+            double previous = values[id];
+            Solution.this.setValue(id, value);
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return getKey().equals(e.getKey()) && getValue().equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
     }
 }
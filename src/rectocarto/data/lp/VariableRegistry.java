@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each variable of a problem a dense integer id, in order of
+ * registration. Ids are never reused or reassigned, so arrays indexed by id
+ * stay valid as long as the registry only grows.
+ */
+public class VariableRegistry {
+
+    private final Map<String, Integer> ids;
+    private final List<String> names;
+
+    public VariableRegistry() {
+        ids = new HashMap<>();
+        names = new ArrayList<>();
+    }
+
+    /**
+     * Creates a new registry with room for the given number of variables.
+     *
+     * @param expectedSize
+     */
+    public VariableRegistry(int expectedSize) {
+        ids = new HashMap<>(2 * expectedSize);
+        names = new ArrayList<>(expectedSize);
+    }
+
+    /**
+     * Creates a copy of the given registry. Variables keep their ids, and
+     * changes to either registry are not reflected in the other.
+     *
+     * @param other
+     */
+    public VariableRegistry(VariableRegistry other) {
+        ids = new HashMap<>(other.ids);
+        names = new ArrayList<>(other.names);
+    }
+
+    /**
+     * Returns the id of the given variable, registering it if it is new.
+     *
+     * @param name
+     * @return
+     */
+    public int register(String name) {
+        Integer id = ids.get(name);
+
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the id of the given variable, or -1 if it has not been
+     * registered.
+     *
+     * @param name
+     * @return
+     */
+    public int getId(String name) {
+        Integer id = ids.get(name);
+        return (id == null ? -1 : id);
+    }
+
+    /**
+     * Returns the name of the variable with the given id. The returned string
+     * is the instance that was first registered, so callers can use it to
+     * share a single copy of each name.
+     *
+     * @param id
+     * @return
+     * @throws IndexOutOfBoundsException if no variable has this id.
+     */
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    public boolean contains(String name) {
+        return ids.containsKey(name);
+    }
+
+    /**
+     * Returns the set of ids of the given variables. Variables that have not
+     * been registered are ignored.
+     *
+     * @param variables
+     * @return
+     */
+    public BitSet getIds(Collection<String> variables) {
+        BitSet result = new BitSet(names.size());
+
+        for (String variable : variables) {
+            Integer id = ids.get(variable);
+
+            if (id != null) {
+                result.set(id);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of registered variables. Valid ids are 0 up to (but
+     * not including) this number.
+     *
+     * @return
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Returns an unmodifiable view of all variable names, indexed by id.
+     *
+     * @return
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    @Override
+    public String toString() {
+        return names.toString();
+    }
+}
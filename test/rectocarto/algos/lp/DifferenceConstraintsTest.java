@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class DifferenceConstraintsTest {
+
+    public DifferenceConstraintsTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of the bounds computed by DifferenceConstraints on an acyclic
+     * system.
+     */
+    @Test
+    public void testAcyclic() {
+        System.out.println("acyclic");
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y"), new Pair<>(1d, "z"))));
+        problem.addConstraint(difference("x", "y", Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(-2d, "x"), new Pair<>(2d, "z")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        problem.setUpperBound("z", 10);
+
+        DifferenceConstraints differences = new DifferenceConstraints(problem);
+        assertTrue(differences.isFeasible());
+        assertTrue(differences.isAcyclic());
+        assertTrue(differences.isFeasibilityDecided());
+        assertEquals(0, differences.getRemainingConstraints().length);
+
+        assertEquals(1, differences.getLowerBound("y"), 1e-9);
+        assertEquals(3, differences.getLowerBound("x"), 1e-9);
+        assertEquals(4, differences.getLowerBound("z"), 1e-9);
+        assertEquals(7, differences.getUpperBound("y"), 1e-9);
+        assertEquals(9, differences.getUpperBound("x"), 1e-9);
+        assertEquals(10, differences.getUpperBound("z"), 1e-9);
+
+        Solution least = differences.getLeastSolution();
+        assertEquals(8, least.getObjectiveValue(), 1e-9);
+        assertEquals(3, least.get("x"), 1e-9);
+
+        problem.setUpperBound("z", 3);
+        assertFalse(new DifferenceConstraints(problem).isFeasible());
+    }
+
+    /**
+     * Test of DifferenceConstraints on systems with cycles.
+     */
+    @Test
+    public void testCyclic() {
+        System.out.println("cyclic");
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.addConstraint(difference("x", "y", Constraint.Comparison.EQUAL, 2));
+        problem.addConstraint(difference("y", "z", Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        problem.addConstraint(difference("z", "x", Constraint.Comparison.GREATER_THAN_OR_EQUAL, -3));
+
+        DifferenceConstraints differences = new DifferenceConstraints(problem);
+        assertFalse(differences.isAcyclic());
+        assertTrue(differences.isFeasible());
+        assertEquals(3, differences.getLowerBound("x"), 1e-9);
+        assertEquals(1, differences.getLowerBound("y"), 1e-9);
+        assertEquals(0, differences.getLowerBound("z"), 1e-9);
+
+        // Positive cycle
+        problem.addConstraint(difference("z", "x", Constraint.Comparison.GREATER_THAN_OR_EQUAL, -2));
+        assertFalse(new DifferenceConstraints(problem).isFeasible());
+    }
+
+    /**
+     * Test of isFeasibilityDecided method, of class DifferenceConstraints.
+     */
+    @Test
+    public void testIsFeasibilityDecided() {
+        System.out.println("isFeasibilityDecided");
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.addConstraint(difference("x", "y", Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        // Both rows can be satisfied by increasing s, which pushes m up
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y"), new Pair<>(3d, "s")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 10));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y"), new Pair<>(-1d, "s")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 1));
+        problem.addConstraint(difference("m", "s", Constraint.Comparison.GREATER_THAN_OR_EQUAL, 0));
+
+        DifferenceConstraints differences = new DifferenceConstraints(problem);
+        assertTrue(differences.isFeasible());
+        assertEquals(2, differences.getRemainingConstraints().length);
+        assertTrue(differences.isFeasibilityDecided());
+        assertNull(differences.getLeastSolution());
+
+        // Bounding m blocks s
+        problem.setUpperBound("m", 5);
+        assertFalse(new DifferenceConstraints(problem).isFeasibilityDecided());
+    }
+
+    private static Constraint.Linear difference(String x, String y, Constraint.Comparison comparison, double rhs) {
+        return new Constraint.Linear(Arrays.asList(new Pair<>(1d, x), new Pair<>(-1d, y)), comparison, rhs);
+    }
+}
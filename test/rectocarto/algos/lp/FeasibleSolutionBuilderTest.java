@@ -22,13 +22,16 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import static org.junit.Assert.*;
 import rectangularcartogram.algos.MinimumLabelingComputer;
 import rectangularcartogram.algos.RectangularDualDrawer;
+import rectangularcartogram.data.Deadline;
 import rectangularcartogram.data.Pair;
 import rectangularcartogram.data.graph.Vertex;
 import rectangularcartogram.data.subdivision.Subdivision;
@@ -180,6 +183,35 @@ public class FeasibleSolutionBuilderTest {
         }
     }
 
+    /**
+     * A solver that fails must not break the search; its probes count as
+     * infeasible.
+     */
+    @Test
+    public void testConstructFeasibleSolution3FailingSolver() throws IOException, IncorrectGraphException {
+        System.out.println("constructFeasibleSolution3 - failing solver");
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get("exampleData/Subdivisions/Europe.sub"))) {
+            Subdivision sub = Subdivision.load(in);
+            sub.getDualGraph().setRegularEdgeLabeling(MinimumLabelingComputer.getMinimalLabeling(sub.getDualGraph()));
+
+            CartogramSettings settings = new CartogramSettings();
+            settings.minimumFeatureSize = 0.1;
+            settings.minimumSeaDimension = 1;
+            settings.maximumAspectRatio = 2;
+            SubdivisionToBilinearProblem s2bp = new SubdivisionToBilinearProblem(sub, settings);
+            AtomicInteger nSolves = new AtomicInteger();
+
+            Pair<Solution, Boolean> result = FeasibleSolutionBuilder.constructFeasibleSolution3(sub, settings, s2bp.getProblem(), s2bp.segments, s2bp.predecessors, s2bp.successors, problem -> {
+                nSolves.incrementAndGet();
+                return null;
+            }, Deadline.none());
+
+            assertTrue(nSolves.get() > 0);
+            assertTrue(result.getFirst() == null || result.getFirst() == Solution.INFEASIBLE);
+        }
+    }
+
     private boolean testFeasibility(Solution sol, MinimizationProblem problem) {
         if (sol == Solution.INFEASIBLE) {
             return false;
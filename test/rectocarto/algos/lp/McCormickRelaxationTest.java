@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectocarto.algos.lp.solver.DualSimplexSolver;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class McCormickRelaxationTest {
+
+    public McCormickRelaxationTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of relax method, of class McCormickRelaxation.
+     */
+    @Test
+    public void testRelax() {
+        System.out.println("relax");
+
+        /*
+        min: y;
+            x y >= 4;
+        */
+        MinimizationProblem problem = new MinimizationProblem();
+        ObjectiveFunction.Linear objective = new ObjectiveFunction.Linear();
+        objective.addTerm(1, "y");
+        problem.setObjective(objective);
+
+        Constraint.Bilinear area = new Constraint.Bilinear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 4);
+        area.addBilinearTerm(1, "x", "y");
+        problem.addConstraint(area);
+
+        McCormickRelaxation instance = new McCormickRelaxation(problem);
+        assertEquals(1, instance.getNumProducts());
+        DualSimplexSolver solver = new DualSimplexSolver();
+
+        // With x fixed, the relaxation is exact
+        double[] lower = {2, 0};
+        double[] upper = {2, 10};
+        Solution result = solver.solve(instance.relax(lower, upper));
+        assertEquals(2, result.getObjectiveValue(), 1e-9);
+
+        // x in [1, 4], y in [0, 10]: the envelope w <= 4 y gives y >= 1
+        lower[0] = 1;
+        upper[0] = 4;
+        result = solver.solve(instance.relax(lower, upper));
+        double[] values = instance.getValues(result);
+        assertEquals(1, result.getObjectiveValue(), 1e-9);
+        assertEquals(4, values[instance.getProductVariable(0)], 1e-9);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.ProblemEvaluator;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class PresolveTest {
+
+    public PresolveTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of presolve method, of class Presolve.
+     */
+    @Test
+    public void testPresolve() {
+        System.out.println("presolve");
+        Presolve presolve = Presolve.presolve(buildProblem());
+
+        assertFalse(presolve.isInfeasible());
+        MinimizationProblem reduced = presolve.getReducedProblem();
+        assertEquals(Arrays.asList("b", "c", "f"), reduced.getVariables().getNames());
+        assertEquals(2, reduced.getConstraints().size());
+        assertTrue(reduced.getConstraintMatrix().isLinear());
+        assertEquals(3, reduced.getLowerBound("b"), 0);
+        assertEquals(Double.POSITIVE_INFINITY, reduced.getUpperBound("b"), 0);
+
+        assertEquals(4, presolve.getRowsRemoved(Presolve.Pass.SINGLETON_ROWS));
+        assertEquals(3, presolve.getColumnsRemoved(Presolve.Pass.FIXED_COLUMNS));
+        assertEquals(2, presolve.getRowsRemoved(Presolve.Pass.DOMINATED_ROWS));
+        assertEquals(1, presolve.getColumnsRemoved(Presolve.Pass.EMPTY_COLUMNS));
+    }
+
+    /**
+     * Test of postsolve method, of class Presolve.
+     */
+    @Test
+    public void testPostsolve() {
+        System.out.println("postsolve");
+        MinimizationProblem problem = buildProblem();
+        Presolve presolve = Presolve.presolve(problem);
+        MinimizationProblem reduced = presolve.getReducedProblem();
+
+        Solution reducedSolution = new Solution(8, reduced.getVariables(), new double[]{3, 5, 0});
+        Solution solution = presolve.postsolve(reducedSolution);
+
+        assertEquals(7, solution.size());
+        assertEquals(2, solution.get("a"), 1e-9);
+        assertEquals(3, solution.get("b"), 1e-9);
+        assertEquals(5, solution.get("c"), 1e-9);
+        assertEquals(10, solution.get("d"), 1e-9);
+        assertEquals(0, solution.get("e"), 1e-9);
+        assertEquals(0, solution.get("f"), 1e-9);
+        assertEquals(1, solution.get("g"), 1e-9);
+        assertEquals(problem.getObjective().evaluate(solution), solution.getObjectiveValue(), 1e-9);
+
+        ProblemEvaluator evaluator = new ProblemEvaluator(problem);
+        assertEquals(0, evaluator.maxViolation(evaluator.getValues(solution, new double[evaluator.getNumColumns()])), 1e-9);
+
+        assertSame(Solution.INFEASIBLE, presolve.postsolve(Solution.INFEASIBLE));
+        assertNull(presolve.postsolve(null));
+    }
+
+    @Test
+    public void testInfeasible() {
+        System.out.println("infeasible");
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y"))));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x")), Constraint.Comparison.EQUAL, 1));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "y"), new Pair<>(-1d, "x")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "y")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 2));
+
+        Presolve presolve = Presolve.presolve(problem);
+        assertTrue(presolve.isInfeasible());
+        assertNull(presolve.getReducedProblem());
+        assertSame(Solution.INFEASIBLE, presolve.postsolve(new Solution(0)));
+    }
+
+    private static MinimizationProblem buildProblem() {
+        MinimizationProblem problem = new MinimizationProblem();
+
+        ObjectiveFunction.Linear objective = new ObjectiveFunction.Linear();
+
+        for (String variable : new String[]{"a", "b", "c", "e", "f", "g"}) {
+            objective.addTerm(1, variable);
+        }
+
+        problem.setObjective(objective);
+        problem.fixVariable("g", 1);
+
+        // a = 2, d = 10
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "a")), Constraint.Comparison.EQUAL, 2));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "d")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 10));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(2d, "d")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 20));
+        // b - a >= 1 becomes b >= 3
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "b"), new Pair<>(-1d, "a")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        // c - b >= 2 dominates the other two
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "c"), new Pair<>(-1d, "b")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 0));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(-2d, "b"), new Pair<>(2d, "c")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 4));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "c"), new Pair<>(-1d, "b")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        // a * f + c >= 4 becomes 2 f + c >= 4
+        problem.addConstraint(new Constraint.Bilinear(Arrays.asList(new Pair<>(1d, "c")), Arrays.asList(new Pair<>(1d, new Pair<>("a", "f"))), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 4));
+
+        return problem;
+    }
+}
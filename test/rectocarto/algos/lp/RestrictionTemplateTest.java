@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class RestrictionTemplateTest {
+
+    public RestrictionTemplateTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of restrict method, of class RestrictionTemplate.
+     */
+    @Test
+    public void testRestrict() {
+        System.out.println("restrict");
+        MinimizationProblem bilinearProgram = buildProblem();
+        RestrictionTemplate template = new RestrictionTemplate(bilinearProgram, Arrays.asList("x", "w"));
+
+        for (double[] values : new double[][]{{23, 1}, {2, 0.5}, {-3, 7}}) {
+            Map<String, Double> assignment = new HashMap<>();
+            assignment.put("x", values[0]);
+            assignment.put("w", values[1]);
+
+            MinimizationProblem expected = BilinearToLinear.restrictToLinear(bilinearProgram, assignment);
+            MinimizationProblem result = template.restrict(assignment);
+            assertEquals(expected.toString(), result.toString());
+
+            // The matrix must be updated in place as well
+            ConstraintMatrix matrix = result.getConstraintMatrix();
+            assertEquals(ConstraintMatrix.compile(result.getConstraints(), result.getVariables()).getCoefficients().length, matrix.getNumTerms());
+            assertArrayEquals(ConstraintMatrix.compile(result.getConstraints(), result.getVariables()).getCoefficients(), matrix.getCoefficients(), 0);
+            assertArrayEquals(ConstraintMatrix.compile(result.getConstraints(), result.getVariables()).getRightHandSides(), matrix.getRightHandSides(), 0);
+        }
+
+        // w >= 0 only involves fixed variables
+        Map<String, Double> infeasible = new HashMap<>();
+        infeasible.put("x", 1d);
+        infeasible.put("w", -1d);
+
+        try {
+            template.restrict(infeasible);
+            fail("No exception thrown when constraint not satisfied.");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+
+        try {
+            template.restrict(new HashMap<>());
+            fail("No exception thrown when fixed variables are missing.");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+
+        try {
+            new RestrictionTemplate(bilinearProgram, Arrays.asList("z"));
+            fail("No exception thrown when not all bilinear terms reduced.");
+        } catch (IllegalArgumentException iae) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test of lift method, of class RestrictionTemplate.
+     */
+    @Test
+    public void testLift() {
+        System.out.println("lift");
+        MinimizationProblem bilinearProgram = buildProblem();
+        RestrictionTemplate template = new RestrictionTemplate(bilinearProgram, Arrays.asList("x", "w"));
+
+        Solution linearSolution = new Solution(4);
+        linearSolution.put("y", 2d);
+        linearSolution.put("z", 3d);
+
+        Solution lifted = template.lift(linearSolution);
+        assertSame(bilinearProgram.getVariables(), lifted.getVariables());
+        assertEquals(linearSolution, lifted);
+        assertEquals(4, lifted.getObjectiveValue(), 0);
+        assertSame(Solution.INFEASIBLE, template.lift(Solution.INFEASIBLE));
+    }
+
+    private MinimizationProblem buildProblem() {
+        /*
+        min: y + z + w;
+            3 x - 5 y + 7 z + 11 x y + 13 x z - 2 x w = 2;
+            x + 2 y <= 10;
+            w >= 0;
+            z x - y w + 4 z >= 1;
+        */
+        MinimizationProblem problem = new MinimizationProblem();
+        ObjectiveFunction.Linear objective = new ObjectiveFunction.Linear();
+        objective.addTerm(1, "y");
+        objective.addTerm(1, "z");
+        objective.addTerm(1, "w");
+        problem.setObjective(objective);
+
+        Constraint.Bilinear bilinear = new Constraint.Bilinear(Constraint.Comparison.EQUAL, 2);
+        bilinear.addLinearTerm(3, "x");
+        bilinear.addLinearTerm(-5, "y");
+        bilinear.addLinearTerm(7, "z");
+        bilinear.addBilinearTerm(11, "x", "y");
+        bilinear.addBilinearTerm(13, "x", "z");
+        bilinear.addBilinearTerm(-2, "x", "w");
+        problem.addConstraint(bilinear);
+
+        Constraint.Linear linear = new Constraint.Linear(Constraint.Comparison.LESS_THAN_OR_EQUAL, 10);
+        linear.addTerm(1, "x");
+        linear.addTerm(2, "y");
+        problem.addConstraint(linear);
+
+        Constraint.Linear fixedOnly = new Constraint.Linear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 0);
+        fixedOnly.addTerm(1, "w");
+        problem.addConstraint(fixedOnly);
+
+        Constraint.Bilinear area = new Constraint.Bilinear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1);
+        area.addBilinearTerm(1, "z", "x");
+        area.addBilinearTerm(-1, "y", "w");
+        area.addLinearTerm(4, "z");
+        problem.addConstraint(area);
+
+        return problem;
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.algos.RELFusy;
+import rectangularcartogram.data.Pair;
+import rectangularcartogram.data.RegularEdgeColoring;
+import rectangularcartogram.data.RegularEdgeLabeling;
+import rectangularcartogram.data.graph.Edge;
+import rectangularcartogram.data.graph.Graph;
+import rectangularcartogram.data.subdivision.Subdivision;
+import rectangularcartogram.data.subdivision.SubdivisionFace;
+import rectangularcartogram.exceptions.IncorrectDirectionException;
+import rectangularcartogram.exceptions.IncorrectGraphException;
+import rectocarto.data.CartogramSettings;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.ConstraintMatrix;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ProblemFile;
+import rectocarto.data.lp.VariableRegistry;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class SubdivisionToBilinearProblemTest {
+
+    public SubdivisionToBilinearProblemTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of update method, of class SubdivisionToBilinearProblem.
+     */
+    @Test
+    public void testUpdate() throws IOException, IncorrectGraphException, IncorrectDirectionException {
+        System.out.println("update");
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get("exampleData/Subdivisions/Netherlands Area.sub"))) {
+            Subdivision sub = Subdivision.load(in);
+            (new RELFusy()).computeREL(sub.getDualGraph());
+
+            // Give every edge a direction in the labeling itself, so that flips preserve them
+            Graph dual = sub.getDualGraph();
+            dual.setRegularEdgeLabeling(new RegularEdgeLabeling(new RegularEdgeColoring(dual.getRegularEdgeLabeling())));
+
+            CartogramSettings settings = new CartogramSettings();
+            settings.objective = CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR;
+            SubdivisionToBilinearProblem incremental = new SubdivisionToBilinearProblem(sub, settings);
+            incremental.getProblem();
+
+            int nFlips = 0;
+
+            for (int i = 0; i < dual.getRegularEdgeLabeling().getNumFourCycles() && nFlips < 10; i++) {
+                RegularEdgeLabeling labeling = dual.getRegularEdgeLabeling();
+                RegularEdgeLabeling neighbour = labeling.getNeighbour(i);
+
+                if (neighbour == null) {
+                    continue;
+                }
+
+                Edge[] fourCycle = labeling.getGraph().getFourCycles().get(i);
+                dual.setRegularEdgeLabeling(neighbour);
+                incremental.update(fourCycle);
+                nFlips++;
+
+                assertEquivalent(sub, new SubdivisionToBilinearProblem(sub, settings), incremental);
+            }
+
+            assertTrue(nFlips > 0);
+        }
+    }
+
+    /**
+     * Test of the problem cache, of class SubdivisionToBilinearProblem.
+     */
+    @Test
+    public void testCache() throws IOException, IncorrectGraphException {
+        System.out.println("cache");
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get("exampleData/Subdivisions/Netherlands Area.sub"))) {
+            Subdivision sub = Subdivision.load(in);
+            (new RELFusy()).computeREL(sub.getDualGraph());
+
+            CartogramSettings settings = new CartogramSettings();
+            Path cacheDirectory = Files.createTempDirectory("rclp");
+            Path file = cacheDirectory.resolve(SubdivisionToBilinearProblem.getCacheKey(sub, settings) + ".rclp");
+
+            try {
+                // Asking for the problem caches it without searching for a feasible solution
+                SubdivisionToBilinearProblem constructed = new SubdivisionToBilinearProblem(sub, settings, cacheDirectory);
+                MinimizationProblem problem = constructed.getProblem();
+                assertTrue(Files.exists(file));
+                assertNull(ProblemFile.load(file).getSolution());
+
+                // An entry without a solution is still used for the problem
+                SubdivisionToBilinearProblem cached = new SubdivisionToBilinearProblem(sub, settings, cacheDirectory);
+                assertEquals(problem.getConstraintMatrix().getNumRows(), cached.getProblem().getConstraintMatrix().getNumRows());
+                assertEquals(problem.getVariables().getNames(), cached.getProblem().getVariables().getNames());
+                assertEquals(constructed.getHorizontalSegmentVariables(), cached.getHorizontalSegmentVariables());
+                assertEquals(constructed.getErrorVariables(), cached.getErrorVariables());
+                assertNull(cached.segments);
+            } finally {
+                Files.deleteIfExists(file);
+                Files.delete(cacheDirectory);
+            }
+        }
+    }
+
+    /**
+     * Test of the constraint generation, of class
+     * SubdivisionToBilinearProblem.
+     */
+    @Test
+    public void testParallelConstraints() throws IOException, IncorrectGraphException {
+        System.out.println("parallelConstraints");
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get("exampleData/Subdivisions/World.sub"))) {
+            Subdivision sub = Subdivision.load(in);
+            (new RELFusy()).computeREL(sub.getDualGraph());
+
+            CartogramSettings settings = new CartogramSettings();
+            settings.objective = CartogramSettings.Objective.MAX_AND_AVERAGE_ERROR;
+
+            ForkJoinPool single = new ForkJoinPool(1);
+            ForkJoinPool multiple = new ForkJoinPool(4);
+
+            try {
+                MinimizationProblem sequential = (new SubdivisionToBilinearProblem(sub, settings, null, single)).getProblem();
+                MinimizationProblem parallel = (new SubdivisionToBilinearProblem(sub, settings, null, multiple)).getProblem();
+
+                // The rows come out in the same order
+                assertEquals(sequential.getConstraints().toString(), parallel.getConstraints().toString());
+
+                // The generated matrix matches the constraints
+                ConstraintMatrix generated = parallel.getConstraintMatrix();
+                ConstraintMatrix compiled = ConstraintMatrix.compile(parallel.getConstraints(), parallel.getVariables());
+
+                assertEquals(compiled.getNumRows(), generated.getNumRows());
+                assertEquals(compiled.getNumColumns(), generated.getNumColumns());
+                assertArrayEquals(compiled.getRowStart(), generated.getRowStart());
+                assertArrayEquals(compiled.getColumns(), generated.getColumns());
+                assertArrayEquals(compiled.getCoefficients(), generated.getCoefficients(), 0);
+                assertArrayEquals(compiled.getComparisons(), generated.getComparisons());
+                assertArrayEquals(compiled.getRightHandSides(), generated.getRightHandSides(), 0);
+                assertArrayEquals(compiled.getBilinearRows(), generated.getBilinearRows());
+                assertArrayEquals(compiled.getBilinearColumns1(), generated.getBilinearColumns1());
+                assertArrayEquals(compiled.getBilinearColumns2(), generated.getBilinearColumns2());
+                assertArrayEquals(compiled.getBilinearCoefficients(), generated.getBilinearCoefficients(), 0);
+            } finally {
+                single.shutdown();
+                multiple.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Checks that both problems are the same, up to the names of their
+     * segments.
+     */
+    private void assertEquivalent(Subdivision sub, SubdivisionToBilinearProblem expected, SubdivisionToBilinearProblem actual) {
+        MinimizationProblem expectedProblem = expected.getProblem();
+        MinimizationProblem actualProblem = actual.getProblem();
+
+        // Match the segments through the sides of the faces
+        Map<String, String> rename = new HashMap<>();
+
+        for (SubdivisionFace f : sub.getTopLevelFaces()) {
+            for (int side = 0; side < 4; side++) {
+                String expectedName = expected.segments.get(f).get(side);
+                String previous = rename.put(actual.segments.get(f).get(side), expectedName);
+                assertTrue(previous == null || previous.equals(expectedName));
+            }
+        }
+
+        assertEquals(rename.size(), new HashSet<>(rename.values()).size());
+
+        // Error variables have the same names in both problems
+        for (String name : actualProblem.getVariables().getNames()) {
+            if (!name.startsWith("h") && !name.startsWith("v")) {
+                rename.put(name, name);
+            }
+        }
+
+        assertEquals(canonicalConstraints(expectedProblem.getConstraints(), null), canonicalConstraints(actualProblem.getConstraints(), rename));
+
+        // Bounds; segments that are no longer used are fixed to 0
+        VariableRegistry variables = actualProblem.getVariables();
+
+        for (int id = 0; id < variables.size(); id++) {
+            String name = variables.getName(id);
+
+            if (rename.containsKey(name)) {
+                assertEquals(name, expectedProblem.getLowerBound(rename.get(name)), actualProblem.getLowerBound(name), 0);
+                assertEquals(name, expectedProblem.getUpperBound(rename.get(name)), actualProblem.getUpperBound(name), 0);
+            } else {
+                assertEquals(name, 0, actualProblem.getLowerBound(name), 0);
+                assertEquals(name, 0, actualProblem.getUpperBound(name), 0);
+            }
+        }
+
+        // Predecessors and successors
+        for (Map.Entry<String, String> entry : rename.entrySet()) {
+            Map<String, SubdivisionToBilinearProblem.PredecessorRelation> expectedPredecessors = expected.predecessors.get(entry.getValue());
+            Map<String, SubdivisionToBilinearProblem.PredecessorRelation> actualPredecessors = actual.predecessors.get(entry.getKey());
+
+            if (expectedPredecessors == null) {
+                assertTrue(actualPredecessors == null || actualPredecessors.isEmpty());
+                continue;
+            }
+
+            Map<String, SubdivisionToBilinearProblem.PredecessorRelation> renamedPredecessors = new HashMap<>();
+
+            for (Map.Entry<String, SubdivisionToBilinearProblem.PredecessorRelation> predecessor : actualPredecessors.entrySet()) {
+                renamedPredecessors.put(rename.get(predecessor.getKey()), predecessor.getValue());
+            }
+
+            assertEquals(expectedPredecessors, renamedPredecessors);
+
+            Set<String> actualSuccessors = actual.successors.get(entry.getKey());
+            assertEquals(expected.successors.get(entry.getValue()).size(), actualSuccessors.size());
+
+            for (String successor : actualSuccessors) {
+                assertTrue(expected.successors.get(entry.getValue()).contains(rename.get(successor)));
+            }
+        }
+    }
+
+    private static List<String> canonicalConstraints(List<Constraint> constraints, Map<String, String> rename) {
+        List<String> result = new ArrayList<>(constraints.size());
+
+        for (Constraint c : constraints) {
+            List<String> terms = new ArrayList<>();
+
+            if (c instanceof Constraint.Linear) {
+                for (Pair<Double, String> term : ((Constraint.Linear) c).getTerms()) {
+                    terms.add(term.getFirst() + " " + rename(term.getSecond(), rename));
+                }
+            } else {
+                Constraint.Bilinear bilinear = (Constraint.Bilinear) c;
+
+                for (Pair<Double, String> term : bilinear.getLinearTerms()) {
+                    terms.add(term.getFirst() + " " + rename(term.getSecond(), rename));
+                }
+
+                for (Pair<Double, Pair<String, String>> term : bilinear.getBilinearTerms()) {
+                    terms.add(term.getFirst() + " " + rename(term.getSecond().getFirst(), rename) + "*" + rename(term.getSecond().getSecond(), rename));
+                }
+            }
+
+            Collections.sort(terms);
+            result.add(terms + " " + c.getComparison() + " " + c.getRightHandSide());
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+
+    private static String rename(String name, Map<String, String> rename) {
+        return (rename == null ? name : rename.get(name));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class BatchSolverTest {
+
+    public BatchSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /*
+    min: x + 2 y;
+        x + y >= k;
+        x <= 1;
+    */
+    private static MinimizationProblem buildProblem(double k) {
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x"), new Pair<>(2d,"y"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x"), new Pair<>(1d,"y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, k));
+        linearProgram.setUpperBound("x", 1);
+        return linearProgram;
+    }
+
+    @Test
+    public void testSolveAll() throws Exception {
+        System.out.println("solveAll");
+
+        List<MinimizationProblem> problems = new ArrayList<>();
+
+        for (int k = 1; k <= 20; k++) {
+            problems.add(buildProblem(k));
+        }
+
+        // A new instance per lease, as DualSimplexSolver is not thread-safe
+        SolverPool<DualSimplexSolver> pool = TestSolverFactory.buildPool(DualSimplexSolver::new, 3);
+        BatchSolver instance = new BatchSolver(pool, 4);
+
+        try {
+            List<CompletableFuture<Solution>> results = instance.solveAll(problems);
+            assertEquals(problems.size(), results.size());
+
+            for (int k = 1; k <= 20; k++) {
+                // x = 1, y = k - 1
+                assertEquals(1 + 2 * (k - 1), results.get(k - 1).get().getObjectiveValue(), 1e-9);
+            }
+
+            assertTrue(pool.getNumCreated() <= 3);
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        System.out.println("solveAll - cancel");
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger nSolved = new AtomicInteger(0);
+
+        // Blocks on the first problem until released
+        LinearSolver blocking = linearProgram -> {
+            started.countDown();
+
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+
+            nSolved.incrementAndGet();
+            return new DualSimplexSolver().solve(linearProgram);
+        };
+
+        BatchSolver instance = new BatchSolver(TestSolverFactory.buildPool(() -> blocking, 1), 3);
+
+        try {
+            List<CompletableFuture<Solution>> results = instance.solveAll(Arrays.asList(buildProblem(1), buildProblem(2), buildProblem(3)));
+            started.await();
+            assertEquals(3, instance.getNumPending());
+
+            // The second problem is still queued, but no longer counts as pending
+            assertTrue(results.get(1).cancel(false));
+            assertEquals(2, instance.getNumPending());
+            assertTrue(results.get(1).cancel(false));
+            assertEquals(2, instance.getNumPending());
+            release.countDown();
+
+            assertEquals(1, results.get(0).get().getObjectiveValue(), 1e-9);
+            assertEquals(5, results.get(2).get().getObjectiveValue(), 1e-9);
+            assertTrue(results.get(1).isCancelled());
+            assertEquals(2, nSolved.get());
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class BranchAndBoundSolverTest {
+
+    public BranchAndBoundSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /*
+    min: x + y;
+        x y >= area;
+        x - 4 <= 0;
+        0 <= y <= 4;
+    */
+    private static MinimizationProblem buildProblem(double area) {
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y"))));
+
+        Constraint.Bilinear product = new Constraint.Bilinear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, area);
+        product.addBilinearTerm(1, "x", "y");
+        problem.addConstraint(product);
+
+        // The bound on x is only implied by a constraint
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 4));
+        problem.setUpperBound("y", 4);
+        return problem;
+    }
+
+    @Test
+    public void testSolve() {
+        System.out.println("solve");
+
+        MinimizationProblem problem = buildProblem(4);
+
+        // Alternating from this solution gets stuck at objective 5
+        Solution start = new Solution(5);
+        start.put("x", 4d);
+        start.put("y", 1d);
+        Set<String> first = new HashSet<>(Collections.singleton("x"));
+        Set<String> second = new HashSet<>(Collections.singleton("y"));
+        Solution local = new IteratedLinearSolver(new DualSimplexSolver()).solve(problem, new Pair<>(first, second), start);
+        assertEquals(5, local.get("x") + local.get("y"), 1e-6);
+
+        BranchAndBoundSolver instance = new BranchAndBoundSolver(new DualSimplexSolver());
+        instance.setGap(1e-3);
+        Solution result = instance.solve(problem);
+
+        assertEquals(BranchAndBoundSolver.Status.OPTIMAL, instance.getLastStatus());
+        assertEquals(4, result.getObjectiveValue(), 1e-2);
+        assertTrue(result.get("x") * result.get("y") >= 4 - 1e-6);
+        assertTrue(instance.getLowerBound() <= instance.getUpperBound());
+        assertTrue(instance.getUpperBound() - instance.getLowerBound() <= 1e-3 * 4 + 1e-9);
+    }
+
+    @Test
+    public void testInfeasible() {
+        System.out.println("solve - infeasible");
+
+        BranchAndBoundSolver instance = new BranchAndBoundSolver(new DualSimplexSolver());
+        Solution result = instance.solve(buildProblem(20));
+
+        assertTrue(result.isInfeasible());
+        assertEquals(BranchAndBoundSolver.Status.INFEASIBLE, instance.getLastStatus());
+    }
+
+    @Test
+    public void testNodeLimit() {
+        System.out.println("solve - node limit");
+
+        BranchAndBoundSolver instance = new BranchAndBoundSolver(new DualSimplexSolver());
+        instance.setGap(0);
+        instance.setMaxNodes(3);
+        Solution result = instance.solve(buildProblem(4));
+
+        assertEquals(BranchAndBoundSolver.Status.NODE_LIMIT, instance.getLastStatus());
+        assertEquals(3, instance.getNumNodes());
+        assertNotNull(result);
+        assertEquals(result.getObjectiveValue(), instance.getUpperBound(), 0);
+        assertTrue(instance.getLowerBound() <= 4 + 1e-9);
+        assertTrue(instance.getUpperBound() >= 4 - 1e-9);
+    }
+
+}
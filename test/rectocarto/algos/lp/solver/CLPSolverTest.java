@@ -82,6 +82,31 @@ public class CLPSolverTest {
         assertEquals(expResult, result);
     }
     
+    @Test
+    public void testSolveWithBounds() {
+        System.out.println("solve - LP with bounds");
+        
+        /*
+        min: x1 - x2;
+            x1 >= 1;
+            x2 <= 3;
+            x1 + x2 >= 2;
+        */
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(-1d,"x2"))));
+        linearProgram.setLowerBound("x1", 1);
+        linearProgram.setUpperBound("x2", 3);
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        
+        Solution expResult = new Solution(-2);
+        expResult.put("x1", 1d);
+        expResult.put("x2", 3d);
+        
+        CLPSolver instance = new CLPSolver();
+        Solution result = instance.solve(linearProgram);
+        assertEquals(expResult, result);
+    }
+    
     @Test
     @SuppressWarnings("unchecked")
     public void testSolveQP() {
@@ -99,13 +124,12 @@ public class CLPSolverTest {
         quadraticProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
         quadraticProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1.5,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 10));
         
-        Solution expResult = new Solution(2);
-        expResult.put("x1", 4d);
-        expResult.put("x2", 4d);
-        
+        // The optimum is the projection of the origin onto x1 + 1.5 x2 = 10
         CLPSolver instance = new CLPSolver();
         Solution result = instance.solve(quadraticProgram);
-        assertEquals(expResult, result);
+        assertEquals(10 / 3.25, result.get("x1"), 1e-3);
+        assertEquals(15 / 3.25, result.get("x2"), 1e-3);
+        assertEquals(100 / 3.25, result.getObjectiveValue(), 1e-3);
     }
     
 }
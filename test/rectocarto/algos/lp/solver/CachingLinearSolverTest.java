@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class CachingLinearSolverTest {
+
+    public CachingLinearSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * A solver that counts how often it is called.
+     */
+    private static class CountingSolver implements LinearSolver {
+
+        int nSolves = 0;
+        final DualSimplexSolver solver = new DualSimplexSolver();
+
+        @Override
+        public Solution solve(MinimizationProblem linearProgram) {
+            nSolves++;
+            return solver.solve(linearProgram);
+        }
+    }
+
+    /*
+    min: x1 - x2;
+        x1 + x2 >= 2;
+        x1 - 2 x2 <= 1;
+        x2 <= 3;
+    */
+    private static MinimizationProblem buildProblem(double rhs) {
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(-1d,"x2"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, rhs));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(-2d,"x2")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 1));
+        linearProgram.setUpperBound("x2", 3);
+        return linearProgram;
+    }
+
+    /**
+     * The same problem, with the variables registered in a different order,
+     * the constraints swapped, their terms reversed and one of them scaled.
+     */
+    private static MinimizationProblem buildPermutedProblem() {
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setUpperBound("x2", 3);
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(-6d,"x2"), new Pair<>(3d,"x1")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 3));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x2"), new Pair<>(1d,"x1")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(-1d,"x2"), new Pair<>(1d,"x1"))));
+        return linearProgram;
+    }
+
+    @Test
+    public void testFingerprint() {
+        System.out.println("fingerprint");
+
+        assertEquals(CachingLinearSolver.fingerprint(buildProblem(2)), CachingLinearSolver.fingerprint(buildPermutedProblem()));
+        assertFalse(CachingLinearSolver.fingerprint(buildProblem(2)).equals(CachingLinearSolver.fingerprint(buildProblem(2.5))));
+
+        MinimizationProblem otherBounds = buildProblem(2);
+        otherBounds.setUpperBound("x2", 4);
+        assertFalse(CachingLinearSolver.fingerprint(buildProblem(2)).equals(CachingLinearSolver.fingerprint(otherBounds)));
+    }
+
+    @Test
+    public void testSolve() {
+        System.out.println("solve - repeated problems");
+
+        CountingSolver backend = new CountingSolver();
+        CachingLinearSolver instance = new CachingLinearSolver(backend, 10);
+
+        Solution first = instance.solve(buildProblem(2));
+        Solution second = instance.solve(buildPermutedProblem());
+        assertEquals(1, backend.nSolves);
+        assertEquals(1, instance.getNumHits());
+        assertEquals(first.getObjectiveValue(), second.getObjectiveValue(), 0);
+        assertEquals(first.get("x1"), second.get("x1"));
+        assertEquals(first.get("x2"), second.get("x2"));
+
+        instance.solve(buildProblem(2.5));
+        assertEquals(2, backend.nSolves);
+        assertEquals(2, instance.getNumMisses());
+    }
+
+    @Test
+    public void testEviction() {
+        System.out.println("solve - least recently used solutions are evicted");
+
+        CountingSolver backend = new CountingSolver();
+        CachingLinearSolver instance = new CachingLinearSolver(backend, 1);
+
+        instance.solve(buildProblem(2));
+        instance.solve(buildProblem(2.5));
+        instance.solve(buildProblem(2));
+        assertEquals(3, backend.nSolves);
+    }
+
+    @Test
+    public void testDiskTier() throws IOException {
+        System.out.println("solve - on-disk tier");
+
+        Path directory = Files.createTempDirectory("solutionCache");
+
+        try {
+            CountingSolver backend = new CountingSolver();
+            Solution expected = new CachingLinearSolver(backend, 10, directory).solve(buildProblem(2));
+
+            CountingSolver otherBackend = new CountingSolver();
+            CachingLinearSolver instance = new CachingLinearSolver(otherBackend, 10, directory);
+            Solution result = instance.solve(buildPermutedProblem());
+
+            assertEquals(0, otherBackend.nSolves);
+            assertEquals(1, instance.getNumDiskHits());
+            assertEquals(expected.getObjectiveValue(), result.getObjectiveValue(), 0);
+            assertEquals(expected.get("x1"), result.get("x1"));
+            assertEquals(expected.get("x2"), result.get("x2"));
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+
+            Files.delete(directory);
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class DecomposingLinearSolverTest {
+
+    public DecomposingLinearSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /*
+    min: x1 + x2 + 2 y1 - y2 + z;
+        x1 + x2 >= 2;
+        x1 - x2 <= 1;
+        y1 + y2 >= 3;
+        y2 <= 2;
+        1 <= z <= 4;
+    */
+    private static MinimizationProblem buildProblem() {
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2"), new Pair<>(2d,"y1"), new Pair<>(-1d,"y2"), new Pair<>(1d,"z"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"y1"), new Pair<>(1d,"y2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 3));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(-1d,"x2")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 1));
+        linearProgram.setUpperBound("y2", 2);
+        linearProgram.setBounds("z", 1, 4);
+        return linearProgram;
+    }
+
+    @Test
+    public void testSolve() {
+        System.out.println("solve - independent blocks");
+
+        MinimizationProblem linearProgram = buildProblem();
+        Solution expected = new DualSimplexSolver().solve(linearProgram);
+
+        DecomposingLinearSolver instance = new DecomposingLinearSolver(TestSolverFactory.buildPool(DualSimplexSolver::new, 2));
+        instance.setMinGroupSize(1);
+
+        try {
+            Solution result = instance.solve(linearProgram);
+
+            assertEquals(3, instance.getLastNumBlocks());
+            assertEquals(expected.getObjectiveValue(), result.getObjectiveValue(), 1e-9);
+            assertEquals(1, result.get("z"), 1e-9);
+            assertEquals(1, result.get("y1"), 1e-9);
+            assertEquals(2, result.get("y2"), 1e-9);
+            assertEquals(2, result.get("x1") + result.get("x2"), 1e-9);
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testInfeasibleBlock() {
+        System.out.println("solve - infeasible block");
+
+        MinimizationProblem linearProgram = buildProblem();
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"y2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 5));
+
+        DecomposingLinearSolver instance = new DecomposingLinearSolver(TestSolverFactory.buildPool(DualSimplexSolver::new, 2));
+        instance.setMinGroupSize(1);
+
+        try {
+            assertTrue(instance.solve(linearProgram).isInfeasible());
+
+            // An empty constraint that does not hold
+            MinimizationProblem constant = buildProblem();
+            constant.addConstraint(new Constraint.Linear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+            assertTrue(instance.solve(constant).isInfeasible());
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Deadline;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class IteratedLinearSolverTest {
+
+    public IteratedLinearSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /*
+    min: h1 + h2 + v1 + v2;
+        h1 v1 >= 4;
+        h2 v2 >= 9;
+        1 <= h1, h2, v1, v2 <= 10;
+    */
+    private static MinimizationProblem buildProblem() {
+        MinimizationProblem problem = new MinimizationProblem();
+        ObjectiveFunction.Linear objective = new ObjectiveFunction.Linear();
+
+        for (String variable : Arrays.asList("h1", "h2", "v1", "v2")) {
+            objective.addTerm(1, variable);
+            problem.setLowerBound(variable, 1);
+            problem.setUpperBound(variable, 10);
+        }
+
+        problem.setObjective(objective);
+
+        Constraint.Bilinear first = new Constraint.Bilinear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 4);
+        first.addBilinearTerm(1, "h1", "v1");
+        problem.addConstraint(first);
+
+        Constraint.Bilinear second = new Constraint.Bilinear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 9);
+        second.addBilinearTerm(1, "h2", "v2");
+        problem.addConstraint(second);
+
+        return problem;
+    }
+
+    private static Pair<Set<String>, Set<String>> buildPartition() {
+        return new Pair<Set<String>, Set<String>>(new HashSet<>(Arrays.asList("h1", "h2")), new HashSet<>(Arrays.asList("v1", "v2")));
+    }
+
+    private static Solution buildFeasibleSolution() {
+        Solution feasible = new Solution(40);
+
+        for (String variable : Arrays.asList("h1", "h2", "v1", "v2")) {
+            feasible.put(variable, 10d);
+        }
+
+        return feasible;
+    }
+
+    @Test
+    public void testConvergence() {
+        System.out.println("solve - convergence");
+
+        IteratedLinearSolver instance = new IteratedLinearSolver(new DualSimplexSolver());
+        List<Double> objectives = new ArrayList<>();
+        instance.setProgressListener((iteration, objectiveValue, relativeImprovement, elapsedMillis) -> {
+            assertEquals(objectives.size(), iteration);
+            objectives.add(objectiveValue);
+        });
+
+        Solution result = instance.solve(buildProblem(), buildPartition(), buildFeasibleSolution());
+
+        assertEquals(IteratedLinearSolver.StopReason.CONVERGED, instance.getLastStopReason());
+        assertEquals(2, instance.getLastIterations());
+        assertEquals(2, objectives.size());
+
+        // The objective includes the fixed variables
+        assertEquals(15, objectives.get(0), 1e-6);
+        assertEquals(15, objectives.get(1), 1e-6);
+
+        // So does the objective of the result, as when the solve is cut off
+        assertEquals(15, result.getObjectiveValue(), 1e-6);
+        assertEquals(4, result.get("h1"), 1e-6);
+        assertEquals(9, result.get("h2"), 1e-6);
+        assertEquals(1, result.get("v1"), 1e-6);
+        assertEquals(1, result.get("v2"), 1e-6);
+    }
+
+    @Test
+    public void testTimeLimit() {
+        System.out.println("solve - time limit");
+
+        IteratedLinearSolver instance = new IteratedLinearSolver(new DualSimplexSolver());
+        instance.setTimeLimit(0);
+
+        Solution result = instance.solve(buildProblem(), buildPartition(), buildFeasibleSolution());
+
+        assertEquals(IteratedLinearSolver.StopReason.TIME_LIMIT, instance.getLastStopReason());
+        assertEquals(0, instance.getLastIterations());
+        assertNotNull(result);
+        assertEquals(10, result.get("h1"), 1e-6);
+        assertEquals(10, result.get("h2"), 1e-6);
+    }
+
+    @Test
+    public void testExpiredDeadline() {
+        System.out.println("solve - expired deadline");
+
+        IteratedLinearSolver instance = new IteratedLinearSolver(new DualSimplexSolver());
+        Solution feasible = buildFeasibleSolution();
+
+        Solution result = instance.solve(buildProblem(), buildPartition(), feasible, Deadline.after(0, TimeUnit.MILLISECONDS));
+
+        assertEquals(IteratedLinearSolver.StopReason.TIME_LIMIT, instance.getLastStopReason());
+        assertEquals(0, instance.getLastIterations());
+        assertSame(feasible, result);
+    }
+
+    @Test
+    public void testCancelledDeadline() {
+        System.out.println("solve - cancelled deadline");
+
+        IteratedLinearSolver instance = new IteratedLinearSolver(new DualSimplexSolver());
+        Deadline deadline = Deadline.none();
+        instance.setProgressListener((iteration, objectiveValue, relativeImprovement, elapsedMillis) -> deadline.cancel());
+
+        Solution result = instance.solve(buildProblem(), buildPartition(), buildFeasibleSolution(), deadline);
+
+        // The best solution so far is the one of the first iteration
+        assertEquals(IteratedLinearSolver.StopReason.CANCELLED, instance.getLastStopReason());
+        assertEquals(1, instance.getLastIterations());
+        assertEquals(15, result.getObjectiveValue(), 1e-6);
+        assertEquals(4, result.get("h1"), 1e-6);
+        assertEquals(9, result.get("h2"), 1e-6);
+        assertEquals(1, result.get("v1"), 1e-6);
+        assertEquals(1, result.get("v2"), 1e-6);
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class PDLPSolverTest {
+
+    public PDLPSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testSolve() {
+        System.out.println("solve - basic LP");
+
+        /*
+        min: x1 + x2;
+            x1 >= 1;
+            x2 >= 1;
+            x1 + x2 >= 2;
+        */
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+
+        Solution result = new PDLPSolver(1e-9).solve(linearProgram);
+        assertEquals(2, result.getObjectiveValue(), 1e-6);
+        assertEquals(1, result.get("x1"), 1e-6);
+        assertEquals(1, result.get("x2"), 1e-6);
+    }
+
+    @Test
+    public void testSolveWithBounds() {
+        System.out.println("solve - LP with bounds");
+
+        /*
+        min: x1 - x2;
+            x1 >= 1;
+            x2 <= 3;
+            x1 + x2 >= 2;
+        */
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(-1d,"x2"))));
+        linearProgram.setLowerBound("x1", 1);
+        linearProgram.setUpperBound("x2", 3);
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+
+        Solution result = new PDLPSolver(1e-9).solve(linearProgram);
+        assertEquals(-2, result.getObjectiveValue(), 1e-6);
+        assertEquals(1, result.get("x1"), 1e-6);
+        assertEquals(3, result.get("x2"), 1e-6);
+    }
+
+    @Test
+    public void testSolveFreeVariables() {
+        System.out.println("solve - free variables and equalities");
+
+        /*
+        min: x + 2y;
+            x + y = 4;
+            x - y <= 2;
+            x, y free;
+        */
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x"), new Pair<>(2d,"y"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x"), new Pair<>(1d,"y")), Constraint.Comparison.EQUAL, 4));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x"), new Pair<>(-1d,"y")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 2));
+        linearProgram.setBounds("x", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        linearProgram.setBounds("y", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+        Solution result = new PDLPSolver(1e-9).solve(linearProgram);
+        assertEquals(5, result.getObjectiveValue(), 1e-6);
+        assertEquals(3, result.get("x"), 1e-6);
+        assertEquals(1, result.get("y"), 1e-6);
+    }
+
+    @Test
+    public void testSolveRandom() {
+        System.out.println("solve - random LP with known optimum, in parallel");
+
+        Random random = new Random(1);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        PDLPSolver instance = new PDLPSolver(1e-7, pool);
+
+        try {
+            // Large enough to be split into several blocks
+            MinimizationProblem linearProgram = randomProgram(random, 1500, 1200);
+            double expected = linearProgram.getObjective().evaluate(optimum);
+
+            Solution result = instance.solve(linearProgram);
+            assertNotNull(result);
+            assertEquals(expected, result.getObjectiveValue(), 1e-5 * (1 + Math.abs(expected)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Solution optimum;
+
+    /**
+     * Generates an LP with the given optimal solution and dual values, by
+     * choosing the objective to satisfy the KKT conditions.
+     */
+    private MinimizationProblem randomProgram(Random random, int nVariables, int nConstraints) {
+        double[] x = new double[nVariables];
+        double[] cost = new double[nVariables];
+        optimum = new Solution(0);
+
+        for (int j = 0; j < nVariables; j++) {
+            // Half of the variables are at their lower bound 0 in the optimum
+            x[j] = (j % 2 == 0 ? 0 : 1 + 10 * random.nextDouble());
+            optimum.put("x" + j, x[j]);
+        }
+
+        MinimizationProblem linearProgram = new MinimizationProblem();
+
+        for (int i = 0; i < nConstraints; i++) {
+            List<Pair<Double, String>> terms = new ArrayList<>();
+            double activity = 0;
+
+            for (int j = 0; j < nVariables; j++) {
+                if (random.nextDouble() < 0.01) {
+                    double a = Math.round(20 * random.nextDouble() - 10);
+
+                    if (a != 0) {
+                        terms.add(new Pair<>(a, "x" + j));
+                        activity += a * x[j];
+                    }
+                }
+            }
+
+            if (terms.isEmpty()) {
+                continue;
+            }
+
+            // Half of the constraints are tight, with a positive dual value
+            boolean tight = (i % 2 == 0);
+            double y = (tight ? 1 + random.nextDouble() : 0);
+            double rhs = (tight ? activity : activity - 1 - random.nextDouble());
+            linearProgram.addConstraint(new Constraint.Linear(terms, Constraint.Comparison.GREATER_THAN_OR_EQUAL, rhs));
+
+            for (Pair<Double, String> term : terms) {
+                cost[Integer.parseInt(term.getSecond().substring(1))] += y * term.getFirst();
+            }
+        }
+
+        List<Pair<Double, String>> objective = new ArrayList<>();
+
+        for (int j = 0; j < nVariables; j++) {
+            // Variables at their lower bound get a positive reduced cost
+            double reducedCost = (x[j] == 0 ? 1 + random.nextDouble() : 0);
+            objective.add(new Pair<>(cost[j] + reducedCost, "x" + j));
+        }
+
+        linearProgram.setObjective(new ObjectiveFunction.Linear(objective));
+        return linearProgram;
+    }
+
+}
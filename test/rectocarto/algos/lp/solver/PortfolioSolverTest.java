@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class PortfolioSolverTest {
+
+    public PortfolioSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static MinimizationProblem buildProblem() {
+        /*
+        min: x1 + x2;
+            x1 >= 1;
+            x2 >= 1;
+            x1 + x2 >= 2;
+        */
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        return linearProgram;
+    }
+
+    @Test
+    public void testFirstResultWins() throws InterruptedException {
+        System.out.println("solve - first result wins");
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        LinearSolver slow = problem -> {
+            started.countDown();
+
+            try {
+                Thread.sleep(60000);
+            } catch (InterruptedException ex) {
+                cancelled.countDown();
+            }
+
+            return null;
+        };
+
+        // Only answer once the slow solver is running, so it is interrupted rather than never started
+        DualSimplexSolver simplex = new DualSimplexSolver();
+        LinearSolver fast = problem -> {
+            try {
+                started.await();
+            } catch (InterruptedException ex) {
+                return null;
+            }
+
+            return simplex.solve(problem);
+        };
+
+        PortfolioSolver instance = new PortfolioSolver(slow, fast);
+
+        try {
+            Solution result = instance.solve(buildProblem());
+            assertEquals(2, result.getObjectiveValue(), 1e-9);
+            assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+            assertEquals(0, instance.getNumWins(0));
+            assertEquals(1, instance.getNumWins(1));
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testIgnoreFailedBackends() {
+        System.out.println("solve - failed backends are ignored");
+
+        LinearSolver none = problem -> null;
+        LinearSolver broken = problem -> {
+            throw new IllegalStateException();
+        };
+
+        PortfolioSolver instance = new PortfolioSolver(none, broken, new DualSimplexSolver());
+
+        try {
+            Solution result = instance.solve(buildProblem());
+            assertEquals(2, result.getObjectiveValue(), 1e-9);
+            assertEquals(1, instance.getNumWins(2));
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testDoNotWaitForUninterruptibleBackends() throws InterruptedException {
+        System.out.println("solve - does not wait for backends that ignore interrupts");
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean proceed = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicReference<MinimizationProblem> seen = new AtomicReference<>();
+        LinearSolver stubborn = problem -> {
+            seen.set(problem);
+            started.countDown();
+
+            while (!proceed.get()) {
+                // Like a native solver, ignore the interrupt
+            }
+
+            finished.countDown();
+            return null;
+        };
+
+        // Only answer once the stubborn solver is running, so it is not simply cancelled before it starts
+        DualSimplexSolver simplex = new DualSimplexSolver();
+        LinearSolver fast = problem -> {
+            try {
+                started.await();
+            } catch (InterruptedException ex) {
+                return null;
+            }
+
+            return simplex.solve(problem);
+        };
+
+        PortfolioSolver instance = new PortfolioSolver(stubborn, fast);
+        MinimizationProblem problem = buildProblem();
+
+        try {
+            Solution result = instance.solve(problem);
+            assertEquals(2, result.getObjectiveValue(), 1e-9);
+            assertSame(problem.getVariables(), result.getVariables());
+            assertEquals(1, finished.getCount());
+
+            // The stubborn backend works on its own copy, so the problem can be changed
+            assertNotSame(problem, seen.get());
+            problem.getConstraintMatrix().setRightHandSide(2, 3);
+            assertEquals(2, seen.get().getConstraintMatrix().getRightHandSides()[2], 0);
+
+            proceed.set(true);
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+        } finally {
+            proceed.set(true);
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentCalls() throws InterruptedException {
+        System.out.println("solve - concurrent calls");
+
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicBoolean shared = new AtomicBoolean();
+        DualSimplexSolver simplex = new DualSimplexSolver();
+        LinearSolver exclusive = problem -> {
+            if (inUse.incrementAndGet() > 1) {
+                shared.set(true);
+            }
+
+            try {
+                Thread.sleep(20);
+                return simplex.solve(problem);
+            } catch (InterruptedException ex) {
+                return null;
+            } finally {
+                inUse.decrementAndGet();
+            }
+        };
+
+        // More threads than backends, so only the lease keeps the calls apart
+        PortfolioSolver instance = new PortfolioSolver(Executors.newFixedThreadPool(4), Arrays.asList(exclusive));
+        AtomicInteger nSolved = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+
+        try {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < 5; j++) {
+                        Solution result = instance.solve(buildProblem());
+
+                        if (result != null && Math.abs(result.getObjectiveValue() - 2) < 1e-9) {
+                            nSolved.incrementAndGet();
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertFalse(shared.get());
+            assertEquals(20, nSolved.get());
+            assertEquals(20, instance.getNumWins(0));
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAllFailed() {
+        System.out.println("solve - all backends fail");
+
+        LinearSolver none = problem -> null;
+        LinearSolver broken = problem -> {
+            throw new IllegalStateException();
+        };
+
+        PortfolioSolver instance = new PortfolioSolver(none, broken);
+
+        try {
+            instance.solve(buildProblem());
+        } finally {
+            instance.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class SequentialLinearSolverTest {
+
+    public SequentialLinearSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /*
+    min: x + y;
+        x y >= 4;
+        0 <= x, y <= 10;
+    */
+    private static MinimizationProblem buildProblem() {
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y"))));
+
+        Constraint.Bilinear product = new Constraint.Bilinear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 4);
+        product.addBilinearTerm(1, "x", "y");
+        problem.addConstraint(product);
+
+        problem.setUpperBound("x", 10);
+        problem.setUpperBound("y", 10);
+        return problem;
+    }
+
+    @Test
+    public void testSolve() {
+        System.out.println("solve - feasible start");
+
+        // Alternating between x and y from this point makes no progress
+        Map<String, Double> start = new HashMap<>();
+        start.put("x", 4d);
+        start.put("y", 1d);
+
+        SequentialLinearSolver instance = new SequentialLinearSolver(new DualSimplexSolver());
+        Solution result = instance.solve(buildProblem(), start);
+
+        assertEquals(SequentialLinearSolver.StopReason.CONVERGED, instance.getLastStopReason());
+        assertEquals(4, result.getObjectiveValue(), 1e-4);
+        assertTrue(result.get("x") * result.get("y") >= 4 - 1e-6);
+    }
+
+    @Test
+    public void testInfeasibleStart() {
+        System.out.println("solve - infeasible start");
+
+        Map<String, Double> start = new HashMap<>();
+        start.put("x", 1d);
+        start.put("y", 1d);
+
+        SequentialLinearSolver instance = new SequentialLinearSolver(new DualSimplexSolver());
+        Solution result = instance.solve(buildProblem(), start);
+
+        assertNotNull(result);
+        assertEquals(4, result.getObjectiveValue(), 1e-4);
+        assertTrue(result.get("x") * result.get("y") >= 4 - 1e-6);
+    }
+
+    @Test
+    public void testDefaultStart() {
+        System.out.println("solve - default start");
+
+        SequentialLinearSolver instance = new SequentialLinearSolver(new DualSimplexSolver());
+        Solution result = instance.solve(buildProblem());
+
+        assertEquals(4, result.getObjectiveValue(), 1e-4);
+    }
+
+    @Test
+    public void testIterationLimit() {
+        System.out.println("solve - iteration limit");
+
+        Map<String, Double> start = new HashMap<>();
+        start.put("x", 4d);
+        start.put("y", 1d);
+
+        SequentialLinearSolver instance = new SequentialLinearSolver(new DualSimplexSolver());
+        instance.setMaxIterations(1);
+        Solution result = instance.solve(buildProblem(), start);
+
+        assertEquals(SequentialLinearSolver.StopReason.MAX_ITERATIONS, instance.getLastStopReason());
+        assertEquals(1, instance.getLastIterations());
+
+        // Still feasible, and no worse than the start
+        assertTrue(result.getObjectiveValue() <= 5 + 1e-9);
+        assertTrue(result.get("x") * result.get("y") >= 4 - 1e-6);
+    }
+
+}
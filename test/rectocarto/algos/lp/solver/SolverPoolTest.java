@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class SolverPoolTest {
+
+    public SolverPoolTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testReuse() throws InterruptedException {
+        System.out.println("lease - instances are reused");
+
+        TestSolverFactory<DualSimplexSolver> factory = new TestSolverFactory<>(DualSimplexSolver::new);
+        SolverPool<DualSimplexSolver> pool = new SolverPool<>(factory, 2);
+        DualSimplexSolver first;
+
+        try (SolverPool.Lease<DualSimplexSolver> lease = pool.lease()) {
+            first = lease.get();
+        }
+
+        try (SolverPool.Lease<DualSimplexSolver> lease = pool.lease()) {
+            assertSame(first, lease.get());
+        }
+
+        assertEquals(1, pool.getNumCreated());
+
+        // Unhealthy instances are replaced
+        factory.broken.add(first);
+
+        try (SolverPool.Lease<DualSimplexSolver> lease = pool.lease()) {
+            assertNotSame(first, lease.get());
+            lease.invalidate();
+        }
+
+        assertEquals(2, pool.getNumCreated());
+        assertEquals(2, factory.disposed.size());
+        assertEquals(0, pool.getNumLeased());
+        pool.close();
+    }
+
+    @Test
+    public void testCapacity() throws InterruptedException {
+        System.out.println("lease - capacity is bounded");
+
+        SolverPool<DualSimplexSolver> pool = TestSolverFactory.buildPool(DualSimplexSolver::new, 2);
+        SolverPool.Lease<DualSimplexSolver> first = pool.lease();
+        SolverPool.Lease<DualSimplexSolver> second = pool.lease();
+
+        assertNotSame(first.get(), second.get());
+        assertNull(pool.lease(10, TimeUnit.MILLISECONDS));
+
+        first.close();
+        SolverPool.Lease<DualSimplexSolver> third = pool.lease(10, TimeUnit.MILLISECONDS);
+        assertNotNull(third);
+
+        second.close();
+        third.close();
+        pool.close();
+    }
+
+    @Test
+    public void testConcurrentSolves() throws InterruptedException {
+        System.out.println("solve - concurrent threads");
+
+        /*
+        min: x1 + x2;
+            x1 >= 1;
+            x2 >= 1;
+            x1 + x2 >= 2;
+        */
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        linearProgram.getConstraintMatrix();
+
+        SolverPool<DualSimplexSolver> pool = TestSolverFactory.buildPool(DualSimplexSolver::new, 3);
+        LinearSolver solver = SolverPool.asLinearSolver(pool);
+        AtomicInteger nCorrect = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50; i++) {
+                    Solution solution = solver.solve(linearProgram);
+
+                    if (Math.abs(solution.getObjectiveValue() - 2) < 1e-9) {
+                        nCorrect.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(8 * 50, nCorrect.get());
+        assertTrue(pool.getNumCreated() <= 3);
+        assertEquals(0, pool.getNumLeased());
+        pool.close();
+    }
+
+}
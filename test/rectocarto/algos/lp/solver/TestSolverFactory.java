@@ -0,0 +1,66 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A pool factory for tests. It creates instances with the given supplier,
+ * considers the ones in the broken list unhealthy, and records the ones it
+ * disposes.
+ *
+ * @param <T>
+ */
+class TestSolverFactory<T> implements SolverPool.Factory<T> {
+
+    final List<T> broken = new ArrayList<>();
+    final List<T> disposed = new ArrayList<>();
+    private final Supplier<T> supplier;
+
+    TestSolverFactory(Supplier<T> supplier) {
+        this.supplier = supplier;
+    }
+
+    /**
+     * Returns a pool of the given capacity that creates its instances with the
+     * given supplier.
+     *
+     * @param <T>
+     * @param supplier
+     * @param capacity
+     * @return
+     */
+    static <T> SolverPool<T> buildPool(Supplier<T> supplier, int capacity) {
+        return new SolverPool<>(new TestSolverFactory<>(supplier), capacity);
+    }
+
+    @Override
+    public T create() {
+        return supplier.get();
+    }
+
+    @Override
+    public boolean isHealthy(T instance) {
+        return !broken.contains(instance);
+    }
+
+    @Override
+    public synchronized void dispose(T instance) {
+        disposed.add(instance);
+    }
+}
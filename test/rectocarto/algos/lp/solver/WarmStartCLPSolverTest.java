@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.algos.lp.solver;
+
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+import rectocarto.data.lp.Constraint;
+import rectocarto.data.lp.MinimizationProblem;
+import rectocarto.data.lp.ObjectiveFunction;
+import rectocarto.data.lp.Solution;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class WarmStartCLPSolverTest {
+
+    public WarmStartCLPSolverTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of solve method, of class WarmStartCLPSolver.
+     */
+    @Test
+    public void testSolve() {
+        System.out.println("solve - warm start");
+
+        /*
+        min: x1 + x2;
+            x1 >= 1;
+            x1 + x2 >= 2;
+        */
+        MinimizationProblem linearProgram = new MinimizationProblem();
+        linearProgram.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2"))));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+
+        WarmStartCLPSolver instance = new WarmStartCLPSolver();
+        Solution result = instance.solve(linearProgram);
+        assertEquals(2, result.getObjectiveValue(), 1e-9);
+
+        // Change the right hand side of the second row: x1 + x2 >= 5
+        linearProgram.getConstraints().get(1).setRightHandSide(5);
+        linearProgram.getConstraintMatrix().setRightHandSide(1, 5);
+        result = instance.solve(linearProgram);
+        assertEquals(5, result.getObjectiveValue(), 1e-9);
+
+        // Change the objective: min 2 x1 + x2
+        ((ObjectiveFunction.Linear) linearProgram.getObjective()).getTerms().get(0).setFirst(2d);
+        result = instance.solve(linearProgram);
+        assertEquals(6, result.getObjectiveValue(), 1e-9);
+        assertEquals(1, result.get("x1"), 1e-9);
+        assertEquals(4, result.get("x2"), 1e-9);
+
+        assertEquals(1, instance.getNumColdSolves());
+        assertEquals(2, instance.getNumWarmSolves());
+
+        // A problem with a different structure needs a new model
+        linearProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x2")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 3));
+        result = instance.solve(linearProgram);
+        assertEquals(7, result.getObjectiveValue(), 1e-9);
+        assertEquals(2, instance.getNumColdSolves());
+    }
+
+    /**
+     * Test of solve method, of class WarmStartCLPSolver, for a quadratic
+     * program whose objective changes many times.
+     */
+    @Test
+    public void testSolveQPRepeatedly() {
+        System.out.println("solve - warm start, quadratic");
+
+        /*
+        min: x1^2 + x2^2 + c x1;
+            x1 + x2 >= 2;
+        */
+        MinimizationProblem quadraticProgram = new MinimizationProblem();
+        quadraticProgram.setObjective(new ObjectiveFunction.Quadratic(Arrays.asList(new Pair<>(0d,"x1")), Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2"))));
+        quadraticProgram.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d,"x1"), new Pair<>(1d,"x2")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 2));
+        quadraticProgram.setBounds("x1", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+        CLPModel model = CLPModel.build(quadraticProgram);
+
+        for (int i = 0; i < 100; i++) {
+            double c = (i % 10) - 5;
+            ((ObjectiveFunction.Quadratic) quadraticProgram.getObjective()).getLinearTerms().get(0).setFirst(c);
+            model.update(quadraticProgram);
+            Solution result = model.solve(quadraticProgram.getVariables());
+
+            // On x1 + x2 = 2, the optimum is at x1 = 1 - c / 4, unless the unconstrained minimum is feasible
+            double x1 = (c <= -4 ? -c / 2 : 1 - c / 4);
+            assertTrue(result.isConverged());
+            assertEquals(x1, result.get("x1"), 1e-3);
+
+            // The cut pools stay bounded
+            assertTrue(model.getNumCuts() <= 2 * CLPModel.MAX_CUTS_PER_SQUARE);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class ConstraintMatrixTest {
+
+    public ConstraintMatrixTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of compile method, of class ConstraintMatrix.
+     */
+    @Test
+    public void testCompile() {
+        System.out.println("compile");
+
+        /*
+            x + 2 y >= 1
+            3 y - z + y <= 4
+            z = 5
+            2 x + x * y - y * z >= 6
+        */
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(2d, "y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(3d, "y"), new Pair<>(-1d, "z"), new Pair<>(1d, "y")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 4));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "z")), Constraint.Comparison.EQUAL, 5));
+
+        Constraint.Bilinear bilinear = new Constraint.Bilinear(Constraint.Comparison.GREATER_THAN_OR_EQUAL, 6);
+        bilinear.addLinearTerm(2, "x");
+        bilinear.addBilinearTerm(1, "x", "y");
+        bilinear.addBilinearTerm(-1, "y", "z");
+        problem.addConstraint(bilinear);
+
+        VariableRegistry variables = problem.getVariables();
+        assertEquals(3, variables.size());
+        int x = variables.getId("x");
+        int y = variables.getId("y");
+        int z = variables.getId("z");
+
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        assertEquals(4, matrix.getNumRows());
+        assertEquals(3, matrix.getNumColumns());
+        assertArrayEquals(new int[]{0, 2, 4, 5, 6}, matrix.getRowStart());
+        assertArrayEquals(new int[]{x, y, y, z, z, x}, matrix.getColumns());
+        assertArrayEquals(new double[]{1, 2, 4, -1, 1, 2}, matrix.getCoefficients(), 0);
+        assertArrayEquals(new double[]{1, 4, 5, 6}, matrix.getRightHandSides(), 0);
+        assertEquals(Constraint.Comparison.GREATER_THAN_OR_EQUAL, matrix.getComparison(0));
+        assertEquals(Constraint.Comparison.LESS_THAN_OR_EQUAL, matrix.getComparison(1));
+        assertEquals(Constraint.Comparison.EQUAL, matrix.getComparison(2));
+
+        assertFalse(matrix.isLinear());
+        assertEquals(2, matrix.getNumBilinearTerms());
+        assertArrayEquals(new int[]{3, 3}, matrix.getBilinearRows());
+        assertArrayEquals(new int[]{x, y}, matrix.getBilinearColumns1());
+        assertArrayEquals(new int[]{y, z}, matrix.getBilinearColumns2());
+        assertArrayEquals(new double[]{1, -1}, matrix.getBilinearCoefficients(), 0);
+
+        // The matrix is cached until constraints are added
+        assertSame(matrix, problem.getConstraintMatrix());
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "w")), Constraint.Comparison.EQUAL, 0));
+        assertNotSame(matrix, problem.getConstraintMatrix());
+        assertEquals(5, problem.getConstraintMatrix().getNumRows());
+        assertEquals(4, problem.getConstraintMatrix().getNumColumns());
+    }
+
+    /**
+     * Test that the cached matrix follows changes to the list of constraints
+     * that keep the number of rows the same.
+     */
+    @Test
+    public void testReplaceConstraint() {
+        System.out.println("compile - replaced constraint");
+
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(2d, "y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "y")), Constraint.Comparison.LESS_THAN_OR_EQUAL, 4));
+        assertEquals(2, problem.getConstraintMatrix().getNumColumns());
+
+        // Replacing a row with one in a new variable registers that variable
+        problem.getConstraints().set(1, new Constraint.Linear(Arrays.asList(new Pair<>(3d, "z")), Constraint.Comparison.EQUAL, 5));
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        int z = problem.getVariables().getId("z");
+        assertEquals(3, matrix.getNumColumns());
+        assertArrayEquals(new int[]{0, 2, 3}, matrix.getRowStart());
+        assertEquals(z, matrix.getColumns()[2]);
+        assertEquals(5, matrix.getRightHandSides()[1], 0);
+
+        // Removing one row and adding another is not mistaken for no change
+        problem.getConstraints().remove(0);
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 7));
+        matrix = problem.getConstraintMatrix();
+        assertEquals(2, matrix.getNumRows());
+        assertArrayEquals(new double[]{5, 7}, matrix.getRightHandSides(), 0);
+    }
+
+    @Test
+    public void testSetConstraints() {
+        System.out.println("setConstraints");
+
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(-2d, "y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        problem.addConstraint(new Constraint.Bilinear(Arrays.asList(new Pair<>(3d, "y")), Arrays.asList(new Pair<>(1d, new Pair<>("x", "y"))), Constraint.Comparison.LESS_THAN_OR_EQUAL, 4));
+        List<Constraint> expected = new ArrayList<>(problem.getConstraints());
+
+        MinimizationProblem generated = new MinimizationProblem(problem.getVariables());
+        ConstraintMatrix matrix = problem.getConstraintMatrix();
+        generated.setConstraints(matrix);
+
+        // The matrix is used as it is, and the constraints are built from it on request
+        assertSame(matrix, generated.getConstraintMatrix());
+        assertEquals(expected, generated.getConstraints());
+        assertSame(matrix, generated.getConstraintMatrix());
+
+        generated.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x")), Constraint.Comparison.EQUAL, 2));
+        assertEquals(3, generated.getConstraintMatrix().getNumRows());
+    }
+
+    @Test
+    public void testSnapshot() {
+        System.out.println("snapshot");
+
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.setObjective(new ObjectiveFunction.Linear(Arrays.asList(new Pair<>(1d, "x"))));
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(2d, "y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 1));
+        problem.setBounds("y", 0, 3);
+        MinimizationProblem snapshot = problem.snapshot();
+
+        // Changes to the problem do not reach the snapshot
+        problem.getConstraintMatrix().setCoefficient(1, 5);
+        problem.setUpperBound("y", 4);
+        ((ObjectiveFunction.Linear) problem.getObjective()).addTerm(1, "z");
+
+        assertNotSame(problem.getVariables(), snapshot.getVariables());
+        assertEquals(problem.getVariables().getId("y"), snapshot.getVariables().getId("y"));
+        assertEquals(2, snapshot.getVariables().size());
+        assertEquals(2, snapshot.getConstraintMatrix().getCoefficients()[1], 0);
+        assertEquals(3, snapshot.getUpperBound("y"), 0);
+        assertEquals(1, ((ObjectiveFunction.Linear) snapshot.getObjective()).getTerms().size());
+        assertEquals(1, snapshot.getConstraints().size());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class ProblemEvaluatorTest {
+
+    public ProblemEvaluatorTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    /**
+     * Test of the evaluation methods of class ProblemEvaluator.
+     */
+    @Test
+    public void testEvaluate() {
+        System.out.println("evaluate");
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.setObjective(new ObjectiveFunction.Quadratic(
+                Arrays.asList(new Pair<>(2d, "x")),
+                Arrays.asList(new Pair<>(1d, "y"))));
+        // x + y >= 3
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 3));
+        // x * y - z <= 1
+        problem.addConstraint(new Constraint.Bilinear(Arrays.asList(new Pair<>(-1d, "z")), Arrays.asList(new Pair<>(1d, new Pair<>("x", "y"))), Constraint.Comparison.LESS_THAN_OR_EQUAL, 1));
+        // z = 2
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "z")), Constraint.Comparison.EQUAL, 2));
+        problem.setUpperBound("y", 4);
+
+        ProblemEvaluator evaluator = new ProblemEvaluator(problem);
+        assertEquals(3, evaluator.getNumRows());
+        assertEquals(3, evaluator.getNumColumns());
+
+        Map<String, Double> assignment = new HashMap<>();
+        assignment.put("x", 1d);
+        assignment.put("y", 5d);
+        assignment.put("z", 2.5);
+        double[] values = evaluator.getValues(assignment, new double[3]);
+
+        assertEquals(2 * 1 + 5 * 5, evaluator.evaluateObjective(values), 1e-9);
+
+        double[] slacks = new double[3];
+        evaluator.computeSlacks(values, slacks);
+        assertArrayEquals(new double[]{3, -1.5, -0.5}, slacks, 1e-9);
+
+        // The bound on y is violated by 1, the second row by 1.5
+        assertEquals(1.5, evaluator.maxViolation(values), 1e-9);
+        assertFalse(evaluator.isFeasible(values, 1e-9));
+
+        int[] violated = new int[3];
+        assertEquals(2, evaluator.findViolatedRows(values, 1e-9, violated));
+        assertEquals(1, violated[0]);
+        assertEquals(2, violated[1]);
+        assertEquals(1, evaluator.findViolatedRows(values, 1, violated));
+
+        // A complete solution over the same variables is used without copying
+        Solution feasible = new Solution(0, problem.getVariables(), new double[]{1, 2, 2});
+        double[] solutionValues = evaluator.getValues(feasible, new double[3]);
+        assertTrue(evaluator.isFeasible(solutionValues, 1e-9));
+        assertSame(solutionValues, evaluator.getValues(feasible, new double[3]));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import rectangularcartogram.data.Pair;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class ProblemFileTest {
+
+    public ProblemFileTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    private static MinimizationProblem buildProblem() {
+        MinimizationProblem problem = new MinimizationProblem();
+        problem.setObjective(new ObjectiveFunction.Quadratic(
+                Arrays.asList(new Pair<>(2d, "x")),
+                Arrays.asList(new Pair<>(1.5, "y"))));
+        // x + y >= 3
+        problem.addConstraint(new Constraint.Linear(Arrays.asList(new Pair<>(1d, "x"), new Pair<>(1d, "y")), Constraint.Comparison.GREATER_THAN_OR_EQUAL, 3));
+        // x * y - z <= 1
+        problem.addConstraint(new Constraint.Bilinear(Arrays.asList(new Pair<>(-1d, "z")), Arrays.asList(new Pair<>(1d, new Pair<>("x", "y"))), Constraint.Comparison.LESS_THAN_OR_EQUAL, 1));
+        problem.setUpperBound("y", 4);
+        problem.fixVariable("z", 2);
+        problem.setBounds("w 1", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        return problem;
+    }
+
+    /**
+     * Test of save and load methods, of class ProblemFile.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        System.out.println("roundTrip");
+        MinimizationProblem problem = buildProblem();
+
+        Solution solution = new Solution(7, problem.getVariables(), new double[]{1, 2, 2, 0});
+        solution.put("extra", 5d);
+
+        Map<String, Set<String>> groups = Collections.<String, Set<String>>singletonMap("horizontal", new HashSet<>(Arrays.asList("x", "y")));
+
+        Path file = Files.createTempFile("problem", ".rclp");
+
+        try {
+            ProblemFile.save(file, problem, solution, groups);
+            ProblemFile loaded = ProblemFile.load(file);
+            MinimizationProblem result = loaded.getProblem();
+
+            assertEquals(problem.getVariables().getNames(), result.getVariables().getNames());
+            assertEquals(problem.getConstraints(), result.getConstraints());
+            assertEquals(problem.getObjective().toString(), result.getObjective().toString());
+            assertArrayEquals(Arrays.copyOf(problem.getLowerBounds(), 4), Arrays.copyOf(result.getLowerBounds(), 4), 0);
+            assertArrayEquals(Arrays.copyOf(problem.getUpperBounds(), 4), Arrays.copyOf(result.getUpperBounds(), 4), 0);
+            assertArrayEquals(problem.getConstraintMatrix().getRowStart(), result.getConstraintMatrix().getRowStart());
+            assertArrayEquals(problem.getConstraintMatrix().getBilinearColumns2(), result.getConstraintMatrix().getBilinearColumns2());
+
+            assertEquals(solution, loaded.getSolution());
+            assertEquals(7, loaded.getSolution().getObjectiveValue(), 0);
+            assertEquals(groups, loaded.getVariableGroups());
+
+            ProblemFile.save(file, problem, null);
+            assertNull(ProblemFile.load(file).getSolution());
+
+            ProblemFile.save(file, problem, Solution.INFEASIBLE);
+            assertSame(Solution.INFEASIBLE, ProblemFile.load(file).getSolution());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Test of load method with an invalid file, of class ProblemFile.
+     */
+    @Test(expected = IOException.class)
+    public void testLoadInvalid() throws IOException {
+        System.out.println("loadInvalid");
+        Path file = Files.createTempFile("problem", ".rclp");
+
+        try {
+            Files.write(file, new byte[]{'R', 'C', 'L', 'P', 2, 0, 0, 0});
+            ProblemFile.load(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Test of writeLP and writeMPS methods, of class ProblemExporter.
+     */
+    @Test
+    public void testExport() throws IOException {
+        System.out.println("export");
+        MinimizationProblem problem = buildProblem();
+
+        StringWriter lp = new StringWriter();
+        ProblemExporter.writeLP(lp, problem);
+        assertEquals("Minimize\n"
+                + " obj: 2 x + [ 3 y ^2 ] / 2\n"
+                + "Subject To\n"
+                + " c0: 1 x + 1 y >= 3\n"
+                + " c1: -1 z + [ 1 x * y ] <= 1\n"
+                + "Bounds\n"
+                + " 0 <= y <= 4\n"
+                + " z = 2\n"
+                + " w_1 free\n"
+                + "End\n", lp.toString());
+
+        problem.getConstraints().remove(1);
+        StringWriter mps = new StringWriter();
+        ProblemExporter.writeMPS(mps, problem);
+        assertEquals("NAME rectocarto\n"
+                + "ROWS\n"
+                + " N obj\n"
+                + " G c0\n"
+                + "COLUMNS\n"
+                + " x obj 2\n"
+                + " x c0 1\n"
+                + " y c0 1\n"
+                + " z obj 0\n"
+                + " w_1 obj 0\n"
+                + "RHS\n"
+                + " RHS c0 3\n"
+                + "BOUNDS\n"
+                + " UP BND y 4\n"
+                + " FX BND z 2\n"
+                + " FR BND w_1\n"
+                + "QUADOBJ\n"
+                + " y y 3\n"
+                + "ENDATA\n", mps.toString());
+    }
+}
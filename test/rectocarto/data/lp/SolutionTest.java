@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class SolutionTest {
+
+    public SolutionTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testMapView() {
+        System.out.println("map view");
+
+        Solution sol = new Solution(3);
+        assertTrue(sol.isEmpty());
+        assertNull(sol.put("x", 1d));
+        assertNull(sol.put("y", 2d));
+        assertEquals(Double.valueOf(1), sol.put("x", 4d));
+        assertEquals(2, sol.size());
+        assertEquals(Double.valueOf(4), sol.get("x"));
+        assertNull(sol.get("z"));
+        assertFalse(sol.containsKey("z"));
+
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("x", 4d);
+        expected.put("y", 2d);
+        assertEquals(expected, sol);
+        assertEquals(expected, new Solution(7, expected));
+
+        sol.keySet().retainAll(Arrays.asList("y"));
+        assertEquals(1, sol.size());
+        assertFalse(sol.containsKey("x"));
+        assertEquals(Double.valueOf(2), sol.remove("y"));
+        assertTrue(sol.isEmpty());
+    }
+
+    @Test
+    public void testSharedRegistry() {
+        System.out.println("shared registry");
+
+        VariableRegistry variables = new VariableRegistry();
+        variables.register("x");
+        variables.register("y");
+
+        Solution sol = new Solution(1, variables, new double[]{5, 6});
+        assertEquals(Double.valueOf(5), sol.get("x"));
+        assertEquals(6, sol.getValue(variables.getId("y")), 0);
+
+        // Adding a new variable must not change the registry of the problem
+        sol.put("z", 7d);
+        assertEquals(2, variables.size());
+        assertEquals(Double.valueOf(7), sol.get("z"));
+        assertEquals(Double.valueOf(5), sol.get("x"));
+    }
+
+    @Test
+    public void testSnapshotAndRestrict() {
+        System.out.println("snapshot and restrictTo");
+
+        Solution sol = new Solution(1);
+        sol.put("x", 1d);
+        sol.put("y", 2d);
+        sol.put("z", 3d);
+
+        Solution copy = sol.snapshot();
+        copy.put("x", 10d);
+        assertEquals(Double.valueOf(1), sol.get("x"));
+        assertEquals(Double.valueOf(10), copy.get("x"));
+        sol.put("y", 20d);
+        assertEquals(Double.valueOf(2), copy.get("y"));
+
+        // Copies keep whether the solver converged
+        sol.setConverged(false);
+        assertFalse(sol.snapshot().isConverged());
+        assertTrue(copy.isConverged());
+
+        Solution partial = sol.restrictTo(Arrays.asList("x", "z", "w"));
+        assertEquals(2, partial.size());
+        assertEquals(Double.valueOf(1), partial.get("x"));
+        assertNull(partial.get("y"));
+        assertEquals(1, partial.getObjectiveValue(), 0);
+        assertEquals(3, sol.size());
+    }
+
+    @Test
+    public void testConcurrentCopies() throws InterruptedException {
+        System.out.println("copies taken from several threads");
+
+        Solution source = new Solution(1);
+
+        for (int i = 0; i < 100; i++) {
+            source.put("x" + i, (double) i);
+        }
+
+        Solution[] copies = new Solution[4];
+        Thread[] threads = new Thread[copies.length];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int index = t;
+            threads[t] = new Thread(() -> {
+                for (int k = 0; k < 1000; k++) {
+                    Solution copy = new Solution(2, source);
+
+                    for (int i = 0; i < 100; i++) {
+                        copy.setValue(i, -index);
+                    }
+
+                    copies[index] = copy;
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Double.valueOf(i), source.get("x" + i));
+
+            for (int t = 0; t < copies.length; t++) {
+                assertEquals(Double.valueOf(-t), copies[t].get("x" + i));
+            }
+        }
+
+        // The source can still be modified without affecting its copies
+        source.put("x0", 42d);
+        assertEquals(Double.valueOf(0), copies[0].get("x0"));
+    }
+
+    @Test
+    public void testDelta() {
+        System.out.println("delta");
+
+        Solution previous = new Solution(10);
+        previous.put("x", 1d);
+        previous.put("y", 2d);
+
+        Solution current = new Solution(7);
+        current.put("y", 5d);
+        current.put("x", 0.5);
+        current.put("z", 3d);
+
+        Solution delta = current.delta(previous);
+        assertEquals(-3, delta.getObjectiveValue(), 0);
+        assertEquals(2, delta.size());
+        assertEquals(-0.5, delta.get("x"), 0);
+        assertEquals(3, delta.get("y"), 0);
+        assertEquals(3, current.maxDifference(previous), 0);
+    }
+}
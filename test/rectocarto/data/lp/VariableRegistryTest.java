@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Sander Verdonschot <sander.verdonschot at gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package rectocarto.data.lp;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Sander Verdonschot <sander.verdonschot at gmail.com>
+ */
+public class VariableRegistryTest {
+
+    public VariableRegistryTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+    }
+
+    @Before
+    public void setUp() {
+    }
+
+    @After
+    public void tearDown() {
+    }
+
+    @Test
+    public void testRegister() {
+        System.out.println("register");
+
+        VariableRegistry instance = new VariableRegistry();
+        assertEquals(0, instance.register("x"));
+        assertEquals(1, instance.register("y"));
+        assertEquals(0, instance.register(new String("x")));
+        assertEquals(2, instance.register("z"));
+        assertEquals(3, instance.size());
+        assertEquals(Arrays.asList("x", "y", "z"), instance.getNames());
+    }
+
+    @Test
+    public void testGetId() {
+        System.out.println("getId");
+
+        VariableRegistry instance = new VariableRegistry(2);
+        instance.register("x");
+        instance.register("y");
+        assertEquals(1, instance.getId("y"));
+        assertEquals(-1, instance.getId("z"));
+        assertTrue(instance.contains("x"));
+        assertFalse(instance.contains("z"));
+        assertEquals(2, instance.size());
+    }
+
+    @Test
+    public void testGetName() {
+        System.out.println("getName");
+
+        VariableRegistry instance = new VariableRegistry();
+        String x = new String("x");
+        instance.register(x);
+        instance.register(new String("x"));
+        assertSame(x, instance.getName(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetNameUnregistered() {
+        System.out.println("getName - unregistered id");
+
+        VariableRegistry instance = new VariableRegistry();
+        instance.register("x");
+        instance.getName(1);
+    }
+
+    @Test
+    public void testGetIds() {
+        System.out.println("getIds");
+
+        VariableRegistry instance = new VariableRegistry();
+        instance.register("x");
+        instance.register("y");
+        instance.register("z");
+
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(2);
+        assertEquals(expected, instance.getIds(Arrays.asList("z", "x", "w")));
+    }
+
+    @Test
+    public void testCopy() {
+        System.out.println("copy");
+
+        VariableRegistry original = new VariableRegistry();
+        original.register("x");
+        original.register("y");
+
+        VariableRegistry copy = new VariableRegistry(original);
+        assertEquals(1, copy.getId("y"));
+        assertEquals(2, copy.register("z"));
+        assertEquals(2, original.register("w"));
+        assertFalse(original.contains("z"));
+        assertFalse(copy.contains("w"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testNamesUnmodifiable() {
+        System.out.println("getNames - unmodifiable");
+
+        VariableRegistry instance = new VariableRegistry();
+        instance.register("x");
+        instance.getNames().add("y");
+    }
+
+}